@@ -0,0 +1,29 @@
+package org.cdsframework.messageconverter.benchmark;
+
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.CommandLineOptionException;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Runs the benchmarks with the gc profiler turned on so every result also reports the bytes
+ * allocated per operation. Any of the usual jmh command line options can be passed, for example a
+ * regular expression to only run some of the benchmarks or -rf json -rff results.json to save the
+ * results so they can be compared with a later run.
+ *
+ * @author Brian Lamb
+ */
+public class BenchmarkRunner {
+    public static void main(String[] args) throws CommandLineOptionException, RunnerException {
+        CommandLineOptions commandLineOptions = new CommandLineOptions(args);
+
+        new Runner(
+            new OptionsBuilder()
+                .parent(commandLineOptions)
+                .addProfiler(GCProfiler.class)
+                .build()
+        ).run();
+    }
+}
@@ -0,0 +1,46 @@
+package org.cdsframework.messageconverter.benchmark;
+
+import java.util.concurrent.TimeUnit;
+
+import org.cdsframework.messageconverter.fhir.convert.utils.CodeSystemResolver;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures code system lookups for an exact URI, one that has to be normalized first and one that
+ * isn't known at all. Every coded field of every resource goes through the resolver.
+ *
+ * @author Brian Lamb
+ */
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class CodeSystemResolverBenchmark {
+    @Param({"http://hl7.org/fhir/sid/cvx", "http://hl7.org/fhir/sid/cvx/", "http://example.org/unknown"})
+    protected String system;
+
+    protected CodeSystemResolver codeSystemResolver = CodeSystemResolver.getInstance();
+
+    @Benchmark
+    public String resolveOid() {
+        return this.codeSystemResolver.resolveOid(this.system);
+    }
+
+    @Benchmark
+    @Threads(16)
+    public String resolveOidThreads16() {
+        return this.codeSystemResolver.resolveOid(this.system);
+    }
+}
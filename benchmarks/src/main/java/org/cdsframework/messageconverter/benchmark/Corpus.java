@@ -0,0 +1,117 @@
+package org.cdsframework.messageconverter.benchmark;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.text.ParseException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import org.cdsframework.cds.vmr.CdsObjectAssist;
+import org.cdsframework.messageconverter.Vmr2Fhir;
+import org.hl7.fhir.r4.model.HumanName;
+import org.hl7.fhir.r4.model.Immunization;
+import org.hl7.fhir.r4.model.Parameters;
+import org.hl7.fhir.r4.model.Patient;
+import org.opencds.vmr.v1_0.schema.CDSInput;
+import org.opencds.vmr.v1_0.schema.CDSOutput;
+
+/**
+ * Loads the ice test cases that every benchmark runs over. The directory defaults to the test
+ * resources of the converter module and can be changed with -Dcorpus.dir=...
+ *
+ * @author Brian Lamb
+ */
+public class Corpus {
+    public static final String DIRECTORY = System.getProperty("corpus.dir", "../src/test/resources/ice-test-cases");
+    public static final String PLACEHOLDER_GIVEN_NAME = "Test";
+    public static final String PLACEHOLDER_FAMILY_NAME = "Patient";
+
+    /**
+     * Read every file in a directory of the corpus, sorted by name so runs are repeatable.
+     *
+     * @param String name : inputs or outputs
+     * @return List<byte[]>
+     */
+    public static List<byte[]> read(String name) {
+        try (Stream<Path> paths = Files.list(Paths.get(DIRECTORY, name))) {
+            List<byte[]> files = new ArrayList<>();
+
+            for (Path path : paths.sorted().collect(Collectors.toList())) {
+                files.add(Files.readAllBytes(path));
+            }
+
+            if (files.isEmpty()) {
+                throw new IllegalStateException("No test cases found in " + Paths.get(DIRECTORY, name).toAbsolutePath());
+            }
+
+            return files;
+        } catch (IOException exception) {
+            throw new UncheckedIOException(exception);
+        }
+    }
+
+    /**
+     * @return List<CDSInput> every input test case
+     */
+    public static List<CDSInput> inputs() {
+        return read("inputs").stream()
+            .map(data -> CdsObjectAssist.cdsObjectFromByteArray(data, CDSInput.class))
+            .collect(Collectors.toList());
+    }
+
+    /**
+     * @return List<CDSOutput> every output test case
+     */
+    public static List<CDSOutput> outputs() {
+        return read("outputs").stream()
+            .map(data -> CdsObjectAssist.cdsObjectFromByteArray(data, CDSOutput.class))
+            .collect(Collectors.toList());
+    }
+
+    /**
+     * Turn every input test case into the Parameters resource a client would send to Fhir2Vmr.
+     * The vMR test cases don't carry a patient name but Fhir2Vmr requires a given name, so a
+     * patient without one is given a placeholder name.
+     *
+     * @param Vmr2Fhir vmr2Fhir : the converter used to build the patient and immunizations
+     * @return List<Parameters>
+     */
+    public static List<Parameters> parameters(Vmr2Fhir vmr2Fhir) {
+        List<Parameters> parameters = new ArrayList<>();
+
+        for (CDSInput input : inputs()) {
+            try {
+                Patient patient = vmr2Fhir.getPatient(input);
+
+                HumanName name = patient.getNameFirstRep();
+
+                if (!name.hasGiven()) {
+                    name.addGiven(PLACEHOLDER_GIVEN_NAME);
+                }
+
+                if (!name.hasFamily()) {
+                    name.setFamily(PLACEHOLDER_FAMILY_NAME);
+                }
+
+                Parameters resource = new Parameters();
+
+                resource.addParameter().setName("patient").setResource(patient);
+
+                for (Immunization immunization : vmr2Fhir.getImmunizations(input, patient)) {
+                    resource.addParameter().setName("immunization").setResource(immunization);
+                }
+
+                parameters.add(resource);
+            } catch (ParseException exception) {
+                throw new IllegalStateException("Unable to convert test case", exception);
+            }
+        }
+
+        return parameters;
+    }
+}
@@ -0,0 +1,27 @@
+package org.cdsframework.messageconverter.benchmark;
+
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Walks round robin through the corpus so each invocation of a benchmark converts the next test
+ * case. Every benchmark thread has its own position.
+ *
+ * @author Brian Lamb
+ */
+@State(Scope.Thread)
+public class Cursor {
+    protected int position;
+
+    /**
+     * @param int size : the number of test cases
+     * @return int the index of the next test case
+     */
+    public int next(int size) {
+        if (this.position >= size) {
+            this.position = 0;
+        }
+
+        return this.position++;
+    }
+}
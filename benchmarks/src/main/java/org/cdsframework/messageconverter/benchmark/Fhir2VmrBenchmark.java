@@ -0,0 +1,94 @@
+package org.cdsframework.messageconverter.benchmark;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.cdsframework.messageconverter.ConverterRegistry;
+import org.cdsframework.messageconverter.Fhir2Vmr;
+import org.cdsframework.messageconverter.fhir.convert.utils.FhirContextProvider;
+import org.hl7.fhir.r4.model.Parameters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.opencds.vmr.v1_0.schema.CDSInput;
+
+/**
+ * Measures converting FHIR Parameters payloads built from the ice test cases into CDSInput objects.
+ *
+ * @author Brian Lamb
+ */
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class Fhir2VmrBenchmark {
+    protected Fhir2Vmr fhir2Vmr;
+    protected List<String> json = new ArrayList<>();
+    protected List<byte[]> jsonBytes = new ArrayList<>();
+    protected List<ByteBuffer> jsonBuffers = new ArrayList<>();
+    protected List<String> xml = new ArrayList<>();
+
+    @Setup
+    public void setUp() {
+        ConverterRegistry registry = ConverterRegistry.getInstance();
+        FhirContextProvider fhirContextProvider = registry.getFhirContextProvider();
+
+        this.fhir2Vmr = registry.getFhir2Vmr();
+
+        for (Parameters parameters : Corpus.parameters(registry.getVmr2Fhir())) {
+            String encoded = fhirContextProvider.newJsonEncoder(false).encodeResourceToString(parameters);
+
+            this.json.add(encoded);
+            byte[] bytes = encoded.getBytes(StandardCharsets.UTF_8);
+            // a direct buffer, the way a body arrives from a non-blocking server
+            ByteBuffer buffer = ByteBuffer.allocateDirect(bytes.length);
+            buffer.put(bytes);
+            buffer.flip();
+
+            this.jsonBytes.add(bytes);
+            this.jsonBuffers.add(buffer);
+            this.xml.add(fhirContextProvider.getContext().newXmlParser().encodeResourceToString(parameters));
+        }
+    }
+
+    @Benchmark
+    public CDSInput getCdsInputFromJsonString(Cursor cursor) {
+        return this.fhir2Vmr.getCdsInputFromFhir(this.json.get(cursor.next(this.json.size())));
+    }
+
+    @Benchmark
+    public CDSInput getCdsInputFromJsonBytes(Cursor cursor) {
+        return this.fhir2Vmr.getCdsInputFromFhir(this.jsonBytes.get(cursor.next(this.jsonBytes.size())));
+    }
+
+    @Benchmark
+    public CDSInput getCdsInputFromJsonBuffer(Cursor cursor) {
+        return this.fhir2Vmr.getCdsInputFromFhir(this.jsonBuffers.get(cursor.next(this.jsonBuffers.size())));
+    }
+
+    @Benchmark
+    public CDSInput getCdsInputFromJsonStream(Cursor cursor) throws IOException {
+        byte[] data = this.jsonBytes.get(cursor.next(this.jsonBytes.size()));
+
+        return this.fhir2Vmr.getCdsInputFromFhir(new ByteArrayInputStream(data));
+    }
+
+    @Benchmark
+    public CDSInput getCdsInputFromXmlString(Cursor cursor) {
+        return this.fhir2Vmr.getCdsInputFromFhir(this.xml.get(cursor.next(this.xml.size())));
+    }
+}
@@ -0,0 +1,94 @@
+package org.cdsframework.messageconverter.benchmark;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.text.ParseException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.cdsframework.messageconverter.ConverterRegistry;
+import org.cdsframework.messageconverter.Vmr2Fhir;
+import org.cdsframework.messageconverter.fhir.convert.utils.FhirOutput;
+import org.hl7.fhir.r4.model.ImmunizationRecommendation;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import org.opencds.vmr.v1_0.schema.CDSOutput;
+
+/**
+ * Measures serializing the recommendations built from the ice test cases to json, both into a String
+ * and straight into a stream.
+ *
+ * @author Brian Lamb
+ */
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class FhirOutputBenchmark {
+    protected FhirOutput fhirOutput;
+    protected List<ImmunizationRecommendation> recommendations = new ArrayList<>();
+
+    @Setup
+    public void setUp() throws ParseException {
+        ConverterRegistry registry = ConverterRegistry.getInstance();
+        Vmr2Fhir vmr2Fhir = registry.getVmr2Fhir();
+
+        this.fhirOutput = registry.getFhirOutput();
+
+        for (CDSOutput output : Corpus.outputs()) {
+            this.recommendations.add(vmr2Fhir.getRecommendation(output));
+        }
+    }
+
+    @Benchmark
+    public String convertToString(Cursor cursor) {
+        return this.fhirOutput.convertToString(this.recommendations.get(cursor.next(this.recommendations.size())));
+    }
+
+    @Benchmark
+    public String convertToCompactString(Cursor cursor) {
+        return this.fhirOutput.convertToString(this.recommendations.get(cursor.next(this.recommendations.size())), false);
+    }
+
+    @Benchmark
+    public void writeCompactToStream(Cursor cursor, Blackhole blackhole) throws IOException {
+        OutputStream stream = new BlackholeOutputStream(blackhole);
+
+        this.fhirOutput.write(this.recommendations.get(cursor.next(this.recommendations.size())), stream, false);
+    }
+
+    /**
+     * Hands every byte to the blackhole so the encoding can't be optimized away without paying for
+     * a buffer that holds the whole document.
+     */
+    protected static class BlackholeOutputStream extends OutputStream {
+        protected Blackhole blackhole;
+
+        protected BlackholeOutputStream(Blackhole blackhole) {
+            this.blackhole = blackhole;
+        }
+
+        @Override
+        public void write(int b) {
+            this.blackhole.consume(b);
+        }
+
+        @Override
+        public void write(byte[] bytes, int offset, int length) {
+            this.blackhole.consume(bytes);
+            this.blackhole.consume(length);
+        }
+    }
+}
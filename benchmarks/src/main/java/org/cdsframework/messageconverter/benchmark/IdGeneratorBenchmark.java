@@ -0,0 +1,77 @@
+package org.cdsframework.messageconverter.benchmark;
+
+import java.util.concurrent.TimeUnit;
+
+import org.cdsframework.messageconverter.fhir.convert.utils.IdGenerator;
+import org.cdsframework.messageconverter.fhir.convert.utils.RandomIdGenerator;
+import org.cdsframework.messageconverter.fhir.convert.utils.SecureIdGenerator;
+import org.cdsframework.messageconverter.fhir.convert.utils.TimeOrderedIdGenerator;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures how each IdGenerator holds up as more threads create ids at the same time. Every
+ * converted resource asks for one id, so a generator that serializes threads caps the throughput
+ * of the whole conversion.
+ *
+ * @author Brian Lamb
+ */
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class IdGeneratorBenchmark {
+    @Param({"secure", "random", "time-ordered"})
+    protected String generator;
+
+    protected IdGenerator idGenerator;
+
+    @Setup
+    public void setUp() {
+        if ("secure".equals(this.generator)) {
+            this.idGenerator = SecureIdGenerator.getInstance();
+        } else if ("random".equals(this.generator)) {
+            this.idGenerator = RandomIdGenerator.getInstance();
+        } else if ("time-ordered".equals(this.generator)) {
+            this.idGenerator = TimeOrderedIdGenerator.getInstance();
+        } else {
+            throw new IllegalArgumentException("Unknown generator " + this.generator);
+        }
+    }
+
+    @Benchmark
+    @Threads(1)
+    public String threads01() {
+        return this.idGenerator.nextId();
+    }
+
+    @Benchmark
+    @Threads(4)
+    public String threads04() {
+        return this.idGenerator.nextId();
+    }
+
+    @Benchmark
+    @Threads(16)
+    public String threads16() {
+        return this.idGenerator.nextId();
+    }
+
+    @Benchmark
+    @Threads(64)
+    public String threads64() {
+        return this.idGenerator.nextId();
+    }
+}
@@ -0,0 +1,105 @@
+package org.cdsframework.messageconverter.benchmark;
+
+import java.text.ParseException;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.cdsframework.messageconverter.ConverterRegistry;
+import org.cdsframework.messageconverter.Vmr2Fhir;
+import org.hl7.fhir.r4.model.Immunization;
+import org.hl7.fhir.r4.model.ImmunizationEvaluation;
+import org.hl7.fhir.r4.model.ImmunizationRecommendation;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.opencds.vmr.v1_0.schema.CDSOutput;
+import org.opencds.vmr.v1_0.schema.EvaluatedPerson;
+import org.opencds.vmr.v1_0.schema.EvaluatedPerson.ClinicalStatements;
+import org.opencds.vmr.v1_0.schema.EvaluatedPerson.ClinicalStatements.SubstanceAdministrationEvents;
+import org.opencds.vmr.v1_0.schema.EvaluatedPerson.ClinicalStatements.SubstanceAdministrationProposals;
+import org.opencds.vmr.v1_0.schema.ObservationResult;
+import org.opencds.vmr.v1_0.schema.RelatedClinicalStatement;
+import org.opencds.vmr.v1_0.schema.SubstanceAdministrationEvent;
+import org.opencds.vmr.v1_0.schema.SubstanceAdministrationProposal;
+import org.opencds.vmr.v1_0.schema.VMR;
+
+/**
+ * Measures converting a CDSOutput where almost every optional field is missing. Real feeds often
+ * leave out dates, substances and observation values, so this is the case where the converters
+ * have to skip the most data.
+ *
+ * @author Brian Lamb
+ */
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class SparseRecordBenchmark {
+    @Param({"10", "100"})
+    protected int records;
+
+    protected Vmr2Fhir vmr2Fhir;
+    protected CDSOutput output;
+
+    @Setup
+    public void setUp() {
+        this.vmr2Fhir = ConverterRegistry.getInstance().getVmr2Fhir();
+
+        SubstanceAdministrationEvents events = new SubstanceAdministrationEvents();
+        SubstanceAdministrationProposals proposals = new SubstanceAdministrationProposals();
+
+        for (int i = 0; i < this.records; i++) {
+            // an administered dose holding an evaluated dose with an empty observation result
+            SubstanceAdministrationEvent evaluated = new SubstanceAdministrationEvent();
+            RelatedClinicalStatement evaluation = new RelatedClinicalStatement();
+            evaluation.setObservationResult(new ObservationResult());
+            evaluated.getRelatedClinicalStatement().add(evaluation);
+
+            SubstanceAdministrationEvent event = new SubstanceAdministrationEvent();
+            RelatedClinicalStatement related = new RelatedClinicalStatement();
+            related.setSubstanceAdministrationEvent(evaluated);
+            event.getRelatedClinicalStatement().add(related);
+
+            events.getSubstanceAdministrationEvent().add(event);
+            proposals.getSubstanceAdministrationProposal().add(new SubstanceAdministrationProposal());
+        }
+
+        ClinicalStatements clinicalStatements = new ClinicalStatements();
+        clinicalStatements.setSubstanceAdministrationEvents(events);
+        clinicalStatements.setSubstanceAdministrationProposals(proposals);
+
+        EvaluatedPerson patient = new EvaluatedPerson();
+        patient.setClinicalStatements(clinicalStatements);
+
+        VMR vmr = new VMR();
+        vmr.setPatient(patient);
+
+        this.output = new CDSOutput();
+        this.output.setVmrOutput(vmr);
+    }
+
+    @Benchmark
+    public List<ImmunizationEvaluation> getEvaluations() throws ParseException {
+        return this.vmr2Fhir.getEvaluations(this.output);
+    }
+
+    @Benchmark
+    public ImmunizationRecommendation getRecommendation() throws ParseException {
+        return this.vmr2Fhir.getRecommendation(this.output);
+    }
+
+    @Benchmark
+    public List<Immunization> getImmunizations() throws ParseException {
+        return this.vmr2Fhir.getImmunizations(this.output);
+    }
+}
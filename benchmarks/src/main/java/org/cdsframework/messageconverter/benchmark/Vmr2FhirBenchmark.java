@@ -0,0 +1,59 @@
+package org.cdsframework.messageconverter.benchmark;
+
+import java.text.ParseException;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.cdsframework.messageconverter.ConverterRegistry;
+import org.cdsframework.messageconverter.Vmr2Fhir;
+import org.hl7.fhir.r4.model.Immunization;
+import org.hl7.fhir.r4.model.ImmunizationEvaluation;
+import org.hl7.fhir.r4.model.ImmunizationRecommendation;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.opencds.vmr.v1_0.schema.CDSOutput;
+
+/**
+ * Measures converting the CDSOutput objects of the ice test cases into FHIR resources.
+ *
+ * @author Brian Lamb
+ */
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class Vmr2FhirBenchmark {
+    protected Vmr2Fhir vmr2Fhir;
+    protected List<CDSOutput> outputs;
+
+    @Setup
+    public void setUp() {
+        this.vmr2Fhir = ConverterRegistry.getInstance().getVmr2Fhir();
+        this.outputs = Corpus.outputs();
+    }
+
+    @Benchmark
+    public List<ImmunizationEvaluation> getEvaluations(Cursor cursor) throws ParseException {
+        return this.vmr2Fhir.getEvaluations(this.outputs.get(cursor.next(this.outputs.size())));
+    }
+
+    @Benchmark
+    public ImmunizationRecommendation getRecommendation(Cursor cursor) throws ParseException {
+        return this.vmr2Fhir.getRecommendation(this.outputs.get(cursor.next(this.outputs.size())));
+    }
+
+    @Benchmark
+    public List<Immunization> getImmunizations(Cursor cursor) throws ParseException {
+        return this.vmr2Fhir.getImmunizations(this.outputs.get(cursor.next(this.outputs.size())));
+    }
+}
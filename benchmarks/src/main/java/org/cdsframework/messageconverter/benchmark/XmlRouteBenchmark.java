@@ -0,0 +1,62 @@
+package org.cdsframework.messageconverter.benchmark;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.cdsframework.messageconverter.ConverterRegistry;
+import org.cdsframework.messageconverter.fhir.convert.utils.FhirContextProvider;
+import org.hl7.fhir.r4.model.Parameters;
+import org.json.JSONObject;
+import org.json.XML;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Compares the two ways an xml payload has been read. The old route turned the xml into a
+ * JSONObject with XML.toJSONObject, the current one parses it straight into a Parameters resource
+ * with the HAPI xml parser. The JSONObject produced by the old route never reached the converters,
+ * so only the parsing step of each route is compared here.
+ *
+ * @author Brian Lamb
+ */
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class XmlRouteBenchmark {
+    protected FhirContextProvider fhirContextProvider;
+    protected List<String> xml = new ArrayList<>();
+
+    @Setup
+    public void setUp() {
+        ConverterRegistry registry = ConverterRegistry.getInstance();
+
+        this.fhirContextProvider = registry.getFhirContextProvider();
+
+        for (Parameters parameters : Corpus.parameters(registry.getVmr2Fhir())) {
+            this.xml.add(this.fhirContextProvider.getContext().newXmlParser().encodeResourceToString(parameters));
+        }
+    }
+
+    @Benchmark
+    public Parameters nativeXmlParser(Cursor cursor) {
+        String data = this.xml.get(cursor.next(this.xml.size()));
+        return this.fhirContextProvider.newXmlParser().parseResource(Parameters.class, data);
+    }
+
+    @Benchmark
+    public JSONObject xmlToJsonObject(Cursor cursor) {
+        return XML.toJSONObject(this.xml.get(cursor.next(this.xml.size())));
+    }
+}
@@ -0,0 +1,77 @@
+package org.cdsframework.messageconverter.benchmark;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+
+import java.io.IOException;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.opencds.vmr.v1_0.schema.CDSInput;
+
+/**
+ * Runs every benchmark once over the whole corpus, so a benchmark that only measures how fast an
+ * exception is thrown fails here instead of producing numbers.
+ *
+ * @author Brian Lamb
+ */
+public class Fhir2VmrBenchmarkTest {
+    protected Fhir2VmrBenchmark benchmark = new Fhir2VmrBenchmark();
+    protected Cursor cursor = new Cursor();
+
+    @Before
+    public void setUp() {
+        this.benchmark.setUp();
+    }
+
+    @Test
+    public void corpusIsNotEmpty() {
+        assertFalse(this.benchmark.json.isEmpty());
+    }
+
+    @Test
+    public void getCdsInputFromJsonStringConverts() {
+        for (int i = 0; i < this.benchmark.json.size(); i++) {
+            this.assertConverted(this.benchmark.getCdsInputFromJsonString(this.cursor));
+        }
+    }
+
+    @Test
+    public void getCdsInputFromJsonBytesConverts() {
+        for (int i = 0; i < this.benchmark.jsonBytes.size(); i++) {
+            this.assertConverted(this.benchmark.getCdsInputFromJsonBytes(this.cursor));
+        }
+    }
+
+    @Test
+    public void getCdsInputFromJsonBufferConverts() {
+        for (int i = 0; i < this.benchmark.jsonBuffers.size(); i++) {
+            this.assertConverted(this.benchmark.getCdsInputFromJsonBuffer(this.cursor));
+        }
+    }
+
+    @Test
+    public void getCdsInputFromJsonStreamConverts() throws IOException {
+        for (int i = 0; i < this.benchmark.jsonBytes.size(); i++) {
+            this.assertConverted(this.benchmark.getCdsInputFromJsonStream(this.cursor));
+        }
+    }
+
+    @Test
+    public void getCdsInputFromXmlStringConverts() {
+        for (int i = 0; i < this.benchmark.xml.size(); i++) {
+            this.assertConverted(this.benchmark.getCdsInputFromXmlString(this.cursor));
+        }
+    }
+
+    /**
+     * Check that a benchmark produced a CDSInput with a patient in it.
+     *
+     * @param CDSInput input : what the benchmark returned
+     */
+    protected void assertConverted(CDSInput input) {
+        assertNotNull(input);
+        assertNotNull(input.getVmrInput());
+        assertNotNull(input.getVmrInput().getPatient());
+    }
+}
@@ -0,0 +1,28 @@
+#!/bin/sh
+# Starts the conversion server, drives it with the ice test cases and stops it again.
+#
+#   ./loadtest.sh [threads] [seconds]
+#
+# Build the module first with mvn package. Set PORT to use another port, SERVER_OPTS to pass
+# options such as -Dconverter.maxInFlight=8 to the server and CORPUS_DIR to use other test cases.
+set -e
+
+cd "$(dirname "$0")"
+
+JAR=target/conversion-server.jar
+PORT=${PORT:-8080}
+THREADS=${1:-8}
+DURATION=${2:-30}
+CORPUS_DIR=${CORPUS_DIR:-../src/test/resources/ice-test-cases}
+
+if [ ! -f "$JAR" ]; then
+    echo "$JAR not found, run mvn package first" >&2
+    exit 1
+fi
+
+java $SERVER_OPTS -Dconverter.port="$PORT" -jar "$JAR" &
+SERVER=$!
+trap 'kill $SERVER 2>/dev/null' EXIT INT TERM
+
+java -Dcorpus.dir="$CORPUS_DIR" -cp "$JAR" org.cdsframework.messageconverter.server.LoadTest \
+    "http://localhost:$PORT" "$THREADS" "$DURATION"
@@ -0,0 +1,347 @@
+package org.cdsframework.messageconverter.server;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UnsupportedEncodingException;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+import org.cdsframework.messageconverter.metrics.MetricsRegistry;
+import org.cdsframework.messageconverter.metrics.Timer;
+import org.cdsframework.util.LogUtils;
+import org.json.JSONException;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+
+import ca.uhn.fhir.parser.DataFormatException;
+
+/**
+ * Handles a single $convert endpoint. The request body is read into a single array no larger than
+ * the size limit and handed to a conversion, and the response is always sent with its length so the
+ * connection can be kept alive for the next request. Only as many requests as there are shared
+ * in-flight slots convert at once. A request that can't get a slot within maxWaitMillis is turned
+ * away with a 503, so a busy server sheds load instead of letting it pile up.
+ *
+ * @author Brian Lamb
+ */
+public class ConversionHandler implements HttpHandler {
+    private static final LogUtils logger = LogUtils.getLogger(ConversionHandler.class);
+
+    public static final String REQUEST = "messageconverter.http.request";
+    public static final String TEXT = "text/plain; charset=utf-8";
+
+    // every status handle can answer with
+    protected static final int[] STATUSES = {200, 400, 405, 413, 500, 503};
+
+    protected String path;
+    protected Conversion conversion;
+    protected Semaphore permits;
+    protected long maxWaitMillis;
+    protected int maxBodyBytes;
+    protected MetricsRegistry metricsRegistry;
+    protected Map<Integer, Timer> timers = new HashMap<>();
+
+    /**
+     * Converts the body of a request. The query is passed as sent, still url encoded, read it with
+     * getParameter.
+     */
+    @FunctionalInterface
+    public interface Conversion {
+        Response convert(byte[] body, String query) throws Exception;
+    }
+
+    /**
+     * The body of a successful conversion.
+     */
+    public static class Response {
+        protected final String contentType;
+        protected final byte[] body;
+
+        /**
+         * @param String contentType : the media type of body
+         * @param byte[] body : the converted payload
+         */
+        public Response(String contentType, byte[] body) {
+            this.contentType = contentType;
+            this.body = body;
+        }
+    }
+
+    /**
+     * Thrown when a request body is larger than the size limit.
+     */
+    protected static class PayloadTooLargeException extends IOException {
+        private static final long serialVersionUID = 1L;
+
+        protected PayloadTooLargeException(String message) {
+            super(message);
+        }
+    }
+
+    /**
+     * @param String path : the path the handler is bound to, used to tag its metrics
+     * @param Conversion conversion : converts the request body
+     * @param Semaphore permits : the in-flight slots shared by every endpoint
+     * @param long maxWaitMillis : how long a request waits for a slot before it gets a 503
+     * @param int maxBodyBytes : the largest request body accepted
+     * @param MetricsRegistry metricsRegistry : receives the time and status of every request
+     */
+    public ConversionHandler(
+        String path,
+        Conversion conversion,
+        Semaphore permits,
+        long maxWaitMillis,
+        int maxBodyBytes,
+        MetricsRegistry metricsRegistry
+    ) {
+        this.path = path;
+        this.conversion = conversion;
+        this.permits = permits;
+        this.maxWaitMillis = maxWaitMillis;
+        this.maxBodyBytes = maxBodyBytes;
+        this.metricsRegistry = metricsRegistry;
+
+        for (int status : STATUSES) {
+            this.timers.put(status, metricsRegistry.timer(REQUEST, "path", path, "status", Integer.toString(status)));
+        }
+    }
+
+    @Override
+    public void handle(HttpExchange exchange) throws IOException {
+        final String METHODNAME = "handle ";
+        long start = System.nanoTime();
+        int status;
+
+        try {
+            if (!"POST".equals(exchange.getRequestMethod())) {
+                exchange.getResponseHeaders().set("Allow", "POST");
+                status = send(exchange, 405, TEXT, "Only POST is supported\n");
+            } else {
+                // the body is read before taking a slot, the slots only count conversions
+                byte[] body = this.readBody(exchange);
+
+                if (!this.acquire()) {
+                    exchange.getResponseHeaders().set("Retry-After", "1");
+                    status = send(exchange, 503, TEXT, "Too many conversions in flight\n");
+                } else {
+                    try {
+                        Response response = this.conversion.convert(body, exchange.getRequestURI().getRawQuery());
+
+                        status = send(exchange, 200, response.contentType, response.body);
+                    } finally {
+                        this.permits.release();
+                    }
+                }
+            }
+        } catch (PayloadTooLargeException exception) {
+            status = send(exchange, 413, TEXT, exception.getMessage() + "\n");
+        } catch (IllegalArgumentException | DataFormatException | JSONException exception) {
+            status = send(exchange, 400, TEXT, exception.getMessage() + "\n");
+        } catch (Exception exception) {
+            logger.error(METHODNAME, this.path, " failed: ", exception.getMessage());
+            status = send(exchange, 500, TEXT, "Conversion failed\n");
+        } finally {
+            exchange.close();
+        }
+
+        this.timer(status).record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * Get the timer of the requests answered with a status. The timers are looked up once when the
+     * handler is built.
+     *
+     * @param int status : the http status
+     * @return Timer
+     */
+    protected Timer timer(int status) {
+        Timer timer = this.timers.get(status);
+
+        if (timer == null) {
+            return this.metricsRegistry.timer(REQUEST, "path", this.path, "status", Integer.toString(status));
+        }
+
+        return timer;
+    }
+
+    /**
+     * Take an in-flight slot, waiting up to maxWaitMillis for one to free up.
+     *
+     * @return boolean true if there was room
+     */
+    protected boolean acquire() {
+        try {
+            return this.permits.tryAcquire(this.maxWaitMillis, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException exception) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+    }
+
+    /**
+     * Read the whole request body. When the client sends a length the body is read straight into an
+     * array of that size and reading stops once it is full. Otherwise the array grows as the body
+     * comes in, and only once a byte past its end has actually arrived.
+     *
+     * @param HttpExchange exchange : the request
+     * @return byte[] exactly the body
+     * @throws PayloadTooLargeException if the body is larger than maxBodyBytes
+     * @throws IllegalArgumentException if the Content-Length isn't a length
+     * @throws IOException if the body can't be read
+     */
+    protected byte[] readBody(HttpExchange exchange) throws IOException {
+        String contentLength = exchange.getRequestHeaders().getFirst("Content-Length");
+
+        try (InputStream stream = exchange.getRequestBody()) {
+            if (contentLength == null) {
+                return this.readBody(stream);
+            }
+
+            long size;
+
+            try {
+                size = Long.parseLong(contentLength.trim());
+            } catch (NumberFormatException exception) {
+                throw new IllegalArgumentException("Invalid Content-Length " + contentLength);
+            }
+
+            if (size < 0) {
+                throw new IllegalArgumentException("Invalid Content-Length " + contentLength);
+            }
+
+            if (size > this.maxBodyBytes) {
+                throw new PayloadTooLargeException("Request bodies are limited to " + this.maxBodyBytes + " bytes");
+            }
+
+            byte[] body = new byte[(int) size];
+            int length = 0;
+            int read;
+
+            while (length < body.length && (read = stream.read(body, length, body.length - length)) != -1) {
+                length += read;
+            }
+
+            if (length == body.length) {
+                return body;
+            }
+
+            return Arrays.copyOf(body, length);
+        }
+    }
+
+    /**
+     * Read a body whose length isn't known up front.
+     *
+     * @param InputStream stream : the request body
+     * @return byte[] exactly the body
+     * @throws PayloadTooLargeException if the body is larger than maxBodyBytes
+     * @throws IOException if the body can't be read
+     */
+    protected byte[] readBody(InputStream stream) throws IOException {
+        byte[] body = new byte[Math.min(8192, this.maxBodyBytes)];
+        int length = 0;
+        int read;
+
+        while (true) {
+            if (length == body.length) {
+                // only grow once there is more to read
+                int next = stream.read();
+
+                if (next == -1) {
+                    return body;
+                }
+
+                if (length >= this.maxBodyBytes) {
+                    throw new PayloadTooLargeException("Request bodies are limited to " + this.maxBodyBytes + " bytes");
+                }
+
+                body = Arrays.copyOf(body, (int) Math.min((long) body.length * 2, this.maxBodyBytes));
+                body[length++] = (byte) next;
+                continue;
+            }
+
+            read = stream.read(body, length, body.length - length);
+
+            if (read == -1) {
+                return Arrays.copyOf(body, length);
+            }
+
+            length += read;
+        }
+    }
+
+    /**
+     * Find a parameter in a query string.
+     *
+     * @param String query : the url encoded query, may be null
+     * @param String name : the name of the parameter
+     * @return String the decoded value of the first parameter with that name, null if there is none
+     */
+    public static String getParameter(String query, String name) {
+        if (query == null) {
+            return null;
+        }
+
+        try {
+            for (String parameter : query.split("&")) {
+                int equals = parameter.indexOf('=');
+                String key = parameter;
+                String value = "";
+
+                if (equals >= 0) {
+                    key = parameter.substring(0, equals);
+                    value = parameter.substring(equals + 1);
+                }
+
+                if (name.equals(URLDecoder.decode(key, "UTF-8"))) {
+                    return URLDecoder.decode(value, "UTF-8");
+                }
+            }
+        } catch (UnsupportedEncodingException exception) {
+            throw new IllegalStateException(exception);
+        }
+
+        return null;
+    }
+
+    /**
+     * Send a whole response with its length set, which keeps the connection open.
+     *
+     * @param HttpExchange exchange : the request being answered
+     * @param int status : the http status
+     * @param String contentType : the media type of body
+     * @param byte[] body : the response body
+     * @return int the status sent
+     * @throws IOException if the response can't be written
+     */
+    protected static int send(HttpExchange exchange, int status, String contentType, byte[] body) throws IOException {
+        exchange.getResponseHeaders().set("Content-Type", contentType);
+
+        // a length of 0 would make the server fall back to chunked encoding, -1 means no body
+        if (body.length == 0) {
+            exchange.sendResponseHeaders(status, -1);
+        } else {
+            exchange.sendResponseHeaders(status, body.length);
+        }
+
+        try (OutputStream stream = exchange.getResponseBody()) {
+            stream.write(body);
+        }
+
+        return status;
+    }
+
+    /**
+     * @see send(HttpExchange, int, String, byte[])
+     */
+    protected static int send(HttpExchange exchange, int status, String contentType, String body) throws IOException {
+        return send(exchange, status, contentType, body.getBytes(StandardCharsets.UTF_8));
+    }
+}
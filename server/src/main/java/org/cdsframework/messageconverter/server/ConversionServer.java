@@ -0,0 +1,288 @@
+package org.cdsframework.messageconverter.server;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+import org.cdsframework.cds.vmr.CdsObjectAssist;
+import org.cdsframework.messageconverter.ConverterRegistry;
+import org.cdsframework.messageconverter.fhir.convert.utils.FhirContextProvider;
+import org.cdsframework.messageconverter.fhir.convert.utils.FhirOutput;
+import org.cdsframework.messageconverter.fhir.convert.utils.RandomIdGenerator;
+import org.cdsframework.messageconverter.metrics.SimpleMetricsRegistry;
+import org.cdsframework.messageconverter.metrics.SimpleMetricsRegistry.SimpleCounter;
+import org.cdsframework.messageconverter.metrics.SimpleMetricsRegistry.SimpleTimer;
+import org.cdsframework.messageconverter.server.ConversionHandler.Response;
+import org.cdsframework.util.LogUtils;
+import org.hl7.fhir.instance.model.api.IBaseResource;
+import org.opencds.vmr.v1_0.schema.CDSInput;
+import org.opencds.vmr.v1_0.schema.CDSOutput;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * A small HTTP server exposing the converters, meant to run next to a service as a sidecar. Every
+ * request shares one converter registry that is built and warmed up before the server starts
+ * listening, so the first request doesn't pay for loading the FHIR model.
+ *
+ * POST /$convert/fhir-to-vmr takes a json or xml FHIR Parameters resource and answers with the
+ * CDSInput xml. POST /$convert/vmr-to-fhir takes CDSOutput xml and answers with a json Parameters
+ * resource, or a Bundle when called with ?output=bundle. GET /health answers ok once the server is up
+ * and GET /metrics lists the time spent in each stage of the conversions so far.
+ *
+ * Conversions are CPU bound, so only converter.maxInFlight of them run at once, by default one per
+ * processor. The handler threads outnumber them so that reading bodies, writing responses and turning
+ * requests away never waits behind a conversion. A request that doesn't get a slot within
+ * converter.maxWaitMillis gets a 503 with Retry-After. The other settings are converter.port,
+ * converter.threads and converter.maxBodyBytes. Connections are kept alive between requests, how long
+ * an idle one stays open is set by the JDK property sun.net.httpserver.idleInterval.
+ *
+ * @author Brian Lamb
+ */
+public class ConversionServer implements AutoCloseable {
+    private static final LogUtils logger = LogUtils.getLogger(ConversionServer.class);
+
+    public static final String FHIR_TO_VMR = "/$convert/fhir-to-vmr";
+    public static final String VMR_TO_FHIR = "/$convert/vmr-to-fhir";
+    public static final String HEALTH = "/health";
+    public static final String METRICS = "/metrics";
+    public static final int DEFAULT_PORT = 8080;
+    public static final int DEFAULT_MAX_IN_FLIGHT = Runtime.getRuntime().availableProcessors();
+    public static final int DEFAULT_THREADS = DEFAULT_MAX_IN_FLIGHT * 4;
+    public static final long DEFAULT_MAX_WAIT_MILLIS = 1000;
+    public static final int DEFAULT_MAX_BODY_BYTES = 4 * 1024 * 1024;
+
+    // a Parameters resource holding a patient and an immunization, from the converter's test cases
+    protected static final String WARM_UP_RESOURCE = "warm-up.json";
+
+    protected HttpServer server;
+    protected ExecutorService executor;
+    protected ConverterRegistry registry;
+    protected SimpleMetricsRegistry metricsRegistry;
+    protected FhirOutput fhirOutput;
+
+    /**
+     * Build the converters and bind the server, it doesn't accept requests until start is called.
+     *
+     * @param InetSocketAddress address : where to listen, port 0 picks a free port
+     * @param int threads : how many requests are handled at once
+     * @param int maxInFlight : how many requests may be converting at once
+     * @param long maxWaitMillis : how long a request waits to start converting before it gets a 503
+     * @param int maxBodyBytes : the largest request body accepted
+     * @throws IOException if the address can't be bound
+     */
+    public ConversionServer(InetSocketAddress address, int threads, int maxInFlight, long maxWaitMillis, int maxBodyBytes) throws IOException {
+        this.metricsRegistry = new SimpleMetricsRegistry();
+        this.registry = new ConverterRegistry(
+            FhirContextProvider.getInstance(),
+            RandomIdGenerator.getInstance(),
+            this.metricsRegistry
+        );
+        this.fhirOutput = new FhirOutput(this.registry.getFhirContextProvider());
+        this.warmUp();
+
+        Semaphore permits = new Semaphore(maxInFlight);
+
+        this.executor = Executors.newFixedThreadPool(threads);
+        this.server = HttpServer.create(address, 0);
+        this.server.setExecutor(this.executor);
+        this.server.createContext(
+            FHIR_TO_VMR,
+            new ConversionHandler(FHIR_TO_VMR, this::convertFhirToVmr, permits, maxWaitMillis, maxBodyBytes, this.metricsRegistry)
+        );
+        this.server.createContext(
+            VMR_TO_FHIR,
+            new ConversionHandler(VMR_TO_FHIR, this::convertVmrToFhir, permits, maxWaitMillis, maxBodyBytes, this.metricsRegistry)
+        );
+        this.server.createContext(HEALTH, exchange -> this.sendText(exchange, "ok\n"));
+        this.server.createContext(METRICS, exchange -> this.sendText(exchange, this.getMetrics()));
+    }
+
+    /**
+     * Start a server configured by system properties and stop it when the JVM exits.
+     *
+     * @param String[] args : not used
+     * @throws IOException if the port can't be bound
+     */
+    public static void main(String[] args) throws IOException {
+        final String METHODNAME = "main ";
+        int port = Integer.getInteger("converter.port", DEFAULT_PORT);
+        int threads = Integer.getInteger("converter.threads", DEFAULT_THREADS);
+        int maxInFlight = Integer.getInteger("converter.maxInFlight", DEFAULT_MAX_IN_FLIGHT);
+        long maxWaitMillis = Long.getLong("converter.maxWaitMillis", DEFAULT_MAX_WAIT_MILLIS);
+        int maxBodyBytes = Integer.getInteger("converter.maxBodyBytes", DEFAULT_MAX_BODY_BYTES);
+
+        ConversionServer server = new ConversionServer(
+            new InetSocketAddress(port),
+            threads,
+            maxInFlight,
+            maxWaitMillis,
+            maxBodyBytes
+        );
+
+        Runtime.getRuntime().addShutdownHook(new Thread(server::close));
+        server.start();
+
+        logger.info(METHODNAME, "listening on port ", server.getPort(), " converting ", maxInFlight, " requests at once");
+    }
+
+    /**
+     * Start accepting requests.
+     */
+    public void start() {
+        this.server.start();
+    }
+
+    /**
+     * Stop accepting requests, give the ones being handled a second to finish and stop the threads.
+     */
+    @Override
+    public void close() {
+        this.server.stop(1);
+        this.executor.shutdown();
+    }
+
+    /**
+     * Get the port the server is listening on
+     *
+     * @return the port the server is listening on
+     */
+    public int getPort() {
+        return this.server.getAddress().getPort();
+    }
+
+    /**
+     * Get the value of registry
+     *
+     * @return the value of registry
+     */
+    public ConverterRegistry getRegistry() {
+        return this.registry;
+    }
+
+    /**
+     * Run the bundled warm-up case through both conversions before the first request needs them. This
+     * loads the FHIR Patient and Immunization definitions, the parsers and encoders, and the JAXB
+     * contexts of CDSInput and CDSOutput. The warm-up shows up in the conversion metrics but not in
+     * the request metrics. If it fails the server starts anyway and the first request pays instead.
+     */
+    protected void warmUp() {
+        final String METHODNAME = "warmUp ";
+        long start = System.nanoTime();
+
+        try (InputStream stream = ConversionServer.class.getResourceAsStream(WARM_UP_RESOURCE)) {
+            if (stream == null) {
+                throw new IllegalStateException("Warm-up case " + WARM_UP_RESOURCE + " is missing");
+            }
+
+            ByteArrayOutputStream body = new ByteArrayOutputStream();
+            byte[] buffer = new byte[8192];
+            int read;
+
+            while ((read = stream.read(buffer)) != -1) {
+                body.write(buffer, 0, read);
+            }
+
+            // convert the CDSInput back as if the engine had answered with the same record
+            Response input = this.convertFhirToVmr(body.toByteArray(), null);
+            CDSOutput output = new CDSOutput();
+            output.setVmrOutput(CdsObjectAssist.cdsObjectFromByteArray(input.body, CDSInput.class).getVmrInput());
+
+            this.convertVmrToFhir(CdsObjectAssist.cdsObjectToByteArray(output, CDSOutput.class), null);
+
+            logger.info(METHODNAME, "warmed up in ", TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start), " ms");
+        } catch (Exception exception) {
+            logger.warn(METHODNAME, "warm-up failed: ", exception.getMessage());
+        }
+    }
+
+    /**
+     * @param byte[] body : a json or xml FHIR Parameters resource
+     * @param String query : not used
+     * @return Response holding the CDSInput xml
+     */
+    protected Response convertFhirToVmr(byte[] body, String query) {
+        CDSInput input = this.registry.getFhir2Vmr().getCdsInputFromFhir(ByteBuffer.wrap(body));
+
+        return new Response("application/xml; charset=utf-8", CdsObjectAssist.cdsObjectToByteArray(input, CDSInput.class));
+    }
+
+    /**
+     * @param byte[] body : CDSOutput xml
+     * @param String query : output=bundle to answer with a Bundle instead of Parameters
+     * @return Response holding the json FHIR resource
+     * @throws IOException if the resource can't be encoded
+     */
+    protected Response convertVmrToFhir(byte[] body, String query) throws IOException {
+        CDSOutput output = CdsObjectAssist.cdsObjectFromByteArray(body, CDSOutput.class);
+
+        if (output == null) {
+            throw new IllegalArgumentException("Request body is not a CDSOutput");
+        }
+
+        IBaseResource resource;
+
+        if ("bundle".equals(ConversionHandler.getParameter(query, "output"))) {
+            resource = this.registry.getVmr2Fhir().getBundle(output);
+        } else {
+            resource = this.registry.getVmr2Fhir().getParameters(output);
+        }
+
+        ByteArrayOutputStream stream = new ByteArrayOutputStream();
+        this.fhirOutput.write(resource, stream, false);
+
+        return new Response("application/fhir+json; charset=utf-8", stream.toByteArray());
+    }
+
+    /**
+     * List every timer and counter, one per line.
+     *
+     * @return String
+     */
+    protected String getMetrics() {
+        StringBuilder metrics = new StringBuilder();
+
+        for (Map.Entry<String, SimpleTimer> timer : this.metricsRegistry.getTimers().entrySet()) {
+            metrics.append(timer.getKey())
+                .append(" count=").append(timer.getValue().getCount())
+                .append(" total_ms=").append(timer.getValue().getTotalTime(TimeUnit.MILLISECONDS))
+                .append(" max_ms=").append(timer.getValue().getMax(TimeUnit.MILLISECONDS))
+                .append('\n');
+        }
+
+        for (Map.Entry<String, SimpleCounter> counter : this.metricsRegistry.getCounters().entrySet()) {
+            metrics.append(counter.getKey()).append(" count=").append(counter.getValue().getCount()).append('\n');
+        }
+
+        return metrics.toString();
+    }
+
+    /**
+     * Answer a GET request with plain text.
+     *
+     * @param HttpExchange exchange : the request
+     * @param String text : the response body
+     * @throws IOException if the response can't be written
+     */
+    protected void sendText(HttpExchange exchange, String text) throws IOException {
+        try {
+            if ("GET".equals(exchange.getRequestMethod())) {
+                ConversionHandler.send(exchange, 200, ConversionHandler.TEXT, text.getBytes(StandardCharsets.UTF_8));
+            } else {
+                exchange.getResponseHeaders().set("Allow", "GET");
+                ConversionHandler.send(exchange, 405, ConversionHandler.TEXT, "Only GET is supported\n");
+            }
+        } finally {
+            exchange.close();
+        }
+    }
+}
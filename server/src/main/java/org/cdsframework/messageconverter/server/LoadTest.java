@@ -0,0 +1,400 @@
+package org.cdsframework.messageconverter.server;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.text.ParseException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import org.cdsframework.cds.vmr.CdsObjectAssist;
+import org.cdsframework.messageconverter.ConverterRegistry;
+import org.cdsframework.messageconverter.Vmr2Fhir;
+import org.cdsframework.messageconverter.fhir.convert.utils.FhirOutput;
+import org.hl7.fhir.r4.model.HumanName;
+import org.hl7.fhir.r4.model.Immunization;
+import org.hl7.fhir.r4.model.Parameters;
+import org.hl7.fhir.r4.model.Patient;
+import org.opencds.vmr.v1_0.schema.CDSInput;
+
+/**
+ * Drives a running conversion server with the ice test cases and prints the throughput and latency
+ * it saw. Every input test case is turned into the Parameters a client would send to
+ * /$convert/fhir-to-vmr and every output test case is sent as is to /$convert/vmr-to-fhir. Each
+ * thread keeps its connection alive and alternates between the two endpoints until the time is up.
+ * The metrics of the server are printed after the summary.
+ *
+ * Usage: LoadTest [url] [threads] [seconds]. The test cases are read from the directory named by
+ * -Dcorpus.dir, by default the test resources of the converter module.
+ *
+ * @author Brian Lamb
+ */
+public class LoadTest {
+    public static final String DIRECTORY = System.getProperty("corpus.dir", "../src/test/resources/ice-test-cases");
+    public static final String PLACEHOLDER_GIVEN_NAME = "Test";
+    public static final String PLACEHOLDER_FAMILY_NAME = "Patient";
+
+    protected String url;
+    protected List<byte[]> parameters = new ArrayList<>();
+    protected List<byte[]> outputs = new ArrayList<>();
+
+    /**
+     * The requests sent by a single thread.
+     */
+    protected static class Result {
+        protected long[] latencies = new long[1024];
+        protected int count;
+        protected long bytes;
+        protected Map<Integer, Integer> statuses = new TreeMap<>();
+
+        protected void add(long latency, int status, long length) {
+            if (this.count == this.latencies.length) {
+                this.latencies = Arrays.copyOf(this.latencies, this.count * 2);
+            }
+
+            this.latencies[this.count++] = latency;
+            this.bytes += length;
+            this.statuses.merge(status, 1, Integer::sum);
+        }
+    }
+
+    /**
+     * @param String url : where the server is, for example http://localhost:8080
+     */
+    public LoadTest(String url) {
+        this.url = url;
+
+        Vmr2Fhir vmr2Fhir = ConverterRegistry.getInstance().getVmr2Fhir();
+        FhirOutput fhirOutput = new FhirOutput();
+
+        for (byte[] data : read("inputs")) {
+            try {
+                CDSInput input = CdsObjectAssist.cdsObjectFromByteArray(data, CDSInput.class);
+                Patient patient = vmr2Fhir.getPatient(input);
+                HumanName name = patient.getNameFirstRep();
+
+                // the test cases have no names but fhir-to-vmr needs a given name
+                if (!name.hasGiven()) {
+                    name.addGiven(PLACEHOLDER_GIVEN_NAME);
+                }
+
+                if (!name.hasFamily()) {
+                    name.setFamily(PLACEHOLDER_FAMILY_NAME);
+                }
+
+                Parameters resource = new Parameters();
+
+                resource.addParameter().setName("patient").setResource(patient);
+
+                for (Immunization immunization : vmr2Fhir.getImmunizations(input, patient)) {
+                    resource.addParameter().setName("immunization").setResource(immunization);
+                }
+
+                this.parameters.add(fhirOutput.convertToString(resource, false).getBytes(StandardCharsets.UTF_8));
+            } catch (ParseException exception) {
+                throw new IllegalStateException("Unable to convert test case", exception);
+            }
+        }
+
+        this.outputs.addAll(read("outputs"));
+    }
+
+    public static void main(String[] args) throws IOException, InterruptedException, ExecutionException {
+        String url = "http://localhost:" + ConversionServer.DEFAULT_PORT;
+        int threads = Runtime.getRuntime().availableProcessors();
+        int seconds = 30;
+
+        if (args.length > 0) {
+            url = args[0];
+        }
+
+        if (args.length > 1) {
+            threads = Integer.parseInt(args[1]);
+        }
+
+        if (args.length > 2) {
+            seconds = Integer.parseInt(args[2]);
+        }
+
+        // the connection pool keeps at most this many idle connections per host
+        System.setProperty("http.maxConnections", Integer.toString(threads));
+
+        LoadTest loadTest = new LoadTest(url);
+
+        loadTest.awaitServer(TimeUnit.SECONDS.toMillis(30));
+        // a short run first so the server is warm before anything is measured
+        loadTest.run(threads, TimeUnit.SECONDS.toNanos(Math.min(5, seconds)));
+
+        long start = System.nanoTime();
+        List<Result> results = loadTest.run(threads, TimeUnit.SECONDS.toNanos(seconds));
+
+        System.out.print(summarize(results, System.nanoTime() - start));
+        System.out.println();
+        System.out.print(loadTest.get(ConversionServer.METRICS));
+    }
+
+    /**
+     * @param String path : the path to read
+     * @return String the body the server answered with
+     * @throws IOException if the server can't be reached
+     */
+    protected String get(String path) throws IOException {
+        HttpURLConnection connection = (HttpURLConnection) new URL(this.url + path).openConnection();
+
+        try (InputStream stream = connection.getInputStream()) {
+            ByteArrayOutputStream body = new ByteArrayOutputStream();
+            byte[] buffer = new byte[8192];
+            int read;
+
+            while ((read = stream.read(buffer)) != -1) {
+                body.write(buffer, 0, read);
+            }
+
+            return new String(body.toByteArray(), StandardCharsets.UTF_8);
+        }
+    }
+
+    /**
+     * Wait for the health check of the server to answer.
+     *
+     * @param long timeoutMillis : how long to wait
+     * @throws IOException if the server doesn't come up in time
+     * @throws InterruptedException if interrupted while waiting
+     */
+    protected void awaitServer(long timeoutMillis) throws IOException, InterruptedException {
+        long deadline = System.currentTimeMillis() + timeoutMillis;
+
+        while (true) {
+            try {
+                HttpURLConnection connection = (HttpURLConnection) new URL(this.url + ConversionServer.HEALTH).openConnection();
+
+                if (connection.getResponseCode() == 200) {
+                    drain(connection.getInputStream());
+                    return;
+                }
+            } catch (IOException exception) {
+                if (System.currentTimeMillis() > deadline) {
+                    throw exception;
+                }
+            }
+
+            if (System.currentTimeMillis() > deadline) {
+                throw new IOException("The server at " + this.url + " isn't healthy");
+            }
+
+            Thread.sleep(200);
+        }
+    }
+
+    /**
+     * Send requests from several threads at once until the time is up.
+     *
+     * @param int threads : how many requests are outstanding at once
+     * @param long durationNanos : how long to keep sending
+     * @return List<Result> what each thread saw
+     * @throws InterruptedException if interrupted while waiting for the threads
+     * @throws ExecutionException if a thread failed
+     */
+    protected List<Result> run(int threads, long durationNanos) throws InterruptedException, ExecutionException {
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        long deadline = System.nanoTime() + durationNanos;
+        List<Future<Result>> futures = new ArrayList<>();
+
+        try {
+            for (int i = 0; i < threads; i++) {
+                final int offset = i;
+
+                futures.add(executor.submit(() -> this.send(offset, deadline)));
+            }
+
+            List<Result> results = new ArrayList<>();
+
+            for (Future<Result> future : futures) {
+                results.add(future.get());
+            }
+
+            return results;
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    /**
+     * Send requests one after the other from the calling thread.
+     *
+     * @param int offset : where in the test cases this thread starts, so threads don't move in step
+     * @param long deadline : when to stop, in System.nanoTime
+     * @return Result
+     * @throws IOException if the server can't be reached
+     */
+    protected Result send(int offset, long deadline) throws IOException {
+        Result result = new Result();
+
+        for (int i = offset; System.nanoTime() < deadline; i++) {
+            byte[] body;
+            String path;
+
+            if (i % 2 == 0) {
+                body = this.parameters.get((i / 2) % this.parameters.size());
+                path = ConversionServer.FHIR_TO_VMR;
+            } else {
+                body = this.outputs.get((i / 2) % this.outputs.size());
+                path = ConversionServer.VMR_TO_FHIR;
+            }
+
+            long start = System.nanoTime();
+            HttpURLConnection connection = (HttpURLConnection) new URL(this.url + path).openConnection();
+
+            connection.setRequestMethod("POST");
+            connection.setDoOutput(true);
+            connection.setFixedLengthStreamingMode(body.length);
+
+            try (OutputStream stream = connection.getOutputStream()) {
+                stream.write(body);
+            }
+
+            int status = connection.getResponseCode();
+            InputStream response;
+
+            if (status < 400) {
+                response = connection.getInputStream();
+            } else {
+                response = connection.getErrorStream();
+            }
+
+            // reading the whole response lets the connection be reused
+            long length = drain(response);
+
+            result.add(System.nanoTime() - start, status, length);
+        }
+
+        return result;
+    }
+
+    /**
+     * Build the report of a run.
+     *
+     * @param List<Result> results : what each thread saw
+     * @param long elapsedNanos : how long the run took
+     * @return String
+     */
+    protected static String summarize(List<Result> results, long elapsedNanos) {
+        int count = 0;
+        long bytes = 0;
+        Map<Integer, Integer> statuses = new TreeMap<>();
+
+        for (Result result : results) {
+            count += result.count;
+            bytes += result.bytes;
+            result.statuses.forEach((status, times) -> statuses.merge(status, times, Integer::sum));
+        }
+
+        long[] latencies = new long[count];
+        int position = 0;
+
+        for (Result result : results) {
+            System.arraycopy(result.latencies, 0, latencies, position, result.count);
+            position += result.count;
+        }
+
+        Arrays.sort(latencies);
+
+        double seconds = elapsedNanos / 1e9;
+        StringBuilder summary = new StringBuilder();
+
+        summary.append(String.format("requests    %d in %.1f s, %.1f/s%n", count, seconds, count / seconds));
+        summary.append(String.format("received    %.1f MB%n", bytes / 1e6));
+        summary.append(String.format(
+            "latency ms  p50 %.2f  p90 %.2f  p99 %.2f  max %.2f%n",
+            percentile(latencies, 0.5),
+            percentile(latencies, 0.9),
+            percentile(latencies, 0.99),
+            percentile(latencies, 1.0)
+        ));
+        summary.append("status      ").append(statuses).append(String.format("%n"));
+
+        return summary.toString();
+    }
+
+    /**
+     * @param long[] sorted : latencies in nanoseconds, sorted
+     * @param double fraction : which percentile, 0.99 for p99
+     * @return double the latency in milliseconds
+     */
+    protected static double percentile(long[] sorted, double fraction) {
+        if (sorted.length == 0) {
+            return 0;
+        }
+
+        int index = (int) Math.ceil(fraction * sorted.length) - 1;
+
+        return sorted[Math.max(0, index)] / 1e6;
+    }
+
+    /**
+     * Read a stream to the end and close it.
+     *
+     * @param InputStream stream : the stream, may be null
+     * @return long the number of bytes read
+     * @throws IOException if the stream can't be read
+     */
+    protected static long drain(InputStream stream) throws IOException {
+        if (stream == null) {
+            return 0;
+        }
+
+        byte[] buffer = new byte[8192];
+        long length = 0;
+        int read;
+
+        try (InputStream input = stream) {
+            while ((read = input.read(buffer)) != -1) {
+                length += read;
+            }
+        }
+
+        return length;
+    }
+
+    /**
+     * Read every file in a directory of the test cases, sorted by name so runs are repeatable.
+     *
+     * @param String name : inputs or outputs
+     * @return List<byte[]>
+     */
+    protected static List<byte[]> read(String name) {
+        try (Stream<Path> paths = Files.list(Paths.get(DIRECTORY, name))) {
+            List<byte[]> files = new ArrayList<>();
+
+            for (Path path : paths.sorted().collect(Collectors.toList())) {
+                files.add(Files.readAllBytes(path));
+            }
+
+            if (files.isEmpty()) {
+                throw new IllegalStateException("No test cases found in " + Paths.get(DIRECTORY, name).toAbsolutePath());
+            }
+
+            return files;
+        } catch (IOException exception) {
+            throw new UncheckedIOException(exception);
+        }
+    }
+}
@@ -0,0 +1,256 @@
+package org.cdsframework.messageconverter.server;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.Random;
+
+import org.cdsframework.messageconverter.fhir.convert.utils.FhirContextProvider;
+import org.cdsframework.messageconverter.metrics.NoopMetricsRegistry;
+import org.hl7.fhir.r4.model.Bundle;
+import org.hl7.fhir.r4.model.Parameters;
+import org.hl7.fhir.r4.model.Patient;
+import org.junit.After;
+import org.junit.Test;
+
+import ca.uhn.fhir.parser.IParser;
+
+/**
+ * @author Brian Lamb
+ */
+public class ConversionServerTest {
+    public static final String FORECAST = "../src/test/resources/forecast.json";
+    public static final String OUTPUT = "../src/test/resources/ice-test-cases/outputs/"
+        + "00dfa039fcd94d5b4f3fc6315845fa445c7d3c06a59d4652f718501c201e98b0.xml";
+
+    protected ConversionServer server;
+    protected IParser parser = FhirContextProvider.getInstance().newJsonParser();
+
+    @After
+    public void tearDown() {
+        if (this.server != null) {
+            this.server.close();
+        }
+    }
+
+    protected void start(int maxInFlight, int maxBodyBytes) throws IOException {
+        this.server = new ConversionServer(new InetSocketAddress("localhost", 0), 2, maxInFlight, 0, maxBodyBytes);
+        this.server.start();
+    }
+
+    protected HttpURLConnection request(String method, String path, String body) throws IOException {
+        URL url = new URL("http://localhost:" + this.server.getPort() + path);
+        HttpURLConnection connection = (HttpURLConnection) url.openConnection();
+
+        connection.setRequestMethod(method);
+
+        if (body != null) {
+            byte[] data = body.getBytes(StandardCharsets.UTF_8);
+
+            connection.setDoOutput(true);
+            connection.setFixedLengthStreamingMode(data.length);
+
+            try (OutputStream stream = connection.getOutputStream()) {
+                stream.write(data);
+            }
+        }
+
+        return connection;
+    }
+
+    protected String read(HttpURLConnection connection) throws IOException {
+        InputStream stream;
+
+        if (connection.getResponseCode() < 400) {
+            stream = connection.getInputStream();
+        } else {
+            stream = connection.getErrorStream();
+        }
+
+        ByteArrayOutputStream body = new ByteArrayOutputStream();
+        byte[] buffer = new byte[1024];
+        int read;
+
+        try (InputStream input = stream) {
+            while ((read = input.read(buffer)) != -1) {
+                body.write(buffer, 0, read);
+            }
+        }
+
+        return new String(body.toByteArray(), StandardCharsets.UTF_8);
+    }
+
+    @Test
+    public void healthAnswersOk() throws IOException {
+        this.start(1, 1024);
+
+        HttpURLConnection connection = this.request("GET", ConversionServer.HEALTH, null);
+
+        assertEquals(200, connection.getResponseCode());
+        assertEquals("ok\n", this.read(connection));
+    }
+
+    @Test
+    public void convertOnlyAcceptsPost() throws IOException {
+        this.start(1, 1024);
+
+        HttpURLConnection connection = this.request("GET", ConversionServer.FHIR_TO_VMR, null);
+
+        assertEquals(405, connection.getResponseCode());
+        assertEquals("POST", connection.getHeaderField("Allow"));
+    }
+
+    @Test
+    public void bodyOverLimitIsRejected() throws IOException {
+        this.start(1, 16);
+
+        HttpURLConnection connection = this.request("POST", ConversionServer.FHIR_TO_VMR, "{\"resourceType\": \"Parameters\"}");
+
+        assertEquals(413, connection.getResponseCode());
+    }
+
+    @Test
+    public void malformedBodyIsBadRequest() throws IOException {
+        this.start(1, 1024);
+
+        HttpURLConnection connection = this.request("POST", ConversionServer.FHIR_TO_VMR, "{not json");
+
+        assertEquals(400, connection.getResponseCode());
+    }
+
+    @Test
+    public void fhirToVmrConvertsParameters() throws IOException {
+        this.start(1, 1024 * 1024);
+
+        String payload = new String(Files.readAllBytes(Paths.get(FORECAST)), StandardCharsets.UTF_8);
+        HttpURLConnection connection = this.request("POST", ConversionServer.FHIR_TO_VMR, payload);
+
+        assertEquals(200, connection.getResponseCode());
+        assertTrue(connection.getContentType().startsWith("application/xml"));
+
+        String body = this.read(connection);
+
+        assertTrue(body.contains("cdsInput"));
+        assertTrue(body.contains("Shaw"));
+    }
+
+    @Test
+    public void vmrToFhirConvertsOutput() throws IOException {
+        this.start(1, 1024 * 1024);
+
+        String output = new String(Files.readAllBytes(Paths.get(OUTPUT)), StandardCharsets.UTF_8);
+        HttpURLConnection connection = this.request("POST", ConversionServer.VMR_TO_FHIR, output);
+
+        assertEquals(200, connection.getResponseCode());
+        assertTrue(connection.getContentType().startsWith("application/fhir+json"));
+
+        Parameters parameters = this.parser.parseResource(Parameters.class, this.read(connection));
+
+        assertTrue(parameters.hasParameter());
+
+        connection = this.request("POST", ConversionServer.VMR_TO_FHIR + "?output=bundle", output);
+
+        assertEquals(200, connection.getResponseCode());
+
+        Bundle bundle = this.parser.parseResource(Bundle.class, this.read(connection));
+
+        assertTrue(bundle.getEntryFirstRep().getResource() instanceof Patient);
+
+        connection = this.request("POST", ConversionServer.VMR_TO_FHIR + "?xoutput=bundle", output);
+
+        assertEquals(200, connection.getResponseCode());
+        assertTrue(this.parser.parseResource(this.read(connection)) instanceof Parameters);
+    }
+
+    @Test
+    public void negativeContentLengthIsBadRequest() throws IOException {
+        this.start(1, 1024);
+
+        try (Socket socket = new Socket("localhost", this.server.getPort())) {
+            OutputStream stream = socket.getOutputStream();
+
+            stream.write((
+                "POST " + ConversionServer.FHIR_TO_VMR + " HTTP/1.1\r\n"
+                + "Host: localhost\r\n"
+                + "Content-Length: -5\r\n"
+                + "Connection: close\r\n\r\n"
+            ).getBytes(StandardCharsets.US_ASCII));
+            stream.flush();
+
+            BufferedReader reader = new BufferedReader(new InputStreamReader(socket.getInputStream(), StandardCharsets.US_ASCII));
+
+            assertTrue(reader.readLine().startsWith("HTTP/1.1 400"));
+        }
+    }
+
+    @Test
+    public void getParameterMatchesWholeNames() {
+        assertEquals("bundle", ConversionHandler.getParameter("output=bundle", "output"));
+        assertEquals("bundle", ConversionHandler.getParameter("a=1&output=bundle&output=x", "output"));
+        assertEquals("a b", ConversionHandler.getParameter("output=a+b", "output"));
+        assertEquals("", ConversionHandler.getParameter("output", "output"));
+        assertNull(ConversionHandler.getParameter("xoutput=bundle", "output"));
+        assertNull(ConversionHandler.getParameter(null, "output"));
+    }
+
+    @Test
+    public void readBodyOfUnknownLengthKeepsEveryByte() throws IOException {
+        ConversionHandler handler = new ConversionHandler("/", null, null, 0, 100000, NoopMetricsRegistry.getInstance());
+
+        for (int size : new int[] {0, 1, 8192, 8193, 50000}) {
+            byte[] data = new byte[size];
+            new Random(size).nextBytes(data);
+
+            assertArrayEquals(data, handler.readBody(new ByteArrayInputStream(data)));
+        }
+    }
+
+    @Test(expected = IOException.class)
+    public void readBodyOfUnknownLengthStopsAtLimit() throws IOException {
+        ConversionHandler handler = new ConversionHandler("/", null, null, 0, 8192, NoopMetricsRegistry.getInstance());
+
+        handler.readBody(new ByteArrayInputStream(new byte[8193]));
+    }
+
+    @Test
+    public void warmUpConvertsBundledCaseBeforeFirstRequest() throws IOException {
+        this.start(1, 1024);
+
+        String metrics = this.read(this.request("GET", ConversionServer.METRICS, null));
+
+        assertTrue(metrics.contains("messageconverter.convert{direction=cds,resource=Patient} count=1"));
+        assertTrue(metrics.contains("messageconverter.convert{direction=cds,resource=Immunization} count=1"));
+        assertTrue(metrics.contains("messageconverter.http.request{path=/$convert/fhir-to-vmr,status=200} count=0"));
+    }
+
+    @Test
+    public void requestsBeyondInFlightLimitGetServiceUnavailable() throws IOException {
+        this.start(0, 1024);
+
+        HttpURLConnection connection = this.request("POST", ConversionServer.VMR_TO_FHIR, "<cdsOutput/>");
+
+        assertEquals(503, connection.getResponseCode());
+        assertEquals("1", connection.getHeaderField("Retry-After"));
+        this.read(connection);
+
+        String metrics = this.read(this.request("GET", ConversionServer.METRICS, null));
+
+        assertTrue(metrics.contains("messageconverter.http.request{path=/$convert/vmr-to-fhir,status=503} count=1"));
+    }
+}
@@ -0,0 +1,264 @@
+package org.cdsframework.messageconverter;
+
+import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+import org.cdsframework.messageconverter.BatchConverter.Conversion;
+import org.cdsframework.messageconverter.metrics.Counter;
+import org.cdsframework.util.LogUtils;
+import org.hl7.fhir.r4.model.Bundle;
+import org.hl7.fhir.r4.model.ImmunizationEvaluation;
+import org.hl7.fhir.r4.model.ImmunizationRecommendation;
+import org.hl7.fhir.r4.model.Parameters;
+import org.opencds.vmr.v1_0.schema.CDSInput;
+import org.opencds.vmr.v1_0.schema.CDSOutput;
+
+/**
+ * Runs conversions on an executor and hands back a CompletableFuture, so a non-blocking caller never
+ * waits on a conversion. At most maxInFlight conversions are queued or running at once. When that
+ * many are outstanding a new conversion waits up to maxWait for one to finish, and if none does its
+ * future fails with a RejectedExecutionException, which lets the caller shed load instead of queueing
+ * without bound.
+ *
+ * The default executor runs every conversion on its own virtual thread when the JVM has them and
+ * falls back to the common fork join pool when it doesn't.
+ *
+ * @author Brian Lamb
+ */
+public class AsyncConverter implements AutoCloseable {
+    private static final LogUtils logger = LogUtils.getLogger(AsyncConverter.class);
+
+    public static final String REJECTED = "messageconverter.async.rejected";
+    public static final int DEFAULT_MAX_IN_FLIGHT = Runtime.getRuntime().availableProcessors() * 64;
+
+    protected Fhir2Vmr fhir2Vmr;
+    protected Vmr2Fhir vmr2Fhir;
+    protected Executor executor;
+    protected boolean ownsExecutor;
+    protected Semaphore permits;
+    protected int maxInFlight;
+    protected long maxWait;
+    protected Counter rejected;
+
+    /**
+     * Create an async converter on the shared converters and the default executor that rejects new
+     * conversions as soon as DEFAULT_MAX_IN_FLIGHT are outstanding.
+     */
+    public AsyncConverter() {
+        this(ConverterRegistry.getInstance(), defaultExecutor(), DEFAULT_MAX_IN_FLIGHT, 0, TimeUnit.MILLISECONDS);
+        this.ownsExecutor = true;
+    }
+
+    /**
+     * @param ConverterRegistry registry : the registry holding the converters to use
+     * @param Executor executor : the executor every conversion is run on, it is not shut down by close
+     * @param int maxInFlight : how many conversions may be queued or running at once
+     * @param long maxWait : how long a new conversion waits for room, 0 to reject it straight away
+     * @param TimeUnit unit : the unit of maxWait
+     */
+    public AsyncConverter(ConverterRegistry registry, Executor executor, int maxInFlight, long maxWait, TimeUnit unit) {
+        if (executor == null) {
+            throw new IllegalArgumentException("An Executor is required");
+        }
+
+        if (maxInFlight < 1) {
+            throw new IllegalArgumentException("maxInFlight has to be at least 1");
+        }
+
+        this.fhir2Vmr = registry.getFhir2Vmr();
+        this.vmr2Fhir = registry.getVmr2Fhir();
+        this.executor = executor;
+        this.permits = new Semaphore(maxInFlight);
+        this.maxInFlight = maxInFlight;
+        this.maxWait = unit.toNanos(maxWait);
+        this.rejected = registry.getMetrics().getRegistry().counter(REJECTED);
+    }
+
+    /**
+     * Get an executor that starts a virtual thread for every task. Virtual threads are looked up at
+     * runtime, so this still runs on JVMs without them and returns the common fork join pool there.
+     *
+     * @return Executor
+     */
+    public static Executor defaultExecutor() {
+        final String METHODNAME = "defaultExecutor ";
+
+        try {
+            Method method = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+
+            return (Executor) method.invoke(null);
+        } catch (ReflectiveOperationException | RuntimeException exception) {
+            logger.debug(METHODNAME, "virtual threads are not available, using the common pool");
+
+            return ForkJoinPool.commonPool();
+        }
+    }
+
+    /**
+     * Run a conversion on the executor once there is room for it.
+     *
+     * @param T item : the item to convert
+     * @param Conversion<T, R> conversion : converts the item
+     * @return CompletableFuture<R> completed with the converted value, or with whatever the
+     *         conversion threw, including an Error, or with a RejectedExecutionException if there was
+     *         no room for it
+     */
+    public <T, R> CompletableFuture<R> submit(T item, Conversion<T, R> conversion) {
+        CompletableFuture<R> future = new CompletableFuture<>();
+
+        if (!this.acquire()) {
+            this.rejected.increment();
+            future.completeExceptionally(new RejectedExecutionException(
+                "Too many conversions in flight, the limit is " + this.maxInFlight
+            ));
+
+            return future;
+        }
+
+        try {
+            this.executor.execute(() -> {
+                R value = null;
+                Throwable failure = null;
+
+                try {
+                    value = conversion.apply(item);
+                } catch (Throwable throwable) {
+                    // an Error too, or the future would never complete
+                    failure = throwable;
+                } finally {
+                    // free the slot before completing, so whatever runs on completion can submit again
+                    this.permits.release();
+                }
+
+                if (failure == null) {
+                    future.complete(value);
+                } else {
+                    future.completeExceptionally(failure);
+                }
+            });
+        } catch (Throwable throwable) {
+            this.permits.release();
+
+            if (throwable instanceof RejectedExecutionException) {
+                this.rejected.increment();
+            }
+
+            future.completeExceptionally(throwable);
+        }
+
+        return future;
+    }
+
+    /**
+     * Take a slot for a new conversion, waiting up to maxWait for one to free up.
+     *
+     * @return boolean true if there was room
+     */
+    protected boolean acquire() {
+        if (this.maxWait <= 0) {
+            return this.permits.tryAcquire();
+        }
+
+        try {
+            return this.permits.tryAcquire(this.maxWait, TimeUnit.NANOSECONDS);
+        } catch (InterruptedException exception) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+    }
+
+    /**
+     * @see Fhir2Vmr#getCdsInputFromFhir(String)
+     */
+    public CompletableFuture<CDSInput> getCdsInputFromFhir(String data) {
+        return this.submit(data, payload -> this.fhir2Vmr.getCdsInputFromFhir(payload));
+    }
+
+    /**
+     * @see Fhir2Vmr#getCdsInputFromFhir(byte[])
+     */
+    public CompletableFuture<CDSInput> getCdsInputFromFhir(byte[] data) {
+        return this.submit(data, payload -> this.fhir2Vmr.getCdsInputFromFhir(payload));
+    }
+
+    /**
+     * The buffer is read on the executor, so it mustn't be reused until the future completes.
+     *
+     * @see Fhir2Vmr#getCdsInputFromFhir(ByteBuffer)
+     */
+    public CompletableFuture<CDSInput> getCdsInputFromFhir(ByteBuffer data) {
+        return this.submit(data, payload -> this.fhir2Vmr.getCdsInputFromFhir(payload));
+    }
+
+    /**
+     * @see Fhir2Vmr#getCdsInputFromFhir(Parameters)
+     */
+    public CompletableFuture<CDSInput> getCdsInputFromFhir(Parameters parameters) {
+        return this.submit(parameters, payload -> this.fhir2Vmr.getCdsInputFromFhir(payload));
+    }
+
+    /**
+     * @see Vmr2Fhir#getBundle(CDSOutput)
+     */
+    public CompletableFuture<Bundle> getBundle(CDSOutput output) {
+        return this.submit(output, data -> this.vmr2Fhir.getBundle(data));
+    }
+
+    /**
+     * @see Vmr2Fhir#getParameters(CDSOutput)
+     */
+    public CompletableFuture<Parameters> getParameters(CDSOutput output) {
+        return this.submit(output, data -> this.vmr2Fhir.getParameters(data));
+    }
+
+    /**
+     * @see Vmr2Fhir#getRecommendation(CDSOutput)
+     */
+    public CompletableFuture<ImmunizationRecommendation> getRecommendation(CDSOutput output) {
+        return this.submit(output, data -> this.vmr2Fhir.getRecommendation(data));
+    }
+
+    /**
+     * @see Vmr2Fhir#getEvaluations(CDSOutput)
+     */
+    public CompletableFuture<List<ImmunizationEvaluation>> getEvaluations(CDSOutput output) {
+        return this.submit(output, data -> this.vmr2Fhir.getEvaluations(data));
+    }
+
+    /**
+     * Get the number of conversions queued or running
+     *
+     * @return the number of conversions queued or running
+     */
+    public int getInFlight() {
+        return this.maxInFlight - this.permits.availablePermits();
+    }
+
+    /**
+     * Get the value of maxInFlight
+     *
+     * @return the value of maxInFlight
+     */
+    public int getMaxInFlight() {
+        return this.maxInFlight;
+    }
+
+    /**
+     * Shut down the executor if this converter created it. Conversions already submitted still run.
+     */
+    @Override
+    public void close() {
+        if (this.ownsExecutor && this.executor instanceof ExecutorService) {
+            ((ExecutorService) this.executor).shutdown();
+        }
+    }
+}
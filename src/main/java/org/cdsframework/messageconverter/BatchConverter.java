@@ -0,0 +1,229 @@
+package org.cdsframework.messageconverter;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Semaphore;
+import java.util.stream.Stream;
+
+import org.cdsframework.util.LogUtils;
+import org.hl7.fhir.r4.model.ImmunizationEvaluation;
+import org.hl7.fhir.r4.model.ImmunizationRecommendation;
+import org.opencds.vmr.v1_0.schema.CDSInput;
+import org.opencds.vmr.v1_0.schema.CDSOutput;
+
+/**
+ * Converts many patients at once by handing each item to an executor. The results always come back
+ * in the same order as the items went in, and an item that fails to convert is reported in its own
+ * result instead of stopping the rest of the batch.
+ *
+ * @author Brian Lamb
+ */
+public class BatchConverter {
+    private static final LogUtils logger = LogUtils.getLogger(BatchConverter.class);
+    public static final int DEFAULT_MAX_IN_FLIGHT = Runtime.getRuntime().availableProcessors() * 4;
+
+    protected Fhir2Vmr fhir2Vmr;
+    protected Vmr2Fhir vmr2Fhir;
+    protected Executor executor;
+    protected int maxInFlight;
+
+    /**
+     * A conversion of a single item, allowed to throw the checked exceptions the converters use.
+     */
+    @FunctionalInterface
+    public interface Conversion<T, R> {
+        R apply(T item) throws Exception;
+    }
+
+    /**
+     * Create a batch converter that uses the shared converters and the common fork join pool.
+     */
+    public BatchConverter() {
+        this(ConverterRegistry.getInstance(), ForkJoinPool.commonPool());
+    }
+
+    /**
+     * @param ConverterRegistry registry : the registry holding the converters to use
+     * @param Executor executor : the executor every conversion is run on
+     */
+    public BatchConverter(ConverterRegistry registry, Executor executor) {
+        this(registry, executor, DEFAULT_MAX_IN_FLIGHT);
+    }
+
+    /**
+     * @param ConverterRegistry registry : the registry holding the converters to use
+     * @param Executor executor : the executor every conversion is run on
+     * @param int maxInFlight : the most items handed to the executor at once
+     */
+    public BatchConverter(ConverterRegistry registry, Executor executor, int maxInFlight) {
+        if (executor == null) {
+            throw new IllegalArgumentException("An Executor is required");
+        }
+
+        if (maxInFlight < 1) {
+            throw new IllegalArgumentException("maxInFlight must be at least 1");
+        }
+
+        this.fhir2Vmr = registry.getFhir2Vmr();
+        this.vmr2Fhir = registry.getVmr2Fhir();
+        this.executor = executor;
+        this.maxInFlight = maxInFlight;
+    }
+
+    /**
+     * Convert every item with conversion on the executor of this batch converter. At most
+     * maxInFlight items are handed to the executor at once, so a large stream of items is read
+     * only as fast as it is converted. Anything an item throws, including an Error or the executor
+     * rejecting it, is recorded as the failure of that item; an Error is wrapped in an
+     * ExecutionException so it fits in the result.
+     *
+     * @param Iterable<T> items : the items to convert
+     * @param Conversion<T, R> conversion : converts a single item
+     * @return List<BatchResult<R>> with one result per item in the same order as items
+     */
+    public <T, R> List<BatchResult<R>> convert(Iterable<T> items, Conversion<T, R> conversion) {
+        final String METHODNAME = "convert ";
+        List<BatchResult<R>> results = new ArrayList<>();
+        Semaphore window = new Semaphore(this.maxInFlight);
+        InterruptedException interrupted = null;
+        int index = 0;
+
+        for (T item : items) {
+            final int position = index++;
+
+            synchronized (results) {
+                results.add(null);
+            }
+
+            if (interrupted == null) {
+                try {
+                    window.acquire();
+                } catch (InterruptedException exception) {
+                    Thread.currentThread().interrupt();
+                    interrupted = exception;
+                }
+            }
+
+            if (interrupted != null) {
+                setResult(results, BatchResult.<R>failure(position, interrupted));
+                continue;
+            }
+
+            try {
+                this.executor.execute(() -> {
+                    BatchResult<R> result;
+
+                    try {
+                        result = BatchResult.success(position, conversion.apply(item));
+                    } catch (Throwable throwable) {
+                        logger.debug(METHODNAME, "item ", position, " failed: ", throwable.getMessage());
+                        result = BatchResult.failure(position, asException(throwable));
+                    }
+
+                    try {
+                        setResult(results, result);
+                    } finally {
+                        window.release();
+                    }
+                });
+            } catch (Throwable throwable) {
+                logger.debug(METHODNAME, "item ", position, " wasn't submitted: ", throwable.getMessage());
+                setResult(results, BatchResult.<R>failure(position, asException(throwable)));
+                window.release();
+            }
+        }
+
+        window.acquireUninterruptibly(this.maxInFlight);
+
+        synchronized (results) {
+            return new ArrayList<>(results);
+        }
+    }
+
+    /**
+     * Store result at its position, from whichever thread converted it.
+     *
+     * @param List<BatchResult<R>> results : the results of the batch
+     * @param BatchResult<R> result : the result of a single item
+     */
+    protected static <R> void setResult(List<BatchResult<R>> results, BatchResult<R> result) {
+        synchronized (results) {
+            results.set(result.getIndex(), result);
+        }
+    }
+
+    /**
+     * Get throwable as an exception, wrapping it in an ExecutionException if it isn't one.
+     *
+     * @param Throwable throwable : what a conversion threw
+     * @return Exception
+     */
+    protected static Exception asException(Throwable throwable) {
+        if (throwable instanceof Exception) {
+            return (Exception) throwable;
+        }
+
+        return new ExecutionException(throwable);
+    }
+
+    /**
+     * @see convert(Iterable<T>, Conversion<T, R>)
+     */
+    public <T, R> List<BatchResult<R>> convert(Stream<T> items, Conversion<T, R> conversion) {
+        return this.convert(items::iterator, conversion);
+    }
+
+    /**
+     * Convert json or xml Parameters payloads into CDSInput objects.
+     *
+     * @param Iterable<String> payloads : the payloads to convert
+     * @return List<BatchResult<CDSInput>>
+     */
+    public List<BatchResult<CDSInput>> getCdsInputsFromFhir(Iterable<String> payloads) {
+        return this.convert(payloads, payload -> this.fhir2Vmr.getCdsInputFromFhir(payload));
+    }
+
+    /**
+     * @see getCdsInputsFromFhir(Iterable<String>)
+     */
+    public List<BatchResult<CDSInput>> getCdsInputsFromFhir(Stream<String> payloads) {
+        return this.getCdsInputsFromFhir((Iterable<String>) payloads::iterator);
+    }
+
+    /**
+     * Convert CDSOutput objects into immunization recommendations.
+     *
+     * @param Iterable<CDSOutput> outputs : the outputs to convert
+     * @return List<BatchResult<ImmunizationRecommendation>>
+     */
+    public List<BatchResult<ImmunizationRecommendation>> getRecommendations(Iterable<CDSOutput> outputs) {
+        return this.convert(outputs, output -> this.vmr2Fhir.getRecommendation(output));
+    }
+
+    /**
+     * @see getRecommendations(Iterable<CDSOutput>)
+     */
+    public List<BatchResult<ImmunizationRecommendation>> getRecommendations(Stream<CDSOutput> outputs) {
+        return this.getRecommendations((Iterable<CDSOutput>) outputs::iterator);
+    }
+
+    /**
+     * Convert CDSOutput objects into the evaluations of each patient.
+     *
+     * @param Iterable<CDSOutput> outputs : the outputs to convert
+     * @return List<BatchResult<List<ImmunizationEvaluation>>>
+     */
+    public List<BatchResult<List<ImmunizationEvaluation>>> getEvaluations(Iterable<CDSOutput> outputs) {
+        return this.convert(outputs, output -> this.vmr2Fhir.getEvaluations(output));
+    }
+
+    /**
+     * @see getEvaluations(Iterable<CDSOutput>)
+     */
+    public List<BatchResult<List<ImmunizationEvaluation>>> getEvaluations(Stream<CDSOutput> outputs) {
+        return this.getEvaluations((Iterable<CDSOutput>) outputs::iterator);
+    }
+}
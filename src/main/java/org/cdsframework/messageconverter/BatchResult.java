@@ -0,0 +1,82 @@
+package org.cdsframework.messageconverter;
+
+/**
+ * The outcome of converting a single item in a batch. Exactly one of value and exception is set,
+ * so a failure only affects its own item and the rest of the batch carries on.
+ *
+ * @author Brian Lamb
+ */
+public class BatchResult<R> {
+    private final int index;
+    private final R value;
+    private final Exception exception;
+
+    /**
+     * @param int index : the position of the item in the batch
+     * @param R value : the converted value, null if the conversion failed
+     * @param Exception exception : the reason the conversion failed, null if it succeeded
+     */
+    protected BatchResult(int index, R value, Exception exception) {
+        this.index = index;
+        this.value = value;
+        this.exception = exception;
+    }
+
+    /**
+     * Create the result of a conversion that succeeded.
+     *
+     * @param int index : the position of the item in the batch
+     * @param R value : the converted value
+     * @return BatchResult<R>
+     */
+    public static <R> BatchResult<R> success(int index, R value) {
+        return new BatchResult<>(index, value, null);
+    }
+
+    /**
+     * Create the result of a conversion that failed.
+     *
+     * @param int index : the position of the item in the batch
+     * @param Exception exception : the reason the conversion failed
+     * @return BatchResult<R>
+     */
+    public static <R> BatchResult<R> failure(int index, Exception exception) {
+        return new BatchResult<>(index, null, exception);
+    }
+
+    /**
+     * Get the value of index
+     *
+     * @return the value of index
+     */
+    public int getIndex() {
+        return this.index;
+    }
+
+    /**
+     * Get the value of value
+     *
+     * @return the value of value
+     */
+    public R getValue() {
+        return this.value;
+    }
+
+    /**
+     * Get the value of exception
+     *
+     * @return the value of exception
+     */
+    public Exception getException() {
+        return this.exception;
+    }
+
+    /**
+     * Check if the item was converted.
+     *
+     * @return boolean
+     */
+    public boolean isSuccess() {
+        return this.exception == null;
+    }
+}
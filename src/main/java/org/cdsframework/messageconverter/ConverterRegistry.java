@@ -0,0 +1,214 @@
+package org.cdsframework.messageconverter;
+
+import org.cdsframework.messageconverter.fhir.convert.utils.FhirContextProvider;
+import org.cdsframework.messageconverter.fhir.convert.utils.FhirOutput;
+import org.cdsframework.messageconverter.fhir.convert.utils.IdGenerator;
+import org.cdsframework.messageconverter.fhir.convert.utils.ParametersStreamReader;
+import org.cdsframework.messageconverter.fhir.convert.utils.RandomIdGenerator;
+import org.cdsframework.messageconverter.fhir.convert.vmr.ImmunizationConverter;
+import org.cdsframework.messageconverter.fhir.convert.vmr.ImmunizationEvaluationConverter;
+import org.cdsframework.messageconverter.fhir.convert.vmr.ImmunizationRecommendationConverter;
+import org.cdsframework.messageconverter.fhir.convert.vmr.PatientConverter;
+import org.cdsframework.messageconverter.metrics.ConversionMetrics;
+import org.cdsframework.messageconverter.metrics.MetricsRegistry;
+import org.cdsframework.messageconverter.metrics.NoopMetricsRegistry;
+
+/**
+ * Builds exactly one instance of every converter and wires them together. None of the converters
+ * keep any state between calls, so a registry and everything it hands out can be shared by any
+ * number of threads. A servlet or other long running service should obtain its Fhir2Vmr and Vmr2Fhir
+ * from here instead of constructing new ones for every request.
+ *
+ * @author Brian Lamb
+ */
+public class ConverterRegistry {
+    private final FhirContextProvider fhirContextProvider;
+    private final IdGenerator idGenerator;
+    private final ConversionMetrics metrics;
+    private final ParametersStreamReader parametersStreamReader;
+    private final FhirOutput fhirOutput;
+    private final ImmunizationConverter immunizationConverter;
+    private final PatientConverter patientConverter;
+    private final ImmunizationEvaluationConverter immunizationEvaluationConverter;
+    private final ImmunizationRecommendationConverter immunizationRecommendationConverter;
+    private final Fhir2Vmr fhir2Vmr;
+    private final Vmr2Fhir vmr2Fhir;
+
+    /**
+     * Lazily builds the process wide registry the first time it is requested.
+     */
+    private static class Holder {
+        private static final ConverterRegistry INSTANCE = new ConverterRegistry(FhirContextProvider.getInstance());
+    }
+
+    /**
+     * Build every converter around a single fhir context.
+     *
+     * @param FhirContextProvider fhirContextProvider : the provider used to obtain fhir parsers
+     */
+    public ConverterRegistry(FhirContextProvider fhirContextProvider) {
+        this(fhirContextProvider, RandomIdGenerator.getInstance());
+    }
+
+    /**
+     * Build every converter around a single fhir context and a single id generator.
+     *
+     * @param FhirContextProvider fhirContextProvider : the provider used to obtain fhir parsers
+     * @param IdGenerator idGenerator : creates the id of every resource built from a vMR record
+     */
+    public ConverterRegistry(FhirContextProvider fhirContextProvider, IdGenerator idGenerator) {
+        this(fhirContextProvider, idGenerator, NoopMetricsRegistry.getInstance());
+    }
+
+    /**
+     * Build every converter around a single fhir context and id generator, recording how long each
+     * stage of a conversion takes into a metrics registry.
+     *
+     * @param FhirContextProvider fhirContextProvider : the provider used to obtain fhir parsers
+     * @param IdGenerator idGenerator : creates the id of every resource built from a vMR record
+     * @param MetricsRegistry metricsRegistry : receives the timings of Fhir2Vmr and Vmr2Fhir
+     */
+    public ConverterRegistry(FhirContextProvider fhirContextProvider, IdGenerator idGenerator, MetricsRegistry metricsRegistry) {
+        if (fhirContextProvider == null) {
+            throw new IllegalArgumentException("A FhirContextProvider is required");
+        }
+
+        if (idGenerator == null) {
+            throw new IllegalArgumentException("An IdGenerator is required");
+        }
+
+        if (metricsRegistry == null) {
+            throw new IllegalArgumentException("A MetricsRegistry is required");
+        }
+
+        this.fhirContextProvider = fhirContextProvider;
+        this.idGenerator = idGenerator;
+        this.metrics = new ConversionMetrics(metricsRegistry);
+        this.parametersStreamReader = new ParametersStreamReader(fhirContextProvider, this.metrics);
+        this.fhirOutput = new FhirOutput(fhirContextProvider);
+        this.immunizationConverter = new ImmunizationConverter(fhirContextProvider, idGenerator);
+        this.patientConverter = new PatientConverter(fhirContextProvider, idGenerator);
+        this.immunizationEvaluationConverter = new ImmunizationEvaluationConverter(
+            this.immunizationConverter,
+            this.patientConverter,
+            idGenerator
+        );
+        this.immunizationRecommendationConverter = new ImmunizationRecommendationConverter(
+            this.immunizationConverter,
+            this.patientConverter,
+            idGenerator
+        );
+
+        // these read the converters above so they have to be built last
+        this.fhir2Vmr = new Fhir2Vmr(this);
+        this.vmr2Fhir = new Vmr2Fhir(this);
+    }
+
+    /**
+     * Get the registry shared by every Fhir2Vmr and Vmr2Fhir that was not given one explicitly.
+     *
+     * @return ConverterRegistry
+     */
+    public static ConverterRegistry getInstance() {
+        return Holder.INSTANCE;
+    }
+
+    /**
+     * Get the value of fhirContextProvider
+     *
+     * @return the value of fhirContextProvider
+     */
+    public FhirContextProvider getFhirContextProvider() {
+        return this.fhirContextProvider;
+    }
+
+    /**
+     * Get the value of idGenerator
+     *
+     * @return the value of idGenerator
+     */
+    public IdGenerator getIdGenerator() {
+        return this.idGenerator;
+    }
+
+    /**
+     * Get the value of metrics
+     *
+     * @return the value of metrics
+     */
+    public ConversionMetrics getMetrics() {
+        return this.metrics;
+    }
+
+    /**
+     * Get the value of parametersStreamReader
+     *
+     * @return the value of parametersStreamReader
+     */
+    public ParametersStreamReader getParametersStreamReader() {
+        return this.parametersStreamReader;
+    }
+
+    /**
+     * Get the value of fhirOutput
+     *
+     * @return the value of fhirOutput
+     */
+    public FhirOutput getFhirOutput() {
+        return this.fhirOutput;
+    }
+
+    /**
+     * Get the value of immunizationConverter
+     *
+     * @return the value of immunizationConverter
+     */
+    public ImmunizationConverter getImmunizationConverter() {
+        return this.immunizationConverter;
+    }
+
+    /**
+     * Get the value of patientConverter
+     *
+     * @return the value of patientConverter
+     */
+    public PatientConverter getPatientConverter() {
+        return this.patientConverter;
+    }
+
+    /**
+     * Get the value of immunizationEvaluationConverter
+     *
+     * @return the value of immunizationEvaluationConverter
+     */
+    public ImmunizationEvaluationConverter getImmunizationEvaluationConverter() {
+        return this.immunizationEvaluationConverter;
+    }
+
+    /**
+     * Get the value of immunizationRecommendationConverter
+     *
+     * @return the value of immunizationRecommendationConverter
+     */
+    public ImmunizationRecommendationConverter getImmunizationRecommendationConverter() {
+        return this.immunizationRecommendationConverter;
+    }
+
+    /**
+     * Get the value of fhir2Vmr
+     *
+     * @return the value of fhir2Vmr
+     */
+    public Fhir2Vmr getFhir2Vmr() {
+        return this.fhir2Vmr;
+    }
+
+    /**
+     * Get the value of vmr2Fhir
+     *
+     * @return the value of vmr2Fhir
+     */
+    public Vmr2Fhir getVmr2Fhir() {
+        return this.vmr2Fhir;
+    }
+}
@@ -1,21 +1,45 @@
 package org.cdsframework.messageconverter;
 
-import java.util.ArrayList;
+import java.io.BufferedInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.io.StringReader;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
 
 import org.cdsframework.cds.vmr.CdsInputWrapper;
 import org.cdsframework.ice.input.IceCdsInputWrapper;
+import org.cdsframework.messageconverter.fhir.convert.utils.ByteBufferInputStream;
+import org.cdsframework.messageconverter.fhir.convert.utils.FhirContextProvider;
+import org.cdsframework.messageconverter.fhir.convert.utils.ParametersStreamReader;
 import org.cdsframework.messageconverter.fhir.convert.vmr.ImmunizationConverter;
 import org.cdsframework.messageconverter.fhir.convert.vmr.ImmunizationEvaluationConverter;
 import org.cdsframework.messageconverter.fhir.convert.vmr.ImmunizationRecommendationConverter;
 import org.cdsframework.messageconverter.fhir.convert.vmr.PatientConverter;
+import org.cdsframework.messageconverter.metrics.ConversionMetrics;
 import org.cdsframework.util.LogUtils;
+import org.hl7.fhir.instance.model.api.IIdType;
 import org.hl7.fhir.r4.model.Immunization;
 import org.hl7.fhir.r4.model.ImmunizationEvaluation;
 import org.hl7.fhir.r4.model.ImmunizationRecommendation;
 import org.hl7.fhir.r4.model.Observation;
+import org.hl7.fhir.r4.model.Parameters;
+import org.hl7.fhir.r4.model.Parameters.ParametersParameterComponent;
 import org.hl7.fhir.r4.model.Patient;
 import org.hl7.fhir.r4.model.Reference;
+import org.hl7.fhir.r4.model.Resource;
+import org.hl7.fhir.r4.model.ResourceType;
 import org.json.JSONObject;
 import org.json.XML;
 import org.opencds.vmr.v1_0.schema.CDSInput;
@@ -31,17 +55,66 @@ import org.opencds.vmr.v1_0.schema.SubstanceAdministrationEvent;
 import org.opencds.vmr.v1_0.schema.SubstanceAdministrationProposal;
 import org.opencds.vmr.v1_0.schema.VMR;
 
+import ca.uhn.fhir.parser.DataFormatException;
+
 /**
  * @author sdn
  */
 public class Fhir2Vmr {
     private static final LogUtils logger = LogUtils.getLogger(Fhir2Vmr.class);
-    private final List<String> errorList = new ArrayList<>();
+    private static final Collection<String> PARAMETER_NAMES = Collections.unmodifiableList(Arrays.asList("patient", "immunization"));
+    private final List<String> errorList = new CopyOnWriteArrayList<>();
+    // how far into a stream to look for the first character of the payload
+    private static final int MAX_PREFIX = 1024;
+
+    protected FhirContextProvider fhirContextProvider;
+    protected ParametersStreamReader parametersStreamReader;
+    protected ImmunizationConverter immunizationConverter;
+    protected PatientConverter patientConverter;
+    protected ImmunizationRecommendationConverter immunizationRecommendationConverter;
+    protected ImmunizationEvaluationConverter immunizationEvaluationConverter;
+    protected ConversionMetrics metrics;
+
+    public Fhir2Vmr() {
+        this(ConverterRegistry.getInstance());
+    }
 
-    protected ImmunizationConverter immunizationConverter = new ImmunizationConverter();
-    protected PatientConverter patientConverter = new PatientConverter();
-    protected ImmunizationRecommendationConverter immunizationRecommendationConverter = new ImmunizationRecommendationConverter();
-    protected ImmunizationEvaluationConverter immunizationEvaluationConverter = new ImmunizationEvaluationConverter();
+    /**
+     * Create a converter whose converters all share the fhir context held by fhirContextProvider.
+     *
+     * @param FhirContextProvider fhirContextProvider : the provider used to obtain fhir parsers
+     */
+    public Fhir2Vmr(FhirContextProvider fhirContextProvider) {
+        this.fhirContextProvider = fhirContextProvider;
+        this.parametersStreamReader = new ParametersStreamReader(fhirContextProvider);
+        this.immunizationConverter = new ImmunizationConverter(fhirContextProvider);
+        this.patientConverter = new PatientConverter(fhirContextProvider);
+        this.immunizationRecommendationConverter = new ImmunizationRecommendationConverter(
+            this.immunizationConverter,
+            this.patientConverter
+        );
+        this.immunizationEvaluationConverter = new ImmunizationEvaluationConverter(
+            this.immunizationConverter,
+            this.patientConverter
+        );
+        this.metrics = ConversionMetrics.noop();
+    }
+
+    /**
+     * Create a converter that uses the converters already built by registry. The converters are
+     * stateless so the resulting object is safe to share between threads.
+     *
+     * @param ConverterRegistry registry : the registry holding the converters to use
+     */
+    public Fhir2Vmr(ConverterRegistry registry) {
+        this.fhirContextProvider = registry.getFhirContextProvider();
+        this.parametersStreamReader = registry.getParametersStreamReader();
+        this.immunizationConverter = registry.getImmunizationConverter();
+        this.patientConverter = registry.getPatientConverter();
+        this.immunizationRecommendationConverter = registry.getImmunizationRecommendationConverter();
+        this.immunizationEvaluationConverter = registry.getImmunizationEvaluationConverter();
+        this.metrics = registry.getMetrics();
+    }
 
     /**
      * Convert string into a JSONObject. This is used to validate fhir elements
@@ -70,10 +143,98 @@ public class Fhir2Vmr {
      * @see createFhirElement(String)
      */
     protected JSONObject createFhirElement(byte[] data) {
-        String payload = new String(data);
+        String payload = new String(data, StandardCharsets.UTF_8);
         return this.createFhirElement(payload);
     }
 
+    /**
+     * Get a view of a buffer that starts after its UTF-8 byte order mark, if it has one.
+     *
+     * @param ByteBuffer data : the UTF-8 encoded data
+     * @return ByteBuffer sharing the bytes of data
+     */
+    protected static ByteBuffer skipByteOrderMark(ByteBuffer data) {
+        ByteBuffer payload = data.duplicate();
+        int position = payload.position();
+
+        if (payload.remaining() >= 3
+            && (payload.get(position) & 0xFF) == 0xEF
+            && (payload.get(position + 1) & 0xFF) == 0xBB
+            && (payload.get(position + 2) & 0xFF) == 0xBF) {
+            payload.position(position + 3);
+        }
+
+        return payload;
+    }
+
+    /**
+     * Check whether a payload is xml by looking at its first character that isn't whitespace.
+     *
+     * @param String data : the payload
+     * @return boolean true if the data starts with <
+     */
+    protected static boolean isXml(String data) {
+        for (int i = 0; i < data.length(); i++) {
+            char value = data.charAt(i);
+
+            if (!Character.isWhitespace(value)) {
+                return value == '<';
+            }
+        }
+
+        return false;
+    }
+
+    /**
+     * Check whether a payload is xml by looking at its first character that isn't whitespace.
+     *
+     * @param ByteBuffer data : the UTF-8 encoded data, after any byte order mark
+     * @return boolean true if the data starts with <
+     */
+    protected static boolean isXml(ByteBuffer data) {
+        for (int i = data.position(); i < data.limit(); i++) {
+            byte value = data.get(i);
+
+            if (!Character.isWhitespace(value)) {
+                return value == '<';
+            }
+        }
+
+        return false;
+    }
+
+    /**
+     * Check whether a stream holds xml without consuming any of it. A UTF-8 byte order mark is
+     * skipped and stays skipped.
+     *
+     * @param InputStream data : the UTF-8 encoded data, it has to support mark and reset
+     * @return boolean true if the data starts with <
+     * @throws IOException if the stream can't be read
+     */
+    protected static boolean isXml(InputStream data) throws IOException {
+        byte[] prefix = new byte[MAX_PREFIX];
+
+        data.mark(prefix.length);
+
+        int length = 0;
+        int read;
+
+        while (length < prefix.length && (read = data.read(prefix, length, prefix.length - length)) != -1) {
+            length += read;
+        }
+
+        data.reset();
+
+        ByteBuffer payload = ByteBuffer.wrap(prefix, 0, length);
+        ByteBuffer skipped = skipByteOrderMark(payload);
+
+        if (skipped.position() > 0) {
+            data.skip(skipped.position());
+        }
+
+        return isXml(skipped);
+    }
+
     /**
      * Get the value of errorList
      *
@@ -115,52 +276,190 @@ public class Fhir2Vmr {
         ).findFirst().orElse(null);
     }
     */
+    /**
+     * Find the immunization a reference points to by searching the whole list. Looking up many
+     * references this way is quadratic, so build an index once with indexImmunizations and use
+     * findEvent(Map<String, Immunization>, Reference) instead.
+     *
+     * @param List<Immunization> immunizations : the immunizations to search
+     * @param Reference reference : the reference to an immunization
+     * @return Immunization, the first one with the referenced id or null if there is none
+     * @deprecated use findEvent(Map<String, Immunization>, Reference) with an index built once per conversion
+     */
+    @Deprecated
     protected Immunization findEvent(List<Immunization> immunizations, Reference reference) {
-        String referenceId = reference.getReference();
-        referenceId = referenceId.substring(referenceId.lastIndexOf("/") + 1);
+        String id = this.getReferencedId(reference);
 
-        final String immunizationId = referenceId;
+        if (id == null) {
+            return null;
+        }
 
-        return immunizations.stream().filter(
-            immunization -> immunization.getId().equals(immunizationId)
-        ).findFirst().orElse(null);
+        for (Immunization immunization : immunizations) {
+            if (immunization.hasIdElement() && id.equals(immunization.getIdElement().getIdPart())) {
+                return immunization;
+            }
+        }
+
+        return null;
     }
 
     /**
-     * @see getCdsOutputFromFhir(Patient, List<Immunization>, List<Immunization>, List<ImmunizationEvalution>, List<ImmunizationRecommendation>)
+     * Find the immunization a reference points to in an index built by indexImmunizations.
+     *
+     * @see getReferencedId(Reference)
+     * @param Map<String, Immunization> immunizations : the immunizations indexed by id
+     * @param Reference reference : the reference to an immunization
+     * @return Immunization, null if no immunization has the referenced id
      */
-    public CDSOutput getCdsOutputFromFhir(Patient patient) {
-        CDSOutput output = new CDSOutput();
-        VMR vmr = new VMR();
+    protected Immunization findEvent(Map<String, Immunization> immunizations, Reference reference) {
+        String id = this.getReferencedId(reference);
 
-        EvaluatedPerson evaluatedPerson = this.patientConverter.convertToCds(patient);
+        if (id == null) {
+            return null;
+        }
 
-        vmr.setPatient(evaluatedPerson);
+        return immunizations.get(id);
+    }
 
-        output.setVmrOutput(vmr);
+    /**
+     * Get the id of the immunization a reference points to. The reference can be relative
+     * (Immunization/123), absolute (http://server/fhir/Immunization/123) or versioned
+     * (Immunization/123/_history/2), only the id part is returned.
+     *
+     * @param Reference reference : the reference to an immunization
+     * @return String, null if there is no reference or it points to another type of resource
+     */
+    protected String getReferencedId(Reference reference) {
+        if (reference == null || !reference.hasReference()) {
+            return null;
+        }
 
-        return output;
+        IIdType id = reference.getReferenceElement();
+
+        if (id.hasResourceType() && !id.getResourceType().equals("Immunization")) {
+            return null;
+        }
+
+        return id.getIdPart();
     }
 
     /**
-     * @see getCdsOutputFromFhir(Patient, List<Immunization>, List<Immunization>, List<ImmunizationEvalution>, List<ImmunizationRecommendation>)
+     * Index immunizations by the id part of their id so evaluations can be linked to their
+     * immunization without searching the whole list each time. If two immunizations share an id the
+     * first one wins.
+     *
+     * @param List<Immunization> immunizations : the immunizations to index
+     * @return Map<String, Immunization>
      */
-    public CDSOutput getCdsOutputFromFhir(Patient patient, List<Immunization> immunizations) {
-        CDSOutput output = this.getCdsOutputFromFhir(patient);
+    protected Map<String, Immunization> indexImmunizations(List<Immunization> immunizations) {
+        Map<String, Immunization> index = new HashMap<>();
 
-        ClinicalStatements clinicalStatements = output.getVmrOutput().getPatient().getClinicalStatements();
-        if (clinicalStatements == null) {
-            clinicalStatements = new ClinicalStatements();
-            output.getVmrOutput().getPatient().setClinicalStatements(clinicalStatements);
+        for (Immunization immunization : immunizations) {
+            if (immunization.hasIdElement()) {
+                index.putIfAbsent(immunization.getIdElement().getIdPart(), immunization);
+            }
         }
 
-        SubstanceAdministrationEvents events = this.immunizationConverter.convertToCds(immunizations);
+        return index;
+    }
+
+    /**
+     * Convert every immunization into a SubstanceAdministrationEvent. Each event is stored in
+     * converted under the id part of its immunization. An immunization whose id is already there is
+     * a duplicate and is skipped, so every id is converted once per request and no event is added to
+     * the CDSOutput twice.
+     *
+     * @param List<Immunization> immunizations : the immunizations to convert
+     * @param Map<String, SubstanceAdministrationEvent> converted : the events already converted by id
+     * @return SubstanceAdministrationEvents
+     */
+    protected SubstanceAdministrationEvents convertImmunizations(
+        List<Immunization> immunizations,
+        Map<String, SubstanceAdministrationEvent> converted
+    ) {
+        final String METHODNAME = "convertImmunizations ";
+        SubstanceAdministrationEvents events = new SubstanceAdministrationEvents();
 
-        if (!events.getSubstanceAdministrationEvent().isEmpty()) {
-            output.getVmrOutput().getPatient().getClinicalStatements().setSubstanceAdministrationEvents(events);
+        for (Immunization immunization : immunizations) {
+            SubstanceAdministrationEvent event;
+
+            if (immunization.hasIdElement()) {
+                String id = immunization.getIdElement().getIdPart();
+
+                if (converted.containsKey(id)) {
+                    logger.debug(METHODNAME, "skipping duplicate immunization ", id);
+                    continue;
+                }
+
+                event = this.convertImmunization(immunization);
+                converted.put(id, event);
+            } else {
+                event = this.convertImmunization(immunization);
+            }
+
+            events.getSubstanceAdministrationEvent().add(event);
         }
 
-        return output;
+        return events;
+    }
+
+    /**
+     * Convert a single immunization, recording how long it took.
+     *
+     * @param Immunization immunization : the immunization to convert
+     * @return SubstanceAdministrationEvent
+     */
+    protected SubstanceAdministrationEvent convertImmunization(Immunization immunization) {
+        long start = System.nanoTime();
+        SubstanceAdministrationEvent event = this.immunizationConverter.convertToCds(immunization);
+
+        this.metrics.toCds(ResourceType.Immunization).record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+
+        return event;
+    }
+
+    /**
+     * Convert a patient, recording how long it took.
+     *
+     * @param Patient patient : the patient to convert
+     * @return EvaluatedPerson
+     */
+    protected EvaluatedPerson convertPatient(Patient patient) {
+        long start = System.nanoTime();
+        EvaluatedPerson evaluatedPerson = this.patientConverter.convertToCds(patient);
+
+        this.metrics.toCds(ResourceType.Patient).record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+
+        return evaluatedPerson;
+    }
+
+    /**
+     * Build the CDSInput held by a wrapper, recording how long it took.
+     *
+     * @param CdsInputWrapper wrapper : the wrapper holding the converted data
+     * @return CDSInput
+     */
+    protected CDSInput assembleCdsInput(CdsInputWrapper wrapper) {
+        long start = System.nanoTime();
+        CDSInput input = wrapper.getCdsObject();
+
+        this.metrics.assembleCdsInput().record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+
+        return input;
+    }
+
+    /**
+     * @see getCdsOutputFromFhir(Patient, List<Immunization>, List<Immunization>, List<ImmunizationEvalution>, List<ImmunizationRecommendation>)
+     */
+    public CDSOutput getCdsOutputFromFhir(Patient patient) {
+        return this.assembleCdsOutput(patient, null, null, null);
+    }
+
+    /**
+     * @see getCdsOutputFromFhir(Patient, List<Immunization>, List<Immunization>, List<ImmunizationEvalution>, List<ImmunizationRecommendation>)
+     */
+    public CDSOutput getCdsOutputFromFhir(Patient patient, List<Immunization> immunizations) {
+        return this.assembleCdsOutput(patient, immunizations, null, null);
     }
 
     /**
@@ -171,15 +470,7 @@ public class Fhir2Vmr {
         List<Observation> observations,
         List<Immunization> immunizations
     ) {
-        CDSOutput output = this.getCdsOutputFromFhir(patient, immunizations);
-
-        SubstanceAdministrationEvents events = this.immunizationConverter.convertToCds(immunizations);
-
-        if (!events.getSubstanceAdministrationEvent().isEmpty()) {
-            output.getVmrOutput().getPatient().getClinicalStatements().setSubstanceAdministrationEvents(events);
-        }
-
-        return output;
+        return this.assembleCdsOutput(patient, immunizations, null, null);
     }
 
     /**
@@ -191,34 +482,7 @@ public class Fhir2Vmr {
         List<Immunization> immunizations,
         List<ImmunizationEvaluation> evaluations
     ) {
-        CDSOutput output = this.getCdsOutputFromFhir(patient, observations, immunizations);
-
-        for (ImmunizationEvaluation evaluation : evaluations) {
-            /*
-            // find the parent substance administration event
-            SubstanceAdministrationEvent parentEvent = this.findEvent(
-                output.getVmrOutput().getPatient().getClinicalStatements().getSubstanceAdministrationEvents().getSubstanceAdministrationEvent(),
-                evaluation.getIdentifier()
-            );
-            */
-
-            Immunization immunization = this.findEvent(immunizations, evaluation.getImmunizationEvent());
-
-            SubstanceAdministrationEvent event = this.immunizationConverter.convertToCds(immunization);
-            RelatedClinicalStatement relatedClinicalStatement = new RelatedClinicalStatement();
-            relatedClinicalStatement.setSubstanceAdministrationEvent(event);
-            //parentEvent.getRelatedClinicalStatement().add(relatedClinicalStatement);
-
-            output.getVmrOutput().getPatient().getClinicalStatements().getSubstanceAdministrationEvents().getSubstanceAdministrationEvent().add(event);
-
-            RelatedClinicalStatement evaluationRelatedClinicalStatement = new RelatedClinicalStatement();
-            ObservationResult result = this.immunizationEvaluationConverter.convertToCds(evaluation);
-            evaluationRelatedClinicalStatement.setObservationResult(result);
-
-            event.getRelatedClinicalStatement().add(evaluationRelatedClinicalStatement);
-        }
-
-        return output;
+        return this.assembleCdsOutput(patient, immunizations, evaluations, null);
     }
 
     /**
@@ -240,16 +504,94 @@ public class Fhir2Vmr {
         List<ImmunizationEvaluation> evaluations,
         List<ImmunizationRecommendation> recommendations
     ) {
-        CDSOutput output = this.getCdsOutputFromFhir(patient, observations, immunizations, evaluations);
+        return this.assembleCdsOutput(patient, immunizations, evaluations, recommendations);
+    }
+
+    /**
+     * Build a CDSOutput object in a single pass. Every resource is converted exactly once: the
+     * immunizations are converted up front and each evaluation is attached to the event that was
+     * already created for the immunization it references instead of converting that immunization
+     * again. Evaluations that reference an immunization that was not supplied are skipped.
+     *
+     * @param Patient patient : a FHIR patient object
+     * @param List<Immunization> immunizations : the immunizations, null if there are none
+     * @param List<ImmunizationEvaluation> evaluations : the evaluations, null if there are none
+     * @param List<ImmunizationRecommendation> recommendations : the recommendations, null to not add any proposals
+     * @return CDSOutput
+     */
+    protected CDSOutput assembleCdsOutput(
+        Patient patient,
+        List<Immunization> immunizations,
+        List<ImmunizationEvaluation> evaluations,
+        List<ImmunizationRecommendation> recommendations
+    ) {
+        final String METHODNAME = "assembleCdsOutput ";
+
+        CDSOutput output = new CDSOutput();
+        VMR vmr = new VMR();
+
+        EvaluatedPerson evaluatedPerson = this.convertPatient(patient);
+
+        vmr.setPatient(evaluatedPerson);
+        output.setVmrOutput(vmr);
+
+        if (immunizations == null && evaluations == null && recommendations == null) {
+            return output;
+        }
+
+        ClinicalStatements clinicalStatements = evaluatedPerson.getClinicalStatements();
+
+        if (clinicalStatements == null) {
+            clinicalStatements = new ClinicalStatements();
+            evaluatedPerson.setClinicalStatements(clinicalStatements);
+        }
+
+        Map<String, SubstanceAdministrationEvent> converted = new HashMap<>();
+
+        if (immunizations != null) {
+            SubstanceAdministrationEvents events = this.convertImmunizations(immunizations, converted);
+
+            if (!events.getSubstanceAdministrationEvent().isEmpty()) {
+                clinicalStatements.setSubstanceAdministrationEvents(events);
+            }
+        }
+
+        if (evaluations != null) {
+            for (ImmunizationEvaluation evaluation : evaluations) {
+                String immunizationId = this.getReferencedId(evaluation.getImmunizationEvent());
+                SubstanceAdministrationEvent event = null;
+
+                if (immunizationId != null) {
+                    event = converted.get(immunizationId);
+                }
 
-        SubstanceAdministrationProposals proposals = new SubstanceAdministrationProposals();
+                if (event == null) {
+                    logger.debug(METHODNAME, "no immunization found for evaluation ", evaluation.getId());
+                    continue;
+                }
+
+                RelatedClinicalStatement evaluationRelatedClinicalStatement = new RelatedClinicalStatement();
+                long start = System.nanoTime();
+                ObservationResult result = this.immunizationEvaluationConverter.convertToCds(evaluation);
+                this.metrics.toCds(ResourceType.ImmunizationEvaluation).record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+                evaluationRelatedClinicalStatement.setObservationResult(result);
 
-        for (ImmunizationRecommendation recommendation : recommendations) {
-            SubstanceAdministrationProposal proposal = this.immunizationRecommendationConverter.convertToCds(recommendation);
-            proposals.getSubstanceAdministrationProposal().add(proposal);
+                event.getRelatedClinicalStatement().add(evaluationRelatedClinicalStatement);
+            }
         }
 
-        output.getVmrOutput().getPatient().getClinicalStatements().setSubstanceAdministrationProposals(proposals);
+        if (recommendations != null) {
+            SubstanceAdministrationProposals proposals = new SubstanceAdministrationProposals();
+
+            for (ImmunizationRecommendation recommendation : recommendations) {
+                long start = System.nanoTime();
+                SubstanceAdministrationProposal proposal = this.immunizationRecommendationConverter.convertToCds(recommendation);
+                this.metrics.toCds(ResourceType.ImmunizationRecommendation).record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+                proposals.getSubstanceAdministrationProposal().add(proposal);
+            }
+
+            clinicalStatements.setSubstanceAdministrationProposals(proposals);
+        }
 
         return output;
     }
@@ -272,25 +614,190 @@ public class Fhir2Vmr {
         }
 
         for (Object element : fhirElement.getJSONArray("parameter")) {
-            JSONObject object = new JSONObject(element.toString());
+            if (!(element instanceof JSONObject)) {
+                continue;
+            }
+
+            JSONObject object = (JSONObject) element;
 
             if (object.has("name") && object.has("resource")) {
+                long start = System.nanoTime();
+
                 // this should be a primitive
                 switch (object.getString("name")) {
                     case "immunization":
                         // convert observation data
                         wrapper = this.immunizationConverter.convertToCds(wrapper, object.getJSONObject("resource"));
+                        this.metrics.toCds(ResourceType.Immunization).record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
                         break;
 
                     case "patient":
                         // convert patient data
                         wrapper = this.patientConverter.convertToCds(wrapper, object.getJSONObject("resource"));
+                        this.metrics.toCds(ResourceType.Patient).record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
                         break;
                 }
             }
         }
 
-        return wrapper.getCdsObject();
+        return this.assembleCdsInput(wrapper);
+    }
+
+    /**
+     * Convert a parsed FHIR Parameters resource into cds formatted data. Each patient and
+     * immunization parameter is passed to the matching converter as a typed resource.
+     *
+     * @param CdsInputWrapper wrapper : the wrapper object that will be returned containing the data
+     * @param Parameters parameters : the parsed fhir parameters resource
+     * @return CDSInput element containing the data in the parameters resource
+     */
+    public CDSInput getCdsInputFromFhir(CdsInputWrapper wrapper, Parameters parameters) {
+        for (ParametersParameterComponent parameter : parameters.getParameter()) {
+            if (!parameter.hasName() || !parameter.hasResource()) {
+                continue;
+            }
+
+            wrapper = this.convertParameter(wrapper, parameter.getName(), parameter.getResource());
+        }
+
+        return this.assembleCdsInput(wrapper);
+    }
+
+    /**
+     * Convert fhir data read from a stream into cds formatted data. The parameter array is read
+     * incrementally and each resource is converted as soon as it has been read, so only one resource
+     * is held in memory at a time.
+     *
+     * @param CdsInputWrapper wrapper : the wrapper object that will be returned containing the data
+     * @param Reader data : the json Parameters resource to read, it is not closed by this method
+     * @return CDSInput element containing the data read from the stream
+     * @throws IllegalArgumentException if the data is not a Parameters resource
+     */
+    public CDSInput getCdsInputFromFhir(CdsInputWrapper wrapper, Reader data) throws IOException {
+        this.parametersStreamReader.read(
+            data,
+            PARAMETER_NAMES,
+            (name, resource) -> this.convertParameter(wrapper, name, resource)
+        );
+
+        return this.assembleCdsInput(wrapper);
+    }
+
+    /**
+     * @see getCdsInputFromFhir(CdsInputWrapper, Reader)
+     */
+    public CDSInput getCdsInputFromFhir(Reader data) throws IOException {
+        CdsInputWrapper wrapper = CdsInputWrapper.getCdsInputWrapper();
+
+        return this.getCdsInputFromFhir(wrapper, data);
+    }
+
+    /**
+     * Convert a UTF-8 encoded Parameters resource read from a stream into cds formatted data. Json is
+     * read incrementally the same way as getCdsInputFromFhir(CdsInputWrapper, Reader), xml is decoded
+     * straight from the stream. Either way the payload is never held as a String.
+     *
+     * @param CdsInputWrapper wrapper : the wrapper object that will be returned containing the data
+     * @param InputStream data : the json or xml Parameters resource to read, it is not closed by this method
+     * @return CDSInput element containing the data read from the stream
+     * @throws IllegalArgumentException if the data is not a Parameters resource
+     */
+    public CDSInput getCdsInputFromFhir(CdsInputWrapper wrapper, InputStream data) throws IOException {
+        InputStream stream = data;
+
+        if (!stream.markSupported()) {
+            stream = new BufferedInputStream(stream);
+        }
+
+        if (isXml(stream)) {
+            return this.getCdsInputFromXml(wrapper, new InputStreamReader(stream, StandardCharsets.UTF_8));
+        }
+
+        this.parametersStreamReader.read(
+            stream,
+            PARAMETER_NAMES,
+            (name, resource) -> this.convertParameter(wrapper, name, resource)
+        );
+
+        return this.assembleCdsInput(wrapper);
+    }
+
+    /**
+     * Parse an xml Parameters resource and convert it. Xml has no way to tell an empty parameter
+     * array from a missing one, so a resource without any parameter is rejected the same way json
+     * without a parameter array is.
+     *
+     * @param CdsInputWrapper wrapper : the wrapper object that will be returned containing the data
+     * @param Reader data : the xml Parameters resource to read, it is not closed by this method
+     * @return CDSInput element containing the data
+     * @throws IllegalArgumentException if the data is not a Parameters resource or has no parameter
+     */
+    protected CDSInput getCdsInputFromXml(CdsInputWrapper wrapper, Reader data) {
+        Parameters parameters;
+        long start = System.nanoTime();
+
+        try {
+            parameters = this.fhirContextProvider.newXmlParser().parseResource(Parameters.class, data);
+        } catch (DataFormatException exception) {
+            throw new IllegalArgumentException("Payload is not a Parameters resource", exception);
+        } finally {
+            this.metrics.parse(true).record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+        }
+
+        if (!parameters.hasParameter()) {
+            throw new IllegalArgumentException("No parameter found");
+        }
+
+        return this.getCdsInputFromFhir(wrapper, parameters);
+    }
+
+    /**
+     * @see getCdsInputFromFhir(CdsInputWrapper, InputStream)
+     */
+    public CDSInput getCdsInputFromFhir(InputStream data) throws IOException {
+        CdsInputWrapper wrapper = CdsInputWrapper.getCdsInputWrapper();
+
+        return this.getCdsInputFromFhir(wrapper, data);
+    }
+
+    /**
+     * Pass a single parameter resource to the converter that handles parameters with that name.
+     * Unrecognized names and resources of the wrong type are ignored.
+     *
+     * @param CdsInputWrapper wrapper : the wrapper object to store the converted data in
+     * @param String name : the name of the parameter
+     * @param Resource resource : the resource of the parameter
+     * @return CdsInputWrapper
+     */
+    protected CdsInputWrapper convertParameter(CdsInputWrapper wrapper, String name, Resource resource) {
+        long start = System.nanoTime();
+
+        switch (name) {
+            case "immunization":
+                if (resource instanceof Immunization) {
+                    wrapper = this.immunizationConverter.convertToCds(wrapper, (Immunization) resource);
+                    this.metrics.toCds(ResourceType.Immunization).record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+                }
+                break;
+
+            case "patient":
+                if (resource instanceof Patient) {
+                    wrapper = this.patientConverter.convertToCds(wrapper, (Patient) resource);
+                    this.metrics.toCds(ResourceType.Patient).record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+                }
+                break;
+        }
+
+        return wrapper;
+    }
+
+    /**
+     * @see getCdsInputFromFhir(CdsInputWrapper, Parameters)
+     */
+    public CDSInput getCdsInputFromFhir(Parameters parameters) {
+        CdsInputWrapper wrapper = CdsInputWrapper.getCdsInputWrapper();
+
+        return this.getCdsInputFromFhir(wrapper, parameters);
     }
 
     /**
@@ -300,7 +807,7 @@ public class Fhir2Vmr {
         CDSInput input = new CDSInput();
         VMR vmr = new VMR();
 
-        EvaluatedPerson evaluatedPerson = this.patientConverter.convertToCds(patient);
+        EvaluatedPerson evaluatedPerson = this.convertPatient(patient);
 
         vmr.setPatient(evaluatedPerson);
 
@@ -318,7 +825,9 @@ public class Fhir2Vmr {
         ClinicalStatements clinicalStatements = new ClinicalStatements();
 
         for (Observation observation : observations) {
+            long start = System.nanoTime();
             ObservationResult observationResult = this.immunizationConverter.convertToCdsObservation(observation);
+            this.metrics.toCds(ResourceType.Observation).record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
             observationResults.getObservationResult().add(observationResult);
         }
 
@@ -340,7 +849,11 @@ public class Fhir2Vmr {
     public CDSInput getCdsInputFromFhir(Patient patient, List<Immunization> immunizations, List<Observation> observations) {
         CDSInput input = this.getCdsInputFromFhir(patient, observations);
 
-        SubstanceAdministrationEvents substanceAdministrationEvents = this.immunizationConverter.convertToCds(immunizations);
+        SubstanceAdministrationEvents substanceAdministrationEvents = new SubstanceAdministrationEvents();
+
+        for (Immunization immunization : immunizations) {
+            substanceAdministrationEvents.getSubstanceAdministrationEvent().add(this.convertImmunization(immunization));
+        }
 
         if (!substanceAdministrationEvents.getSubstanceAdministrationEvent().isEmpty()) {
             input.getVmrInput().getPatient().getClinicalStatements().setSubstanceAdministrationEvents(substanceAdministrationEvents);
@@ -350,23 +863,30 @@ public class Fhir2Vmr {
     }
 
     /**
-     * @see getCdsInputFromFhir(CdsInputWrapper, JSONObject)
+     * @see getCdsInputFromFhir(CdsInputWrapper, String)
      */
     public CDSInput getCdsInputFromFhir(String data) {
         CdsInputWrapper wrapper = CdsInputWrapper.getCdsInputWrapper();
-        JSONObject fhirElement = this.createFhirElement(data);
 
-        return this.getCdsInputFromFhir(wrapper, fhirElement);
+        return this.getCdsInputFromFhir(wrapper, data);
     }
 
     /**
-     * @see getCdsInputFromFhir(CdsInputWrapper, JSONObject)
+     * @see getCdsInputFromFhir(CdsInputWrapper, ByteBuffer)
      */
     public CDSInput getCdsInputFromFhir(byte[] data) {
         CdsInputWrapper wrapper = CdsInputWrapper.getCdsInputWrapper();
-        JSONObject fhirElement = this.createFhirElement(data);
 
-        return this.getCdsInputFromFhir(wrapper, fhirElement);
+        return this.getCdsInputFromFhir(wrapper, data);
+    }
+
+    /**
+     * @see getCdsInputFromFhir(CdsInputWrapper, ByteBuffer)
+     */
+    public CDSInput getCdsInputFromFhir(ByteBuffer data) {
+        CdsInputWrapper wrapper = CdsInputWrapper.getCdsInputWrapper();
+
+        return this.getCdsInputFromFhir(wrapper, data);
     }
 
     /**
@@ -379,38 +899,72 @@ public class Fhir2Vmr {
     }
 
     /**
-     * @see getCdsInputFromFhir(CdsInputWrapper, JSONObject)
+     * Convert a json or xml Parameters resource into cds formatted data. The payload is read once,
+     * json the same way as getCdsInputFromFhir(CdsInputWrapper, Reader) and xml by the HAPI parser,
+     * so every overload taking a payload accepts and rejects the same data.
+     *
+     * @param CdsInputWrapper wrapper : the wrapper object that will be returned containing the data
+     * @param String data : the json or xml Parameters resource
+     * @return CDSInput element containing the data
+     * @throws IllegalArgumentException if the data is not a Parameters resource
      */
     public CDSInput getCdsInputFromFhir(CdsInputWrapper wrapper, String data) {
-        JSONObject fhirElement = this.createFhirElement(data);
-        return this.getCdsInputFromFhir(wrapper, fhirElement);
+        if (logger.isDebugEnabled()) {
+            final String METHODNAME = "getCdsInputFromFhir ";
+            logger.debug(METHODNAME, "payload=", data);
+        }
+
+        if (isXml(data)) {
+            return this.getCdsInputFromXml(wrapper, new StringReader(data));
+        }
+
+        try {
+            return this.getCdsInputFromFhir(wrapper, new StringReader(data));
+        } catch (IOException exception) {
+            // a StringReader never fails to read
+            throw new UncheckedIOException(exception);
+        }
     }
 
     /**
-     * @see getCdsInputFromFhir(CdsInputWrapper, JSONObject)
+     * @see getCdsInputFromFhir(CdsInputWrapper, ByteBuffer)
      */
     public CDSInput getCdsInputFromFhir(CdsInputWrapper wrapper, byte[] data) {
-        JSONObject fhirElement = this.createFhirElement(data);
-        return this.getCdsInputFromFhir(wrapper, fhirElement);
+        return this.getCdsInputFromFhir(wrapper, ByteBuffer.wrap(data));
     }
 
     /**
-     * @see getCdsInputFromFhir(CdsInputWrapper, JSONObject)
+     * Convert UTF-8 encoded fhir data into cds formatted data. The bytes are read the same way as
+     * getCdsInputFromFhir(CdsInputWrapper, InputStream) instead of being copied into a String first,
+     * which matters for large request bodies. The position of the buffer is left alone.
+     *
+     * @param CdsInputWrapper wrapper : the wrapper object that will be returned containing the data
+     * @param ByteBuffer data : the UTF-8 encoded json or xml, heap or direct
+     * @return CDSInput element containing the data
+     * @throws IllegalArgumentException if the data is not a Parameters resource
      */
-    public CDSInput getCdsInputFromFhir(IceCdsInputWrapper wrapper, String data) {
-        JSONObject fhirElement = this.createFhirElement(data);
+    public CDSInput getCdsInputFromFhir(CdsInputWrapper wrapper, ByteBuffer data) {
+        try {
+            return this.getCdsInputFromFhir(wrapper, new ByteBufferInputStream(data));
+        } catch (IOException exception) {
+            // a ByteBufferInputStream never fails to read
+            throw new UncheckedIOException(exception);
+        }
+    }
 
-        this.getCdsInputFromFhir(wrapper.getCdsInputWrapper(), fhirElement);
+    /**
+     * @see getCdsInputFromFhir(CdsInputWrapper, String)
+     */
+    public CDSInput getCdsInputFromFhir(IceCdsInputWrapper wrapper, String data) {
+        this.getCdsInputFromFhir(wrapper.getCdsInputWrapper(), data);
         return wrapper.getCdsInput();
     }
 
     /**
-     * @see getCdsInputFromFhir(CdsInputWrapper, JSONObject)
+     * @see getCdsInputFromFhir(CdsInputWrapper, ByteBuffer)
      */
     public CDSInput getCdsInputFromFhir(IceCdsInputWrapper wrapper, byte[] data) {
-        JSONObject fhirElement = this.createFhirElement(data);
-
-        this.getCdsInputFromFhir(wrapper.getCdsInputWrapper(), fhirElement);
+        this.getCdsInputFromFhir(wrapper.getCdsInputWrapper(), data);
         return wrapper.getCdsInput();
     }
 
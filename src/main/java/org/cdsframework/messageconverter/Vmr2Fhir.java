@@ -2,37 +2,207 @@ package org.cdsframework.messageconverter;
 
 import java.text.ParseException;
 import java.util.ArrayList;
+import java.util.EnumMap;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
 
+import org.cdsframework.messageconverter.fhir.convert.utils.FhirContextProvider;
+import org.cdsframework.messageconverter.fhir.convert.utils.VmrUtils;
 import org.cdsframework.messageconverter.fhir.convert.vmr.ImmunizationConverter;
 import org.cdsframework.messageconverter.fhir.convert.vmr.ImmunizationEvaluationConverter;
 import org.cdsframework.messageconverter.fhir.convert.vmr.ImmunizationRecommendationConverter;
 import org.cdsframework.messageconverter.fhir.convert.vmr.PatientConverter;
+import org.cdsframework.messageconverter.metrics.ConversionMetrics;
 import org.cdsframework.util.LogUtils;
+import org.hl7.fhir.r4.model.Bundle;
+import org.hl7.fhir.r4.model.Bundle.BundleType;
 import org.hl7.fhir.r4.model.Immunization;
 import org.hl7.fhir.r4.model.ImmunizationEvaluation;
 import org.hl7.fhir.r4.model.ImmunizationRecommendation;
+import org.hl7.fhir.r4.model.Parameters;
 import org.hl7.fhir.r4.model.Patient;
+import org.hl7.fhir.r4.model.Resource;
+import org.hl7.fhir.r4.model.ResourceType;
 import org.opencds.vmr.v1_0.schema.CDSInput;
 import org.opencds.vmr.v1_0.schema.CDSOutput;
-import org.opencds.vmr.v1_0.schema.EvaluatedPerson.ClinicalStatements.SubstanceAdministrationEvents;
+import org.opencds.vmr.v1_0.schema.EvaluatedPerson;
+import org.opencds.vmr.v1_0.schema.II;
 import org.opencds.vmr.v1_0.schema.ObservationResult;
 import org.opencds.vmr.v1_0.schema.RelatedClinicalStatement;
 import org.opencds.vmr.v1_0.schema.SubstanceAdministrationEvent;
+import org.opencds.vmr.v1_0.schema.SubstanceAdministrationProposal;
 
 /**
  * @author Brian Lamb
  */
 public class Vmr2Fhir {
-    protected ImmunizationConverter immunizationConverter = new ImmunizationConverter();
-    protected ImmunizationRecommendationConverter immunizationRecommendationConverter = new ImmunizationRecommendationConverter();
-    protected ImmunizationEvaluationConverter immunizationEvaluationConverter = new ImmunizationEvaluationConverter();
-    protected PatientConverter patientConverter = new PatientConverter();
+    protected ImmunizationConverter immunizationConverter;
+    protected ImmunizationRecommendationConverter immunizationRecommendationConverter;
+    protected ImmunizationEvaluationConverter immunizationEvaluationConverter;
+    protected PatientConverter patientConverter;
+    protected ConversionMetrics metrics;
     private final LogUtils logger = LogUtils.getLogger(Vmr2Fhir.class);
 
+    private static final Map<ResourceType, String> PARAMETER_NAMES = new EnumMap<>(ResourceType.class);
+
+    static {
+        PARAMETER_NAMES.put(ResourceType.Patient, "patient");
+        PARAMETER_NAMES.put(ResourceType.Immunization, "immunization");
+        PARAMETER_NAMES.put(ResourceType.ImmunizationEvaluation, "evaluation");
+        PARAMETER_NAMES.put(ResourceType.ImmunizationRecommendation, "recommendation");
+    }
+
+    public Vmr2Fhir() {
+        this(ConverterRegistry.getInstance());
+    }
+
+    /**
+     * Create a converter whose converters all share the fhir context held by fhirContextProvider.
+     *
+     * @param FhirContextProvider fhirContextProvider : the provider used to obtain fhir parsers
+     */
+    public Vmr2Fhir(FhirContextProvider fhirContextProvider) {
+        this.immunizationConverter = new ImmunizationConverter(fhirContextProvider);
+        this.patientConverter = new PatientConverter(fhirContextProvider);
+        this.immunizationRecommendationConverter = new ImmunizationRecommendationConverter(
+            this.immunizationConverter,
+            this.patientConverter
+        );
+        this.immunizationEvaluationConverter = new ImmunizationEvaluationConverter(
+            this.immunizationConverter,
+            this.patientConverter
+        );
+        this.metrics = ConversionMetrics.noop();
+    }
+
+    /**
+     * Create a converter that uses the converters already built by registry. The converters are
+     * stateless so the resulting object is safe to share between threads.
+     *
+     * @param ConverterRegistry registry : the registry holding the converters to use
+     */
+    public Vmr2Fhir(ConverterRegistry registry) {
+        this.immunizationConverter = registry.getImmunizationConverter();
+        this.immunizationRecommendationConverter = registry.getImmunizationRecommendationConverter();
+        this.immunizationEvaluationConverter = registry.getImmunizationEvaluationConverter();
+        this.patientConverter = registry.getPatientConverter();
+        this.metrics = registry.getMetrics();
+    }
+
+    /**
+     * Convert a whole CDSOutput into a collection Bundle. The patient is converted once and the
+     * clinical statements are walked once, so this is much cheaper than calling getPatient,
+     * getImmunizations, getEvaluations, getObservations and getRecommendation one after another.
+     * The Patient comes first, followed by the immunizations, the evaluations and the recommendation.
+     * Every evaluation points at the Immunization of the administered dose in the same Bundle.
+     *
+     * @param CDSOutput output : the object containing the patient, immunizations and forecast
+     * @return Bundle
+     * @throws IllegalArgumentException if the output has no patient or the patient has an unknown gender
+     */
+    public Bundle getBundle(CDSOutput output) throws IllegalArgumentException {
+        List<Resource> resources = this.getResources(output);
+        long start = System.nanoTime();
+        Bundle bundle = new Bundle();
+        bundle.setType(BundleType.COLLECTION);
+
+        for (Resource resource : resources) {
+            bundle.addEntry().setResource(resource);
+        }
+
+        this.metrics.assembleBundle().record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+
+        return bundle;
+    }
+
+    /**
+     * Convert a whole CDSOutput into the Parameters returned by an immds-forecast operation. This
+     * holds the same resources as getBundle, named patient, immunization, evaluation and recommendation.
+     *
+     * @param CDSOutput output : the object containing the patient, immunizations and forecast
+     * @return Parameters
+     * @throws IllegalArgumentException if the output has no patient or the patient has an unknown gender
+     */
+    public Parameters getParameters(CDSOutput output) throws IllegalArgumentException {
+        List<Resource> resources = this.getResources(output);
+        long start = System.nanoTime();
+        Parameters parameters = new Parameters();
+
+        for (Resource resource : resources) {
+            parameters.addParameter()
+                .setName(PARAMETER_NAMES.get(resource.getResourceType()))
+                .setResource(resource);
+        }
+
+        this.metrics.assembleParameters().record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+
+        return parameters;
+    }
+
+    /**
+     * Convert every resource held in a CDSOutput in a single pass over its clinical statements.
+     *
+     * @param CDSOutput output : the object containing the patient, immunizations and forecast
+     * @return List<Resource> the patient, immunizations, evaluations and recommendation in that order
+     */
+    protected List<Resource> getResources(CDSOutput output) throws IllegalArgumentException {
+        if (output.getVmrOutput() == null || output.getVmrOutput().getPatient() == null) {
+            throw new IllegalArgumentException("CDSOutput has no patient");
+        }
+
+        EvaluatedPerson person = output.getVmrOutput().getPatient();
+        Patient patient = this.convertPatient(person);
+
+        List<Resource> immunizations = new ArrayList<>();
+        List<Resource> evaluations = new ArrayList<>();
+
+        for (SubstanceAdministrationEvent event : VmrUtils.getSubstanceAdministrationEvents(person)) {
+            Immunization immunization = this.convertImmunization(patient, event);
+            immunizations.add(immunization);
+
+            // every evaluated dose sits one level down inside the administered substance
+            for (RelatedClinicalStatement relatedClinicalStatement : event.getRelatedClinicalStatement()) {
+                SubstanceAdministrationEvent component = relatedClinicalStatement.getSubstanceAdministrationEvent();
+
+                if (component == null) {
+                    continue;
+                }
+
+                for (RelatedClinicalStatement evaluated : component.getRelatedClinicalStatement()) {
+                    evaluations.add(this.convertEvaluation(
+                        patient,
+                        immunization,
+                        evaluated.getObservationResult()
+                    ));
+                }
+            }
+        }
+
+        for (ObservationResult result : VmrUtils.getObservationResults(person)) {
+            immunizations.add(this.convertImmunization(patient, result));
+        }
+
+        ImmunizationRecommendation recommendation = this.convertRecommendation(
+            patient,
+            person.getId(),
+            VmrUtils.getSubstanceAdministrationProposals(person)
+        );
+
+        List<Resource> resources = new ArrayList<>(immunizations.size() + evaluations.size() + 2);
+
+        resources.add(patient);
+        resources.addAll(immunizations);
+        resources.addAll(evaluations);
+        resources.add(recommendation);
+
+        return resources;
+    }
+
     /**
      * This method converts a CDSOutput object into a list of ImmunizationEvaluation objects. This data is contained
-     * inside of SubstanceAdministrationEvents.
+     * inside of SubstanceAdministrationEvents. Every evaluation points at the Immunization of the
+     * administered dose, the same as in getBundle.
      *
      * @param CDSOutput output : object containing recommendations and evaluations
      * @return List<ImmunizationEvaluation>
@@ -40,26 +210,28 @@ public class Vmr2Fhir {
     public List<ImmunizationEvaluation> getEvaluations(CDSOutput output) throws ParseException {
         List<ImmunizationEvaluation> evaluations = new ArrayList<ImmunizationEvaluation>();
 
-        Patient patient = this.patientConverter.convertToFhir(output);
-        SubstanceAdministrationEvents substanceAdministrationEvents = output.getVmrOutput()
-            .getPatient()
-            .getClinicalStatements()
-            .getSubstanceAdministrationEvents();
+        Patient patient = this.convertPatient(output);
 
-        if (substanceAdministrationEvents == null) {
-            return evaluations;
-        }
+        // the evaluated doses are nested one level down inside the administered substance
+        for (SubstanceAdministrationEvent outerSubstanceAdministrationEvent : VmrUtils.getSubstanceAdministrationEvents(output.getVmrOutput().getPatient())) {
+            Immunization immunization = null;
 
-        // this next line is null so we need to grab it and do it
-        for (SubstanceAdministrationEvent outerSubstanceAdministrationEvent : substanceAdministrationEvents.getSubstanceAdministrationEvent()) {
             for (RelatedClinicalStatement outerRelatedClinicalStatement : outerSubstanceAdministrationEvent.getRelatedClinicalStatement()) {
                 SubstanceAdministrationEvent substanceAdministrationEvent = outerRelatedClinicalStatement.getSubstanceAdministrationEvent();
 
-                Immunization immunization = this.immunizationConverter.convertToFhir(patient, substanceAdministrationEvent);
+                if (substanceAdministrationEvent == null) {
+                    this.logger.debug("getEvaluations", "No substance administration event found in related clinical statement");
+                    continue;
+                }
+
+                // the evaluations reference the administered dose, not the component that was evaluated
+                if (immunization == null) {
+                    immunization = this.convertImmunization(patient, outerSubstanceAdministrationEvent);
+                }
 
                 for (RelatedClinicalStatement relatedClinicalStatement : substanceAdministrationEvent.getRelatedClinicalStatement()) {
                     ObservationResult observationResult = relatedClinicalStatement.getObservationResult();
-                    ImmunizationEvaluation immunizationEvaluation = this.immunizationEvaluationConverter.convertToFhir(patient, immunization, observationResult);
+                    ImmunizationEvaluation immunizationEvaluation = this.convertEvaluation(patient, immunization, observationResult);
                     evaluations.add(immunizationEvaluation);
                 }
             }
@@ -76,15 +248,15 @@ public class Vmr2Fhir {
      * @return List<Immunization>
      */
     public List<Immunization> getObservations(CDSInput input) {
-        Patient patient = this.patientConverter.convertToFhir(input.getVmrInput().getPatient());
+        Patient patient = this.convertPatient(input.getVmrInput().getPatient());
         return this.getObservations(input, patient);
     }
 
     public List<Immunization> getObservations(CDSInput input, Patient patient) {
         List<Immunization> observations = new ArrayList<Immunization>();
 
-        for (ObservationResult result : input.getVmrInput().getPatient().getClinicalStatements().getObservationResults().getObservationResult()) {
-            observations.add(this.immunizationConverter.convertToFhir(patient, result));
+        for (ObservationResult result : VmrUtils.getObservationResults(input.getVmrInput().getPatient())) {
+            observations.add(this.convertImmunization(patient, result));
         }
 
         return observations;
@@ -98,15 +270,15 @@ public class Vmr2Fhir {
      * @return List<Immunization>
      */
     public List<Immunization> getObservations(CDSOutput output) throws ParseException {
-        Patient patient = this.patientConverter.convertToFhir(output);
+        Patient patient = this.convertPatient(output);
         return this.getObservations(output, patient);
     }
 
     public List<Immunization> getObservations(CDSOutput output, Patient patient) throws ParseException {
         List<Immunization> observations = new ArrayList<Immunization>();
 
-        for (ObservationResult result : output.getVmrOutput().getPatient().getClinicalStatements().getObservationResults().getObservationResult()) {
-            observations.add(this.immunizationConverter.convertToFhir(patient, result));
+        for (ObservationResult result : VmrUtils.getObservationResults(output.getVmrOutput().getPatient())) {
+            observations.add(this.convertImmunization(patient, result));
         }
 
         return observations;
@@ -120,8 +292,13 @@ public class Vmr2Fhir {
      * @return ImmunizationRecommendation
      */
     public ImmunizationRecommendation getRecommendation(CDSOutput output) throws IllegalArgumentException, ParseException {
-        Patient patient = this.patientConverter.convertToFhir(output);
-        ImmunizationRecommendation recommendation = this.immunizationRecommendationConverter.convertToFhir(patient, output.getVmrOutput().getPatient().getClinicalStatements().getSubstanceAdministrationProposals().getSubstanceAdministrationProposal());
+        Patient patient = this.convertPatient(output);
+        EvaluatedPerson person = output.getVmrOutput().getPatient();
+        ImmunizationRecommendation recommendation = this.convertRecommendation(
+            patient,
+            person.getId(),
+            VmrUtils.getSubstanceAdministrationProposals(person)
+        );
 
         return recommendation;
     }
@@ -134,7 +311,7 @@ public class Vmr2Fhir {
      * @return Patient
      */
     public Patient getPatient(CDSOutput output) throws IllegalArgumentException, ParseException {
-        return this.patientConverter.convertToFhir(output);
+        return this.convertPatient(output);
     }
 
     /**
@@ -145,19 +322,20 @@ public class Vmr2Fhir {
      * @return List<Immunization>
      */
     public List<Immunization> getImmunizations(CDSInput input) {
-        Patient patient = this.patientConverter.convertToFhir(input.getVmrInput().getPatient());
+        Patient patient = this.convertPatient(input.getVmrInput().getPatient());
         return this.getImmunizations(input, patient);
     }
 
     public List<Immunization> getImmunizations(CDSInput input, Patient patient) {
         List<Immunization> immunizations = new ArrayList<Immunization>();
 
-        try {
-            for (SubstanceAdministrationEvent event : input.getVmrInput().getPatient().getClinicalStatements().getSubstanceAdministrationEvents().getSubstanceAdministrationEvent()) {
-                immunizations.add(this.immunizationConverter.convertToFhir(patient, event));
-            }
-        } catch (NullPointerException exception) {
+        if (input.getVmrInput() == null) {
             this.logger.debug("getImmunizations", "No substance administration events found");
+            return immunizations;
+        }
+
+        for (SubstanceAdministrationEvent event : VmrUtils.getSubstanceAdministrationEvents(input.getVmrInput().getPatient())) {
+            immunizations.add(this.convertImmunization(patient, event));
         }
 
         return immunizations;
@@ -171,19 +349,20 @@ public class Vmr2Fhir {
      * @return List<Immunization>
      */
     public List<Immunization> getImmunizations(CDSOutput output) throws ParseException {
-        Patient patient = this.patientConverter.convertToFhir(output);
+        Patient patient = this.convertPatient(output);
         return this.getImmunizations(output, patient);
     }
 
     public List<Immunization> getImmunizations(CDSOutput output, Patient patient) {
         List<Immunization> immunizations = new ArrayList<Immunization>();
 
-        try {
-            for (SubstanceAdministrationEvent event : output.getVmrOutput().getPatient().getClinicalStatements().getSubstanceAdministrationEvents().getSubstanceAdministrationEvent()) {
-                immunizations.add(this.immunizationConverter.convertToFhir(patient, event));
-            }
-        } catch (NullPointerException exception) {
+        if (output.getVmrOutput() == null) {
             this.logger.debug("getImmunizations", "No substance administration events found");
+            return immunizations;
+        }
+
+        for (SubstanceAdministrationEvent event : VmrUtils.getSubstanceAdministrationEvents(output.getVmrOutput().getPatient())) {
+            immunizations.add(this.convertImmunization(patient, event));
         }
 
         return immunizations;
@@ -197,6 +376,102 @@ public class Vmr2Fhir {
      * @return Patient
      */
     public Patient getPatient(CDSInput input) throws ParseException {
-        return this.patientConverter.convertToFhir(input.getVmrInput().getPatient());
+        return this.convertPatient(input.getVmrInput().getPatient());
+    }
+
+    /**
+     * Convert the patient of a CDSOutput, recording how long it took.
+     *
+     * @param CDSOutput output : the object containing the patient data
+     * @return Patient
+     */
+    protected Patient convertPatient(CDSOutput output) throws IllegalArgumentException, ParseException {
+        long start = System.nanoTime();
+        Patient patient = this.patientConverter.convertToFhir(output);
+
+        this.metrics.toFhir(ResourceType.Patient).record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+
+        return patient;
+    }
+
+    /**
+     * Convert a patient, recording how long it took.
+     *
+     * @param EvaluatedPerson person : the patient data
+     * @return Patient
+     */
+    protected Patient convertPatient(EvaluatedPerson person) throws IllegalArgumentException {
+        long start = System.nanoTime();
+        Patient patient = this.patientConverter.convertToFhir(person);
+
+        this.metrics.toFhir(ResourceType.Patient).record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+
+        return patient;
+    }
+
+    /**
+     * Convert an administered dose, recording how long it took.
+     *
+     * @param Patient patient : the patient the dose was given to
+     * @param SubstanceAdministrationEvent event : the dose
+     * @return Immunization
+     */
+    protected Immunization convertImmunization(Patient patient, SubstanceAdministrationEvent event) {
+        long start = System.nanoTime();
+        Immunization immunization = this.immunizationConverter.convertToFhir(patient, event);
+
+        this.metrics.toFhir(ResourceType.Immunization).record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+
+        return immunization;
+    }
+
+    /**
+     * Convert an observation result, recording how long it took.
+     *
+     * @param Patient patient : the patient the observation belongs to
+     * @param ObservationResult result : the observation
+     * @return Immunization
+     */
+    protected Immunization convertImmunization(Patient patient, ObservationResult result) {
+        long start = System.nanoTime();
+        Immunization immunization = this.immunizationConverter.convertToFhir(patient, result);
+
+        this.metrics.toFhir(ResourceType.Immunization).record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+
+        return immunization;
+    }
+
+    /**
+     * Convert an evaluated dose, recording how long it took.
+     *
+     * @param Patient patient : the patient the dose was given to
+     * @param Immunization immunization : the immunization being evaluated
+     * @param ObservationResult observationResult : the evaluation
+     * @return ImmunizationEvaluation
+     */
+    protected ImmunizationEvaluation convertEvaluation(Patient patient, Immunization immunization, ObservationResult observationResult) {
+        long start = System.nanoTime();
+        ImmunizationEvaluation evaluation = this.immunizationEvaluationConverter.convertToFhir(patient, immunization, observationResult);
+
+        this.metrics.toFhir(ResourceType.ImmunizationEvaluation).record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+
+        return evaluation;
+    }
+
+    /**
+     * Convert the forecast, recording how long it took.
+     *
+     * @param Patient patient : the patient the forecast is for
+     * @param II patientId : the vMR identifier of the patient
+     * @param List<SubstanceAdministrationProposal> proposals : the forecast
+     * @return ImmunizationRecommendation
+     */
+    protected ImmunizationRecommendation convertRecommendation(Patient patient, II patientId, List<SubstanceAdministrationProposal> proposals) {
+        long start = System.nanoTime();
+        ImmunizationRecommendation recommendation = this.immunizationRecommendationConverter.convertToFhir(patient, patientId, proposals);
+
+        this.metrics.toFhir(ResourceType.ImmunizationRecommendation).record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+
+        return recommendation;
     }
-}
\ No newline at end of file
+}
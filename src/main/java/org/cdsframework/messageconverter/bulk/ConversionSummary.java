@@ -0,0 +1,281 @@
+package org.cdsframework.messageconverter.bulk;
+
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.regex.Pattern;
+
+/**
+ * Counts what a DirectoryConverter did. Every converting thread records into the same summary, so
+ * the counters are adders and failures are grouped by their exception type and message. The file
+ * name and every number are taken out of the message first, so the same failure in different files
+ * lands in one group, and only the first file of each group is kept. Past MAX_REASONS groups a new
+ * failure is grouped by its exception type alone, so the summary stays a few lines long however
+ * large the corpus is.
+ *
+ * @author Brian Lamb
+ */
+public class ConversionSummary {
+    public static final int MAX_REASONS = 100;
+    public static final int MAX_REASON_LENGTH = 200;
+
+    private static final Pattern NUMBER = Pattern.compile("[0-9]+");
+
+    protected LongAdder converted = new LongAdder();
+    protected LongAdder failed = new LongAdder();
+    protected LongAdder skipped = new LongAdder();
+    protected LongAdder bytesRead = new LongAdder();
+    protected LongAdder bytesWritten = new LongAdder();
+    protected ConcurrentMap<String, LongAdder> kinds = new ConcurrentHashMap<>();
+    protected ConcurrentMap<String, Failure> failures = new ConcurrentHashMap<>();
+    protected long elapsedNanos;
+
+    /**
+     * Every file that failed for the same reason.
+     */
+    public static class Failure {
+        protected final String reason;
+        protected final Path firstFile;
+        protected final AtomicLong count = new AtomicLong();
+
+        /**
+         * @param String reason : the exception type and normalized message
+         * @param Path firstFile : the first file that failed this way
+         */
+        protected Failure(String reason, Path firstFile) {
+            this.reason = reason;
+            this.firstFile = firstFile;
+        }
+
+        /**
+         * Get the value of reason
+         *
+         * @return the value of reason
+         */
+        public String getReason() {
+            return this.reason;
+        }
+
+        /**
+         * Get the value of firstFile
+         *
+         * @return the value of firstFile
+         */
+        public Path getFirstFile() {
+            return this.firstFile;
+        }
+
+        /**
+         * Get the number of files that failed this way
+         *
+         * @return the number of files that failed this way
+         */
+        public long getCount() {
+            return this.count.get();
+        }
+    }
+
+    /**
+     * Record a file that was converted.
+     *
+     * @param String kind : what the file held, for example cdsInput
+     * @param long read : the size of the file
+     * @param long written : the size of the converted file
+     */
+    public void success(String kind, long read, long written) {
+        this.converted.increment();
+        this.bytesRead.add(read);
+        this.bytesWritten.add(written);
+        this.kinds.computeIfAbsent(kind, key -> new LongAdder()).increment();
+    }
+
+    /**
+     * Record a file that couldn't be converted.
+     *
+     * @param Path file : the file
+     * @param Throwable exception : why it failed
+     */
+    public void failure(Path file, Throwable exception) {
+        String type = exception.getClass().getSimpleName();
+        String reason = type;
+
+        if (exception.getMessage() != null) {
+            reason = type + ": " + normalize(exception.getMessage(), file);
+        }
+
+        if (this.failures.size() >= MAX_REASONS && !this.failures.containsKey(reason)) {
+            reason = type;
+        }
+
+        this.failed.increment();
+        this.failures.computeIfAbsent(reason, key -> new Failure(key, file)).count.incrementAndGet();
+    }
+
+    /**
+     * Take what differs from file to file out of a failure message: the file itself, every number
+     * and anything past MAX_REASON_LENGTH.
+     *
+     * @param String message : the message of the exception
+     * @param Path file : the file that failed
+     * @return String
+     */
+    protected static String normalize(String message, Path file) {
+        String normalized = message;
+
+        if (file != null) {
+            normalized = normalized.replace(file.toString(), "<file>");
+
+            if (file.getFileName() != null) {
+                normalized = normalized.replace(file.getFileName().toString(), "<file>");
+            }
+        }
+
+        normalized = NUMBER.matcher(normalized).replaceAll("#");
+
+        if (normalized.length() > MAX_REASON_LENGTH) {
+            normalized = normalized.substring(0, MAX_REASON_LENGTH) + "...";
+        }
+
+        return normalized;
+    }
+
+    /**
+     * Record a file that was left alone because it isn't xml or json.
+     */
+    public void skip() {
+        this.skipped.increment();
+    }
+
+    /**
+     * Get the number of files converted
+     *
+     * @return the number of files converted
+     */
+    public long getConverted() {
+        return this.converted.sum();
+    }
+
+    /**
+     * Get the number of files that failed
+     *
+     * @return the number of files that failed
+     */
+    public long getFailed() {
+        return this.failed.sum();
+    }
+
+    /**
+     * Get the number of files skipped
+     *
+     * @return the number of files skipped
+     */
+    public long getSkipped() {
+        return this.skipped.sum();
+    }
+
+    /**
+     * Get the number of bytes read from converted files
+     *
+     * @return the number of bytes read from converted files
+     */
+    public long getBytesRead() {
+        return this.bytesRead.sum();
+    }
+
+    /**
+     * Get the number of bytes written
+     *
+     * @return the number of bytes written
+     */
+    public long getBytesWritten() {
+        return this.bytesWritten.sum();
+    }
+
+    /**
+     * Get the number of files converted of each kind
+     *
+     * @return the number of files converted of each kind, sorted by kind
+     */
+    public Map<String, Long> getKinds() {
+        Map<String, Long> kinds = new TreeMap<>();
+
+        this.kinds.forEach((kind, count) -> kinds.put(kind, count.sum()));
+
+        return kinds;
+    }
+
+    /**
+     * Get the failures grouped by reason
+     *
+     * @return the failures, the most common first
+     */
+    public List<Failure> getFailures() {
+        List<Failure> failures = new ArrayList<>(this.failures.values());
+
+        failures.sort((a, b) -> Long.compare(b.getCount(), a.getCount()));
+
+        return failures;
+    }
+
+    /**
+     * Get the value of elapsedNanos
+     *
+     * @return the value of elapsedNanos
+     */
+    public long getElapsedNanos() {
+        return this.elapsedNanos;
+    }
+
+    /**
+     * Set the value of elapsedNanos
+     *
+     * @param long elapsedNanos : how long the conversion took
+     */
+    public void setElapsedNanos(long elapsedNanos) {
+        this.elapsedNanos = elapsedNanos;
+    }
+
+    /**
+     * The throughput and failures, the way the command line prints them.
+     *
+     * @return String
+     */
+    @Override
+    public String toString() {
+        double seconds = Math.max(this.elapsedNanos, 1) / 1e9;
+        StringBuilder summary = new StringBuilder();
+
+        summary.append(String.format(
+            "converted   %d files in %.1f s, %.1f files/s %s%n",
+            this.getConverted(),
+            seconds,
+            this.getConverted() / seconds,
+            this.getKinds()
+        ));
+        summary.append(String.format(
+            "read        %.1f MB, %.1f MB/s%n",
+            this.getBytesRead() / 1e6,
+            this.getBytesRead() / 1e6 / seconds
+        ));
+        summary.append(String.format("written     %.1f MB%n", this.getBytesWritten() / 1e6));
+        summary.append(String.format("skipped     %d files%n", this.getSkipped()));
+        summary.append(String.format("failed      %d files%n", this.getFailed()));
+
+        for (Failure failure : this.getFailures()) {
+            summary.append(String.format(
+                "  %6d  %s, first in %s%n",
+                failure.getCount(),
+                failure.getReason(),
+                failure.getFirstFile()
+            ));
+        }
+
+        return summary.toString();
+    }
+}
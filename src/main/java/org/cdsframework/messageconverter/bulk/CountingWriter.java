@@ -0,0 +1,73 @@
+package org.cdsframework.messageconverter.bulk;
+
+import java.io.FilterWriter;
+import java.io.IOException;
+import java.io.Writer;
+
+/**
+ * Passes everything through to another writer while counting how many bytes it takes up once
+ * encoded as UTF-8. Counting here instead of below the encoder means the count is exact even though
+ * the encoder and any compression below it buffer their output.
+ *
+ * @author Brian Lamb
+ */
+class CountingWriter extends FilterWriter {
+    protected long bytes;
+
+    /**
+     * @param Writer writer : the writer everything is passed to
+     */
+    CountingWriter(Writer writer) {
+        super(writer);
+    }
+
+    /**
+     * Get the value of bytes
+     *
+     * @return the number of UTF-8 bytes written so far
+     */
+    long getBytes() {
+        return this.bytes;
+    }
+
+    @Override
+    public void write(int c) throws IOException {
+        this.out.write(c);
+        this.bytes += utf8Length((char) c);
+    }
+
+    @Override
+    public void write(char[] chars, int offset, int length) throws IOException {
+        this.out.write(chars, offset, length);
+
+        for (int i = offset; i < offset + length; i++) {
+            this.bytes += utf8Length(chars[i]);
+        }
+    }
+
+    @Override
+    public void write(String str, int offset, int length) throws IOException {
+        this.out.write(str, offset, length);
+
+        for (int i = offset; i < offset + length; i++) {
+            this.bytes += utf8Length(str.charAt(i));
+        }
+    }
+
+    /**
+     * Get the number of bytes a char takes up in UTF-8. Each half of a surrogate pair counts for
+     * two so the pair adds up to the four bytes it is encoded as.
+     *
+     * @param char c : the char to measure
+     * @return int
+     */
+    protected static int utf8Length(char c) {
+        if (c < 0x80) {
+            return 1;
+        } else if (c < 0x800 || Character.isSurrogate(c)) {
+            return 2;
+        } else {
+            return 3;
+        }
+    }
+}
@@ -0,0 +1,418 @@
+package org.cdsframework.messageconverter.bulk;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.text.ParseException;
+import java.util.Iterator;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Phaser;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+import org.cdsframework.cds.vmr.CdsObjectAssist;
+import org.cdsframework.messageconverter.AsyncConverter;
+import org.cdsframework.messageconverter.ConverterRegistry;
+import org.cdsframework.messageconverter.Vmr2Fhir;
+import org.cdsframework.messageconverter.fhir.convert.utils.FhirOutput;
+import org.cdsframework.util.LogUtils;
+import org.hl7.fhir.r4.model.Immunization;
+import org.hl7.fhir.r4.model.Parameters;
+import org.hl7.fhir.r4.model.Patient;
+import org.opencds.vmr.v1_0.schema.CDSInput;
+import org.opencds.vmr.v1_0.schema.CDSOutput;
+
+/**
+ * Converts every file in a directory tree and writes the results to a second tree with the same
+ * layout. What a file holds is worked out from its content: cdsInput and cdsOutput xml become json
+ * FHIR Parameters, and FHIR Parameters in json or xml become cdsInput xml. Files that are neither xml
+ * nor json are skipped, and a file that fails to convert is counted in the summary without stopping
+ * the rest.
+ *
+ * Files are converted on a fixed pool with one thread per processor by default. Reading, converting
+ * and writing a file all happen on the pool, and only maxInFlight files are queued or being converted
+ * at once, so the tree is walked no faster than files are written and memory stays flat however large
+ * the tree is.
+ *
+ * Usage: DirectoryConverter input output [threads] [maxInFlight]
+ *
+ * @author Brian Lamb
+ */
+public class DirectoryConverter {
+    private static final LogUtils logger = LogUtils.getLogger(DirectoryConverter.class);
+
+    public static final String CDS_INPUT = "cdsInput";
+    public static final String CDS_OUTPUT = "cdsOutput";
+    public static final String FHIR = "fhir";
+    public static final int MAX_IN_FLIGHT = 32768;
+
+    protected ConverterRegistry registry;
+    protected Vmr2Fhir vmr2Fhir;
+    protected FhirOutput fhirOutput;
+    protected int threads;
+    protected int maxInFlight;
+
+    /**
+     * Use the shared converters, one thread per processor and four files in flight per thread.
+     */
+    public DirectoryConverter() {
+        this(ConverterRegistry.getInstance(), Runtime.getRuntime().availableProcessors(), Runtime.getRuntime().availableProcessors() * 4);
+    }
+
+    /**
+     * @param ConverterRegistry registry : the registry holding the converters to use
+     * @param int threads : how many files are converted at once
+     * @param int maxInFlight : how many files may be queued or being converted at once
+     */
+    public DirectoryConverter(ConverterRegistry registry, int threads, int maxInFlight) {
+        if (threads < 1) {
+            throw new IllegalArgumentException("threads has to be at least 1");
+        }
+
+        if (maxInFlight < threads) {
+            throw new IllegalArgumentException("maxInFlight has to be at least the number of threads");
+        }
+
+        // every file in flight is a party of a Phaser, which allows at most 65535, and files that are
+        // finishing still hold theirs for a moment after the next ones start
+        if (maxInFlight > MAX_IN_FLIGHT) {
+            throw new IllegalArgumentException("maxInFlight can be at most " + MAX_IN_FLIGHT);
+        }
+
+        this.registry = registry;
+        this.vmr2Fhir = registry.getVmr2Fhir();
+        this.fhirOutput = new FhirOutput(registry.getFhirContextProvider());
+        this.threads = threads;
+        this.maxInFlight = maxInFlight;
+    }
+
+    public static void main(String[] args) throws IOException {
+        if (args.length < 2) {
+            System.err.println("Usage: DirectoryConverter input output [threads] [maxInFlight]");
+            System.exit(2);
+        }
+
+        int threads = Runtime.getRuntime().availableProcessors();
+
+        if (args.length > 2) {
+            threads = Integer.parseInt(args[2]);
+        }
+
+        int maxInFlight = threads * 4;
+
+        if (args.length > 3) {
+            maxInFlight = Integer.parseInt(args[3]);
+        }
+
+        DirectoryConverter converter = new DirectoryConverter(ConverterRegistry.getInstance(), threads, maxInFlight);
+        ConversionSummary summary = converter.convert(Paths.get(args[0]), Paths.get(args[1]));
+
+        System.out.print(summary);
+
+        if (summary.getFailed() > 0) {
+            System.exit(1);
+        }
+    }
+
+    /**
+     * Convert every file under input into the same place under output. When output is inside input
+     * the files already under output are left alone.
+     *
+     * @param Path input : the directory to read
+     * @param Path output : the directory to write, created if needed
+     * @return ConversionSummary what was converted, skipped and failed
+     * @throws IOException if input can't be walked
+     */
+    public ConversionSummary convert(Path input, Path output) throws IOException {
+        Path source = input.toAbsolutePath().normalize();
+        Path target = output.toAbsolutePath().normalize();
+
+        if (!Files.isDirectory(source)) {
+            throw new IllegalArgumentException(input + " is not a directory");
+        }
+
+        ConversionSummary summary = new ConversionSummary();
+        ExecutorService executor = Executors.newFixedThreadPool(this.threads);
+        // one party for the walk plus one for every file still in flight
+        Phaser pending = new Phaser(1);
+        long start = System.nanoTime();
+
+        try (AsyncConverter asyncConverter = new AsyncConverter(this.registry, executor, this.maxInFlight, Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+            Stream<Path> files = Files.walk(source)) {
+            Iterator<Path> iterator = files.iterator();
+
+            while (iterator.hasNext()) {
+                Path file = iterator.next();
+
+                if (!Files.isRegularFile(file) || file.startsWith(target)) {
+                    continue;
+                }
+
+                if (!isConvertible(file)) {
+                    summary.skip();
+                    continue;
+                }
+
+                pending.register();
+
+                try {
+                    // blocks while maxInFlight files are outstanding
+                    asyncConverter.submit(file, path -> this.convertFile(path, source, target, summary))
+                        .whenComplete((result, exception) -> {
+                            try {
+                                if (exception != null) {
+                                    this.fail(summary, file, exception);
+                                }
+                            } finally {
+                                // always, or the walk would wait for this file forever
+                                pending.arriveAndDeregister();
+                            }
+                        });
+                } catch (Throwable throwable) {
+                    try {
+                        this.fail(summary, file, throwable);
+                    } finally {
+                        pending.arriveAndDeregister();
+                    }
+                }
+            }
+
+            pending.arriveAndAwaitAdvance();
+        } finally {
+            executor.shutdown();
+        }
+
+        summary.setElapsedNanos(System.nanoTime() - start);
+
+        return summary;
+    }
+
+    /**
+     * Record a file that couldn't be converted.
+     *
+     * @param ConversionSummary summary : the summary to record it in
+     * @param Path file : the file
+     * @param Throwable exception : why it failed
+     */
+    protected void fail(ConversionSummary summary, Path file, Throwable exception) {
+        final String METHODNAME = "fail ";
+
+        if (exception instanceof CompletionException && exception.getCause() != null) {
+            exception = exception.getCause();
+        }
+
+        logger.debug(METHODNAME, file, " failed: ", exception.getMessage());
+        summary.failure(file, exception);
+    }
+
+    /**
+     * Read, convert and write a single file.
+     *
+     * @param Path file : the file to convert
+     * @param Path source : the directory being converted
+     * @param Path target : the directory written to
+     * @param ConversionSummary summary : records the conversion when it succeeds
+     * @return Path the file written
+     * @throws Exception if the file can't be read, converted or written
+     */
+    protected Path convertFile(Path file, Path source, Path target, ConversionSummary summary) throws Exception {
+        byte[] data = Files.readAllBytes(file);
+        String kind = detect(data);
+        byte[] converted = this.convert(data, kind);
+        Path destination = getDestination(source.relativize(file), target, kind);
+
+        Files.createDirectories(destination.getParent());
+        Files.write(destination, converted);
+        summary.success(kind, data.length, converted.length);
+
+        return destination;
+    }
+
+    /**
+     * Convert the content of a file.
+     *
+     * @param byte[] data : the content of the file
+     * @param String kind : what the content is, as found by detect
+     * @return byte[] the converted content
+     * @throws IOException if the result can't be encoded
+     * @throws ParseException if a vMR date can't be read
+     */
+    protected byte[] convert(byte[] data, String kind) throws IOException, ParseException {
+        if (FHIR.equals(kind)) {
+            CDSInput input = this.registry.getFhir2Vmr().getCdsInputFromFhir(ByteBuffer.wrap(data));
+
+            return CdsObjectAssist.cdsObjectToByteArray(input, CDSInput.class);
+        }
+
+        Parameters parameters;
+
+        if (CDS_INPUT.equals(kind)) {
+            CDSInput input = CdsObjectAssist.cdsObjectFromByteArray(data, CDSInput.class);
+
+            if (input == null) {
+                throw new IllegalArgumentException("File is not a readable cdsInput");
+            }
+
+            parameters = this.getParameters(input);
+        } else {
+            CDSOutput output = CdsObjectAssist.cdsObjectFromByteArray(data, CDSOutput.class);
+
+            if (output == null) {
+                throw new IllegalArgumentException("File is not a readable cdsOutput");
+            }
+
+            parameters = this.vmr2Fhir.getParameters(output);
+        }
+
+        ByteArrayOutputStream stream = new ByteArrayOutputStream(data.length);
+        this.fhirOutput.write(parameters, stream, false);
+
+        return stream.toByteArray();
+    }
+
+    /**
+     * Build the Parameters a client would send to convert a CDSInput back again.
+     *
+     * @param CDSInput input : the input to convert
+     * @return Parameters holding the patient and its immunizations
+     * @throws ParseException if a vMR date can't be read
+     */
+    protected Parameters getParameters(CDSInput input) throws ParseException {
+        Patient patient = this.vmr2Fhir.getPatient(input);
+        Parameters parameters = new Parameters();
+
+        parameters.addParameter().setName("patient").setResource(patient);
+
+        for (Immunization immunization : this.vmr2Fhir.getImmunizations(input, patient)) {
+            parameters.addParameter().setName("immunization").setResource(immunization);
+        }
+
+        return parameters;
+    }
+
+    /**
+     * Work out where a converted file goes. The file keeps its place in the tree and gets the
+     * extension of what it was converted to.
+     *
+     * @param Path relative : the file relative to the directory being converted
+     * @param Path target : the directory written to
+     * @param String kind : what the file holds
+     * @return Path
+     */
+    protected static Path getDestination(Path relative, Path target, String kind) {
+        String name = relative.getFileName().toString();
+        int dot = name.lastIndexOf('.');
+
+        if (dot > 0) {
+            name = name.substring(0, dot);
+        }
+
+        if (FHIR.equals(kind)) {
+            name = name + ".xml";
+        } else {
+            name = name + ".json";
+        }
+
+        return target.resolve(relative).resolveSibling(name);
+    }
+
+    /**
+     * @param Path file : the file to check
+     * @return boolean true if the file is named like xml or json
+     */
+    protected static boolean isConvertible(Path file) {
+        String name = file.getFileName().toString().toLowerCase();
+
+        return name.endsWith(".xml") || name.endsWith(".json");
+    }
+
+    /**
+     * Find out what a file holds from its first element. Json is always taken to be FHIR, and xml is
+     * a cdsInput or cdsOutput when its root element says so whatever its namespace prefix, and FHIR
+     * otherwise.
+     *
+     * @param byte[] data : the content of the file
+     * @return String CDS_INPUT, CDS_OUTPUT or FHIR
+     * @throws IllegalArgumentException if the content is neither xml nor json
+     */
+    protected static String detect(byte[] data) {
+        int position = 0;
+
+        // skip a UTF-8 byte order mark
+        if (data.length >= 3 && (data[0] & 0xFF) == 0xEF && (data[1] & 0xFF) == 0xBB && (data[2] & 0xFF) == 0xBF) {
+            position = 3;
+        }
+
+        while (position < data.length) {
+            byte value = data[position];
+
+            if (value == '{') {
+                return FHIR;
+            }
+
+            if (value != '<') {
+                if (!Character.isWhitespace(value)) {
+                    break;
+                }
+
+                position++;
+                continue;
+            }
+
+            if (position + 1 < data.length && (data[position + 1] == '?' || data[position + 1] == '!')) {
+                // a declaration, comment or doctype comes before the root element
+                position = skipMarkup(data, position);
+                continue;
+            }
+
+            int start = position + 1;
+            int end = start;
+
+            while (end < data.length && !Character.isWhitespace(data[end]) && data[end] != '>' && data[end] != '/') {
+                end++;
+            }
+
+            String name = new String(data, start, end - start, StandardCharsets.UTF_8);
+            name = name.substring(name.indexOf(':') + 1);
+
+            if (CDS_INPUT.equals(name)) {
+                return CDS_INPUT;
+            }
+
+            if (CDS_OUTPUT.equals(name)) {
+                return CDS_OUTPUT;
+            }
+
+            return FHIR;
+        }
+
+        throw new IllegalArgumentException("File is neither xml nor json");
+    }
+
+    /**
+     * @param byte[] data : the content of the file
+     * @param int position : where a declaration, comment or doctype starts
+     * @return int the position just after it ends
+     */
+    protected static int skipMarkup(byte[] data, int position) {
+        boolean comment = position + 3 < data.length && data[position + 2] == '-' && data[position + 3] == '-';
+
+        for (int i = position + 2; i < data.length; i++) {
+            if (data[i] != '>') {
+                continue;
+            }
+
+            if (!comment || (data[i - 1] == '-' && data[i - 2] == '-' && i - 2 > position + 3)) {
+                return i + 1;
+            }
+        }
+
+        return data.length;
+    }
+}
@@ -0,0 +1,236 @@
+package org.cdsframework.messageconverter.bulk;
+
+import java.io.BufferedOutputStream;
+import java.io.BufferedWriter;
+import java.io.CharArrayWriter;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.zip.GZIPOutputStream;
+
+import org.cdsframework.messageconverter.fhir.convert.utils.FhirOutput;
+import org.cdsframework.messageconverter.fhir.convert.utils.FhirResourceWriter;
+import org.cdsframework.util.LogUtils;
+import org.hl7.fhir.r4.model.Bundle;
+import org.hl7.fhir.r4.model.Bundle.BundleEntryComponent;
+import org.hl7.fhir.r4.model.Resource;
+
+/**
+ * Writes converted resources the way a FHIR bulk data export does: one NDJSON file per resource type
+ * with a single compact resource on every line. Files are named after the type and a part number,
+ * for example Patient-1.ndjson or Immunization-3.ndjson.gz. Once a file holds at least
+ * maxFileSize bytes of NDJSON (counted before compression) the next resource of that type starts a
+ * new part. Writes are synchronized so several converting threads can share one writer, and
+ * writeAll and writeEntries hold the lock for all of their resources so those of one patient are
+ * never interleaved with another's. Every resource is encoded into a buffer first and only copied to
+ * its file once the whole line is ready, so a resource that can't be encoded leaves no partial line
+ * behind. A part file that already exists is never overwritten; the write that would start it fails
+ * with a FileAlreadyExistsException instead.
+ *
+ * @author Brian Lamb
+ */
+public class NdjsonExportWriter implements Closeable {
+    public static final long NO_ROLLOVER = Long.MAX_VALUE;
+
+    private static final LogUtils logger = LogUtils.getLogger(NdjsonExportWriter.class);
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    protected FhirOutput fhirOutput;
+    protected Path directory;
+    protected boolean gzip;
+    protected long maxFileSize;
+
+    protected CharArrayWriter line = new CharArrayWriter();
+    protected FhirResourceWriter encoder;
+    protected Map<String, Part> parts = new HashMap<>();
+    protected Map<String, Long> counts = new TreeMap<>();
+    protected List<Path> files = new ArrayList<>();
+    protected boolean closed;
+
+    /**
+     * The file currently being written for one resource type.
+     */
+    protected static class Part {
+        protected int number;
+        protected CountingWriter writer;
+    }
+
+    /**
+     * Write uncompressed files that never roll over.
+     *
+     * @param Path directory : the directory the files are written to, created if needed
+     * @throws IOException if the directory can't be created
+     */
+    public NdjsonExportWriter(Path directory) throws IOException {
+        this(new FhirOutput(), directory, false, NO_ROLLOVER);
+    }
+
+    /**
+     * @param FhirOutput fhirOutput : serializes every resource
+     * @param Path directory : the directory the files are written to, created if needed
+     * @param boolean gzip : whether or not every file is gzip compressed
+     * @param long maxFileSize : the number of NDJSON bytes after which a new part is started
+     * @throws IOException if the directory can't be created
+     */
+    public NdjsonExportWriter(FhirOutput fhirOutput, Path directory, boolean gzip, long maxFileSize) throws IOException {
+        if (maxFileSize <= 0) {
+            throw new IllegalArgumentException("maxFileSize must be positive");
+        }
+
+        this.fhirOutput = fhirOutput;
+        this.directory = Files.createDirectories(directory);
+        this.gzip = gzip;
+        this.maxFileSize = maxFileSize;
+        this.encoder = fhirOutput.openWriter(this.line, false);
+    }
+
+    /**
+     * Append a resource to the file of its type.
+     *
+     * @param Resource resource : the resource to write
+     * @throws IOException if the file can't be written
+     */
+    public synchronized void write(Resource resource) throws IOException {
+        if (this.closed) {
+            throw new IllegalStateException("NdjsonExportWriter is closed");
+        }
+
+        // encode first so a resource that fails leaves its file as it was
+        this.line.reset();
+        this.encoder.write(resource);
+
+        String type = resource.getResourceType().name();
+        Part part = this.parts.get(type);
+
+        if (part == null) {
+            part = this.open(type, 1);
+        } else if (part.writer.getBytes() >= this.maxFileSize) {
+            part.writer.close();
+            part = this.open(type, part.number + 1);
+        }
+
+        this.line.writeTo(part.writer);
+        this.counts.merge(type, 1L, Long::sum);
+    }
+
+    /**
+     * Append every resource to the file of its type.
+     *
+     * @param Iterable<? extends Resource> resources : the resources to write
+     * @throws IOException if a file can't be written
+     */
+    public synchronized void writeAll(Iterable<? extends Resource> resources) throws IOException {
+        for (Resource resource : resources) {
+            this.write(resource);
+        }
+    }
+
+    /**
+     * Append every resource held in a bundle, for example the one built by Vmr2Fhir.getBundle.
+     *
+     * @param Bundle bundle : the bundle whose entries are written
+     * @throws IOException if a file can't be written
+     */
+    public synchronized void writeEntries(Bundle bundle) throws IOException {
+        for (BundleEntryComponent entry : bundle.getEntry()) {
+            if (entry.getResource() != null) {
+                this.write(entry.getResource());
+            }
+        }
+    }
+
+    /**
+     * Start a new part for a resource type.
+     *
+     * @param String type : the resource type
+     * @param int number : the part number, starting at 1
+     * @return Part
+     * @throws FileAlreadyExistsException if the directory already holds a file of that name
+     * @throws IOException if the file can't be created
+     */
+    protected Part open(String type, int number) throws IOException {
+        final String METHODNAME = "open ";
+        String name = type + "-" + number + ".ndjson";
+
+        if (this.gzip) {
+            name += ".gz";
+        }
+
+        Path path = this.directory.resolve(name);
+        OutputStream stream = new BufferedOutputStream(Files.newOutputStream(path, StandardOpenOption.CREATE_NEW), BUFFER_SIZE);
+
+        if (this.gzip) {
+            stream = new GZIPOutputStream(stream, BUFFER_SIZE);
+        }
+
+        Part part = new Part();
+        part.number = number;
+        part.writer = new CountingWriter(new BufferedWriter(new OutputStreamWriter(stream, StandardCharsets.UTF_8), BUFFER_SIZE));
+
+        this.parts.put(type, part);
+        this.files.add(path);
+
+        logger.debug(METHODNAME, "writing ", path);
+
+        return part;
+    }
+
+    /**
+     * Get the value of files
+     *
+     * @return every file written so far in the order they were started
+     */
+    public synchronized List<Path> getFiles() {
+        return Collections.unmodifiableList(new ArrayList<>(this.files));
+    }
+
+    /**
+     * Get the value of counts
+     *
+     * @return the number of resources written for each resource type
+     */
+    public synchronized Map<String, Long> getCounts() {
+        return Collections.unmodifiableMap(new TreeMap<>(this.counts));
+    }
+
+    /**
+     * Finish every open file. Gzip files are only readable once they have been closed.
+     */
+    @Override
+    public synchronized void close() throws IOException {
+        if (this.closed) {
+            return;
+        }
+
+        this.closed = true;
+        IOException failure = null;
+
+        for (Part part : this.parts.values()) {
+            try {
+                part.writer.close();
+            } catch (IOException exception) {
+                if (failure == null) {
+                    failure = exception;
+                } else {
+                    failure.addSuppressed(exception);
+                }
+            }
+        }
+
+        if (failure != null) {
+            throw failure;
+        }
+    }
+}
@@ -0,0 +1,451 @@
+package org.cdsframework.messageconverter.bulk;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Consumer;
+import java.util.zip.GZIPInputStream;
+
+import org.cdsframework.messageconverter.BatchResult;
+import org.cdsframework.messageconverter.ConverterRegistry;
+import org.cdsframework.messageconverter.Fhir2Vmr;
+import org.cdsframework.messageconverter.fhir.convert.utils.FhirContextProvider;
+import org.cdsframework.util.LogUtils;
+import org.hl7.fhir.r4.model.Immunization;
+import org.hl7.fhir.r4.model.Parameters;
+import org.hl7.fhir.r4.model.Patient;
+import org.hl7.fhir.r4.model.Reference;
+import org.opencds.vmr.v1_0.schema.CDSInput;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+
+/**
+ * Reads a FHIR bulk data extract of Patient and Immunization NDJSON files and turns every patient into
+ * a CDSInput. The immunization files are read once up front to find the patient each line belongs to,
+ * but only the position of every line is kept. The patient files are then streamed and the
+ * immunizations of each patient are read back and converted together, so at no point is more than a
+ * single patient held in memory. Gzip files can't be read at a position, so while a gzip
+ * immunization file is indexed its lines are decompressed into a temporary file, which is read back
+ * the same way and deleted once every patient has been read. An immunization line that can't be
+ * read is reported on its own and doesn't stop the import.
+ *
+ * @author Brian Lamb
+ */
+public class NdjsonImportReader {
+    private static final LogUtils logger = LogUtils.getLogger(NdjsonImportReader.class);
+    private static final JsonFactory JSON_FACTORY = new JsonFactory();
+
+    protected Fhir2Vmr fhir2Vmr;
+    protected FhirContextProvider fhirContextProvider;
+    protected int bufferSize = 64 * 1024;
+
+    /**
+     * Receives every line of an NDJSON file.
+     */
+    @FunctionalInterface
+    protected interface LineHandler {
+        void line(long offset, byte[] data, int start, int length) throws IOException;
+    }
+
+    /**
+     * Where the json of a single immunization can be found again.
+     */
+    protected static class Location {
+        protected int file;
+        protected long offset;
+        protected int length;
+    }
+
+    public NdjsonImportReader() {
+        this(ConverterRegistry.getInstance());
+    }
+
+    /**
+     * @param ConverterRegistry registry : the registry holding the converters to use
+     */
+    public NdjsonImportReader(ConverterRegistry registry) {
+        this.fhir2Vmr = registry.getFhir2Vmr();
+        this.fhirContextProvider = registry.getFhirContextProvider();
+    }
+
+    /**
+     * @see read(List<Path>, List<Path>, Consumer<BatchResult<CDSInput>>)
+     */
+    public long read(Path patientFile, Path immunizationFile, Consumer<BatchResult<CDSInput>> consumer) throws IOException {
+        return this.read(Collections.singletonList(patientFile), Collections.singletonList(immunizationFile), consumer);
+    }
+
+    /**
+     * Convert every patient in a bulk extract, logging every immunization line that can't be read.
+     *
+     * @see read(List<Path>, List<Path>, Consumer<BatchResult<CDSInput>>, Consumer<BatchResult<Immunization>>)
+     */
+    public long read(List<Path> patientFiles, List<Path> immunizationFiles, Consumer<BatchResult<CDSInput>> consumer) throws IOException {
+        final String METHODNAME = "read ";
+
+        return this.read(patientFiles, immunizationFiles, consumer, failure -> {
+            logger.warn(METHODNAME, failure.getException().getMessage());
+        });
+    }
+
+    /**
+     * Convert every patient in a bulk extract. Each patient produces one result, in the order the
+     * patients appear in the files, and a patient that fails to convert doesn't stop the rest.
+     * Immunizations are matched to patients by the id in their patient reference. An immunization
+     * line whose patient reference can't be read is handed to rejected, numbered by its position
+     * among all the immunization lines, and the import carries on without it.
+     *
+     * @param List<Path> patientFiles : the Patient NDJSON files, optionally gzip compressed
+     * @param List<Path> immunizationFiles : the Immunization NDJSON files, optionally gzip compressed
+     * @param Consumer<BatchResult<CDSInput>> consumer : receives the result of every patient
+     * @param Consumer<BatchResult<Immunization>> rejected : receives every immunization line that can't be read
+     * @return long the number of patients read
+     * @throws IOException if a file can't be read
+     */
+    public long read(
+        List<Path> patientFiles,
+        List<Path> immunizationFiles,
+        Consumer<BatchResult<CDSInput>> consumer,
+        Consumer<BatchResult<Immunization>> rejected
+    ) throws IOException {
+        final String METHODNAME = "read ";
+        Path[] readable = new Path[immunizationFiles.size()];
+        FileChannel[] channels = new FileChannel[immunizationFiles.size()];
+
+        try {
+            Map<String, List<Location>> index = this.indexImmunizations(immunizationFiles, readable, rejected);
+
+            for (int i = 0; i < channels.length; i++) {
+                channels[i] = FileChannel.open(readable[i], StandardOpenOption.READ);
+            }
+
+            long[] patients = new long[1];
+
+            for (Path patientFile : patientFiles) {
+                try (InputStream stream = this.open(patientFile)) {
+                    this.scan(stream, (offset, data, start, length) -> {
+                        int position = (int) patients[0]++;
+                        BatchResult<CDSInput> result;
+
+                        try {
+                            Patient patient = this.fhirContextProvider.newJsonParser().parseResource(
+                                Patient.class,
+                                new String(data, start, length, StandardCharsets.UTF_8)
+                            );
+
+                            List<Location> locations = index.remove(patient.getIdElement().getIdPart());
+                            List<Immunization> immunizations = new ArrayList<>();
+
+                            if (locations != null) {
+                                for (Location location : locations) {
+                                    immunizations.add(this.readImmunization(channels, location));
+                                }
+                            }
+
+                            result = BatchResult.success(position, this.convert(patient, immunizations));
+                        } catch (IOException exception) {
+                            throw exception;
+                        } catch (Exception exception) {
+                            logger.debug(METHODNAME, "patient ", position, " failed: ", exception.getMessage());
+                            result = BatchResult.failure(position, exception);
+                        }
+
+                        consumer.accept(result);
+                    });
+                }
+            }
+
+            if (!index.isEmpty()) {
+                logger.warn(METHODNAME, "immunizations found for ", index.size(), " patients missing from the patient files");
+            }
+
+            return patients[0];
+        } finally {
+            for (FileChannel channel : channels) {
+                if (channel != null) {
+                    channel.close();
+                }
+            }
+
+            for (int i = 0; i < readable.length; i++) {
+                if (readable[i] != null && !readable[i].equals(immunizationFiles.get(i))) {
+                    Files.deleteIfExists(readable[i]);
+                }
+            }
+        }
+    }
+
+    /**
+     * Convert the resources of a single patient the same way Fhir2Vmr converts a Parameters payload.
+     *
+     * @param Patient patient : the patient
+     * @param List<Immunization> immunizations : every immunization referencing the patient
+     * @return CDSInput
+     */
+    protected CDSInput convert(Patient patient, List<Immunization> immunizations) {
+        Parameters parameters = new Parameters();
+
+        parameters.addParameter().setName("patient").setResource(patient);
+
+        for (Immunization immunization : immunizations) {
+            parameters.addParameter().setName("immunization").setResource(immunization);
+        }
+
+        return this.fhir2Vmr.getCdsInputFromFhir(parameters);
+    }
+
+    /**
+     * Find the patient of every immunization and remember where its line is. A gzip file is
+     * decompressed into a temporary file as it is read, and the locations point into that file.
+     *
+     * @param List<Path> immunizationFiles : the Immunization NDJSON files
+     * @param Path[] readable : filled with the file each immunization can be read back from
+     * @param Consumer<BatchResult<Immunization>> rejected : receives every line that can't be read
+     * @return Map<String, List<Location>> the locations of the immunizations of each patient id
+     * @throws IOException if a file can't be read
+     */
+    protected Map<String, List<Location>> indexImmunizations(
+        List<Path> immunizationFiles,
+        Path[] readable,
+        Consumer<BatchResult<Immunization>> rejected
+    ) throws IOException {
+        final String METHODNAME = "indexImmunizations ";
+        Map<String, List<Location>> index = new HashMap<>();
+        int[] lines = new int[1];
+
+        for (int i = 0; i < immunizationFiles.size(); i++) {
+            final int file = i;
+            final Path path = immunizationFiles.get(i);
+            final long[] spilled = new long[1];
+            OutputStream spill = null;
+
+            if (isGzip(path)) {
+                readable[i] = Files.createTempFile("immunizations", ".ndjson");
+                spill = new BufferedOutputStream(Files.newOutputStream(readable[i]), this.bufferSize);
+            } else {
+                readable[i] = path;
+            }
+
+            final OutputStream copy = spill;
+
+            try (InputStream stream = this.open(path)) {
+                this.scan(stream, (offset, data, start, length) -> {
+                    int line = lines[0]++;
+                    String reference;
+
+                    try {
+                        reference = getPatientReference(data, start, length);
+                    } catch (JsonProcessingException exception) {
+                        rejected.accept(BatchResult.failure(line, new IllegalArgumentException(
+                            "Malformed immunization at byte " + offset + " of " + path + ": " + exception.getOriginalMessage(),
+                            exception
+                        )));
+                        return;
+                    }
+
+                    if (reference == null) {
+                        logger.debug(METHODNAME, "skipping immunization without a patient at ", offset);
+                        return;
+                    }
+
+                    Location location = new Location();
+                    location.file = file;
+                    location.offset = offset;
+                    location.length = length;
+
+                    if (copy != null) {
+                        location.offset = spilled[0];
+                        copy.write(data, start, length);
+                        copy.write('\n');
+                        spilled[0] += length + 1;
+                    }
+
+                    String patientId = new Reference(reference).getReferenceElement().getIdPart();
+                    index.computeIfAbsent(patientId, key -> new ArrayList<>()).add(location);
+                });
+            } finally {
+                if (spill != null) {
+                    spill.close();
+                }
+            }
+        }
+
+        return index;
+    }
+
+    /**
+     * Read an indexed immunization back and parse it.
+     *
+     * @param FileChannel[] channels : the open immunization files
+     * @param Location location : where the immunization is
+     * @return Immunization
+     * @throws IOException if the file can't be read
+     */
+    protected Immunization readImmunization(FileChannel[] channels, Location location) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(location.length);
+        long position = location.offset;
+
+        while (buffer.hasRemaining()) {
+            int read = channels[location.file].read(buffer, position + buffer.position());
+
+            if (read < 0) {
+                throw new IOException("Immunization file ended before offset " + location.offset);
+            }
+        }
+
+        byte[] data = buffer.array();
+
+        return this.fhirContextProvider.newJsonParser().parseResource(
+            Immunization.class,
+            new String(data, StandardCharsets.UTF_8)
+        );
+    }
+
+    /**
+     * Open a file for reading, decompressing it if it ends in .gz.
+     *
+     * @param Path path : the file to open
+     * @return InputStream
+     * @throws IOException if the file can't be opened
+     */
+    protected InputStream open(Path path) throws IOException {
+        InputStream stream = Files.newInputStream(path);
+
+        if (isGzip(path)) {
+            return new GZIPInputStream(stream, this.bufferSize);
+        }
+
+        return new BufferedInputStream(stream, this.bufferSize);
+    }
+
+    /**
+     * Hand every non blank line of a stream to a handler along with its byte offset. A line is only
+     * copied when it doesn't fit in what is left of the buffer.
+     *
+     * @param InputStream stream : the NDJSON to read
+     * @param LineHandler handler : receives every line without its line break
+     * @throws IOException if the stream can't be read
+     */
+    protected void scan(InputStream stream, LineHandler handler) throws IOException {
+        byte[] buffer = new byte[this.bufferSize];
+        long offset = 0;
+        int start = 0;
+        int end = 0;
+        int read;
+
+        while ((read = stream.read(buffer, end, buffer.length - end)) != -1) {
+            int from = end;
+            end += read;
+
+            for (int i = from; i < end; i++) {
+                if (buffer[i] == '\n') {
+                    emit(handler, offset + start, buffer, start, i - start);
+                    start = i + 1;
+                }
+            }
+
+            if (start == end) {
+                offset += end;
+                start = 0;
+                end = 0;
+            } else if (end == buffer.length) {
+                if (start == 0) {
+                    // a single line fills the whole buffer
+                    buffer = Arrays.copyOf(buffer, buffer.length * 2);
+                } else {
+                    System.arraycopy(buffer, start, buffer, 0, end - start);
+                    offset += start;
+                    end -= start;
+                    start = 0;
+                }
+            }
+        }
+
+        if (end > start) {
+            emit(handler, offset + start, buffer, start, end - start);
+        }
+    }
+
+    /**
+     * Pass a line on without a trailing carriage return, skipping blank lines.
+     */
+    protected static void emit(LineHandler handler, long offset, byte[] data, int start, int length) throws IOException {
+        if (length > 0 && data[start + length - 1] == '\r') {
+            length--;
+        }
+
+        for (int i = start; i < start + length; i++) {
+            if (!Character.isWhitespace(data[i])) {
+                handler.line(offset, data, start, length);
+                return;
+            }
+        }
+    }
+
+    /**
+     * Read the patient reference of an immunization without parsing the whole resource.
+     *
+     * @param byte[] data : the buffer holding the immunization json
+     * @param int start : where the json starts
+     * @param int length : the length of the json
+     * @return String, null if the immunization has no patient reference
+     * @throws JsonProcessingException if the json is malformed
+     * @throws IOException if the json can't be read
+     */
+    protected static String getPatientReference(byte[] data, int start, int length) throws IOException {
+        try (JsonParser parser = JSON_FACTORY.createParser(data, start, length)) {
+            if (parser.nextToken() != JsonToken.START_OBJECT) {
+                return null;
+            }
+
+            while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                String field = parser.getCurrentName();
+                JsonToken token = parser.nextToken();
+
+                if ("patient".equals(field) && token == JsonToken.START_OBJECT) {
+                    while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                        String name = parser.getCurrentName();
+                        JsonToken value = parser.nextToken();
+
+                        if ("reference".equals(name) && value == JsonToken.VALUE_STRING) {
+                            return parser.getText();
+                        }
+
+                        parser.skipChildren();
+                    }
+
+                    return null;
+                }
+
+                parser.skipChildren();
+            }
+        }
+
+        return null;
+    }
+
+    /**
+     * @param Path path : the file to check
+     * @return boolean true if the file is gzip compressed
+     */
+    protected static boolean isGzip(Path path) {
+        return path.getFileName().toString().endsWith(".gz");
+    }
+}
@@ -0,0 +1,81 @@
+package org.cdsframework.messageconverter.fhir.convert.utils;
+
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+
+/**
+ * Reads the remaining bytes of a ByteBuffer as a stream without copying them. The stream works on
+ * its own view of the buffer, so reading it leaves the position of the original buffer alone and the
+ * same buffer can be read more than once. Direct buffers work the same as heap buffers.
+ *
+ * @author Brian Lamb
+ */
+public class ByteBufferInputStream extends InputStream {
+    protected final ByteBuffer buffer;
+    protected int mark;
+
+    /**
+     * @param ByteBuffer buffer : the bytes between its position and limit are read
+     */
+    public ByteBufferInputStream(ByteBuffer buffer) {
+        this.buffer = buffer.duplicate();
+        this.mark = this.buffer.position();
+    }
+
+    @Override
+    public int read() {
+        if (!this.buffer.hasRemaining()) {
+            return -1;
+        }
+
+        return this.buffer.get() & 0xFF;
+    }
+
+    @Override
+    public int read(byte[] data, int offset, int length) {
+        if (length == 0) {
+            return 0;
+        }
+
+        if (!this.buffer.hasRemaining()) {
+            return -1;
+        }
+
+        int read = Math.min(length, this.buffer.remaining());
+        this.buffer.get(data, offset, read);
+
+        return read;
+    }
+
+    @Override
+    public long skip(long count) {
+        if (count <= 0) {
+            return 0;
+        }
+
+        int skipped = (int) Math.min(count, this.buffer.remaining());
+        this.buffer.position(this.buffer.position() + skipped);
+
+        return skipped;
+    }
+
+    @Override
+    public int available() {
+        return this.buffer.remaining();
+    }
+
+    @Override
+    public boolean markSupported() {
+        return true;
+    }
+
+    @Override
+    public void mark(int readLimit) {
+        this.mark = this.buffer.position();
+    }
+
+    @Override
+    public void reset() {
+        this.buffer.position(this.mark);
+    }
+}
@@ -0,0 +1,121 @@
+package org.cdsframework.messageconverter.fhir.convert.utils;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.cdsframework.util.LogUtils;
+import org.cdsframework.util.support.cds.Config;
+
+/**
+ * Reads code system tables. Every line holds a code system URI and its OID separated by whitespace,
+ * blank lines and lines starting with # are skipped. An OID written as ${NAME} is looked up in the
+ * ice configuration. The order of the lines is kept since it decides which URI an OID maps back to.
+ * A table supplied by the user is rejected if one of its placeholders isn't configured, while a
+ * line of the bundled table whose placeholder isn't configured is logged and left out, so a partial
+ * ice configuration doesn't keep the converters from starting.
+ *
+ * @author Brian Lamb
+ */
+public class CodeSystemLoader {
+    private static final LogUtils logger = LogUtils.getLogger(CodeSystemLoader.class);
+
+    public static final String DEFAULT_RESOURCE = "code-systems.txt";
+
+    /**
+     * Read the table bundled with the converter.
+     *
+     * @return Map<String, String> code system URIs and their OIDs
+     * @throws IllegalStateException if the table is missing or can't be read
+     */
+    public static Map<String, String> loadDefault() throws IllegalStateException {
+        try (InputStream stream = CodeSystemLoader.class.getResourceAsStream(DEFAULT_RESOURCE)) {
+            if (stream == null) {
+                throw new IllegalStateException("Code system table " + DEFAULT_RESOURCE + " is missing");
+            }
+
+            return read(new InputStreamReader(stream, StandardCharsets.UTF_8), true);
+        } catch (IOException exception) {
+            throw new IllegalStateException("Unable to read code system table " + DEFAULT_RESOURCE, exception);
+        }
+    }
+
+    /**
+     * @param Path path : the code system table
+     * @return Map<String, String> code system URIs and their OIDs
+     * @throws IOException if the file can't be read
+     */
+    public static Map<String, String> load(Path path) throws IOException {
+        try (Reader reader = Files.newBufferedReader(path, StandardCharsets.UTF_8)) {
+            return read(reader);
+        }
+    }
+
+    /**
+     * @param Reader reader : the code system table
+     * @return Map<String, String> code system URIs and their OIDs
+     * @throws IOException if the table can't be read
+     * @throws IllegalArgumentException if a line doesn't hold exactly a URI and an OID or names an unknown OID
+     */
+    public static Map<String, String> read(Reader reader) throws IOException, IllegalArgumentException {
+        return read(reader, false);
+    }
+
+    /**
+     * @param Reader reader : the code system table
+     * @param boolean skipUnresolved : whether a line whose OID placeholder isn't configured is skipped
+     * instead of rejected
+     * @return Map<String, String> code system URIs and their OIDs
+     * @throws IOException if the table can't be read
+     * @throws IllegalArgumentException if a line doesn't hold exactly a URI and an OID, or names an
+     * unknown OID and skipUnresolved is false
+     */
+    public static Map<String, String> read(Reader reader, boolean skipUnresolved) throws IOException, IllegalArgumentException {
+        final String METHODNAME = "read ";
+        Map<String, String> codeSystems = new LinkedHashMap<>();
+        BufferedReader lines = new BufferedReader(reader);
+        String line;
+        int number = 0;
+
+        while ((line = lines.readLine()) != null) {
+            number++;
+            line = line.trim();
+
+            if (line.isEmpty() || line.startsWith("#")) {
+                continue;
+            }
+
+            String[] columns = line.split("\\s+");
+
+            if (columns.length != 2) {
+                throw new IllegalArgumentException("Line " + number + " of the code system table should hold a URI and an OID");
+            }
+
+            String oid = columns[1];
+
+            if (oid.startsWith("${") && oid.endsWith("}")) {
+                oid = Config.getCodeSystemOid(oid.substring(2, oid.length() - 1));
+
+                if (oid == null && skipUnresolved) {
+                    logger.warn(METHODNAME, "skipping ", columns[0], ", no OID is configured for ", columns[1]);
+                    continue;
+                }
+
+                if (oid == null) {
+                    throw new IllegalArgumentException("Line " + number + " of the code system table names an unknown OID " + columns[1]);
+                }
+            }
+
+            codeSystems.put(columns[0], oid);
+        }
+
+        return codeSystems;
+    }
+}
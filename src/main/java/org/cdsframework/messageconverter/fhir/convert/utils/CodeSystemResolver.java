@@ -0,0 +1,325 @@
+package org.cdsframework.messageconverter.fhir.convert.utils;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.regex.Pattern;
+
+import org.cdsframework.util.LogUtils;
+
+/**
+ * Translates code systems between the URIs used by FHIR and the OIDs used by the vMR. Both indexes
+ * are built together, sized for their contents and never change afterwards, so lookups need no
+ * locking. Reloading builds a new pair of indexes and swaps them in at once, a lookup running at the
+ * same time sees either the old or the new table but never a mix. When several URIs share an OID the
+ * first one in the table is the one an OID resolves back to.
+ *
+ * Identifiers are normalized before they are looked up: surrounding whitespace and trailing slashes
+ * are dropped and a urn:oid: prefix is removed, so http://loinc.org/ and urn:oid:2.16.840.1.113883.6.1
+ * both resolve. A system that isn't known is only logged the first time it is seen.
+ *
+ * @author Brian Lamb
+ */
+public class CodeSystemResolver {
+    private static final LogUtils logger = LogUtils.getLogger(CodeSystemResolver.class);
+    private static final String OID_PREFIX = "urn:oid:";
+    private static final Pattern OID = Pattern.compile("[0-2](\\.(0|[1-9][0-9]*))+");
+
+    public static final int MAX_LOGGED_MISSES = 1024;
+    public static final String FILE_PROPERTY = "cdsframework.codesystems.file";
+
+    protected volatile Snapshot snapshot;
+    protected final Map<String, Boolean> misses = new ConcurrentHashMap<>();
+    protected final LongAdder hits = new LongAdder();
+    protected final LongAdder missCount = new LongAdder();
+
+    /**
+     * Both indexes of one version of the code system table.
+     */
+    protected static class Snapshot {
+        protected final Map<String, String> oids;
+        protected final Map<String, String> uris;
+
+        /**
+         * @param Map<String, String> codeSystems : code system URIs and the OID each one maps to
+         */
+        protected Snapshot(Map<String, String> codeSystems) {
+            Map<String, String> oids = new HashMap<>(capacity(codeSystems.size()));
+            Map<String, String> uris = new HashMap<>(capacity(codeSystems.size()));
+
+            for (Map.Entry<String, String> codeSystem : codeSystems.entrySet()) {
+                String uri = normalize(codeSystem.getKey());
+                String oid = normalize(codeSystem.getValue());
+
+                if (uri == null || oid == null) {
+                    throw new IllegalArgumentException("Code system mappings need both a URI and an OID");
+                }
+
+                oids.put(uri, oid);
+                uris.putIfAbsent(oid, uri);
+            }
+
+            this.oids = Collections.unmodifiableMap(oids);
+            this.uris = Collections.unmodifiableMap(uris);
+        }
+    }
+
+    private static class Holder {
+        private static final CodeSystemResolver INSTANCE = create();
+    }
+
+    /**
+     * @param Map<String, String> codeSystems : code system URIs and the OID each one maps to
+     */
+    public CodeSystemResolver(Map<String, String> codeSystems) {
+        this.snapshot = new Snapshot(codeSystems);
+    }
+
+    /**
+     * Get the shared resolver holding the code systems the converters know about. These come from
+     * the table bundled with the converter, or from the file named by the cdsframework.codesystems.file
+     * system property, which is then watched and reloaded whenever it changes.
+     *
+     * @return CodeSystemResolver
+     */
+    public static CodeSystemResolver getInstance() {
+        return Holder.INSTANCE;
+    }
+
+    /**
+     * Build the shared resolver.
+     *
+     * @return CodeSystemResolver
+     */
+    protected static CodeSystemResolver create() {
+        final String METHODNAME = "create ";
+        String file = System.getProperty(FILE_PROPERTY);
+
+        if (file == null) {
+            return new CodeSystemResolver(getDefaultCodeSystems());
+        }
+
+        Path path = Paths.get(file);
+        CodeSystemResolver codeSystemResolver;
+
+        try {
+            codeSystemResolver = new CodeSystemResolver(CodeSystemLoader.load(path));
+        } catch (IOException | RuntimeException exception) {
+            logger.error(METHODNAME, "using the bundled code systems, unable to load ", path, ": ", exception.getMessage());
+            codeSystemResolver = new CodeSystemResolver(getDefaultCodeSystems());
+        }
+
+        try {
+            codeSystemResolver.watch(path);
+        } catch (IOException exception) {
+            logger.error(METHODNAME, "changes to ", path, " will not be picked up: ", exception.getMessage());
+        }
+
+        return codeSystemResolver;
+    }
+
+    /**
+     * The code systems bundled with the converter, in the order their URIs are preferred.
+     *
+     * @return Map<String, String> code system URIs and their OIDs
+     */
+    public static Map<String, String> getDefaultCodeSystems() {
+        return CodeSystemLoader.loadDefault();
+    }
+
+    /**
+     * Replace every code system with a new table. The new indexes are built before anything changes,
+     * so a bad table leaves the current one in place.
+     *
+     * @param Map<String, String> codeSystems : code system URIs and the OID each one maps to
+     * @throws IllegalArgumentException if a mapping is missing its URI or OID
+     */
+    public void reload(Map<String, String> codeSystems) throws IllegalArgumentException {
+        final String METHODNAME = "reload ";
+        Snapshot snapshot = new Snapshot(codeSystems);
+
+        this.snapshot = snapshot;
+        // systems that were missing may be known now
+        this.misses.clear();
+
+        logger.info(METHODNAME, "loaded ", snapshot.oids.size(), " code systems");
+    }
+
+    /**
+     * Reload the code systems whenever a file changes.
+     *
+     * @param Path path : the code system table
+     * @return CodeSystemWatcher close it to stop watching
+     * @throws IOException if the file can't be watched
+     */
+    public CodeSystemWatcher watch(Path path) throws IOException {
+        return new CodeSystemWatcher(this, path);
+    }
+
+    /**
+     * Find the OID of a code system and log it the first time a code system can't be found.
+     *
+     * @param String system : the code system URI or OID
+     * @return String the OID, null if the code system isn't known
+     */
+    public String getOid(String system) {
+        final String METHODNAME = "getOid ";
+        String oid = this.resolveOid(system);
+
+        if (oid == null && system != null && this.misses.putIfAbsent(system, Boolean.TRUE) == null) {
+            logger.error(METHODNAME, "could not find OID for submitted identifier: ", system);
+        }
+
+        return oid;
+    }
+
+    /**
+     * Find the OID of a code system without logging a miss. An identifier that already is an OID,
+     * with or without the urn:oid: prefix, is returned as a bare OID.
+     *
+     * @param String system : the code system URI or OID
+     * @return String the OID, null if the code system isn't known
+     */
+    public String resolveOid(String system) {
+        if (system == null) {
+            return null;
+        }
+
+        Map<String, String> oids = this.snapshot.oids;
+        String oid = oids.get(system);
+
+        if (oid == null) {
+            String normalized = normalize(system);
+
+            if (normalized != null) {
+                oid = oids.get(normalized);
+
+                if (oid == null && OID.matcher(normalized).matches()) {
+                    oid = normalized;
+                }
+            }
+        }
+
+        if (oid == null) {
+            this.miss(system);
+        } else {
+            this.hits.increment();
+        }
+
+        return oid;
+    }
+
+    /**
+     * Find the preferred URI of a code system. Unlike getOid a miss is neither logged nor counted,
+     * the vMR is full of OIDs that have no FHIR URI and those are simply kept as OIDs.
+     *
+     * @param String oid : the OID, with or without the urn:oid: prefix
+     * @return String the URI, null if the OID isn't known
+     */
+    public String getUri(String oid) {
+        if (oid == null) {
+            return null;
+        }
+
+        Map<String, String> uris = this.snapshot.uris;
+        String uri = uris.get(oid);
+
+        if (uri == null) {
+            String normalized = normalize(oid);
+
+            if (normalized != null) {
+                uri = uris.get(normalized);
+            }
+        }
+
+        if (uri != null) {
+            this.hits.increment();
+        }
+
+        return uri;
+    }
+
+    /**
+     * Get the code systems currently loaded.
+     *
+     * @return Map<String, String> code system URIs and their OIDs, this doesn't follow later reloads
+     */
+    public Map<String, String> getOids() {
+        return this.snapshot.oids;
+    }
+
+    /**
+     * Get the value of hits
+     *
+     * @return the value of hits
+     */
+    public long getHits() {
+        return this.hits.sum();
+    }
+
+    /**
+     * Get the value of misses
+     *
+     * @return the number of code systems getOid and resolveOid couldn't resolve
+     */
+    public long getMisses() {
+        return this.missCount.sum();
+    }
+
+    /**
+     * Count a miss and keep the set of logged misses bounded. Once it is full it starts over, so a
+     * flood of distinct bad systems costs at most one log line each per MAX_LOGGED_MISSES.
+     *
+     * @param String system : the identifier that wasn't found
+     */
+    protected void miss(String system) {
+        this.missCount.increment();
+
+        if (this.misses.size() >= MAX_LOGGED_MISSES) {
+            this.misses.clear();
+        }
+    }
+
+    /**
+     * Strip whitespace, trailing slashes and the urn:oid: prefix from a code system identifier.
+     *
+     * @param String system : the code system identifier
+     * @return String, null if nothing is left
+     */
+    public static String normalize(String system) {
+        if (system == null) {
+            return null;
+        }
+
+        String normalized = system.trim();
+
+        if (normalized.regionMatches(true, 0, OID_PREFIX, 0, OID_PREFIX.length())) {
+            normalized = normalized.substring(OID_PREFIX.length());
+        }
+
+        int end = normalized.length();
+
+        while (end > 0 && normalized.charAt(end - 1) == '/') {
+            end--;
+        }
+
+        if (end == 0) {
+            return null;
+        }
+
+        return normalized.substring(0, end);
+    }
+
+    /**
+     * @param int size : the number of entries a map will hold
+     * @return int the capacity that holds them without rehashing
+     */
+    protected static int capacity(int size) {
+        return (int) (size / 0.75f) + 1;
+    }
+}
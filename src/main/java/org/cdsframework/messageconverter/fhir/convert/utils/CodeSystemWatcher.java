@@ -0,0 +1,118 @@
+package org.cdsframework.messageconverter.fhir.convert.utils;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.concurrent.TimeUnit;
+
+import org.cdsframework.util.LogUtils;
+
+/**
+ * Reloads a CodeSystemResolver whenever its code system file changes. The file is watched from a
+ * daemon thread so lookups never wait on it. Changes are collected until the file has been quiet for
+ * a moment before reloading, but replacing the file with a rename is still the safest way to update
+ * it. If the new table can't be read the resolver keeps the code systems it has.
+ *
+ * @author Brian Lamb
+ */
+public class CodeSystemWatcher implements Closeable {
+    private static final LogUtils logger = LogUtils.getLogger(CodeSystemWatcher.class);
+
+    protected CodeSystemResolver codeSystemResolver;
+    protected Path path;
+    protected WatchService watchService;
+    protected Thread thread;
+    protected long quietMillis = 200;
+
+    /**
+     * Start watching a file.
+     *
+     * @param CodeSystemResolver codeSystemResolver : the resolver to reload
+     * @param Path path : the code system table
+     * @throws IOException if the directory of the file can't be watched
+     */
+    public CodeSystemWatcher(CodeSystemResolver codeSystemResolver, Path path) throws IOException {
+        this.codeSystemResolver = codeSystemResolver;
+        this.path = path.toAbsolutePath();
+        this.watchService = this.path.getFileSystem().newWatchService();
+        this.path.getParent().register(
+            this.watchService,
+            StandardWatchEventKinds.ENTRY_CREATE,
+            StandardWatchEventKinds.ENTRY_MODIFY
+        );
+
+        this.thread = new Thread(this::watch, "code-system-watcher");
+        this.thread.setDaemon(true);
+        this.thread.start();
+    }
+
+    /**
+     * Wait for the file to change until the watcher is closed.
+     */
+    protected void watch() {
+        try {
+            while (true) {
+                WatchKey key = this.watchService.take();
+                boolean changed = this.isChanged(key);
+
+                // keep collecting events until the file has been left alone for a moment
+                while (changed && (key = this.watchService.poll(this.quietMillis, TimeUnit.MILLISECONDS)) != null) {
+                    this.isChanged(key);
+                }
+
+                if (changed) {
+                    this.reload();
+                }
+            }
+        } catch (InterruptedException | ClosedWatchServiceException exception) {
+            // closed
+        }
+    }
+
+    /**
+     * @param WatchKey key : the key that was signalled
+     * @return boolean true if one of its events is about the watched file
+     */
+    protected boolean isChanged(WatchKey key) {
+        boolean changed = false;
+
+        for (WatchEvent<?> event : key.pollEvents()) {
+            if (this.path.getFileName().equals(event.context())) {
+                changed = true;
+            }
+        }
+
+        key.reset();
+
+        return changed;
+    }
+
+    /**
+     * Load the file into the resolver, keeping the current code systems if it can't be read.
+     */
+    protected void reload() {
+        final String METHODNAME = "reload ";
+
+        try {
+            this.codeSystemResolver.reload(CodeSystemLoader.load(this.path));
+        } catch (IOException | RuntimeException exception) {
+            logger.error(METHODNAME, "keeping the current code systems, unable to load ", this.path, ": ", exception.getMessage());
+        }
+    }
+
+    /**
+     * Stop watching the file.
+     *
+     * @throws IOException if the watch service can't be closed
+     */
+    @Override
+    public void close() throws IOException {
+        this.watchService.close();
+        this.thread.interrupt();
+    }
+}
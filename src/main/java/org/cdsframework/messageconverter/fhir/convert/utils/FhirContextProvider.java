@@ -0,0 +1,98 @@
+package org.cdsframework.messageconverter.fhir.convert.utils;
+
+import ca.uhn.fhir.context.FhirContext;
+import ca.uhn.fhir.parser.IParser;
+import ca.uhn.fhir.parser.IParserErrorHandler;
+import ca.uhn.fhir.parser.StrictErrorHandler;
+
+/**
+ * Building a FhirContext scans the whole R4 model and is by far the most expensive thing the
+ * converters do, so every converter obtains its context and parsers from an instance of this
+ * class instead of calling FhirContext.forR4() itself. The context is thread safe and is shared,
+ * parsers are cheap but not thread safe so a new, pre-configured one is handed out on each call.
+ *
+ * @author Brian Lamb
+ */
+public class FhirContextProvider {
+    private static final IParserErrorHandler STRICT_ERROR_HANDLER = new StrictErrorHandler();
+
+    private final FhirContext context;
+
+    /**
+     * Lazily builds the process wide provider the first time it is requested.
+     */
+    private static class Holder {
+        private static final FhirContextProvider INSTANCE = new FhirContextProvider(FhirContext.forR4());
+    }
+
+    /**
+     * Create a provider around an existing context. This allows callers that already have a warm
+     * context to share it with the converters.
+     *
+     * @param FhirContext context : the R4 context to hand out
+     */
+    public FhirContextProvider(FhirContext context) {
+        if (context == null) {
+            throw new IllegalArgumentException("A FhirContext is required");
+        }
+
+        this.context = context;
+    }
+
+    /**
+     * Get the provider shared by every converter that was not given one explicitly.
+     *
+     * @return FhirContextProvider
+     */
+    public static FhirContextProvider getInstance() {
+        return Holder.INSTANCE;
+    }
+
+    /**
+     * Get the value of context
+     *
+     * @return the value of context
+     */
+    public FhirContext getContext() {
+        return this.context;
+    }
+
+    /**
+     * Create a json parser that uses the strict error handler. Invalid data will cause the parser to
+     * throw a DataFormatException.
+     *
+     * @return IParser
+     */
+    public IParser newJsonParser() {
+        IParser parser = this.context.newJsonParser();
+        parser.setParserErrorHandler(STRICT_ERROR_HANDLER);
+
+        return parser;
+    }
+
+    /**
+     * Create an xml parser that uses the strict error handler. Invalid data will cause the parser to
+     * throw a DataFormatException.
+     *
+     * @return IParser
+     */
+    public IParser newXmlParser() {
+        IParser parser = this.context.newXmlParser();
+        parser.setParserErrorHandler(STRICT_ERROR_HANDLER);
+
+        return parser;
+    }
+
+    /**
+     * Create a json parser used to serialize resources.
+     *
+     * @param boolean prettyPrint : whether or not the output should be indented
+     * @return IParser
+     */
+    public IParser newJsonEncoder(boolean prettyPrint) {
+        IParser parser = this.context.newJsonParser();
+        parser.setPrettyPrint(prettyPrint);
+
+        return parser;
+    }
+}
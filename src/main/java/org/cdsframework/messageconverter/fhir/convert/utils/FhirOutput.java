@@ -1,56 +1,158 @@
 package org.cdsframework.messageconverter.fhir.convert.utils;
 
 import java.io.BufferedWriter;
-import java.io.FileWriter;
+import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
 
-import org.hl7.fhir.r4.model.DomainResource;
+import org.hl7.fhir.instance.model.api.IBaseResource;
 
-import ca.uhn.fhir.context.FhirContext;
 import ca.uhn.fhir.parser.IParser;
 
 /**
+ * Serializes FHIR resources as json. Resources are encoded straight into the Writer or OutputStream
+ * they are headed for, so a response or export never has to hold a whole document as a String.
+ * Parsers are not thread safe, so every thread keeps one compact and one pretty encoder and reuses
+ * them for every resource it writes.
+ *
  * @author Brian Lamb
  */
 public class FhirOutput {
-    public String convertToString(DomainResource resource) {
-        // Create a FHIR context
-        FhirContext ctx = FhirContext.forR4();
+    protected FhirContextProvider fhirContextProvider;
+    protected ThreadLocal<IParser> prettyEncoder;
+    protected ThreadLocal<IParser> compactEncoder;
 
-        // Create a parser
-        IParser parser = ctx.newJsonParser();
+    public FhirOutput() {
+        this(FhirContextProvider.getInstance());
+    }
+
+    /**
+     * @param FhirContextProvider fhirContextProvider : the provider used to obtain fhir parsers
+     */
+    public FhirOutput(FhirContextProvider fhirContextProvider) {
+        this.fhirContextProvider = fhirContextProvider;
+        this.prettyEncoder = ThreadLocal.withInitial(() -> fhirContextProvider.newJsonEncoder(true));
+        this.compactEncoder = ThreadLocal.withInitial(() -> fhirContextProvider.newJsonEncoder(false));
+    }
 
-        // Indent the output
-        parser.setPrettyPrint(true);
+    /**
+     * Get the encoder of the calling thread.
+     *
+     * @param boolean prettyPrint : whether or not the output should be indented
+     * @return IParser
+     */
+    protected IParser getEncoder(boolean prettyPrint) {
+        if (prettyPrint) {
+            return this.prettyEncoder.get();
+        }
+
+        return this.compactEncoder.get();
+    }
 
-        // Serialize it
-        String serialized = parser.encodeResourceToString(resource);
+    /**
+     * Serialize a resource as indented json.
+     *
+     * @param IBaseResource resource : the resource to serialize
+     * @return String
+     */
+    public String convertToString(IBaseResource resource) {
+        return this.convertToString(resource, true);
+    }
 
-        return serialized;
+    /**
+     * Serialize a resource as json.
+     *
+     * @param IBaseResource resource : the resource to serialize
+     * @param boolean prettyPrint : whether or not the output should be indented
+     * @return String
+     */
+    public String convertToString(IBaseResource resource, boolean prettyPrint) {
+        return this.getEncoder(prettyPrint).encodeResourceToString(resource);
     }
 
-    public void convertToFile(String pathToFile, String header) throws IOException {
-        BufferedWriter writer = new BufferedWriter(new FileWriter(pathToFile, true));
+    /**
+     * Encode a resource into a writer. The writer is neither flushed nor closed, not even by the
+     * encoder.
+     *
+     * @param IBaseResource resource : the resource to serialize
+     * @param Writer writer : where the json is written
+     * @param boolean prettyPrint : whether or not the output should be indented
+     * @throws IOException if the writer fails
+     */
+    public void write(IBaseResource resource, Writer writer, boolean prettyPrint) throws IOException {
+        this.getEncoder(prettyPrint).encodeResourceToWriter(resource, new NonFlushingWriter(writer));
+    }
 
-        writer.write(header + "\n");
-        writer.close();
+    /**
+     * Encode a resource into a stream as UTF-8. The stream is flushed but not closed.
+     *
+     * @param IBaseResource resource : the resource to serialize
+     * @param OutputStream stream : where the json is written
+     * @param boolean prettyPrint : whether or not the output should be indented
+     * @throws IOException if the stream fails
+     */
+    public void write(IBaseResource resource, OutputStream stream, boolean prettyPrint) throws IOException {
+        Writer writer = new OutputStreamWriter(stream, StandardCharsets.UTF_8);
+
+        this.write(resource, writer, prettyPrint);
+        writer.flush();
     }
 
-    public void convertToFile(DomainResource resource, String pathToFile) throws IOException {
-        String data = this.convertToString(resource);
+    /**
+     * Open a sink that writes any number of resources to a writer, one after the other. Closing the
+     * sink closes the writer.
+     *
+     * @param Writer writer : where the json is written
+     * @param boolean prettyPrint : whether or not the output should be indented
+     * @return FhirResourceWriter
+     */
+    public FhirResourceWriter openWriter(Writer writer, boolean prettyPrint) {
+        return new FhirResourceWriter(writer, this.fhirContextProvider.newJsonEncoder(prettyPrint));
+    }
 
-        BufferedWriter writer = new BufferedWriter(new FileWriter(pathToFile, true));
-        writer.write(data + "\n");
+    /**
+     * Open a sink that writes any number of resources to a stream as UTF-8. Closing the sink closes
+     * the stream.
+     *
+     * @param OutputStream stream : where the json is written
+     * @param boolean prettyPrint : whether or not the output should be indented
+     * @return FhirResourceWriter
+     */
+    public FhirResourceWriter openWriter(OutputStream stream, boolean prettyPrint) {
+        return this.openWriter(new BufferedWriter(new OutputStreamWriter(stream, StandardCharsets.UTF_8)), prettyPrint);
+    }
 
-        writer.close();
+    /**
+     * Open a sink that appends resources to a file, creating it if needed.
+     *
+     * @param String pathToFile : the file to append to
+     * @param boolean prettyPrint : whether or not the output should be indented
+     * @return FhirResourceWriter
+     * @throws IOException if the file can't be opened
+     */
+    public FhirResourceWriter openFile(String pathToFile, boolean prettyPrint) throws IOException {
+        return this.openWriter(new FileOutputStream(pathToFile, true), prettyPrint);
     }
 
-    public void convertToFile(DomainResource resource, String pathToFile, String header) throws IOException {
-        BufferedWriter writer = new BufferedWriter(new FileWriter(pathToFile, true));
+    public void convertToFile(String pathToFile, String header) throws IOException {
+        try (FhirResourceWriter writer = this.openFile(pathToFile, true)) {
+            writer.writeLine(header);
+        }
+    }
 
-        writer.write(header + "\n");
-        writer.close();
+    public void convertToFile(IBaseResource resource, String pathToFile) throws IOException {
+        try (FhirResourceWriter writer = this.openFile(pathToFile, true)) {
+            writer.write(resource);
+        }
+    }
 
-        this.convertToFile(resource, pathToFile);
+    public void convertToFile(IBaseResource resource, String pathToFile, String header) throws IOException {
+        try (FhirResourceWriter writer = this.openFile(pathToFile, true)) {
+            writer.writeLine(header);
+            writer.write(resource);
+        }
     }
 }
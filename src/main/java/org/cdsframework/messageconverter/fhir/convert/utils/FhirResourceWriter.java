@@ -0,0 +1,77 @@
+package org.cdsframework.messageconverter.fhir.convert.utils;
+
+import java.io.Closeable;
+import java.io.Flushable;
+import java.io.IOException;
+import java.io.Writer;
+
+import org.hl7.fhir.instance.model.api.IBaseResource;
+
+import ca.uhn.fhir.parser.IParser;
+
+/**
+ * Writes many resources to one open sink, each followed by a line break. In compact mode every
+ * resource takes exactly one line, which is the NDJSON format used by FHIR bulk data. A writer owns
+ * its own parser and is meant to be used by a single thread at a time. The sink is only flushed by
+ * flush and close, never while a resource is being encoded.
+ *
+ * @author Brian Lamb
+ */
+public class FhirResourceWriter implements Closeable, Flushable {
+    protected Writer writer;
+    protected Writer target;
+    protected IParser encoder;
+    protected long count;
+
+    /**
+     * @param Writer writer : the sink every resource is written to
+     * @param IParser encoder : the parser used to serialize every resource
+     */
+    public FhirResourceWriter(Writer writer, IParser encoder) {
+        this.writer = writer;
+        this.target = new NonFlushingWriter(writer);
+        this.encoder = encoder;
+    }
+
+    /**
+     * Serialize a resource onto the sink followed by a line break.
+     *
+     * @param IBaseResource resource : the resource to write
+     * @throws IOException if the sink fails
+     */
+    public void write(IBaseResource resource) throws IOException {
+        this.encoder.encodeResourceToWriter(resource, this.target);
+        this.writer.write('\n');
+        this.count++;
+    }
+
+    /**
+     * Write a line of plain text, for example a header between resources.
+     *
+     * @param String line : the text to write
+     * @throws IOException if the sink fails
+     */
+    public void writeLine(String line) throws IOException {
+        this.writer.write(line);
+        this.writer.write('\n');
+    }
+
+    /**
+     * Get the value of count
+     *
+     * @return the number of resources written so far
+     */
+    public long getCount() {
+        return this.count;
+    }
+
+    @Override
+    public void flush() throws IOException {
+        this.writer.flush();
+    }
+
+    @Override
+    public void close() throws IOException {
+        this.writer.close();
+    }
+}
@@ -0,0 +1,387 @@
+package org.cdsframework.messageconverter.fhir.convert.utils;
+
+import java.text.ParseException;
+import java.time.DateTimeException;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.ZoneId;
+import java.time.ZoneOffset;
+import java.time.ZonedDateTime;
+import java.util.Date;
+import java.util.TimeZone;
+
+import org.hl7.fhir.r4.model.BaseDateTimeType;
+import org.hl7.fhir.r4.model.DateTimeType;
+import org.hl7.fhir.r4.model.DateType;
+
+import ca.uhn.fhir.model.api.TemporalPrecisionEnum;
+
+/**
+ * Reads and writes the HL7 v3 TS values used by the vMR, including the low and high values of an
+ * IVL_TS. A TS has the form YYYY[MM[DD[HH[MM[SS[.S[S[S[S]]]]]]]]][+/-ZZZZ] and only carries as
+ * much precision as was known, so unlike a SimpleDateFormat the codec keeps track of how precise a
+ * value is when converting it to and from FHIR.
+ *
+ * Instances are immutable and thread safe, so a single codec is shared by every converter. The
+ * common eight digit date is read digit by digit instead of going through a date format, so the only
+ * objects created for it are a LocalDate and the value that is returned.
+ *
+ * @author Brian Lamb
+ */
+public final class HL7DateCodec {
+    private static final HL7DateCodec INSTANCE = new HL7DateCodec(ZoneId.systemDefault());
+
+    private final ZoneId zone;
+
+    /**
+     * @param ZoneId zone : the zone used for values that do not have a time zone offset
+     */
+    public HL7DateCodec(ZoneId zone) {
+        if (zone == null) {
+            throw new IllegalArgumentException("A ZoneId is required");
+        }
+
+        this.zone = zone;
+    }
+
+    /**
+     * Get the codec shared by every converter. It uses the default zone of the jvm, which is what
+     * the converters have always used.
+     *
+     * @return HL7DateCodec
+     */
+    public static HL7DateCodec getInstance() {
+        return INSTANCE;
+    }
+
+    /**
+     * Get the value of zone
+     *
+     * @return the value of zone
+     */
+    public ZoneId getZone() {
+        return this.zone;
+    }
+
+    /**
+     * Parse a TS into the first instant it covers, so 202006 becomes midnight on June 1st.
+     *
+     * @param String value : the TS to parse
+     * @return Date
+     * @throws ParseException if the value is not a valid TS
+     */
+    public Date parse(String value) throws ParseException {
+        if (isDate(value)) {
+            LocalDate date = this.toLocalDate(value);
+            return Date.from(date.atStartOfDay(this.zone).toInstant());
+        }
+
+        return Date.from(this.decode(value).dateTime.toInstant());
+    }
+
+    /**
+     * Parse a TS into a FHIR dateTime with the same precision. Hours and minutes without seconds
+     * are not allowed in FHIR so those are given second precision.
+     *
+     * @param String value : the TS to parse
+     * @return DateTimeType
+     * @throws ParseException if the value is not a valid TS
+     */
+    public DateTimeType parseDateTime(String value) throws ParseException {
+        DateTimeType dateTime = new DateTimeType();
+
+        if (isDate(value)) {
+            this.toLocalDate(value);
+            dateTime.setValueAsString(toIsoDate(value, 8));
+            return dateTime;
+        }
+
+        Timestamp timestamp = this.decode(value);
+
+        if (timestamp.precision.ordinal() <= TemporalPrecisionEnum.DAY.ordinal()) {
+            dateTime.setValueAsString(toIsoDate(value, timestamp.digits));
+        } else {
+            dateTime.setValue(Date.from(timestamp.dateTime.toInstant()), timestamp.precision);
+            dateTime.setTimeZone(TimeZone.getTimeZone(timestamp.dateTime.getZone()));
+        }
+
+        return dateTime;
+    }
+
+    /**
+     * Parse a TS into a FHIR date. Anything more precise than a day is dropped.
+     *
+     * @param String value : the TS to parse
+     * @return DateType
+     * @throws ParseException if the value is not a valid TS
+     */
+    public DateType parseDate(String value) throws ParseException {
+        DateType date = new DateType();
+
+        if (isDate(value)) {
+            this.toLocalDate(value);
+            date.setValueAsString(toIsoDate(value, 8));
+        } else {
+            Timestamp timestamp = this.decode(value);
+            date.setValueAsString(toIsoDate(value, Math.min(timestamp.digits, 8)));
+        }
+
+        return date;
+    }
+
+    /**
+     * Format a date as a day precision TS in the zone of this codec.
+     *
+     * @param Date value : the date to format
+     * @return String
+     */
+    public String format(Date value) {
+        // java.sql.Date does not support toInstant so go through the epoch millis instead
+        LocalDate date = Instant.ofEpochMilli(value.getTime()).atZone(this.zone).toLocalDate();
+
+        char[] buffer = new char[8];
+        writeDigits(buffer, 0, date.getYear(), 4);
+        writeDigits(buffer, 4, date.getMonthValue(), 2);
+        writeDigits(buffer, 6, date.getDayOfMonth(), 2);
+
+        return new String(buffer);
+    }
+
+    /**
+     * Format a FHIR date or dateTime as a TS. The vMR only deals in days, so the result keeps the
+     * precision of the value up to a day. The day is the one written in the value itself rather than
+     * the day in the zone of this codec.
+     *
+     * @param BaseDateTimeType value : the FHIR date or dateTime to format
+     * @return String, null if the value is empty
+     */
+    public String format(BaseDateTimeType value) {
+        String iso = value.getValueAsString();
+
+        if (iso == null || iso.length() < 4) {
+            return null;
+        }
+
+        int precision = value.getPrecision().ordinal();
+        char[] buffer = new char[8];
+        int length = 4;
+
+        iso.getChars(0, 4, buffer, 0);
+
+        if (precision >= TemporalPrecisionEnum.MONTH.ordinal() && iso.length() >= 7) {
+            iso.getChars(5, 7, buffer, 4);
+            length = 6;
+        }
+
+        if (precision >= TemporalPrecisionEnum.DAY.ordinal() && iso.length() >= 10) {
+            iso.getChars(8, 10, buffer, 6);
+            length = 8;
+        }
+
+        return new String(buffer, 0, length);
+    }
+
+    /**
+     * Decode any TS, working out its precision and zone along the way.
+     *
+     * @param String value : the TS to decode
+     * @return Timestamp
+     * @throws ParseException if the value is not a valid TS
+     */
+    protected Timestamp decode(String value) throws ParseException {
+        if (value == null || value.isEmpty()) {
+            throw new ParseException("No timestamp found", 0);
+        }
+
+        int end = value.length();
+        ZoneId zone = this.zone;
+
+        // an offset is always a sign followed by HHMM at the very end
+        if (end > 5 && (value.charAt(end - 5) == '+' || value.charAt(end - 5) == '-')) {
+            int seconds = readDigits(value, end - 4, 2) * 3600 + readDigits(value, end - 2, 2) * 60;
+
+            try {
+                zone = ZoneOffset.ofTotalSeconds(value.charAt(end - 5) == '-' ? -seconds : seconds);
+            } catch (DateTimeException exception) {
+                throw new ParseException("Invalid time zone offset in " + value, end - 5);
+            }
+
+            end -= 5;
+        }
+
+        int digits = end;
+        int nanos = 0;
+        int fraction = value.indexOf('.');
+        boolean hasFraction = fraction >= 0 && fraction < end;
+
+        if (hasFraction) {
+            int count = end - fraction - 1;
+
+            if (fraction != 14 || count < 1 || count > 4) {
+                throw new ParseException("Invalid fractional seconds in " + value, fraction);
+            }
+
+            nanos = readDigits(value, fraction + 1, count);
+
+            for (int i = count; i < 9; i++) {
+                nanos *= 10;
+            }
+
+            digits = fraction;
+        }
+
+        TemporalPrecisionEnum precision;
+
+        switch (digits) {
+            case 4:
+                precision = TemporalPrecisionEnum.YEAR;
+                break;
+            case 6:
+                precision = TemporalPrecisionEnum.MONTH;
+                break;
+            case 8:
+                precision = TemporalPrecisionEnum.DAY;
+                break;
+            case 10:
+            case 12:
+            case 14:
+                precision = hasFraction ? TemporalPrecisionEnum.MILLI : TemporalPrecisionEnum.SECOND;
+                break;
+            default:
+                throw new ParseException("Invalid timestamp " + value, 0);
+        }
+
+        try {
+            ZonedDateTime dateTime = ZonedDateTime.of(
+                readDigits(value, 0, 4),
+                digits >= 6 ? readDigits(value, 4, 2) : 1,
+                digits >= 8 ? readDigits(value, 6, 2) : 1,
+                digits >= 10 ? readDigits(value, 8, 2) : 0,
+                digits >= 12 ? readDigits(value, 10, 2) : 0,
+                digits >= 14 ? readDigits(value, 12, 2) : 0,
+                nanos,
+                zone
+            );
+
+            return new Timestamp(dateTime, precision, digits);
+        } catch (DateTimeException exception) {
+            throw new ParseException("Invalid timestamp " + value + ": " + exception.getMessage(), 0);
+        }
+    }
+
+    /**
+     * Convert an eight digit TS to a local date.
+     *
+     * @param String value : a value for which isDate returned true
+     * @return LocalDate
+     * @throws ParseException if the month or day is out of range
+     */
+    protected LocalDate toLocalDate(String value) throws ParseException {
+        try {
+            return LocalDate.of(readDigits(value, 0, 4), readDigits(value, 4, 2), readDigits(value, 6, 2));
+        } catch (DateTimeException exception) {
+            throw new ParseException("Invalid date " + value + ": " + exception.getMessage(), 0);
+        }
+    }
+
+    /**
+     * Check if a value is exactly eight digits, the form used by almost every vMR date.
+     *
+     * @param String value : the value to check
+     * @return boolean
+     */
+    protected static boolean isDate(String value) {
+        if (value == null || value.length() != 8) {
+            return false;
+        }
+
+        for (int i = 0; i < 8; i++) {
+            char c = value.charAt(i);
+
+            if (c < '0' || c > '9') {
+                return false;
+            }
+        }
+
+        return true;
+    }
+
+    /**
+     * Rewrite the leading YYYY[MM[DD]] digits of a TS as a FHIR date, e.g. 2020-06-15.
+     *
+     * @param String value : the TS, which must have at least length digits
+     * @param int length : 4, 6 or 8
+     * @return String
+     * @throws ParseException if a character is not a digit
+     */
+    protected static String toIsoDate(String value, int length) throws ParseException {
+        readDigits(value, 0, length);
+
+        StringBuilder builder = new StringBuilder(10).append(value, 0, 4);
+
+        if (length >= 6) {
+            builder.append('-').append(value, 4, 6);
+        }
+
+        if (length >= 8) {
+            builder.append('-').append(value, 6, 8);
+        }
+
+        return builder.toString();
+    }
+
+    /**
+     * Read count digits starting at start as a number.
+     *
+     * @param String value : the value to read from
+     * @param int start : the index of the first digit
+     * @param int count : the number of digits to read
+     * @return int
+     * @throws ParseException if a character is not a digit
+     */
+    protected static int readDigits(String value, int start, int count) throws ParseException {
+        int result = 0;
+
+        for (int i = start; i < start + count; i++) {
+            char c = value.charAt(i);
+
+            if (c < '0' || c > '9') {
+                throw new ParseException("Expected a digit in " + value, i);
+            }
+
+            result = result * 10 + (c - '0');
+        }
+
+        return result;
+    }
+
+    /**
+     * Write number as exactly count digits, padding with zeroes.
+     *
+     * @param char[] buffer : the buffer to write to
+     * @param int start : the index to start writing at
+     * @param int number : the non negative number to write
+     * @param int count : the number of digits to write
+     */
+    protected static void writeDigits(char[] buffer, int start, int number, int count) {
+        for (int i = start + count - 1; i >= start; i--) {
+            buffer[i] = (char) ('0' + number % 10);
+            number /= 10;
+        }
+    }
+
+    /**
+     * A decoded TS along with how precise it was.
+     */
+    protected static final class Timestamp {
+        protected final ZonedDateTime dateTime;
+        protected final TemporalPrecisionEnum precision;
+        protected final int digits;
+
+        protected Timestamp(ZonedDateTime dateTime, TemporalPrecisionEnum precision, int digits) {
+            this.dateTime = dateTime;
+            this.precision = precision;
+            this.digits = digits;
+        }
+    }
+}
@@ -0,0 +1,49 @@
+package org.cdsframework.messageconverter.fhir.convert.utils;
+
+import java.nio.charset.StandardCharsets;
+import java.util.UUID;
+
+import org.opencds.vmr.v1_0.schema.II;
+
+/**
+ * Creates the logical ids given to the FHIR resources built from a vMR record. Every converter
+ * calls this once per resource, so an implementation must be safe to use from many threads at once
+ * and should not serialize those threads on a shared lock.
+ *
+ * @author Brian Lamb
+ */
+@FunctionalInterface
+public interface IdGenerator {
+    /**
+     * Create a new id. The result has to be a valid FHIR id: at most 64 letters, digits, dashes or
+     * dots.
+     *
+     * @return String
+     */
+    String nextId();
+
+    /**
+     * Get the id of a resource built from a vMR object that carries its own identifier. The same
+     * resource type, root and extension always give the same id, so converting a record twice
+     * produces resources that can be matched, cached or deduplicated. The id is a name based UUID
+     * because a root and extension together are often too long or use characters a FHIR id can't.
+     * An empty extension is the same as none.
+     *
+     * @param String resourceType : the FHIR resource type, keeps equal identifiers on different types apart
+     * @param II identifier : the vMR identifier, may be null
+     * @return String, a new id from nextId if the identifier has no root
+     */
+    default String idFor(String resourceType, II identifier) {
+        if (identifier == null || identifier.getRoot() == null || identifier.getRoot().isEmpty()) {
+            return this.nextId();
+        }
+
+        StringBuilder name = new StringBuilder(resourceType).append('|').append(identifier.getRoot());
+
+        if (identifier.getExtension() != null && !identifier.getExtension().isEmpty()) {
+            name.append('|').append(identifier.getExtension());
+        }
+
+        return UUID.nameUUIDFromBytes(name.toString().getBytes(StandardCharsets.UTF_8)).toString();
+    }
+}
@@ -0,0 +1,27 @@
+package org.cdsframework.messageconverter.fhir.convert.utils;
+
+import java.io.FilterWriter;
+import java.io.IOException;
+import java.io.Writer;
+
+/**
+ * Passes everything through to another writer except flush, which does nothing. The HAPI encoder
+ * flushes the writer it is given several times for every resource, which pushes a buffered sink
+ * out to the stream or socket below it each time. Handing the encoder this wrapper leaves it to the
+ * owner of the sink to decide when to flush.
+ *
+ * @author Brian Lamb
+ */
+public class NonFlushingWriter extends FilterWriter {
+    /**
+     * @param Writer writer : the writer everything but flush is passed to
+     */
+    public NonFlushingWriter(Writer writer) {
+        super(writer);
+    }
+
+    @Override
+    public void flush() throws IOException {
+        // the owner of the sink flushes it
+    }
+}
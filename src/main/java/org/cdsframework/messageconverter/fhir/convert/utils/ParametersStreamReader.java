@@ -0,0 +1,185 @@
+package org.cdsframework.messageconverter.fhir.convert.utils;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.Reader;
+import java.io.StringWriter;
+import java.util.Collection;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BiConsumer;
+
+import org.cdsframework.messageconverter.metrics.ConversionMetrics;
+import org.hl7.fhir.r4.model.Resource;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonFactoryBuilder;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.core.StreamReadFeature;
+import com.fasterxml.jackson.core.StreamWriteFeature;
+import com.fasterxml.jackson.core.json.JsonReadFeature;
+
+import ca.uhn.fhir.parser.DataFormatException;
+import ca.uhn.fhir.parser.IParser;
+
+/**
+ * Reads a json FHIR Parameters resource one token at a time. The parameter array is walked
+ * incrementally and each resource is handed off as soon as its parameter has been read, so only a
+ * single resource is ever held in memory instead of the whole message.
+ *
+ * @author Brian Lamb
+ */
+public class ParametersStreamReader {
+    // unquoted names and single quotes are accepted the same as org.json accepts them
+    private static final JsonFactory JSON_FACTORY = new JsonFactoryBuilder()
+        .enable(JsonReadFeature.ALLOW_UNQUOTED_FIELD_NAMES)
+        .enable(JsonReadFeature.ALLOW_SINGLE_QUOTES)
+        .disable(StreamReadFeature.AUTO_CLOSE_SOURCE)
+        .disable(StreamWriteFeature.AUTO_CLOSE_TARGET)
+        .build();
+
+    protected FhirContextProvider fhirContextProvider;
+    protected ConversionMetrics metrics;
+
+    public ParametersStreamReader() {
+        this(FhirContextProvider.getInstance());
+    }
+
+    /**
+     * @param FhirContextProvider fhirContextProvider : the provider used to obtain fhir parsers
+     */
+    public ParametersStreamReader(FhirContextProvider fhirContextProvider) {
+        this(fhirContextProvider, ConversionMetrics.noop());
+    }
+
+    /**
+     * @param FhirContextProvider fhirContextProvider : the provider used to obtain fhir parsers
+     * @param ConversionMetrics metrics : records how long each parameter resource takes to parse
+     */
+    public ParametersStreamReader(FhirContextProvider fhirContextProvider, ConversionMetrics metrics) {
+        this.fhirContextProvider = fhirContextProvider;
+        this.metrics = metrics;
+    }
+
+    /**
+     * @see read(Reader, Collection<String>, BiConsumer<String, Resource>)
+     */
+    public void read(InputStream data, Collection<String> names, BiConsumer<String, Resource> handler) throws IOException {
+        try (JsonParser parser = JSON_FACTORY.createParser(data)) {
+            this.read(parser, names, handler);
+        } catch (JsonProcessingException | DataFormatException exception) {
+            throw new IllegalArgumentException("Invalid Parameters resource: " + exception.getMessage(), exception);
+        }
+    }
+
+    /**
+     * Read a Parameters resource and pass the name and resource of every parameter whose name is in
+     * names to handler, in the order they appear. Parameters without a resource are skipped.
+     *
+     * @param Reader data : the json data to read, it is not closed by this method
+     * @param Collection<String> names : the parameter names to convert, null to convert all of them
+     * @param BiConsumer<String, Resource> handler : called with each parameter name and resource
+     * @throws IllegalArgumentException if the data is not a Parameters resource, isn't valid json or
+     *         holds a resource that can't be parsed
+     */
+    public void read(Reader data, Collection<String> names, BiConsumer<String, Resource> handler) throws IOException {
+        try (JsonParser parser = JSON_FACTORY.createParser(data)) {
+            this.read(parser, names, handler);
+        } catch (JsonProcessingException | DataFormatException exception) {
+            throw new IllegalArgumentException("Invalid Parameters resource: " + exception.getMessage(), exception);
+        }
+    }
+
+    /**
+     * Walk the top level object looking for the parameter array.
+     *
+     * @param JsonParser parser : the tokenizer positioned before the first token
+     * @param Collection<String> names : the parameter names to convert, null to convert all of them
+     * @param BiConsumer<String, Resource> handler : called with each parameter name and resource
+     */
+    protected void read(JsonParser parser, Collection<String> names, BiConsumer<String, Resource> handler) throws IOException {
+        boolean hasParameter = false;
+
+        if (parser.nextToken() != JsonToken.START_OBJECT) {
+            throw new IllegalArgumentException("Expected a json object");
+        }
+
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            String field = parser.getCurrentName();
+            JsonToken token = parser.nextToken();
+
+            if (field.equals("resourceType") && !"Parameters".equals(parser.getText())) {
+                throw new IllegalArgumentException("Expected a Parameters resource but found " + parser.getText());
+            } else if (field.equals("parameter") && token == JsonToken.START_ARRAY) {
+                hasParameter = true;
+                this.readParameters(parser, names, handler);
+            } else {
+                parser.skipChildren();
+            }
+        }
+
+        if (!hasParameter) {
+            throw new IllegalArgumentException("No parameter array found");
+        }
+    }
+
+    /**
+     * Read every element in the parameter array. The resource of a parameter is copied token by
+     * token into a buffer that is reused for every parameter and parsed once the whole parameter has
+     * been read, since the name is allowed to come after the resource.
+     *
+     * @param JsonParser parser : the tokenizer positioned on the start of the parameter array
+     * @param Collection<String> names : the parameter names to convert, null to convert all of them
+     * @param BiConsumer<String, Resource> handler : called with each parameter name and resource
+     */
+    protected void readParameters(JsonParser parser, Collection<String> names, BiConsumer<String, Resource> handler) throws IOException {
+        IParser fhirParser = this.fhirContextProvider.newJsonParser();
+        StringWriter buffer = new StringWriter();
+
+        while (parser.nextToken() != JsonToken.END_ARRAY) {
+            if (parser.getCurrentToken() != JsonToken.START_OBJECT) {
+                parser.skipChildren();
+                continue;
+            }
+
+            String name = null;
+            boolean hasResource = false;
+
+            buffer.getBuffer().setLength(0);
+
+            while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                String field = parser.getCurrentName();
+                JsonToken token = parser.nextToken();
+
+                if (field.equals("name") && token == JsonToken.VALUE_STRING) {
+                    name = parser.getText();
+                } else if (field.equals("resource") && token == JsonToken.START_OBJECT) {
+                    try (JsonGenerator generator = JSON_FACTORY.createGenerator(buffer)) {
+                        generator.copyCurrentStructure(parser);
+                    }
+
+                    hasResource = true;
+                } else {
+                    parser.skipChildren();
+                }
+            }
+
+            if (name == null || !hasResource || (names != null && !names.contains(name))) {
+                continue;
+            }
+
+            long start = System.nanoTime();
+            Resource resource;
+
+            try {
+                resource = (Resource) fhirParser.parseResource(buffer.toString());
+            } finally {
+                this.metrics.parse(false).record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+            }
+
+            handler.accept(name, resource);
+        }
+    }
+}
@@ -0,0 +1,39 @@
+package org.cdsframework.messageconverter.fhir.convert.utils;
+
+import java.util.UUID;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Creates random (version 4) UUIDs from the random number generator of the calling thread. The ids
+ * look exactly like the ones from UUID.randomUUID but no thread ever waits on the SecureRandom that
+ * UUID.randomUUID shares across the whole process. The ids are unique but not unguessable, which is
+ * fine for resource ids and not fine for anything used as a secret.
+ *
+ * @author Brian Lamb
+ */
+public class RandomIdGenerator implements IdGenerator {
+    private static final RandomIdGenerator INSTANCE = new RandomIdGenerator();
+
+    /**
+     * Get the generator shared by every converter that was not given one explicitly.
+     *
+     * @return RandomIdGenerator
+     */
+    public static RandomIdGenerator getInstance() {
+        return INSTANCE;
+    }
+
+    /**
+     * @return String a random version 4 UUID
+     */
+    @Override
+    public String nextId() {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+
+        // set the version to 4 and the variant to IETF as RFC 4122 requires
+        long mostSigBits = (random.nextLong() & ~0xF000L) | 0x4000L;
+        long leastSigBits = (random.nextLong() & ~(0xC000000000000000L)) | 0x8000000000000000L;
+
+        return new UUID(mostSigBits, leastSigBits).toString();
+    }
+}
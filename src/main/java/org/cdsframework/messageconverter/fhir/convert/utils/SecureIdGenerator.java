@@ -0,0 +1,31 @@
+package org.cdsframework.messageconverter.fhir.convert.utils;
+
+import java.util.UUID;
+
+/**
+ * Creates ids with UUID.randomUUID, the way every converter did before the generator could be
+ * chosen. Use this only when resource ids have to be unguessable: every call goes through a single
+ * SecureRandom, which becomes a point of contention with many converting threads.
+ *
+ * @author Brian Lamb
+ */
+public class SecureIdGenerator implements IdGenerator {
+    private static final SecureIdGenerator INSTANCE = new SecureIdGenerator();
+
+    /**
+     * Get the shared instance of this generator.
+     *
+     * @return SecureIdGenerator
+     */
+    public static SecureIdGenerator getInstance() {
+        return INSTANCE;
+    }
+
+    /**
+     * @return String a random version 4 UUID from a cryptographically strong generator
+     */
+    @Override
+    public String nextId() {
+        return UUID.randomUUID().toString();
+    }
+}
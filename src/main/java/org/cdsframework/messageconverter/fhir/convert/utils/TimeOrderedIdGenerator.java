@@ -0,0 +1,51 @@
+package org.cdsframework.messageconverter.fhir.convert.utils;
+
+import java.util.UUID;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Creates time ordered (version 7) UUIDs. The first 48 bits hold the milliseconds since the epoch
+ * and the rest is random, so ids sort roughly in the order they were created. That keeps inserts
+ * close together in a database index keyed on the resource id. Ids created by different threads
+ * within the same millisecond are not ordered against each other.
+ *
+ * @author Brian Lamb
+ */
+public class TimeOrderedIdGenerator implements IdGenerator {
+    private static final TimeOrderedIdGenerator INSTANCE = new TimeOrderedIdGenerator();
+
+    /**
+     * Get the shared instance of this generator.
+     *
+     * @return TimeOrderedIdGenerator
+     */
+    public static TimeOrderedIdGenerator getInstance() {
+        return INSTANCE;
+    }
+
+    /**
+     * @return String a version 7 UUID for the current time
+     */
+    @Override
+    public String nextId() {
+        return this.nextId(System.currentTimeMillis());
+    }
+
+    /**
+     * Create a version 7 UUID for the given time.
+     *
+     * @param long millis : the milliseconds since the epoch to put in the id
+     * @return String
+     */
+    protected String nextId(long millis) {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+
+        // 48 bits of time, 4 bits of version and 12 random bits
+        long mostSigBits = (millis << 16) | 0x7000L | (random.nextLong() & 0x0FFFL);
+
+        // 2 bits of variant and 62 random bits
+        long leastSigBits = (random.nextLong() & ~(0xC000000000000000L)) | 0x8000000000000000L;
+
+        return new UUID(mostSigBits, leastSigBits).toString();
+    }
+}
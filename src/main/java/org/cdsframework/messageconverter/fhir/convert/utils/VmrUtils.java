@@ -5,7 +5,8 @@ import java.security.NoSuchAlgorithmException;
 import java.security.SecureRandom;
 import java.security.cert.CertificateException;
 import java.security.cert.X509Certificate;
-import java.util.HashMap;
+import java.util.Collections;
+import java.util.List;
 import java.util.Map;
 
 import javax.net.ssl.HttpsURLConnection;
@@ -14,7 +15,11 @@ import javax.net.ssl.TrustManager;
 import javax.net.ssl.X509TrustManager;
 
 import org.cdsframework.util.LogUtils;
-import org.cdsframework.util.support.cds.Config;
+import org.opencds.vmr.v1_0.schema.EvaluatedPerson;
+import org.opencds.vmr.v1_0.schema.EvaluatedPerson.ClinicalStatements;
+import org.opencds.vmr.v1_0.schema.ObservationResult;
+import org.opencds.vmr.v1_0.schema.SubstanceAdministrationEvent;
+import org.opencds.vmr.v1_0.schema.SubstanceAdministrationProposal;
 
 /**
  * @author sdn
@@ -22,7 +27,11 @@ import org.cdsframework.util.support.cds.Config;
 public class VmrUtils {
 
     private static final LogUtils logger = LogUtils.getLogger(VmrUtils.class);
-    public static final Map<String, String> CODE_SYSTEM_MAP = new HashMap<>();
+    /**
+     * @deprecated holds the code systems loaded at startup and misses later reloads, use CodeSystemResolver instead
+     */
+    @Deprecated
+    public static final Map<String, String> CODE_SYSTEM_MAP = CodeSystemResolver.getInstance().getOids();
     private static final TrustManager[] TRUST_ALL_CERTS = new TrustManager[]{new X509TrustManager() {
 
         @Override
@@ -41,14 +50,6 @@ public class VmrUtils {
     };
 
     static {
-        CODE_SYSTEM_MAP.put("http://loinc.org", "2.16.840.1.113883.6.1");
-        CODE_SYSTEM_MAP.put("http://www2a.cdc.gov/vaccines/IIS/IISStandards/vaccines.asp?rpt=cvx", Config.getCodeSystemOid("VACCINE"));
-        CODE_SYSTEM_MAP.put("http://hl7.org/fhir/sid/cvx", Config.getCodeSystemOid("VACCINE"));
-        CODE_SYSTEM_MAP.put("http://hl7.org/fhir/sid/icd-9-cm", "2.16.840.1.113883.6.103");
-        CODE_SYSTEM_MAP.put("http://hl7.org/fhir/sid/icd-10-cm", "2.16.840.1.113883.6.90");
-        CODE_SYSTEM_MAP.put("http://hl7.org/fhir/sid/icd-10-de", "2.16.840.1.113883.6.3.2");
-        CODE_SYSTEM_MAP.put("http://hl7.org/fhir/sid/icd-10-nl", "1.2.276.0.76.5.409");
-        CODE_SYSTEM_MAP.put("http://snomed.info/sct", "2.16.840.1.113883.6.96");
         try {
             SSLContext sc = SSLContext.getInstance("TLS");
             sc.init(null, TRUST_ALL_CERTS, new SecureRandom());
@@ -58,12 +59,74 @@ public class VmrUtils {
         }
     }
 
+    /**
+     * Find the OID of a code system.
+     *
+     * @param String identifier : the code system URI or OID
+     * @return String the OID, null if the code system isn't known
+     * @see CodeSystemResolver#getOid(String)
+     */
     public static String getOid(String identifier) {
-        final String METHODNAME = "getOid ";
-        String result = CODE_SYSTEM_MAP.get(identifier);
-        if (result == null) {
-            logger.error(METHODNAME, "could not find OID for submitted identifier: ", identifier);
+        return CodeSystemResolver.getInstance().getOid(identifier);
+    }
+
+    /**
+     * Get the observation results of a patient without failing on a sparse record.
+     *
+     * @param EvaluatedPerson person : the patient from a vMR record, may be null
+     * @return List<ObservationResult>, empty if any part of the path is missing
+     */
+    public static List<ObservationResult> getObservationResults(EvaluatedPerson person) {
+        if (person == null) {
+            return Collections.emptyList();
+        }
+
+        ClinicalStatements clinicalStatements = person.getClinicalStatements();
+
+        if (clinicalStatements == null || clinicalStatements.getObservationResults() == null) {
+            return Collections.emptyList();
+        }
+
+        return clinicalStatements.getObservationResults().getObservationResult();
+    }
+
+    /**
+     * Get the substance administration events of a patient without failing on a sparse record.
+     *
+     * @param EvaluatedPerson person : the patient from a vMR record, may be null
+     * @return List<SubstanceAdministrationEvent>, empty if any part of the path is missing
+     */
+    public static List<SubstanceAdministrationEvent> getSubstanceAdministrationEvents(EvaluatedPerson person) {
+        if (person == null) {
+            return Collections.emptyList();
+        }
+
+        ClinicalStatements clinicalStatements = person.getClinicalStatements();
+
+        if (clinicalStatements == null || clinicalStatements.getSubstanceAdministrationEvents() == null) {
+            return Collections.emptyList();
+        }
+
+        return clinicalStatements.getSubstanceAdministrationEvents().getSubstanceAdministrationEvent();
+    }
+
+    /**
+     * Get the substance administration proposals of a patient without failing on a sparse record.
+     *
+     * @param EvaluatedPerson person : the patient from a vMR record, may be null
+     * @return List<SubstanceAdministrationProposal>, empty if any part of the path is missing
+     */
+    public static List<SubstanceAdministrationProposal> getSubstanceAdministrationProposals(EvaluatedPerson person) {
+        if (person == null) {
+            return Collections.emptyList();
         }
-        return result;
+
+        ClinicalStatements clinicalStatements = person.getClinicalStatements();
+
+        if (clinicalStatements == null || clinicalStatements.getSubstanceAdministrationProposals() == null) {
+            return Collections.emptyList();
+        }
+
+        return clinicalStatements.getSubstanceAdministrationProposals().getSubstanceAdministrationProposal();
     }
 }
@@ -1,5 +1,6 @@
 package org.cdsframework.messageconverter.fhir.convert.vmr;
 
+import org.cdsframework.messageconverter.fhir.convert.utils.CodeSystemResolver;
 import org.hl7.fhir.r4.model.CodeableConcept;
 import org.hl7.fhir.r4.model.Coding;
 import org.opencds.vmr.v1_0.schema.CD;
@@ -8,9 +9,23 @@ import org.opencds.vmr.v1_0.schema.CD;
  * @author Brian Lamb
  */
 public class CodeableConceptConverter implements CodeConverter<CodeableConcept> {
+    protected CodeSystemResolver codeSystemResolver;
+
+    public CodeableConceptConverter() {
+        this(CodeSystemResolver.getInstance());
+    }
+
     /**
-     * Convert a CD object into a CodeableConcept.
-     * 
+     * @param CodeSystemResolver codeSystemResolver : translates code systems between URIs and OIDs
+     */
+    public CodeableConceptConverter(CodeSystemResolver codeSystemResolver) {
+        this.codeSystemResolver = codeSystemResolver;
+    }
+
+    /**
+     * Convert a CD object into a CodeableConcept. A code system OID with a known FHIR URI is replaced
+     * by the URI, any other code system is copied as is.
+     *
      * @param CD code : the CD object containing the data for the codeable concept
      * @return CodeableConcept
      */
@@ -21,29 +36,46 @@ public class CodeableConceptConverter implements CodeConverter<CodeableConcept>
         coding.setCode(code.getCode());
         coding.setDisplay(code.getDisplayName());
         coding.setSystem(code.getCodeSystem());
-        codeableConcept.addCoding(coding);     
+
+        String uri = this.codeSystemResolver.getUri(code.getCodeSystem());
+
+        if (uri != null) {
+            coding.setSystem(uri);
+        }
+
+        codeableConcept.addCoding(coding);
 
         return codeableConcept;
     }
 
     /**
      * Convert a FHIR compliant CodeableConcept object into an Open CDS compliant
-     * CD object.
+     * CD object. A code system URI with a known OID is replaced by the OID, any other code system
+     * is copied as is.
      *
      * @param CodeableConcept concept : FHIR compliant CodeableConcept object
      * @return CD
      */
     public CD convertToCds(CodeableConcept concept) {
-        CD cd = new CD();
-
         // it's possible for a concept to have multiple codings
         // but CD only saves one so for simplicity, we use the first
         Coding coding = concept.getCodingFirstRep();
+        String codeSystem = coding.getSystem();
+
+        if (coding.hasSystem()) {
+            String oid = this.codeSystemResolver.resolveOid(codeSystem);
+
+            if (oid != null) {
+                codeSystem = oid;
+            }
+        }
+
+        CD cd = new CD();
 
         cd.setCode(coding.getCode());
         cd.setDisplayName(coding.getDisplay());
-        cd.setCodeSystem(coding.getSystem());
+        cd.setCodeSystem(codeSystem);
 
         return cd;
     }
-}
\ No newline at end of file
+}
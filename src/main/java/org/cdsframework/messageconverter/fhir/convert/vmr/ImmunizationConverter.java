@@ -1,14 +1,15 @@
 package org.cdsframework.messageconverter.fhir.convert.vmr;
 
 import java.text.ParseException;
-import java.text.SimpleDateFormat;
-import java.util.Date;
 import java.util.List;
-import java.util.UUID;
 
 import org.cdsframework.cds.vmr.CdsInputWrapper;
 import org.cdsframework.ice.input.IceCdsInputWrapper;
+import org.cdsframework.messageconverter.fhir.convert.utils.FhirContextProvider;
+import org.cdsframework.messageconverter.fhir.convert.utils.HL7DateCodec;
+import org.cdsframework.messageconverter.fhir.convert.utils.IdGenerator;
 import org.cdsframework.messageconverter.fhir.convert.utils.IdentifierFactory;
+import org.cdsframework.messageconverter.fhir.convert.utils.RandomIdGenerator;
 import org.cdsframework.messageconverter.fhir.convert.utils.VmrUtils;
 import org.cdsframework.util.LogUtils;
 import org.cdsframework.util.support.cds.Config;
@@ -29,9 +30,7 @@ import org.opencds.vmr.v1_0.schema.ObservationResult;
 import org.opencds.vmr.v1_0.schema.ObservationResult.ObservationValue;
 import org.opencds.vmr.v1_0.schema.SubstanceAdministrationEvent;
 
-import ca.uhn.fhir.context.FhirContext;
 import ca.uhn.fhir.parser.IParser;
-import ca.uhn.fhir.parser.StrictErrorHandler;
 import org.hl7.fhir.r4.model.Observation;
 
 /**
@@ -44,7 +43,29 @@ public class ImmunizationConverter implements CdsConverter {
     private final LogUtils logger = LogUtils.getLogger(ImmunizationConverter.class);
     protected IdentifierFactory identifierFactory = new IdentifierFactory();
 
-    protected SimpleDateFormat dateFormat = new SimpleDateFormat("yyyymmdd");
+    protected HL7DateCodec dateCodec = HL7DateCodec.getInstance();
+    protected FhirContextProvider fhirContextProvider;
+    protected IdGenerator idGenerator;
+
+    public ImmunizationConverter() {
+        this(FhirContextProvider.getInstance());
+    }
+
+    /**
+     * @param FhirContextProvider fhirContextProvider : the provider used to obtain fhir parsers
+     */
+    public ImmunizationConverter(FhirContextProvider fhirContextProvider) {
+        this(fhirContextProvider, RandomIdGenerator.getInstance());
+    }
+
+    /**
+     * @param FhirContextProvider fhirContextProvider : the provider used to obtain fhir parsers
+     * @param IdGenerator idGenerator : creates the id of every resource this converter builds
+     */
+    public ImmunizationConverter(FhirContextProvider fhirContextProvider, IdGenerator idGenerator) {
+        this.fhirContextProvider = fhirContextProvider;
+        this.idGenerator = idGenerator;
+    }
 
     /**
      * This converts a FHIR Immunization object into an ObservationResult OpenCDS object. There
@@ -115,18 +136,19 @@ public class ImmunizationConverter implements CdsConverter {
             event.setIsValid(this.immunizationStatusConverter.convertToCds(immunization.getStatus()));
         }
 
-        try {
-            // this is safe because if we can't access the date, we don't need to set it anyway
+        String administeredDate = null;
+
+        if (immunization.hasOccurrenceDateTimeType()) {
+            administeredDate = this.dateCodec.format(immunization.getOccurrenceDateTimeType());
+        }
+
+        if (administeredDate != null) {
             IVLTS administrationTimeInterval = new IVLTS();
-            administrationTimeInterval.setHigh(
-                this.dateFormat.format(immunization.getOccurrenceDateTimeType().getValue())
-            );
-            administrationTimeInterval.setLow(
-                this.dateFormat.format(immunization.getOccurrenceDateTimeType().getValue())
-            );
+            administrationTimeInterval.setHigh(administeredDate);
+            administrationTimeInterval.setLow(administeredDate);
 
             event.setAdministrationTimeInterval(administrationTimeInterval);
-        } catch (NullPointerException exception) {
+        } else {
             this.logger.debug("convertToCds", "No date found in immunization");
         }
 
@@ -151,7 +173,18 @@ public class ImmunizationConverter implements CdsConverter {
      */
     public IceCdsInputWrapper convertToCds(IceCdsInputWrapper wrapper, JSONObject data) {
         Immunization immunization = this.convertToFhir(data);
+        return this.convertToCds(wrapper, immunization);
+    }
 
+    /**
+     * Convert an already parsed FHIR Immunization to cds format. Save the results to the ice cds
+     * input wrapper.
+     *
+     * @param IceCdsInputWrapper wrapper : wrapper object, used to store immunization data
+     * @param Immunization immunization : the FHIR immunization resource
+     * @return IceCdsInputWrapper object updated with fhir data
+     */
+    public IceCdsInputWrapper convertToCds(IceCdsInputWrapper wrapper, Immunization immunization) {
         if (immunization.hasOccurrence()
             && immunization.hasOccurrenceDateTimeType()
             && immunization.hasId()
@@ -195,6 +228,21 @@ public class ImmunizationConverter implements CdsConverter {
         return iceInput.getCdsInputWrapper();
     }
 
+    /**
+     * Convert an already parsed FHIR Immunization to cds format. Save the results to the cds input
+     * wrapper.
+     *
+     * @param CdsInputWrapper wrapper : wrapper object, used to store immunization data
+     * @param Immunization immunization : the FHIR immunization resource
+     * @return CdsInputWrapper object updated with fhir data
+     */
+    public CdsInputWrapper convertToCds(CdsInputWrapper wrapper, Immunization immunization) {
+        IceCdsInputWrapper iceInput = new IceCdsInputWrapper(wrapper);
+        iceInput = this.convertToCds(iceInput, immunization);
+
+        return iceInput.getCdsInputWrapper();
+    }
+
     /**
      * To make parsing the immunization data easier, convert to an immunization object to easily get
      * the data out.
@@ -203,11 +251,8 @@ public class ImmunizationConverter implements CdsConverter {
      * @return a immunization object populated via the fhir data
      */
     public Immunization convertToFhir(JSONObject data) {
-        FhirContext ctx = FhirContext.forR4();
-
-        // Create a parser and configure it to use the strict error handler
-        IParser parser = ctx.newJsonParser();
-        parser.setParserErrorHandler(new StrictErrorHandler());
+        // get a parser configured to use the strict error handler
+        IParser parser = this.fhirContextProvider.newJsonParser();
 
         // get the string representation of the json object
         String str = data.toString();
@@ -219,7 +264,8 @@ public class ImmunizationConverter implements CdsConverter {
 
     /**
      * This method converts an OpenCDS ObservationResult to a FHIR compliant Immunization
-     * object. This converts all valid data into Immunization data.
+     * object. This converts all valid data into Immunization data. The id is derived from the
+     * id of the ObservationResult when it has one.
      *
      * @param ObservationResult result : the OpenCDS object containing the immunization data
      * @return Immunization
@@ -231,7 +277,7 @@ public class ImmunizationConverter implements CdsConverter {
         meta.addProfile("http://hl7.org/fhir/us/ImmunizationFHIRDS/StructureDefinition/immds-immunization");
 
         immunization.setMeta(meta);
-        immunization.setId(UUID.randomUUID().toString());
+        immunization.setId(this.idGenerator.idFor("Immunization", result.getId()));
         immunization.setStatus(ImmunizationStatus.COMPLETED);
 
         Reference patientReference = new Reference();
@@ -239,31 +285,34 @@ public class ImmunizationConverter implements CdsConverter {
 
         immunization.setPatient(patientReference);
 
-        try {
+        if (result.getObservationFocus() != null) {
             CodeableConcept vaccineCode = this.codeableConceptConverter.convertToFhir(result.getObservationFocus());
             immunization.setVaccineCode(vaccineCode);
-        } catch (NullPointerException exception) {
+        } else {
             this.logger.debug("convertToFhir", "No observation focus found");
         }
 
-        try {
-            // this is okay because if the date is bad, it shouldn't halt execution
-            DateTimeType dateTime = new DateTimeType();
-            Date administeredDate = this.dateFormat.parse(result.getObservationEventTime().getHigh());
-            dateTime.setValue(administeredDate);
+        IVLTS observationEventTime = result.getObservationEventTime();
 
-            immunization.setOccurrence(dateTime);
-        } catch (ParseException exception) {
-            this.logger.debug("convertToFhir", "Improperly formatted observation event time");
-        } catch (NullPointerException exception) {
+        if (observationEventTime != null && observationEventTime.getHigh() != null) {
+            try {
+                // this is okay because if the date is bad, it shouldn't halt execution
+                DateTimeType dateTime = this.dateCodec.parseDateTime(observationEventTime.getHigh());
+
+                immunization.setOccurrence(dateTime);
+            } catch (ParseException exception) {
+                this.logger.debug("convertToFhir", "Improperly formatted observation event time");
+            }
+        } else {
             this.logger.debug("convertToFhir", "No observation event time found");
         }
 
-        try {
-            CD observationValue = result.getObservationValue().getConcept();
-            CodeableConcept statusReason = this.codeableConceptConverter.convertToFhir(observationValue);
+        ObservationValue observationValue = result.getObservationValue();
+
+        if (observationValue != null && observationValue.getConcept() != null) {
+            CodeableConcept statusReason = this.codeableConceptConverter.convertToFhir(observationValue.getConcept());
             immunization.setStatusReason(statusReason);
-        } catch (NullPointerException exception) {
+        } else {
             this.logger.debug("convertToFhir", "No observation value found");
         }
 
@@ -272,7 +321,8 @@ public class ImmunizationConverter implements CdsConverter {
 
     /**
      * Immunization data can be located in a substance administration event object. This method
-     * converts that object to an Immunization data record.
+     * converts that object to an Immunization data record. The id is derived from the id of the
+     * event when it has one, so converting the same event twice gives the same Immunization id.
      *
      * @param SubstanceAdministrationEvent event
      * @return Immunization
@@ -284,7 +334,7 @@ public class ImmunizationConverter implements CdsConverter {
         meta.addProfile("http://hl7.org/fhir/us/ImmunizationFHIRDS/StructureDefinition/immds-immunization");
 
         immunization.setMeta(meta);
-        immunization.setId(UUID.randomUUID().toString());
+        immunization.setId(this.idGenerator.idFor("Immunization", event.getId()));
         immunization.setStatus(ImmunizationStatus.COMPLETED);
 
         Reference patientReference = new Reference();
@@ -296,25 +346,31 @@ public class ImmunizationConverter implements CdsConverter {
             immunization.setStatus(this.immunizationStatusConverter.convertToFhir(event.getIsValid()));
         }
 
-        try {
-            // we don't want to stop here if a bad date, just ignore it and continue
-            DateTimeType dateTime = new DateTimeType();
-            Date administeredDate = this.dateFormat.parse(event.getAdministrationTimeInterval().getHigh());
-            dateTime.setValue(administeredDate);
+        IVLTS administrationTimeInterval = event.getAdministrationTimeInterval();
+
+        if (administrationTimeInterval != null && administrationTimeInterval.getHigh() != null) {
+            try {
+                // we don't want to stop here if a bad date, just ignore it and continue
+                DateTimeType dateTime = this.dateCodec.parseDateTime(administrationTimeInterval.getHigh());
 
-            immunization.setOccurrence(dateTime);
-        } catch (ParseException exception) {
-            this.logger.debug("convertToFhir", "Improper administration time interval format");
-        } catch (NullPointerException exception) {
+                immunization.setOccurrence(dateTime);
+            } catch (ParseException exception) {
+                this.logger.debug("convertToFhir", "Improper administration time interval format");
+            }
+        } else {
             this.logger.debug("convertToFhir", "No administration time interval found");
         }
 
-        try {
-            CodeableConcept vaccineCode = this.codeableConceptConverter.convertToFhir(event.getSubstance().getSubstanceCode());
-            vaccineCode.setId(event.getSubstance().getId().getRoot());
-            vaccineCode.getCodingFirstRep().setSystem(event.getSubstance().getSubstanceCode().getCodeSystem());
+        AdministrableSubstance substance = event.getSubstance();
+
+        // the vaccine code needs the code, the code system and the id of the substance
+        if (substance != null && substance.getSubstanceCode() != null && substance.getId() != null) {
+            CD substanceCode = substance.getSubstanceCode();
+            CodeableConcept vaccineCode = this.codeableConceptConverter.convertToFhir(substanceCode);
+            vaccineCode.setId(substance.getId().getRoot());
+            vaccineCode.getCodingFirstRep().setSystem(substanceCode.getCodeSystem());
             immunization.setVaccineCode(vaccineCode);
-        } catch (NullPointerException exception) {
+        } else {
             this.logger.debug("convertToFhir", "No substance found for vaccine code");
         }
 
@@ -2,9 +2,12 @@ package org.cdsframework.messageconverter.fhir.convert.vmr;
 
 import java.util.ArrayList;
 import java.util.List;
-import java.util.UUID;
 
+import org.cdsframework.messageconverter.fhir.convert.utils.FhirContextProvider;
+import org.cdsframework.messageconverter.fhir.convert.utils.IdGenerator;
 import org.cdsframework.messageconverter.fhir.convert.utils.IdentifierFactory;
+import org.cdsframework.messageconverter.fhir.convert.utils.RandomIdGenerator;
+import org.cdsframework.messageconverter.fhir.convert.utils.VmrUtils;
 import org.cdsframework.util.LogUtils;
 import org.hl7.fhir.r4.model.CodeableConcept;
 import org.hl7.fhir.r4.model.Immunization;
@@ -16,6 +19,7 @@ import org.hl7.fhir.r4.model.PositiveIntType;
 import org.hl7.fhir.r4.model.Reference;
 import org.opencds.vmr.v1_0.schema.CD;
 import org.opencds.vmr.v1_0.schema.CDSOutput;
+import org.opencds.vmr.v1_0.schema.EvaluatedPerson;
 import org.opencds.vmr.v1_0.schema.EvaluatedPerson.ClinicalStatements.SubstanceAdministrationEvents;
 import org.opencds.vmr.v1_0.schema.II;
 import org.opencds.vmr.v1_0.schema.ObservationResult;
@@ -28,12 +32,46 @@ import org.opencds.vmr.v1_0.schema.SubstanceAdministrationEvent;
  */
 public class ImmunizationEvaluationConverter {
     protected CodeableConceptConverter codeableConceptConverter = new CodeableConceptConverter();
-    protected ImmunizationConverter immunizationConverter = new ImmunizationConverter();
-    protected PatientConverter patientConverter = new PatientConverter();
+    protected ImmunizationConverter immunizationConverter;
+    protected PatientConverter patientConverter;
+    protected IdGenerator idGenerator;
     protected IdentifierFactory identifierFactory = new IdentifierFactory();
 
     private final LogUtils logger = LogUtils.getLogger(ImmunizationRecommendationConverter.class);
 
+    public ImmunizationEvaluationConverter() {
+        this(FhirContextProvider.getInstance());
+    }
+
+    /**
+     * @param FhirContextProvider fhirContextProvider : the provider used to obtain fhir parsers
+     */
+    public ImmunizationEvaluationConverter(FhirContextProvider fhirContextProvider) {
+        this(new ImmunizationConverter(fhirContextProvider), new PatientConverter(fhirContextProvider));
+    }
+
+    /**
+     * Create a converter that shares already built immunization and patient converters, both of
+     * which are stateless and safe to use from several threads at once.
+     *
+     * @param ImmunizationConverter immunizationConverter : the converter used for immunizations
+     * @param PatientConverter patientConverter : the converter used for patients
+     */
+    public ImmunizationEvaluationConverter(ImmunizationConverter immunizationConverter, PatientConverter patientConverter) {
+        this(immunizationConverter, patientConverter, RandomIdGenerator.getInstance());
+    }
+
+    /**
+     * @param ImmunizationConverter immunizationConverter : the converter used for immunizations
+     * @param PatientConverter patientConverter : the converter used for patients
+     * @param IdGenerator idGenerator : creates the id of every resource this converter builds
+     */
+    public ImmunizationEvaluationConverter(ImmunizationConverter immunizationConverter, PatientConverter patientConverter, IdGenerator idGenerator) {
+        this.immunizationConverter = immunizationConverter;
+        this.patientConverter = patientConverter;
+        this.idGenerator = idGenerator;
+    }
+
     /**
      * This method extracts the data from a CDSOutput object into a List of ImmunizationEvaluation fhir
      * compliant objects. The data is contained in SubstanceAdministrationEvent objects.
@@ -45,17 +83,21 @@ public class ImmunizationEvaluationConverter {
         List<ImmunizationEvaluation> evaluations = new ArrayList<ImmunizationEvaluation>();
         Patient patient = new Patient();
 
+        if (data.getVmrOutput() == null || data.getVmrOutput().getPatient() == null) {
+            this.logger.debug("convertToFhir", "No patient record found");
+            return evaluations;
+        }
+
+        EvaluatedPerson person = data.getVmrOutput().getPatient();
+
         try {
             // this is a simple conversion for now and simply extracts the id and creates the Patient object
-            patient = this.patientConverter.convertToFhir(data.getVmrOutput().getPatient());
-        } catch (NullPointerException exception) {
-            this.logger.debug("convertToFhir", "Null pointer exception found when accessing patient record");
-            return evaluations;
+            patient = this.patientConverter.convertToFhir(person);
         } catch (IllegalArgumentException exception) {
             logger.debug("convertToFhir", "Unknown gender code");
         }
 
-        for (SubstanceAdministrationEvent event : data.getVmrOutput().getPatient().getClinicalStatements().getSubstanceAdministrationEvents().getSubstanceAdministrationEvent()) {
+        for (SubstanceAdministrationEvent event : VmrUtils.getSubstanceAdministrationEvents(person)) {
             Immunization immunization = this.immunizationConverter.convertToFhir(patient, event);
 
             for (RelatedClinicalStatement relatedClinicalStatment : event.getRelatedClinicalStatement()) {
@@ -105,28 +147,28 @@ public class ImmunizationEvaluationConverter {
         ImmunizationEvaluationStatus immunizationEvaluationStatus = ImmunizationEvaluationStatus.COMPLETED;
         evaluation.setStatus(immunizationEvaluationStatus);
 
-        try {
-            evaluation.setId(observationResult.getId().getRoot());
-        } catch (NullPointerException exception) {
-            evaluation.setId(UUID.randomUUID().toString());
-            this.logger.debug("convertToFhir", "No id found");
+        // a related clinical statement does not have to carry an observation result
+        if (observationResult == null) {
+            observationResult = new ObservationResult();
         }
 
-        try {
+        evaluation.setId(this.idGenerator.idFor("ImmunizationEvaluation", observationResult.getId()));
+
+        if (observationResult.getObservationFocus() != null) {
             CodeableConcept targetDisease = this.codeableConceptConverter.convertToFhir(
                 observationResult.getObservationFocus()
             );
             evaluation.setTargetDisease(targetDisease);
-        } catch (NullPointerException exception) {
+        } else {
             this.logger.debug("convertToFhir", "No observation focus found");
         }
 
-        try {
-            CodeableConcept doseStatus = this.codeableConceptConverter.convertToFhir(
-                observationResult.getObservationValue().getConcept()
-            );
+        ObservationValue observationValue = observationResult.getObservationValue();
+
+        if (observationValue != null && observationValue.getConcept() != null) {
+            CodeableConcept doseStatus = this.codeableConceptConverter.convertToFhir(observationValue.getConcept());
             evaluation.setDoseStatus(doseStatus);
-        } catch (NullPointerException exception) {
+        } else {
             this.logger.debug("convertToFhir", "No observation value found");
         }
 
@@ -1,14 +1,16 @@
 package org.cdsframework.messageconverter.fhir.convert.vmr;
 
 import java.text.ParseException;
-import java.text.SimpleDateFormat;
-import java.util.Date;
 import java.util.List;
-import java.util.UUID;
 
+import org.cdsframework.messageconverter.fhir.convert.utils.FhirContextProvider;
+import org.cdsframework.messageconverter.fhir.convert.utils.HL7DateCodec;
+import org.cdsframework.messageconverter.fhir.convert.utils.IdGenerator;
 import org.cdsframework.messageconverter.fhir.convert.utils.IdentifierFactory;
+import org.cdsframework.messageconverter.fhir.convert.utils.RandomIdGenerator;
 import org.cdsframework.util.LogUtils;
 import org.hl7.fhir.r4.model.CodeableConcept;
+import org.hl7.fhir.r4.model.DateTimeType;
 import org.hl7.fhir.r4.model.ImmunizationRecommendation;
 import org.hl7.fhir.r4.model.ImmunizationRecommendation.ImmunizationRecommendationRecommendationComponent;
 import org.hl7.fhir.r4.model.ImmunizationRecommendation.ImmunizationRecommendationRecommendationDateCriterionComponent;
@@ -29,25 +31,69 @@ import org.opencds.vmr.v1_0.schema.SubstanceAdministrationProposal;
  */
 public class ImmunizationRecommendationConverter {
     protected CodeableConceptConverter codeableConceptConverter = new CodeableConceptConverter();
-    protected ImmunizationConverter immunizationConverter = new ImmunizationConverter();
-    protected PatientConverter patientConverter = new PatientConverter();
+    protected ImmunizationConverter immunizationConverter;
+    protected PatientConverter patientConverter;
+    protected IdGenerator idGenerator;
     protected IdentifierFactory identifierFactory = new IdentifierFactory();
 
-    protected SimpleDateFormat dateFormat = new SimpleDateFormat("yyyymmdd");
+    protected HL7DateCodec dateCodec = HL7DateCodec.getInstance();
 
     private final LogUtils logger = LogUtils.getLogger(ImmunizationRecommendationConverter.class);
 
+    public ImmunizationRecommendationConverter() {
+        this(FhirContextProvider.getInstance());
+    }
+
+    /**
+     * @param FhirContextProvider fhirContextProvider : the provider used to obtain fhir parsers
+     */
+    public ImmunizationRecommendationConverter(FhirContextProvider fhirContextProvider) {
+        this(new ImmunizationConverter(fhirContextProvider), new PatientConverter(fhirContextProvider));
+    }
+
+    /**
+     * Create a converter that shares already built immunization and patient converters, both of
+     * which are stateless and safe to use from several threads at once.
+     *
+     * @param ImmunizationConverter immunizationConverter : the converter used for immunizations
+     * @param PatientConverter patientConverter : the converter used for patients
+     */
+    public ImmunizationRecommendationConverter(ImmunizationConverter immunizationConverter, PatientConverter patientConverter) {
+        this(immunizationConverter, patientConverter, RandomIdGenerator.getInstance());
+    }
+
+    /**
+     * @param ImmunizationConverter immunizationConverter : the converter used for immunizations
+     * @param PatientConverter patientConverter : the converter used for patients
+     * @param IdGenerator idGenerator : creates the id of every resource this converter builds
+     */
+    public ImmunizationRecommendationConverter(ImmunizationConverter immunizationConverter, PatientConverter patientConverter, IdGenerator idGenerator) {
+        this.immunizationConverter = immunizationConverter;
+        this.patientConverter = patientConverter;
+        this.idGenerator = idGenerator;
+    }
+
+    /**
+     * @see convertToFhir(Patient, II, List<SubstanceAdministrationProposal>)
+     */
+    public ImmunizationRecommendation convertToFhir(Patient patient, List<SubstanceAdministrationProposal> proposals) {
+        return this.convertToFhir(patient, null, proposals);
+    }
+
     /**
      * Extract the data from a CDSOutput object and put it into a FHIR compatible ImmunizationRecommendation
-     * object.
+     * object. A patient has a single forecast, so the id of the recommendation is derived from the
+     * identifier of the patient and converting the same patient again gives the same id.
      *
-     * @param CDSOutput data : object containing data for an immunization recommendation
+     * @param Patient patient : the patient the forecast is for
+     * @param II patientId : the vMR identifier of the patient, may be null
+     * @param List<SubstanceAdministrationProposal> proposals : the forecast
      * @return ImmunizationRecommendation
      */
-    public ImmunizationRecommendation convertToFhir(Patient patient, List<SubstanceAdministrationProposal> proposals) {
+    public ImmunizationRecommendation convertToFhir(Patient patient, II patientId, List<SubstanceAdministrationProposal> proposals) {
         ImmunizationRecommendation recommendation = new ImmunizationRecommendation();
 
-        recommendation.setId(UUID.randomUUID().toString());
+        recommendation.setId(this.idGenerator.idFor("ImmunizationRecommendation", patientId));
 
         Meta meta = new Meta();
         meta.addProfile("http://hl7.org/fhir/us/ImmunizationFHIRDS/StructureDefinition/immds-immunizationrecommendation");
@@ -62,64 +108,67 @@ public class ImmunizationRecommendationConverter {
         for (SubstanceAdministrationProposal proposal : proposals) {
             ImmunizationRecommendationRecommendationComponent component = new ImmunizationRecommendationRecommendationComponent();
 
-            try {
-                IVLTS proposedTimeInterval = proposal.getProposedAdministrationTimeInterval();
+            IVLTS proposedTimeInterval = proposal.getProposedAdministrationTimeInterval();
 
-                String low = proposedTimeInterval.getLow();
-                String high = proposedTimeInterval.getHigh();
+            if (proposedTimeInterval == null) {
+                this.logger.debug("convertToFhir", "Cannot set proposed date");
+            } else {
+                try {
+                    String low = proposedTimeInterval.getLow();
+                    String high = proposedTimeInterval.getHigh();
 
-                if (low != null && !low.isEmpty()) {
-                    Date proposedDate = this.dateFormat.parse(proposedTimeInterval.getLow());
-                    ImmunizationRecommendationRecommendationDateCriterionComponent recommendedTime = new ImmunizationRecommendationRecommendationDateCriterionComponent();
+                    if (low != null && !low.isEmpty()) {
+                        DateTimeType proposedDate = this.dateCodec.parseDateTime(low);
+                        ImmunizationRecommendationRecommendationDateCriterionComponent recommendedTime = new ImmunizationRecommendationRecommendationDateCriterionComponent();
 
-                    CodeableConcept dateConcept = new CodeableConcept();
+                        CodeableConcept dateConcept = new CodeableConcept();
 
-                    recommendedTime.setValue(proposedDate);
-                    recommendedTime.setCode(dateConcept);
+                        recommendedTime.setValueElement(proposedDate);
+                        recommendedTime.setCode(dateConcept);
 
-                    component.addDateCriterion(recommendedTime);
-                } else if (high != null && !high.isEmpty()) {
-                    Date proposedDate = this.dateFormat.parse(proposedTimeInterval.getHigh());
+                        component.addDateCriterion(recommendedTime);
+                    } else if (high != null && !high.isEmpty()) {
+                        DateTimeType proposedDate = this.dateCodec.parseDateTime(high);
 
-                    ImmunizationRecommendationRecommendationDateCriterionComponent recommendedTime = new ImmunizationRecommendationRecommendationDateCriterionComponent();
+                        ImmunizationRecommendationRecommendationDateCriterionComponent recommendedTime = new ImmunizationRecommendationRecommendationDateCriterionComponent();
 
-                    CodeableConcept dateConcept = new CodeableConcept();
+                        CodeableConcept dateConcept = new CodeableConcept();
 
-                    recommendedTime.setValue(proposedDate);
-                    recommendedTime.setCode(dateConcept);
+                        recommendedTime.setValueElement(proposedDate);
+                        recommendedTime.setCode(dateConcept);
 
-                    component.addDateCriterion(recommendedTime);
+                        component.addDateCriterion(recommendedTime);
+                    }
+                } catch (ParseException exception) {
+                    this.logger.debug("convertToFhir", "Improperly formatted date");
                 }
-            } catch (NullPointerException exception) {
-                this.logger.debug("convertToFhir", "Cannot set proposed date");
-            } catch (ParseException exception) {
-                this.logger.debug("convertToFhir", "Improperly formatted date");
             }
 
-            try {
-                CD generalPurpose = proposal.getSubstanceAdministrationGeneralPurpose();
+            CD generalPurpose = proposal.getSubstanceAdministrationGeneralPurpose();
+
+            if (generalPurpose != null) {
                 CodeableConcept concept = this.codeableConceptConverter.convertToFhir(generalPurpose);
 
                 component.addContraindicatedVaccineCode(concept);
-            } catch (NullPointerException exception) {
+            } else {
                 this.logger.debug("convertToFhir", "Cannot set substance administration general purpose");
             }
 
-            // add in the vaccine
-            try {
-                // if we can't extract the vaccine code, log it but continue
-                CD proposalVaccineCode = proposal.getSubstance().getSubstanceCode();
-                CodeableConcept vaccineCode = this.codeableConceptConverter.convertToFhir(proposalVaccineCode);
+            // add in the vaccine, if we can't extract the vaccine code, log it but continue
+            AdministrableSubstance substance = proposal.getSubstance();
 
-                try {
-                    vaccineCode.setId(proposal.getSubstance().getId().getRoot());
-                } catch (NullPointerException exception) {
+            if (substance != null && substance.getSubstanceCode() != null) {
+                CodeableConcept vaccineCode = this.codeableConceptConverter.convertToFhir(substance.getSubstanceCode());
+
+                if (substance.getId() != null) {
+                    vaccineCode.setId(substance.getId().getRoot());
+                } else {
                     this.logger.debug("convertToFhir", "Cannot set vaccine code id");
                 }
 
                 component.addVaccineCode(vaccineCode);
-            } catch (NullPointerException exception) {
-                logger.debug("convertToFhir", "No vaccine code found in packet.");
+            } else {
+                this.logger.debug("convertToFhir", "No vaccine code found in packet.");
             }
 
             // if no observation results, we are done
@@ -135,25 +184,27 @@ public class ImmunizationRecommendationConverter {
                     continue;
                 }
 
-                try {
+                if (observationResult.getId() != null) {
                     component.setId(observationResult.getId().getRoot());
-                } catch (NullPointerException exception) {
+                } else {
                     this.logger.debug("convertToFhir", "Cannot set recommendation id");
                 }
 
-                try {
-                    CD proposalTargetDisease = observationResult.getObservationFocus();
+                CD proposalTargetDisease = observationResult.getObservationFocus();
+
+                if (proposalTargetDisease != null) {
                     CodeableConcept disease = this.codeableConceptConverter.convertToFhir(proposalTargetDisease);
                     component.setTargetDisease(disease);
-                } catch (NullPointerException exception) {
+                } else {
                     this.logger.debug("convertToFhir", "Cannot set target disease");
                 }
 
-                try {
-                    CD proposalForecast = observationResult.getObservationValue().getConcept();
-                    CodeableConcept forecast = this.codeableConceptConverter.convertToFhir(proposalForecast);
+                ObservationValue observationValue = observationResult.getObservationValue();
+
+                if (observationValue != null && observationValue.getConcept() != null) {
+                    CodeableConcept forecast = this.codeableConceptConverter.convertToFhir(observationValue.getConcept());
                     component.setForecastStatus(forecast);
-                } catch (NullPointerException exception) {
+                } else {
                     this.logger.debug("convertToFhir", "Cannot add forecast reason");
                 }
 
@@ -197,13 +248,16 @@ public class ImmunizationRecommendationConverter {
 
                 for (ImmunizationRecommendationRecommendationDateCriterionComponent dateCriterion : component.getDateCriterion()) {
                     String type = dateCriterion.getCode().getText();
+                    String proposed = this.dateCodec.format(dateCriterion.getValueElement());
+
+                    if (proposed == null) {
+                        continue;
+                    }
 
                     if (type.equals("low")) {
-                        String proposed = this.dateFormat.format(dateCriterion.getValue());
                         proposedTimeInterval.setLow(proposed);
                         hasSetDate = true;
                     } else if (type.equals("high")) {
-                        String proposed = this.dateFormat.format(dateCriterion.getValue());
                         proposedTimeInterval.setHigh(proposed);
                         hasSetDate = true;
                     }
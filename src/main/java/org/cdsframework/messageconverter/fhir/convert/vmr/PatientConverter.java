@@ -1,16 +1,18 @@
 package org.cdsframework.messageconverter.fhir.convert.vmr;
 
 import java.text.ParseException;
-import java.text.SimpleDateFormat;
-import java.util.Date;
 import java.util.List;
-import java.util.UUID;
 
 import org.cdsframework.cds.vmr.CdsInputWrapper;
 import org.cdsframework.ice.input.IceCdsInputWrapper;
 import org.cdsframework.messageconverter.fhir.convert.utils.FhirConstants;
+import org.cdsframework.messageconverter.fhir.convert.utils.FhirContextProvider;
+import org.cdsframework.messageconverter.fhir.convert.utils.HL7DateCodec;
+import org.cdsframework.messageconverter.fhir.convert.utils.IdGenerator;
 import org.cdsframework.messageconverter.fhir.convert.utils.IdentifierFactory;
+import org.cdsframework.messageconverter.fhir.convert.utils.RandomIdGenerator;
 import org.cdsframework.util.LogUtils;
+import org.hl7.fhir.r4.model.DateType;
 import org.hl7.fhir.r4.model.Enumerations.AdministrativeGender;
 import org.hl7.fhir.r4.model.HumanName;
 import org.hl7.fhir.r4.model.Meta;
@@ -24,9 +26,7 @@ import org.opencds.vmr.v1_0.schema.EvaluatedPerson.Demographics;
 import org.opencds.vmr.v1_0.schema.TS;
 import org.opencds.vmr.v1_0.schema.VMR;
 
-import ca.uhn.fhir.context.FhirContext;
 import ca.uhn.fhir.parser.IParser;
-import ca.uhn.fhir.parser.StrictErrorHandler;
 
 /**
  * @author Brian Lamb
@@ -35,8 +35,31 @@ public class PatientConverter implements CdsConverter, FhirConverter<EvaluatedPe
     protected AdministrativeGenderConverter administrativeGenderConverter = new AdministrativeGenderConverter();
     protected CodeableConceptConverter codeableConceptConverter = new CodeableConceptConverter();
     protected IdentifierFactory identifierFactory = new IdentifierFactory();
+    protected HL7DateCodec dateCodec = HL7DateCodec.getInstance();
+    protected FhirContextProvider fhirContextProvider;
+    protected IdGenerator idGenerator;
     private final LogUtils logger = LogUtils.getLogger(ImmunizationConverter.class);
 
+    public PatientConverter() {
+        this(FhirContextProvider.getInstance());
+    }
+
+    /**
+     * @param FhirContextProvider fhirContextProvider : the provider used to obtain fhir parsers
+     */
+    public PatientConverter(FhirContextProvider fhirContextProvider) {
+        this(fhirContextProvider, RandomIdGenerator.getInstance());
+    }
+
+    /**
+     * @param FhirContextProvider fhirContextProvider : the provider used to obtain fhir parsers
+     * @param IdGenerator idGenerator : creates the id of every resource this converter builds
+     */
+    public PatientConverter(FhirContextProvider fhirContextProvider, IdGenerator idGenerator) {
+        this.fhirContextProvider = fhirContextProvider;
+        this.idGenerator = idGenerator;
+    }
+
     /**
      * Convert a json object of fhir data to cds format. Save the results to the ice
      * cds input wrapper.
@@ -51,6 +74,19 @@ public class PatientConverter implements CdsConverter, FhirConverter<EvaluatedPe
         return wrapper;
     }
 
+    /**
+     * Convert an already parsed FHIR Patient to cds format. Save the results to the ice cds input
+     * wrapper.
+     *
+     * @param IceCdsInputWrapper wrapper : wrapper object, used to store patient data
+     * @param Patient patient : the FHIR patient resource
+     * @return IceCdsInputWrapper object updated with fhir data
+     */
+    public IceCdsInputWrapper convertToCds(IceCdsInputWrapper wrapper, Patient patient) {
+        this.convertToCds(wrapper.getCdsInputWrapper(), patient);
+        return wrapper;
+    }
+
     /**
      * Convert a FHIR compliant Patient object into an OpenCDS compliant
      * EvaluatedPerson object.
@@ -64,16 +100,12 @@ public class PatientConverter implements CdsConverter, FhirConverter<EvaluatedPe
 
         CD gender = this.administrativeGenderConverter.convertToCds(patient.getGender());
 
-        try {
-            SimpleDateFormat birthDateFormat = new SimpleDateFormat("yyyymmdd");
+        if (patient.hasBirthDate()) {
             TS birthTime = new TS();
-
-            birthTime.setValue(
-                birthDateFormat.format(patient.getBirthDate())
-            );
+            birthTime.setValue(this.dateCodec.format(patient.getBirthDateElement()));
 
             demographics.setBirthTime(birthTime);
-        } catch (NullPointerException exception) {
+        } else {
             this.logger.debug("convertToCds", "Cannot get birth date");
         }
 
@@ -93,7 +125,18 @@ public class PatientConverter implements CdsConverter, FhirConverter<EvaluatedPe
      */
     public CdsInputWrapper convertToCds(CdsInputWrapper wrapper, JSONObject data) {
         Patient patient = this.convertToFhir(data);
+        return this.convertToCds(wrapper, patient);
+    }
 
+    /**
+     * Convert an already parsed FHIR Patient to cds format. Save the results to the cds input
+     * wrapper.
+     *
+     * @param CdsInputWrapper wrapper : wrapper object, used to store patient data
+     * @param Patient patient : the FHIR patient resource
+     * @return CdsInputWrapper object updated with fhir data
+     */
+    public CdsInputWrapper convertToCds(CdsInputWrapper wrapper, Patient patient) {
         HumanName humanName = patient.getNameFirstRep();
         List<StringType> givenNames = humanName.getGiven();
         StringType givenName = givenNames.get(0);
@@ -121,11 +164,8 @@ public class PatientConverter implements CdsConverter, FhirConverter<EvaluatedPe
      * @return a patient object populated via the fhir data
      */
     public Patient convertToFhir(JSONObject data) {
-        FhirContext ctx = FhirContext.forR4();
-
-        // Create a parser and configure it to use the strict error handler
-        IParser parser = ctx.newJsonParser();
-        parser.setParserErrorHandler(new StrictErrorHandler());
+        // get a parser configured to use the strict error handler
+        IParser parser = this.fhirContextProvider.newJsonParser();
 
         // get the string representation of the json object
         String str = data.toString();
@@ -154,7 +194,8 @@ public class PatientConverter implements CdsConverter, FhirConverter<EvaluatedPe
     /**
      * Convert an EvaluatedPerson from a VMR record to the FHIR version of the
      * Patient. For now, it only saves the id to be used as a reference but this can
-     * be updated to include additional metadata.
+     * be updated to include additional metadata. The id is derived from the id of the
+     * EvaluatedPerson, so the same person always becomes the same Patient id.
      *
      * @param EvaluatedPerson person : the evaluated person from a VMR record
      * @return a patient object
@@ -166,27 +207,27 @@ public class PatientConverter implements CdsConverter, FhirConverter<EvaluatedPe
         meta.addProfile("http://hl7.org/fhir/us/ImmunizationFHIRDS/StructureDefinition/immds-patient");
 
         patient.setMeta(meta);
-        patient.setId(UUID.randomUUID().toString());
+        patient.setId(this.idGenerator.idFor("Patient", person.getId()));
+
+        Demographics demographics = person.getDemographics();
 
-        try {
-            AdministrativeGender gender = this.administrativeGenderConverter.convertToFhir(
-                person.getDemographics().getGender()
-            );
+        if (demographics != null && demographics.getGender() != null) {
+            AdministrativeGender gender = this.administrativeGenderConverter.convertToFhir(demographics.getGender());
 
             patient.setGender(gender);
-        } catch (NullPointerException exception) {
+        } else {
             this.logger.debug("convertToFhir", "No gender found in EvaluatedPerson");
         }
 
-        try {
-            Date birthdate = new SimpleDateFormat("yyyymmdd").parse(
-                person.getDemographics().getBirthTime().getValue()
-            );
-            patient.setBirthDate(birthdate);
-        } catch (NullPointerException exception) {
+        if (demographics != null && demographics.getBirthTime() != null && demographics.getBirthTime().getValue() != null) {
+            try {
+                DateType birthdate = this.dateCodec.parseDate(demographics.getBirthTime().getValue());
+                patient.setBirthDateElement(birthdate);
+            } catch (ParseException exception) {
+                this.logger.debug("convertToFhir", "No birthtime in EvaluatedPerson is improperly formatted");
+            }
+        } else {
             this.logger.debug("convertToFhir", "No birthtime found in EvaluatedPerson");
-        } catch (ParseException exception) {
-            this.logger.debug("convertToFhir", "No birthtime in EvaluatedPerson is improperly formatted");
         }
 
         return patient;
@@ -0,0 +1,140 @@
+package org.cdsframework.messageconverter.metrics;
+
+import java.util.EnumMap;
+import java.util.Map;
+
+import org.hl7.fhir.r4.model.ResourceType;
+
+/**
+ * The meters Fhir2Vmr and Vmr2Fhir record into, looked up once so recording is just a call on a
+ * field. Times are recorded per stage:
+ *
+ * messageconverter.parse, tagged with the format (json or xml), is the time HAPI spends turning a
+ * payload into resources. Json is parsed one parameter resource at a time, so it records a sample
+ * per resource, xml records one for the whole Parameters resource.
+ *
+ * messageconverter.convert, tagged with the direction (cds or fhir) and resource type, is the time
+ * spent in a single convertToCds or convertToFhir call.
+ *
+ * messageconverter.assemble, tagged with the output (CDSInput, Bundle or Parameters), is the time
+ * spent building the result from what was already converted.
+ *
+ * @author Brian Lamb
+ */
+public class ConversionMetrics {
+    public static final String PARSE = "messageconverter.parse";
+    public static final String CONVERT = "messageconverter.convert";
+    public static final String ASSEMBLE = "messageconverter.assemble";
+
+    protected static final ResourceType[] RESOURCE_TYPES = {
+        ResourceType.Patient,
+        ResourceType.Immunization,
+        ResourceType.ImmunizationEvaluation,
+        ResourceType.ImmunizationRecommendation,
+        ResourceType.Observation
+    };
+
+    protected final MetricsRegistry registry;
+    protected final Timer json;
+    protected final Timer xml;
+    protected final Map<ResourceType, Timer> toCds = new EnumMap<>(ResourceType.class);
+    protected final Map<ResourceType, Timer> toFhir = new EnumMap<>(ResourceType.class);
+    protected final Timer cdsInput;
+    protected final Timer bundle;
+    protected final Timer parameters;
+
+    /**
+     * @param MetricsRegistry registry : the registry to record into
+     */
+    public ConversionMetrics(MetricsRegistry registry) {
+        this.registry = registry;
+        this.json = registry.timer(PARSE, "format", "json");
+        this.xml = registry.timer(PARSE, "format", "xml");
+
+        for (ResourceType type : RESOURCE_TYPES) {
+            this.toCds.put(type, registry.timer(CONVERT, "direction", "cds", "resource", type.name()));
+            this.toFhir.put(type, registry.timer(CONVERT, "direction", "fhir", "resource", type.name()));
+        }
+
+        this.cdsInput = registry.timer(ASSEMBLE, "output", "CDSInput");
+        this.bundle = registry.timer(ASSEMBLE, "output", "Bundle");
+        this.parameters = registry.timer(ASSEMBLE, "output", "Parameters");
+    }
+
+    /**
+     * @return ConversionMetrics that records nothing
+     */
+    public static ConversionMetrics noop() {
+        return new ConversionMetrics(NoopMetricsRegistry.getInstance());
+    }
+
+    /**
+     * Get the value of registry
+     *
+     * @return the value of registry
+     */
+    public MetricsRegistry getRegistry() {
+        return this.registry;
+    }
+
+    /**
+     * @param boolean xml : true if the payload is xml
+     * @return Timer for parsing a payload into resources
+     */
+    public Timer parse(boolean xml) {
+        if (xml) {
+            return this.xml;
+        }
+
+        return this.json;
+    }
+
+    /**
+     * @param ResourceType type : the FHIR resource being converted
+     * @return Timer for converting the resource into the vMR
+     */
+    public Timer toCds(ResourceType type) {
+        Timer timer = this.toCds.get(type);
+
+        if (timer == null) {
+            return this.registry.timer(CONVERT, "direction", "cds", "resource", type.name());
+        }
+
+        return timer;
+    }
+
+    /**
+     * @param ResourceType type : the FHIR resource being created
+     * @return Timer for converting the vMR into the resource
+     */
+    public Timer toFhir(ResourceType type) {
+        Timer timer = this.toFhir.get(type);
+
+        if (timer == null) {
+            return this.registry.timer(CONVERT, "direction", "fhir", "resource", type.name());
+        }
+
+        return timer;
+    }
+
+    /**
+     * @return Timer for building a CDSInput out of its wrapper
+     */
+    public Timer assembleCdsInput() {
+        return this.cdsInput;
+    }
+
+    /**
+     * @return Timer for wrapping converted resources in a Bundle
+     */
+    public Timer assembleBundle() {
+        return this.bundle;
+    }
+
+    /**
+     * @return Timer for wrapping converted resources in a Parameters resource
+     */
+    public Timer assembleParameters() {
+        return this.parameters;
+    }
+}
@@ -0,0 +1,18 @@
+package org.cdsframework.messageconverter.metrics;
+
+/**
+ * Counts how often something happened.
+ *
+ * @author Brian Lamb
+ */
+@FunctionalInterface
+public interface Counter {
+    /**
+     * @param double amount : how much to add to the count
+     */
+    void increment(double amount);
+
+    default void increment() {
+        this.increment(1);
+    }
+}
@@ -0,0 +1,39 @@
+package org.cdsframework.messageconverter.metrics;
+
+/**
+ * Creates the timers and counters the converters record into. Tags are given as name value pairs.
+ * Implementations have to be thread safe, and asking twice for the same name and tags should give
+ * the same meter. The converters look their meters up once when they are built, so lookups don't
+ * have to be fast.
+ *
+ * To report to Micrometer, adapt a MeterRegistry:
+ *
+ * <pre>
+ * new MetricsRegistry() {
+ *     public Timer timer(String name, String... tags) {
+ *         return meterRegistry.timer(name, tags)::record;
+ *     }
+ *
+ *     public Counter counter(String name, String... tags) {
+ *         return meterRegistry.counter(name, tags)::increment;
+ *     }
+ * }
+ * </pre>
+ *
+ * @author Brian Lamb
+ */
+public interface MetricsRegistry {
+    /**
+     * @param String name : the name of the timer
+     * @param String... tags : tag names and values, one after the other
+     * @return Timer
+     */
+    Timer timer(String name, String... tags);
+
+    /**
+     * @param String name : the name of the counter
+     * @param String... tags : tag names and values, one after the other
+     * @return Counter
+     */
+    Counter counter(String name, String... tags);
+}
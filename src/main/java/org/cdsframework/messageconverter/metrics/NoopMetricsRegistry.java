@@ -0,0 +1,30 @@
+package org.cdsframework.messageconverter.metrics;
+
+/**
+ * The registry used when none is given. Every timer and counter it hands out ignores what is
+ * recorded.
+ *
+ * @author Brian Lamb
+ */
+public class NoopMetricsRegistry implements MetricsRegistry {
+    private static final NoopMetricsRegistry INSTANCE = new NoopMetricsRegistry();
+    private static final Timer TIMER = (amount, unit) -> { };
+    private static final Counter COUNTER = amount -> { };
+
+    /**
+     * @return NoopMetricsRegistry
+     */
+    public static NoopMetricsRegistry getInstance() {
+        return INSTANCE;
+    }
+
+    @Override
+    public Timer timer(String name, String... tags) {
+        return TIMER;
+    }
+
+    @Override
+    public Counter counter(String name, String... tags) {
+        return COUNTER;
+    }
+}
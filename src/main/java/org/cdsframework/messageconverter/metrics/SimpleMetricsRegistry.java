@@ -0,0 +1,144 @@
+package org.cdsframework.messageconverter.metrics;
+
+import java.util.Collections;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.DoubleAdder;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Keeps every meter in memory. Meant for tests, benchmarks and for dumping a quick breakdown of
+ * where the time goes without setting up a metrics library.
+ *
+ * @author Brian Lamb
+ */
+public class SimpleMetricsRegistry implements MetricsRegistry {
+    protected final Map<String, SimpleTimer> timers = new ConcurrentHashMap<>();
+    protected final Map<String, SimpleCounter> counters = new ConcurrentHashMap<>();
+
+    /**
+     * A timer keeping the count, total and maximum of what it recorded.
+     */
+    public static class SimpleTimer implements Timer {
+        protected final LongAdder count = new LongAdder();
+        protected final LongAdder totalNanos = new LongAdder();
+        protected final LongAccumulator maxNanos = new LongAccumulator(Math::max, 0);
+
+        @Override
+        public void record(long amount, TimeUnit unit) {
+            long nanos = unit.toNanos(amount);
+
+            this.count.increment();
+            this.totalNanos.add(nanos);
+            this.maxNanos.accumulate(nanos);
+        }
+
+        /**
+         * @return long the number of times recorded
+         */
+        public long getCount() {
+            return this.count.sum();
+        }
+
+        /**
+         * @param TimeUnit unit : the unit to return
+         * @return double the total of every time recorded
+         */
+        public double getTotalTime(TimeUnit unit) {
+            return (double) this.totalNanos.sum() / unit.toNanos(1);
+        }
+
+        /**
+         * @param TimeUnit unit : the unit to return
+         * @return double the longest time recorded
+         */
+        public double getMax(TimeUnit unit) {
+            return (double) this.maxNanos.get() / unit.toNanos(1);
+        }
+    }
+
+    /**
+     * A counter keeping its total.
+     */
+    public static class SimpleCounter implements Counter {
+        protected final DoubleAdder count = new DoubleAdder();
+
+        @Override
+        public void increment(double amount) {
+            this.count.add(amount);
+        }
+
+        /**
+         * @return double the total counted
+         */
+        public double getCount() {
+            return this.count.sum();
+        }
+    }
+
+    @Override
+    public SimpleTimer timer(String name, String... tags) {
+        return this.timers.computeIfAbsent(key(name, tags), key -> new SimpleTimer());
+    }
+
+    @Override
+    public SimpleCounter counter(String name, String... tags) {
+        return this.counters.computeIfAbsent(key(name, tags), key -> new SimpleCounter());
+    }
+
+    /**
+     * Get every timer by name and tags, for example messageconverter.convert{direction=cds,resource=Patient}.
+     *
+     * @return Map<String, SimpleTimer> sorted by key
+     */
+    public Map<String, SimpleTimer> getTimers() {
+        return Collections.unmodifiableMap(new TreeMap<>(this.timers));
+    }
+
+    /**
+     * Get every counter by name and tags.
+     *
+     * @return Map<String, SimpleCounter> sorted by key
+     */
+    public Map<String, SimpleCounter> getCounters() {
+        return Collections.unmodifiableMap(new TreeMap<>(this.counters));
+    }
+
+    /**
+     * Build the key of a meter. Tags are sorted by name so their order doesn't matter.
+     *
+     * @param String name : the name of the meter
+     * @param String... tags : tag names and values, one after the other
+     * @return String
+     */
+    public static String key(String name, String... tags) {
+        if (tags.length % 2 != 0) {
+            throw new IllegalArgumentException("Tags have to come in name value pairs");
+        }
+
+        if (tags.length == 0) {
+            return name;
+        }
+
+        Map<String, String> sorted = new TreeMap<>();
+
+        for (int i = 0; i < tags.length; i += 2) {
+            sorted.put(tags[i], tags[i + 1]);
+        }
+
+        StringBuilder key = new StringBuilder(name).append('{');
+
+        for (Map.Entry<String, String> tag : sorted.entrySet()) {
+            if (key.charAt(key.length() - 1) != '{') {
+                key.append(',');
+            }
+
+            key.append(tag.getKey()).append('=').append(tag.getValue());
+        }
+
+        return key.append('}').toString();
+    }
+}
@@ -0,0 +1,18 @@
+package org.cdsframework.messageconverter.metrics;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Records how long something took. The signature matches the Timer of Micrometer, so a Micrometer
+ * timer can be adapted with a method reference.
+ *
+ * @author Brian Lamb
+ */
+@FunctionalInterface
+public interface Timer {
+    /**
+     * @param long amount : how long it took
+     * @param TimeUnit unit : the unit of amount
+     */
+    void record(long amount, TimeUnit unit);
+}
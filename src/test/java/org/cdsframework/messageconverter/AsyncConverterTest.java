@@ -0,0 +1,159 @@
+package org.cdsframework.messageconverter;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import org.cdsframework.messageconverter.fhir.convert.utils.FhirContextProvider;
+import org.cdsframework.messageconverter.fhir.convert.utils.RandomIdGenerator;
+import org.cdsframework.messageconverter.metrics.SimpleMetricsRegistry;
+import org.hl7.fhir.r4.model.Bundle;
+import org.hl7.fhir.r4.model.Patient;
+import org.junit.After;
+import org.junit.Test;
+import org.opencds.vmr.v1_0.schema.CDSOutput;
+import org.opencds.vmr.v1_0.schema.EvaluatedPerson;
+import org.opencds.vmr.v1_0.schema.VMR;
+
+/**
+ * @author Brian Lamb
+ */
+public class AsyncConverterTest {
+    protected ExecutorService executor = Executors.newFixedThreadPool(2);
+    protected SimpleMetricsRegistry metricsRegistry = new SimpleMetricsRegistry();
+    protected ConverterRegistry registry = new ConverterRegistry(
+        FhirContextProvider.getInstance(),
+        RandomIdGenerator.getInstance(),
+        this.metricsRegistry
+    );
+
+    @After
+    public void tearDown() {
+        this.executor.shutdownNow();
+    }
+
+    @Test
+    public void getBundleCompletesOnExecutor() throws InterruptedException, ExecutionException {
+        AsyncConverter converter = new AsyncConverter(this.registry, this.executor, 4, 0, TimeUnit.MILLISECONDS);
+        VMR vmr = new VMR();
+        vmr.setPatient(new EvaluatedPerson());
+        CDSOutput output = new CDSOutput();
+        output.setVmrOutput(vmr);
+
+        Bundle bundle = converter.getBundle(output).get();
+
+        assertTrue(bundle.getEntryFirstRep().getResource() instanceof Patient);
+        assertEquals(0, converter.getInFlight());
+    }
+
+    @Test
+    public void failedConversionCompletesExceptionally() throws InterruptedException {
+        AsyncConverter converter = new AsyncConverter(this.registry, this.executor, 4, 0, TimeUnit.MILLISECONDS);
+
+        try {
+            converter.getBundle(new CDSOutput()).get();
+            fail("a CDSOutput without a patient can't be converted");
+        } catch (ExecutionException exception) {
+            assertTrue(exception.getCause() instanceof IllegalArgumentException);
+        }
+
+        assertEquals(0, converter.getInFlight());
+    }
+
+    @Test
+    public void conversionThrowingErrorCompletesExceptionally() throws InterruptedException, TimeoutException {
+        AsyncConverter converter = new AsyncConverter(this.registry, this.executor, 1, 0, TimeUnit.MILLISECONDS);
+
+        CompletableFuture<String> future = converter.submit("item", item -> {
+            throw new StackOverflowError("too deep");
+        });
+
+        try {
+            future.get(5, TimeUnit.SECONDS);
+            fail("a conversion throwing an Error should fail its future");
+        } catch (ExecutionException exception) {
+            assertTrue(exception.getCause() instanceof StackOverflowError);
+        }
+
+        assertEquals(0, converter.getInFlight());
+    }
+
+    @Test
+    public void conversionsBeyondLimitAreRejected() throws InterruptedException, ExecutionException {
+        AsyncConverter converter = new AsyncConverter(this.registry, this.executor, 2, 0, TimeUnit.MILLISECONDS);
+        CountDownLatch latch = new CountDownLatch(1);
+
+        CompletableFuture<Boolean> first = converter.submit(latch, item -> item.await(5, TimeUnit.SECONDS));
+        CompletableFuture<Boolean> second = converter.submit(latch, item -> item.await(5, TimeUnit.SECONDS));
+        CompletableFuture<Boolean> third = converter.submit(latch, item -> item.await(5, TimeUnit.SECONDS));
+
+        assertEquals(2, converter.getInFlight());
+        assertTrue(third.isCompletedExceptionally());
+
+        try {
+            third.get();
+            fail("the third conversion should have been rejected");
+        } catch (ExecutionException exception) {
+            assertTrue(exception.getCause() instanceof RejectedExecutionException);
+        }
+
+        latch.countDown();
+
+        assertTrue(first.get());
+        assertTrue(second.get());
+        assertEquals(1.0, this.metricsRegistry.getCounters().get(AsyncConverter.REJECTED).getCount(), 0.0001);
+        assertEquals(Integer.valueOf(5), converter.submit("again", item -> item.length()).get());
+    }
+
+    @Test
+    public void conversionWaitsForRoom() throws InterruptedException, ExecutionException {
+        AsyncConverter converter = new AsyncConverter(this.registry, this.executor, 1, 5, TimeUnit.SECONDS);
+        CountDownLatch latch = new CountDownLatch(1);
+
+        CompletableFuture<Boolean> first = converter.submit(latch, item -> item.await(5, TimeUnit.SECONDS));
+        this.executor.execute(latch::countDown);
+
+        CompletableFuture<String> second = converter.submit("waited", item -> item);
+
+        assertTrue(first.get());
+        assertEquals("waited", second.get());
+    }
+
+    @Test
+    public void executorRejectionFreesSlot() throws InterruptedException {
+        AsyncConverter converter = new AsyncConverter(this.registry, task -> {
+            throw new RejectedExecutionException("shut down");
+        }, 1, 0, TimeUnit.MILLISECONDS);
+
+        CompletableFuture<String> future = converter.submit("item", item -> item);
+
+        assertTrue(future.isCompletedExceptionally());
+        assertEquals(0, converter.getInFlight());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void maxInFlightMustBePositive() {
+        new AsyncConverter(this.registry, this.executor, 0, 0, TimeUnit.MILLISECONDS);
+    }
+
+    @Test
+    public void defaultExecutorIsAlwaysAvailable() {
+        assertNotNull(AsyncConverter.defaultExecutor());
+
+        try (AsyncConverter converter = new AsyncConverter()) {
+            assertEquals(AsyncConverter.DEFAULT_MAX_IN_FLIGHT, converter.getMaxInFlight());
+            assertFalse(converter.getInFlight() > 0);
+        }
+    }
+}
@@ -0,0 +1,164 @@
+package org.cdsframework.messageconverter;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.IntStream;
+
+import org.cdsframework.cds.vmr.CdsObjectAssist;
+import org.junit.After;
+import org.junit.Test;
+import org.opencds.vmr.v1_0.schema.CDSInput;
+
+/**
+ * @author Brian Lamb
+ */
+public class BatchConverterTest {
+    protected ExecutorService executor = Executors.newFixedThreadPool(4);
+    protected BatchConverter batchConverter = new BatchConverter(ConverterRegistry.getInstance(), this.executor);
+
+    @After
+    public void tearDown() {
+        this.executor.shutdown();
+    }
+
+    @Test
+    public void convertKeepsInputOrder() {
+        List<BatchResult<Integer>> results = this.batchConverter.convert(
+            IntStream.range(0, 100).boxed(),
+            item -> {
+                Thread.sleep(ThreadLocalRandom.current().nextInt(5));
+                return item * 2;
+            }
+        );
+
+        assertEquals(100, results.size());
+
+        for (int i = 0; i < 100; i++) {
+            assertEquals(i, results.get(i).getIndex());
+            assertEquals(Integer.valueOf(i * 2), results.get(i).getValue());
+        }
+    }
+
+    @Test
+    public void convertReportsFailuresWithoutStoppingBatch() {
+        List<BatchResult<Integer>> results = this.batchConverter.convert(
+            Arrays.asList("1", "two", "3"),
+            item -> Integer.parseInt(item)
+        );
+
+        assertTrue(results.get(0).isSuccess());
+        assertFalse(results.get(1).isSuccess());
+        assertNull(results.get(1).getValue());
+        assertTrue(results.get(1).getException() instanceof NumberFormatException);
+        assertEquals(Integer.valueOf(3), results.get(2).getValue());
+    }
+
+    @Test
+    public void convertReportsErrorsAsFailures() {
+        List<BatchResult<Integer>> results = this.batchConverter.convert(
+            Arrays.asList(1, 2, 3),
+            item -> {
+                if (item == 2) {
+                    throw new AssertionError("broken");
+                }
+
+                return item;
+            }
+        );
+
+        assertEquals(3, results.size());
+        assertTrue(results.get(0).isSuccess());
+        assertTrue(results.get(1).getException() instanceof ExecutionException);
+        assertTrue(results.get(1).getException().getCause() instanceof AssertionError);
+        assertEquals(Integer.valueOf(3), results.get(2).getValue());
+    }
+
+    @Test
+    public void convertReportsRejectedItemsAsFailures() {
+        AtomicInteger submitted = new AtomicInteger();
+        Executor rejecting = task -> {
+            if (submitted.incrementAndGet() == 2) {
+                throw new RejectedExecutionException("full");
+            }
+
+            task.run();
+        };
+        BatchConverter converter = new BatchConverter(ConverterRegistry.getInstance(), rejecting, 1);
+
+        List<BatchResult<Integer>> results = converter.convert(Arrays.asList(1, 2, 3), item -> item);
+
+        assertEquals(3, results.size());
+        assertEquals(Integer.valueOf(1), results.get(0).getValue());
+        assertTrue(results.get(1).getException() instanceof RejectedExecutionException);
+        assertEquals(Integer.valueOf(3), results.get(2).getValue());
+    }
+
+    @Test
+    public void convertKeepsAtMostMaxInFlightItemsSubmitted() {
+        AtomicInteger running = new AtomicInteger();
+        AtomicInteger highest = new AtomicInteger();
+        BatchConverter converter = new BatchConverter(ConverterRegistry.getInstance(), this.executor, 2);
+
+        List<BatchResult<Integer>> results = converter.convert(
+            IntStream.range(0, 50).boxed(),
+            item -> {
+                highest.accumulateAndGet(running.incrementAndGet(), Math::max);
+                Thread.sleep(1);
+                running.decrementAndGet();
+                return item;
+            }
+        );
+
+        assertEquals(50, results.size());
+        assertTrue(highest.get() <= 2);
+        assertTrue(results.stream().allMatch(BatchResult::isSuccess));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void maxInFlightBelowOneIsRejected() {
+        new BatchConverter(ConverterRegistry.getInstance(), this.executor, 0);
+    }
+
+    @Test
+    public void convertReturnsEmptyListForNoItems() {
+        assertTrue(this.batchConverter.convert(new ArrayList<String>(), item -> item).isEmpty());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void nullExecutorIsRejected() {
+        new BatchConverter(ConverterRegistry.getInstance(), null);
+    }
+
+    @Test
+    public void getCdsInputsFromFhirMatchesSingleConversion() throws IOException {
+        String payload = new String(Files.readAllBytes(Paths.get("src/test/resources/forecast.json")));
+        String expected = CdsObjectAssist.cdsObjectToString(
+            ConverterRegistry.getInstance().getFhir2Vmr().getCdsInputFromFhir(payload),
+            CDSInput.class
+        );
+
+        List<BatchResult<CDSInput>> results = this.batchConverter.getCdsInputsFromFhir(
+            Arrays.asList(payload, "{\"json\": true}", payload)
+        );
+
+        assertEquals(expected, CdsObjectAssist.cdsObjectToString(results.get(0).getValue(), CDSInput.class));
+        assertTrue(results.get(1).getException() instanceof IllegalArgumentException);
+        assertEquals(expected, CdsObjectAssist.cdsObjectToString(results.get(2).getValue(), CDSInput.class));
+    }
+}
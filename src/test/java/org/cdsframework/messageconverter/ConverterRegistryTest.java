@@ -0,0 +1,158 @@
+package org.cdsframework.messageconverter;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.cdsframework.cds.vmr.CdsObjectAssist;
+import org.cdsframework.messageconverter.fhir.convert.utils.FhirContextProvider;
+import org.cdsframework.messageconverter.fhir.convert.utils.RandomIdGenerator;
+import org.cdsframework.messageconverter.metrics.SimpleMetricsRegistry;
+import org.hl7.fhir.r4.model.Immunization;
+import org.hl7.fhir.r4.model.ImmunizationEvaluation;
+import org.hl7.fhir.r4.model.ImmunizationRecommendation;
+import org.hl7.fhir.r4.model.Patient;
+import org.junit.Test;
+import org.opencds.vmr.v1_0.schema.CDSInput;
+import org.opencds.vmr.v1_0.schema.CDSOutput;
+import org.opencds.vmr.v1_0.schema.EvaluatedPerson;
+import org.opencds.vmr.v1_0.schema.SubstanceAdministrationEvent;
+import org.opencds.vmr.v1_0.schema.SubstanceAdministrationProposal;
+import org.opencds.vmr.v1_0.schema.VMR;
+
+/**
+ * @author Brian Lamb
+ */
+public class ConverterRegistryTest {
+    @Test
+    public void getInstanceAlwaysReturnsSameRegistry() {
+        assertSame(ConverterRegistry.getInstance(), ConverterRegistry.getInstance());
+        assertSame(ConverterRegistry.getInstance().getFhir2Vmr(), ConverterRegistry.getInstance().getFhir2Vmr());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void nullProviderIsRejected() {
+        new ConverterRegistry(null);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void nullIdGeneratorIsRejected() {
+        new ConverterRegistry(FhirContextProvider.getInstance(), null);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void nullMetricsRegistryIsRejected() {
+        new ConverterRegistry(FhirContextProvider.getInstance(), RandomIdGenerator.getInstance(), null);
+    }
+
+    @Test
+    public void metricsAreRecordedForEveryStage() throws IOException {
+        SimpleMetricsRegistry metricsRegistry = new SimpleMetricsRegistry();
+        ConverterRegistry registry = new ConverterRegistry(
+            FhirContextProvider.getInstance(),
+            RandomIdGenerator.getInstance(),
+            metricsRegistry
+        );
+
+        String json = new String(Files.readAllBytes(Paths.get("src/test/resources/forecast.json")), StandardCharsets.UTF_8);
+        registry.getFhir2Vmr().getCdsInputFromFhir(json);
+        registry.getFhir2Vmr().getCdsInputFromFhir(
+            "<Parameters xmlns=\"http://hl7.org/fhir\"><parameter><name value=\"patient\"/><resource>"
+            + "<Patient><name><family value=\"Doe\"/><given value=\"Jane\"/></name></Patient>"
+            + "</resource></parameter></Parameters>"
+        );
+
+        VMR vmr = new VMR();
+        vmr.setPatient(new EvaluatedPerson());
+        CDSOutput output = new CDSOutput();
+        output.setVmrOutput(vmr);
+        registry.getVmr2Fhir().getBundle(output);
+
+        assertSame(metricsRegistry, registry.getMetrics().getRegistry());
+        // json is parsed one parameter resource at a time, xml as a whole
+        assertEquals(2, metricsRegistry.getTimers().get("messageconverter.parse{format=json}").getCount());
+        assertEquals(1, metricsRegistry.getTimers().get("messageconverter.parse{format=xml}").getCount());
+        assertEquals(2, metricsRegistry.getTimers().get("messageconverter.convert{direction=cds,resource=Patient}").getCount());
+        assertEquals(1, metricsRegistry.getTimers().get("messageconverter.convert{direction=fhir,resource=Patient}").getCount());
+        assertEquals(1, metricsRegistry.getTimers().get("messageconverter.convert{direction=fhir,resource=ImmunizationRecommendation}").getCount());
+        assertEquals(1, metricsRegistry.getTimers().get("messageconverter.assemble{output=Bundle}").getCount());
+        assertEquals(0, metricsRegistry.getTimers().get("messageconverter.assemble{output=Parameters}").getCount());
+    }
+
+    @Test
+    public void idGeneratorIsUsedForEveryResource() {
+        AtomicInteger counter = new AtomicInteger();
+        ConverterRegistry registry = new ConverterRegistry(
+            FhirContextProvider.getInstance(),
+            () -> "id-" + counter.incrementAndGet()
+        );
+
+        Patient patient = registry.getPatientConverter().convertToFhir(new EvaluatedPerson());
+        Immunization immunization = registry.getImmunizationConverter().convertToFhir(patient, new SubstanceAdministrationEvent());
+        ImmunizationEvaluation evaluation = registry.getImmunizationEvaluationConverter().convertToFhir(patient, immunization, null);
+        ImmunizationRecommendation recommendation = registry.getImmunizationRecommendationConverter().convertToFhir(
+            patient,
+            new ArrayList<SubstanceAdministrationProposal>()
+        );
+
+        assertEquals("id-1", patient.getIdElement().getIdPart());
+        assertEquals("id-2", immunization.getIdElement().getIdPart());
+        assertEquals("id-3", evaluation.getIdElement().getIdPart());
+        assertEquals("id-4", recommendation.getIdElement().getIdPart());
+    }
+
+    @Test
+    public void convertersAreBuiltOnce() {
+        ConverterRegistry registry = new ConverterRegistry(FhirContextProvider.getInstance());
+
+        assertSame(registry.getImmunizationConverter(), registry.getFhir2Vmr().immunizationConverter);
+        assertSame(registry.getImmunizationConverter(), registry.getVmr2Fhir().immunizationConverter);
+        assertSame(registry.getPatientConverter(), registry.getFhir2Vmr().patientConverter);
+        assertSame(registry.getPatientConverter(), registry.getVmr2Fhir().patientConverter);
+        assertSame(registry.getImmunizationEvaluationConverter(), registry.getVmr2Fhir().immunizationEvaluationConverter);
+        assertSame(registry.getImmunizationRecommendationConverter(), registry.getFhir2Vmr().immunizationRecommendationConverter);
+    }
+
+    @Test
+    public void defaultConstructorsUseSharedRegistry() {
+        ConverterRegistry registry = ConverterRegistry.getInstance();
+
+        assertSame(registry.getImmunizationConverter(), new Fhir2Vmr().immunizationConverter);
+        assertSame(registry.getPatientConverter(), new Vmr2Fhir().patientConverter);
+    }
+
+    @Test
+    public void sharedFhir2VmrIsSafeAcrossThreads() throws IOException, InterruptedException, ExecutionException {
+        byte[] data = Files.readAllBytes(Paths.get("src/test/resources/forecast.json"));
+        Fhir2Vmr fhir2Vmr = ConverterRegistry.getInstance().getFhir2Vmr();
+        String expected = CdsObjectAssist.cdsObjectToString(fhir2Vmr.getCdsInputFromFhir(data), CDSInput.class);
+
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        List<Future<String>> results = new ArrayList<>();
+
+        try {
+            for (int i = 0; i < 64; i++) {
+                results.add(executor.submit(
+                    () -> CdsObjectAssist.cdsObjectToString(fhir2Vmr.getCdsInputFromFhir(data), CDSInput.class)
+                ));
+            }
+
+            for (Future<String> result : results) {
+                assertEquals(expected, result.get());
+            }
+        } finally {
+            executor.shutdown();
+        }
+    }
+}
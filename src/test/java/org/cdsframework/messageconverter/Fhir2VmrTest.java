@@ -3,33 +3,47 @@ package org.cdsframework.messageconverter;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertNotSame;
 import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
 import static org.junit.Assert.assertTrue;
 
 import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
 import java.io.FileInputStream;
 import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
+import java.io.StringReader;
+import java.nio.ByteBuffer;
 import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
 import java.text.ParseException;
 import java.text.SimpleDateFormat;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Date;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import org.cdsframework.cds.vmr.CdsInputWrapper;
 import org.cdsframework.cds.vmr.CdsObjectAssist;
 import org.cdsframework.ice.input.IceCdsInputWrapper;
 import org.cdsframework.messageconverter.fhir.convert.utils.IdentifierFactory;
+import org.cdsframework.messageconverter.fhir.convert.vmr.ImmunizationConverter;
 import org.hl7.fhir.r4.model.CodeableConcept;
 import org.hl7.fhir.r4.model.Coding;
 import org.hl7.fhir.r4.model.Enumerations.AdministrativeGender;
 import org.hl7.fhir.r4.model.Identifier;
 import org.hl7.fhir.r4.model.Immunization;
 import org.hl7.fhir.r4.model.ImmunizationEvaluation;
+import org.hl7.fhir.r4.model.ImmunizationRecommendation;
 import org.hl7.fhir.r4.model.Observation;
+import org.hl7.fhir.r4.model.Parameters;
 import org.hl7.fhir.r4.model.Patient;
 import org.hl7.fhir.r4.model.Reference;
 import org.json.JSONArray;
@@ -38,6 +52,7 @@ import org.junit.Before;
 import org.junit.Test;
 import org.opencds.vmr.v1_0.schema.CDSInput;
 import org.opencds.vmr.v1_0.schema.CDSOutput;
+import org.opencds.vmr.v1_0.schema.SubstanceAdministrationEvent;
 
 /**
  * @author Brian Lamb
@@ -72,7 +87,7 @@ public class Fhir2VmrTest {
         this.fileContents = fileContents;
         this.defaultOutput = CdsObjectAssist.cdsObjectToString(this.wrapper.getCdsObject(), CDSInput.class);
 
-        SimpleDateFormat dateFormat = new SimpleDateFormat("yyyymmdd");
+        SimpleDateFormat dateFormat = new SimpleDateFormat("yyyyMMdd");
         Date birthDate = dateFormat.parse("20200612");
 
         this.patient = new Patient();
@@ -627,4 +642,259 @@ public class Fhir2VmrTest {
         );
         */
     }
-}
\ No newline at end of file
+
+    @Test
+    public void getCdsInputFromParametersIgnoresResourcesOfWrongType() {
+        Parameters parameters = new Parameters();
+        parameters.addParameter().setName("immunization").setResource(new Patient());
+
+        CDSInput input = this.fhir2Vmr.getCdsInputFromFhir(this.wrapper, parameters);
+        String output = CdsObjectAssist.cdsObjectToString(input, CDSInput.class);
+
+        assertEquals(this.defaultOutput, output);
+    }
+
+    @Test
+    public void getCdsInputFromReaderMatchesStringConversion() throws IOException {
+        CDSInput fromReader = this.fhir2Vmr.getCdsInputFromFhir(new StringReader(this.fileContents));
+        CDSInput fromString = this.fhir2Vmr.getCdsInputFromFhir(this.fileContents);
+
+        assertEquals(
+            CdsObjectAssist.cdsObjectToString(fromString, CDSInput.class),
+            CdsObjectAssist.cdsObjectToString(fromReader, CDSInput.class)
+        );
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void getCdsInputFromReaderThrowsExceptionIfNoParameterArgument() throws IOException {
+        this.fhir2Vmr.getCdsInputFromFhir(this.wrapper, new StringReader("{\"resourceType\": \"Parameters\"}"));
+    }
+
+    @Test
+    public void getCdsInputFromXmlMatchesJsonConversion() throws IOException {
+        String xml = new String(Files.readAllBytes(Paths.get("src/test/resources/forecast.xml")), StandardCharsets.UTF_8);
+
+        CDSInput fromXml = this.fhir2Vmr.getCdsInputFromFhir(xml);
+        CDSInput fromJson = this.fhir2Vmr.getCdsInputFromFhir(this.fileContents);
+
+        assertEquals(
+            CdsObjectAssist.cdsObjectToString(fromJson, CDSInput.class),
+            CdsObjectAssist.cdsObjectToString(fromXml, CDSInput.class)
+        );
+    }
+
+    @Test
+    public void isXmlDoesNotConsumeStream() throws IOException {
+        InputStream xml = new ByteArrayInputStream("\ufeff\n <Parameters/>".getBytes(StandardCharsets.UTF_8));
+        InputStream json = new ByteArrayInputStream("{}".getBytes(StandardCharsets.UTF_8));
+
+        assertTrue(Fhir2Vmr.isXml(xml));
+        assertEquals('\n', xml.read());
+        assertFalse(Fhir2Vmr.isXml(json));
+        assertEquals('{', json.read());
+    }
+
+    @Test
+    public void getCdsInputFromStreamMatchesStringConversion() throws IOException {
+        byte[] xml = Files.readAllBytes(Paths.get("src/test/resources/forecast.xml"));
+        byte[] json = this.fileContents.getBytes(StandardCharsets.UTF_8);
+        String expected = CdsObjectAssist.cdsObjectToString(this.fhir2Vmr.getCdsInputFromFhir(this.fileContents), CDSInput.class);
+
+        assertEquals(expected, CdsObjectAssist.cdsObjectToString(this.fhir2Vmr.getCdsInputFromFhir(new ByteArrayInputStream(json)), CDSInput.class));
+        assertEquals(expected, CdsObjectAssist.cdsObjectToString(this.fhir2Vmr.getCdsInputFromFhir(new ByteArrayInputStream(xml)), CDSInput.class));
+        assertEquals(expected, CdsObjectAssist.cdsObjectToString(this.fhir2Vmr.getCdsInputFromFhir(ByteBuffer.wrap(json)), CDSInput.class));
+    }
+
+    /**
+     * Check that every overload taking a payload rejects data with an IllegalArgumentException.
+     */
+    protected void assertEveryOverloadRejects(String data) throws IOException {
+        byte[] bytes = data.getBytes(StandardCharsets.UTF_8);
+        List<String> accepted = new ArrayList<String>();
+
+        try {
+            this.fhir2Vmr.getCdsInputFromFhir(CdsInputWrapper.getCdsInputWrapper(), data);
+            accepted.add("String");
+        } catch (IllegalArgumentException exception) {
+        }
+
+        try {
+            this.fhir2Vmr.getCdsInputFromFhir(CdsInputWrapper.getCdsInputWrapper(), bytes);
+            accepted.add("byte[]");
+        } catch (IllegalArgumentException exception) {
+        }
+
+        try {
+            this.fhir2Vmr.getCdsInputFromFhir(CdsInputWrapper.getCdsInputWrapper(), ByteBuffer.wrap(bytes));
+            accepted.add("ByteBuffer");
+        } catch (IllegalArgumentException exception) {
+        }
+
+        try {
+            this.fhir2Vmr.getCdsInputFromFhir(CdsInputWrapper.getCdsInputWrapper(), new ByteArrayInputStream(bytes));
+            accepted.add("InputStream");
+        } catch (IllegalArgumentException exception) {
+        }
+
+        if (!Fhir2Vmr.isXml(data)) {
+            try {
+                this.fhir2Vmr.getCdsInputFromFhir(CdsInputWrapper.getCdsInputWrapper(), new StringReader(data));
+                accepted.add("Reader");
+            } catch (IllegalArgumentException exception) {
+            }
+        }
+
+        assertEquals(data, new ArrayList<String>(), accepted);
+    }
+
+    @Test
+    public void everyOverloadRejectsTheSamePayloads() throws IOException {
+        this.assertEveryOverloadRejects("{\"resourceType\": \"Parameters\"}");
+        this.assertEveryOverloadRejects("{\"resourceType\": \"Patient\", \"parameter\": []}");
+        this.assertEveryOverloadRejects("{\"resourceType\": \"Parameters\", \"parameter\": [");
+        this.assertEveryOverloadRejects("{json: true}");
+        this.assertEveryOverloadRejects("<Parameters xmlns=\"http://hl7.org/fhir\"/>");
+        this.assertEveryOverloadRejects("<json>true</json>");
+    }
+
+    @Test
+    public void everyOverloadAcceptsAnEmptyParameterArray() throws IOException {
+        String data = "{\"resourceType\": \"Parameters\", \"parameter\": []}";
+        byte[] bytes = data.getBytes(StandardCharsets.UTF_8);
+
+        assertEquals(this.defaultOutput, CdsObjectAssist.cdsObjectToString(this.fhir2Vmr.getCdsInputFromFhir(CdsInputWrapper.getCdsInputWrapper(), data), CDSInput.class));
+        assertEquals(this.defaultOutput, CdsObjectAssist.cdsObjectToString(this.fhir2Vmr.getCdsInputFromFhir(CdsInputWrapper.getCdsInputWrapper(), bytes), CDSInput.class));
+        assertEquals(this.defaultOutput, CdsObjectAssist.cdsObjectToString(this.fhir2Vmr.getCdsInputFromFhir(CdsInputWrapper.getCdsInputWrapper(), ByteBuffer.wrap(bytes)), CDSInput.class));
+        assertEquals(this.defaultOutput, CdsObjectAssist.cdsObjectToString(this.fhir2Vmr.getCdsInputFromFhir(CdsInputWrapper.getCdsInputWrapper(), new ByteArrayInputStream(bytes)), CDSInput.class));
+        assertEquals(this.defaultOutput, CdsObjectAssist.cdsObjectToString(this.fhir2Vmr.getCdsInputFromFhir(CdsInputWrapper.getCdsInputWrapper(), new StringReader(data)), CDSInput.class));
+    }
+
+    @Test
+    public void findEventMatchesRelativeAbsoluteAndVersionedReferences() {
+        Immunization first = new Immunization();
+        first.setId("first");
+        Immunization second = new Immunization();
+        second.setId("Immunization/second/_history/3");
+
+        List<Immunization> immunizations = new ArrayList<Immunization>();
+        immunizations.add(first);
+        immunizations.add(second);
+
+        Map<String, Immunization> index = this.fhir2Vmr.indexImmunizations(immunizations);
+
+        assertSame(first, this.fhir2Vmr.findEvent(index, new Reference("Immunization/first")));
+        assertSame(first, this.fhir2Vmr.findEvent(index, new Reference("http://example.org/fhir/Immunization/first")));
+        assertSame(second, this.fhir2Vmr.findEvent(index, new Reference("Immunization/second/_history/1")));
+        assertSame(second, this.fhir2Vmr.findEvent(index, new Reference("second")));
+    }
+
+    @Test
+    public void findEventReturnsNullIfNoMatch() {
+        Immunization immunization = new Immunization();
+        immunization.setId("first");
+
+        List<Immunization> immunizations = new ArrayList<Immunization>();
+        immunizations.add(immunization);
+
+        Map<String, Immunization> index = this.fhir2Vmr.indexImmunizations(immunizations);
+
+        assertNull(this.fhir2Vmr.findEvent(index, new Reference("Immunization/missing")));
+        assertNull(this.fhir2Vmr.findEvent(index, new Reference("Patient/first")));
+        assertNull(this.fhir2Vmr.findEvent(index, new Reference()));
+    }
+
+    @Test
+    @SuppressWarnings("deprecation")
+    public void findEventStillSearchesList() {
+        Immunization first = new Immunization();
+        first.setId("first");
+        Immunization second = new Immunization();
+        second.setId("Immunization/second/_history/3");
+
+        List<Immunization> immunizations = new ArrayList<Immunization>();
+        immunizations.add(first);
+        immunizations.add(second);
+
+        assertSame(second, this.fhir2Vmr.findEvent(immunizations, new Reference("second")));
+        assertNull(this.fhir2Vmr.findEvent(immunizations, new Reference("Immunization/missing")));
+        assertNull(this.fhir2Vmr.findEvent(immunizations, new Reference("Patient/first")));
+    }
+
+    @Test
+    public void getCdsOutputFromFhirConvertsEachImmunizationOnce() {
+        AtomicInteger conversions = new AtomicInteger();
+
+        this.fhir2Vmr.immunizationConverter = new ImmunizationConverter() {
+            @Override
+            public SubstanceAdministrationEvent convertToCds(Immunization immunization) {
+                conversions.incrementAndGet();
+                return super.convertToCds(immunization);
+            }
+        };
+
+        List<Immunization> immunizations = new ArrayList<Immunization>();
+        List<ImmunizationEvaluation> evaluations = new ArrayList<ImmunizationEvaluation>();
+
+        for (String id : Arrays.asList("first", "second")) {
+            Immunization immunization = new Immunization();
+            immunization.setId(id);
+            immunizations.add(immunization);
+        }
+
+        for (String reference : Arrays.asList("Immunization/first", "Immunization/first", "Immunization/second/_history/1")) {
+            ImmunizationEvaluation evaluation = new ImmunizationEvaluation();
+            evaluation.setImmunizationEvent(new Reference(reference));
+            evaluations.add(evaluation);
+        }
+
+        CDSOutput output = this.fhir2Vmr.getCdsOutputFromFhir(
+            this.patient,
+            new ArrayList<Observation>(),
+            immunizations,
+            evaluations,
+            new ArrayList<ImmunizationRecommendation>()
+        );
+
+        List<SubstanceAdministrationEvent> events = output.getVmrOutput()
+            .getPatient()
+            .getClinicalStatements()
+            .getSubstanceAdministrationEvents()
+            .getSubstanceAdministrationEvent();
+
+        assertEquals(2, conversions.get());
+        assertEquals(2, events.size());
+        assertEquals(2, events.get(0).getRelatedClinicalStatement().size());
+        assertEquals(1, events.get(1).getRelatedClinicalStatement().size());
+    }
+
+    @Test
+    public void convertImmunizationsSkipsDuplicateIds() {
+        AtomicInteger conversions = new AtomicInteger();
+
+        this.fhir2Vmr.immunizationConverter = new ImmunizationConverter() {
+            @Override
+            public SubstanceAdministrationEvent convertToCds(Immunization immunization) {
+                conversions.incrementAndGet();
+                return new SubstanceAdministrationEvent();
+            }
+        };
+
+        List<Immunization> immunizations = new ArrayList<Immunization>();
+
+        for (String id : Arrays.asList("first", "Immunization/first/_history/2", "second")) {
+            Immunization immunization = new Immunization();
+            immunization.setId(id);
+            immunizations.add(immunization);
+        }
+
+        Map<String, SubstanceAdministrationEvent> converted = new HashMap<String, SubstanceAdministrationEvent>();
+        List<SubstanceAdministrationEvent> events = this.fhir2Vmr.convertImmunizations(immunizations, converted)
+            .getSubstanceAdministrationEvent();
+
+        assertEquals(2, conversions.get());
+        assertEquals(2, events.size());
+        assertNotSame(events.get(0), events.get(1));
+        assertSame(converted.get("first"), events.get(0));
+        assertSame(converted.get("second"), events.get(1));
+    }
+}
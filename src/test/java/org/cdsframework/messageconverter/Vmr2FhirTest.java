@@ -15,10 +15,13 @@ import java.util.Date;
 import java.util.List;
 
 import org.cdsframework.cds.vmr.CdsObjectAssist;
+import org.hl7.fhir.r4.model.Bundle;
+import org.hl7.fhir.r4.model.Bundle.BundleType;
 import org.hl7.fhir.r4.model.Enumerations.AdministrativeGender;
 import org.hl7.fhir.r4.model.Immunization;
 import org.hl7.fhir.r4.model.ImmunizationEvaluation;
 import org.hl7.fhir.r4.model.ImmunizationRecommendation;
+import org.hl7.fhir.r4.model.Parameters;
 import org.hl7.fhir.r4.model.Patient;
 import org.junit.Before;
 import org.junit.Test;
@@ -28,6 +31,8 @@ import org.opencds.vmr.v1_0.schema.EvaluatedPerson;
 import org.opencds.vmr.v1_0.schema.EvaluatedPerson.ClinicalStatements;
 import org.opencds.vmr.v1_0.schema.EvaluatedPerson.ClinicalStatements.SubstanceAdministrationEvents;
 import org.opencds.vmr.v1_0.schema.EvaluatedPerson.ClinicalStatements.SubstanceAdministrationProposals;
+import org.opencds.vmr.v1_0.schema.II;
+import org.opencds.vmr.v1_0.schema.ObservationResult;
 import org.opencds.vmr.v1_0.schema.RelatedClinicalStatement;
 import org.opencds.vmr.v1_0.schema.SubstanceAdministrationEvent;
 import org.opencds.vmr.v1_0.schema.SubstanceAdministrationProposal;
@@ -73,7 +78,7 @@ public class Vmr2FhirTest {
         Patient expected = new Patient();
         Patient patient = this.vmr2Fhir.getPatient(this.input);
 
-        Date birthDate = new SimpleDateFormat("yyyymmdd").parse("20091130");
+        Date birthDate = new SimpleDateFormat("yyyyMMdd").parse("20091130");
 
         expected.setGender(AdministrativeGender.fromCode("male"));
         expected.setBirthDate(birthDate);
@@ -202,4 +207,180 @@ public class Vmr2FhirTest {
 
         assertEquals(3, immunizations.size());
     }
-}
\ No newline at end of file
+
+    @Test
+    public void getImmunizationsReturnsEmptyListIfNoClinicalStatements() throws ParseException {
+        this.customOutput.getVmrOutput().getPatient().setClinicalStatements(null);
+
+        List<Immunization> immunizations = this.vmr2Fhir.getImmunizations(this.customOutput);
+
+        assertTrue(immunizations.isEmpty());
+    }
+
+    @Test
+    public void getObservationsReturnsEmptyListIfNoClinicalStatements() throws ParseException {
+        this.customOutput.getVmrOutput().getPatient().setClinicalStatements(null);
+
+        List<Immunization> observations = this.vmr2Fhir.getObservations(this.customOutput);
+
+        assertTrue(observations.isEmpty());
+    }
+
+    @Test
+    public void getEvaluationsSkipsRelatedClinicalStatementsWithoutEvent() throws ParseException {
+        SubstanceAdministrationEvents substanceAdministrationEvents = new SubstanceAdministrationEvents();
+        this.customOutput.getVmrOutput().getPatient().getClinicalStatements().setSubstanceAdministrationEvents(substanceAdministrationEvents);
+
+        SubstanceAdministrationEvent event = new SubstanceAdministrationEvent();
+        event.getRelatedClinicalStatement().add(new RelatedClinicalStatement());
+        substanceAdministrationEvents.getSubstanceAdministrationEvent().add(event);
+
+        List<ImmunizationEvaluation> evaluations = this.vmr2Fhir.getEvaluations(this.customOutput);
+
+        assertTrue(evaluations.isEmpty());
+    }
+
+    @Test
+    public void conversionsOfSameOutputShareIds() throws ParseException {
+        II patientId = new II();
+        patientId.setRoot("2.16.840.1.113883.3.795.12.100.11");
+        patientId.setExtension("58e8687d1847b779cb55ed5d42522761");
+        this.customOutput.getVmrOutput().getPatient().setId(patientId);
+
+        SubstanceAdministrationEvents substanceAdministrationEvents = new SubstanceAdministrationEvents();
+        this.customOutput.getVmrOutput().getPatient().getClinicalStatements().setSubstanceAdministrationEvents(substanceAdministrationEvents);
+
+        II eventId = new II();
+        eventId.setRoot("76e361ad-7954-44eb-a080-c58f0f514147");
+
+        SubstanceAdministrationEvent event = new SubstanceAdministrationEvent();
+        event.setId(eventId);
+        substanceAdministrationEvents.getSubstanceAdministrationEvent().add(event);
+
+        Patient patient = this.vmr2Fhir.getPatient(this.customOutput);
+        List<Immunization> first = this.vmr2Fhir.getImmunizations(this.customOutput);
+        List<Immunization> second = this.vmr2Fhir.getImmunizations(this.customOutput);
+
+        assertEquals(patient.getId(), this.vmr2Fhir.getPatient(this.customOutput).getId());
+        assertEquals("Patient/" + patient.getId(), first.get(0).getPatient().getReference());
+        assertEquals(first.get(0).getId(), second.get(0).getId());
+    }
+
+    /**
+     * Give customOutput one administered dose that was evaluated twice and one proposal.
+     */
+    protected void addEvaluatedDose() {
+        SubstanceAdministrationEvent component = new SubstanceAdministrationEvent();
+
+        RelatedClinicalStatement firstEvaluation = new RelatedClinicalStatement();
+        firstEvaluation.setObservationResult(new ObservationResult());
+        component.getRelatedClinicalStatement().add(firstEvaluation);
+
+        RelatedClinicalStatement secondEvaluation = new RelatedClinicalStatement();
+        secondEvaluation.setObservationResult(new ObservationResult());
+        component.getRelatedClinicalStatement().add(secondEvaluation);
+
+        RelatedClinicalStatement relatedComponent = new RelatedClinicalStatement();
+        relatedComponent.setSubstanceAdministrationEvent(component);
+
+        SubstanceAdministrationEvent event = new SubstanceAdministrationEvent();
+        event.getRelatedClinicalStatement().add(relatedComponent);
+
+        SubstanceAdministrationEvents substanceAdministrationEvents = new SubstanceAdministrationEvents();
+        substanceAdministrationEvents.getSubstanceAdministrationEvent().add(event);
+
+        SubstanceAdministrationProposals proposals = new SubstanceAdministrationProposals();
+        proposals.getSubstanceAdministrationProposal().add(new SubstanceAdministrationProposal());
+
+        ClinicalStatements clinicalStatements = this.customOutput.getVmrOutput().getPatient().getClinicalStatements();
+        clinicalStatements.setSubstanceAdministrationEvents(substanceAdministrationEvents);
+        clinicalStatements.setSubstanceAdministrationProposals(proposals);
+    }
+
+    @Test
+    public void getBundleHoldsEveryResourceInOrder() {
+        this.addEvaluatedDose();
+
+        Bundle bundle = this.vmr2Fhir.getBundle(this.customOutput);
+
+        assertEquals(BundleType.COLLECTION, bundle.getType());
+        assertEquals(5, bundle.getEntry().size());
+        assertTrue(bundle.getEntry().get(0).getResource() instanceof Patient);
+        assertTrue(bundle.getEntry().get(1).getResource() instanceof Immunization);
+        assertTrue(bundle.getEntry().get(2).getResource() instanceof ImmunizationEvaluation);
+        assertTrue(bundle.getEntry().get(3).getResource() instanceof ImmunizationEvaluation);
+        assertTrue(bundle.getEntry().get(4).getResource() instanceof ImmunizationRecommendation);
+    }
+
+    @Test
+    public void getBundleReferencesResourcesInBundle() {
+        this.addEvaluatedDose();
+
+        Bundle bundle = this.vmr2Fhir.getBundle(this.customOutput);
+
+        Patient patient = (Patient) bundle.getEntry().get(0).getResource();
+        Immunization immunization = (Immunization) bundle.getEntry().get(1).getResource();
+        ImmunizationEvaluation evaluation = (ImmunizationEvaluation) bundle.getEntry().get(2).getResource();
+        ImmunizationRecommendation recommendation = (ImmunizationRecommendation) bundle.getEntry().get(4).getResource();
+
+        assertEquals("Patient/" + patient.getId(), immunization.getPatient().getReference());
+        assertEquals("Patient/" + patient.getId(), evaluation.getPatient().getReference());
+        assertEquals("Immunization/" + immunization.getId(), evaluation.getImmunizationEvent().getReference());
+        assertEquals("Patient/" + patient.getId(), recommendation.getPatient().getReference());
+    }
+
+    @Test
+    public void getEvaluationsMatchesBundle() throws ParseException {
+        this.addEvaluatedDose();
+
+        II patientId = new II();
+        patientId.setRoot("2.16.840.1.113883.3.795.12.100.11");
+        patientId.setExtension("58e8687d1847b779cb55ed5d42522761");
+        this.customOutput.getVmrOutput().getPatient().setId(patientId);
+
+        II eventId = new II();
+        eventId.setRoot("76e361ad-7954-44eb-a080-c58f0f514147");
+        SubstanceAdministrationEvent event = this.customOutput.getVmrOutput().getPatient().getClinicalStatements()
+            .getSubstanceAdministrationEvents().getSubstanceAdministrationEvent().get(0);
+        event.setId(eventId);
+
+        int index = 0;
+
+        for (RelatedClinicalStatement evaluated : event.getRelatedClinicalStatement().get(0).getSubstanceAdministrationEvent().getRelatedClinicalStatement()) {
+            II evaluationId = new II();
+            evaluationId.setRoot("2.16.840.1.113883.3.795.12.100.12");
+            evaluationId.setExtension(Integer.toString(index++));
+            evaluated.getObservationResult().setId(evaluationId);
+        }
+
+        Bundle bundle = this.vmr2Fhir.getBundle(this.customOutput);
+        List<ImmunizationEvaluation> evaluations = this.vmr2Fhir.getEvaluations(this.customOutput);
+
+        assertEquals(2, evaluations.size());
+
+        for (int i = 0; i < evaluations.size(); i++) {
+            ImmunizationEvaluation expected = (ImmunizationEvaluation) bundle.getEntry().get(i + 2).getResource();
+
+            assertEquals(expected.getId(), evaluations.get(i).getId());
+            assertEquals(expected.getPatient().getReference(), evaluations.get(i).getPatient().getReference());
+            assertEquals(expected.getImmunizationEvent().getReference(), evaluations.get(i).getImmunizationEvent().getReference());
+        }
+    }
+
+    @Test
+    public void getParametersNamesEveryResource() {
+        this.addEvaluatedDose();
+
+        Parameters parameters = this.vmr2Fhir.getParameters(this.customOutput);
+
+        assertEquals("patient", parameters.getParameter().get(0).getName());
+        assertEquals("immunization", parameters.getParameter().get(1).getName());
+        assertEquals("evaluation", parameters.getParameter().get(2).getName());
+        assertEquals("recommendation", parameters.getParameter().get(4).getName());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void getBundleFailsIfNoPatient() {
+        this.vmr2Fhir.getBundle(new CDSOutput());
+    }
+}
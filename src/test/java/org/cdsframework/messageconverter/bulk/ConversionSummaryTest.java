@@ -0,0 +1,98 @@
+package org.cdsframework.messageconverter.bulk;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Paths;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.cdsframework.messageconverter.bulk.ConversionSummary.Failure;
+import org.junit.Test;
+
+/**
+ * @author Brian Lamb
+ */
+public class ConversionSummaryTest {
+    @Test
+    public void successesAreCountedByKind() {
+        ConversionSummary summary = new ConversionSummary();
+
+        summary.success("cdsInput", 100, 50);
+        summary.success("cdsInput", 100, 50);
+        summary.success("cdsOutput", 10, 5);
+
+        assertEquals(3, summary.getConverted());
+        assertEquals(210, summary.getBytesRead());
+        assertEquals(105, summary.getBytesWritten());
+        assertEquals(Long.valueOf(2), summary.getKinds().get("cdsInput"));
+        assertEquals(Long.valueOf(1), summary.getKinds().get("cdsOutput"));
+    }
+
+    @Test
+    public void failuresAreGroupedByReason() {
+        ConversionSummary summary = new ConversionSummary();
+
+        summary.failure(Paths.get("a.xml"), new IllegalArgumentException("bad"));
+        summary.failure(Paths.get("b.xml"), new IllegalArgumentException("bad"));
+        summary.failure(Paths.get("c.xml"), new IllegalStateException());
+
+        List<Failure> failures = summary.getFailures();
+
+        assertEquals(3, summary.getFailed());
+        assertEquals(2, failures.size());
+        assertEquals("IllegalArgumentException: bad", failures.get(0).getReason());
+        assertEquals(2, failures.get(0).getCount());
+        assertEquals(Paths.get("a.xml"), failures.get(0).getFirstFile());
+        assertEquals("IllegalStateException", failures.get(1).getReason());
+    }
+
+    @Test
+    public void failuresDifferingOnlyInFileOrNumbersShareGroup() {
+        ConversionSummary summary = new ConversionSummary();
+
+        summary.failure(Paths.get("in", "a.xml"), new IllegalArgumentException("Unexpected character at line 3 of in/a.xml"));
+        summary.failure(Paths.get("in", "b.xml"), new IllegalArgumentException("Unexpected character at line 17 of in/b.xml"));
+        summary.failure(Paths.get("c.xml"), new NoSuchFileException("c.xml"));
+
+        List<Failure> failures = summary.getFailures();
+
+        assertEquals(2, failures.size());
+        assertEquals("IllegalArgumentException: Unexpected character at line # of <file>", failures.get(0).getReason());
+        assertEquals(2, failures.get(0).getCount());
+        assertEquals("NoSuchFileException: <file>", failures.get(1).getReason());
+    }
+
+    @Test
+    public void failureGroupsStayBounded() {
+        ConversionSummary summary = new ConversionSummary();
+
+        for (int i = 0; i < ConversionSummary.MAX_REASONS * 2; i++) {
+            // numbers are taken out of the reason, so tell the reasons apart with letters
+            String reason = "reason " + (char) ('a' + i / 26) + (char) ('a' + i % 26);
+
+            summary.failure(Paths.get("a.xml"), new IllegalStateException(reason));
+        }
+
+        assertEquals(ConversionSummary.MAX_REASONS * 2, summary.getFailed());
+        assertTrue(summary.getFailures().size() <= ConversionSummary.MAX_REASONS + 1);
+    }
+
+    @Test
+    public void toStringReportsThroughputAndFailures() {
+        ConversionSummary summary = new ConversionSummary();
+
+        summary.success("fhir", 2000000, 1000000);
+        summary.failure(Paths.get("a.json"), new IllegalArgumentException("bad"));
+        summary.skip();
+        summary.setElapsedNanos(TimeUnit.SECONDS.toNanos(2));
+
+        String text = summary.toString();
+
+        assertTrue(text.contains("converted   1 files in 2.0 s, 0.5 files/s {fhir=1}"));
+        assertTrue(text.contains("read        2.0 MB, 1.0 MB/s"));
+        assertTrue(text.contains("skipped     1 files"));
+        assertTrue(text.contains("IllegalArgumentException: bad, first in a.json"));
+    }
+}
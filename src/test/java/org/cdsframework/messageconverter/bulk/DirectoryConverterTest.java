@@ -0,0 +1,161 @@
+package org.cdsframework.messageconverter.bulk;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+
+import org.cdsframework.messageconverter.ConverterRegistry;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * @author Brian Lamb
+ */
+public class DirectoryConverterTest {
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    protected String inputDirectory = "src/test/resources/ice-test-cases/inputs";
+    protected String outputDirectory = "src/test/resources/ice-test-cases/outputs";
+
+    protected void write(Path path, String content) throws IOException {
+        Files.createDirectories(path.getParent());
+        Files.write(path, content.getBytes(StandardCharsets.UTF_8));
+    }
+
+    protected static String detect(String content) {
+        return DirectoryConverter.detect(content.getBytes(StandardCharsets.UTF_8));
+    }
+
+    @Test
+    public void detectReadsRootElementWhateverItsPrefix() {
+        assertEquals(DirectoryConverter.CDS_INPUT, detect(
+            "<?xml version=\"1.0\"?>\n<ns3:cdsInput xmlns:ns3=\"org.opencds.vmr.v1_0.schema.cdsinput\">"
+        ));
+        assertEquals(DirectoryConverter.CDS_OUTPUT, detect("<cdsOutput>"));
+        assertEquals(DirectoryConverter.FHIR, detect("<Parameters xmlns=\"http://hl7.org/fhir\"/>"));
+        assertEquals(DirectoryConverter.FHIR, detect("  {\"resourceType\": \"Parameters\"}"));
+    }
+
+    @Test
+    public void detectSkipsByteOrderMarkAndComments() {
+        assertEquals(DirectoryConverter.CDS_OUTPUT, detect("\uFEFF<!-- <cdsInput> --><!DOCTYPE cdsOutput>\n<cdsOutput/>"));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void detectRejectsOtherContent() {
+        detect("patient,immunization");
+    }
+
+    @Test
+    public void destinationKeepsLayoutAndSwapsExtension() {
+        Path target = Paths.get("out");
+
+        assertEquals(
+            Paths.get("out", "a", "b", "case.json"),
+            DirectoryConverter.getDestination(Paths.get("a", "b", "case.xml"), target, DirectoryConverter.CDS_INPUT)
+        );
+        assertEquals(
+            Paths.get("out", "case.xml"),
+            DirectoryConverter.getDestination(Paths.get("case.json"), target, DirectoryConverter.FHIR)
+        );
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void maxInFlightBelowThreadsIsRejected() {
+        new DirectoryConverter(ConverterRegistry.getInstance(), 4, 2);
+    }
+
+    @Test
+    public void convertCountsFailuresAndSkipsOtherFiles() throws IOException {
+        Path input = this.folder.newFolder("input").toPath();
+        Path output = input.resolve("converted");
+
+        this.write(input.resolve("a/broken.json"), "{not json");
+        this.write(input.resolve("a/b/empty.xml"), "   ");
+        this.write(input.resolve("notes.txt"), "not converted");
+        // files already under the output directory are never converted again
+        this.write(output.resolve("old.json"), "{not json");
+
+        ConversionSummary summary = new DirectoryConverter(ConverterRegistry.getInstance(), 2, 2).convert(input, output);
+
+        assertEquals(0, summary.getConverted());
+        assertEquals(2, summary.getFailed());
+        assertEquals(1, summary.getSkipped());
+        assertEquals(2, summary.getFailures().size());
+        assertTrue(summary.toString().contains("failed      2 files"));
+    }
+
+    @Test
+    public void convertWritesCdsInputAndFhirFiles() throws IOException {
+        Path input = this.folder.newFolder("input").toPath();
+        Path output = this.folder.newFolder("output").toPath();
+        File cases = new File(this.inputDirectory);
+        String name = cases.list()[0];
+
+        Files.createDirectories(input.resolve("vmr"));
+        Files.copy(cases.toPath().resolve(name), input.resolve("vmr").resolve(name));
+        Files.createDirectories(input.resolve("fhir"));
+        Files.copy(Paths.get("src/test/resources/forecast.json"), input.resolve("fhir/forecast.json"));
+
+        ConversionSummary summary = new DirectoryConverter(ConverterRegistry.getInstance(), 2, 2).convert(input, output);
+
+        assertEquals(summary.toString(), 0, summary.getFailed());
+        assertEquals(2, summary.getConverted());
+        assertEquals(Long.valueOf(1), summary.getKinds().get(DirectoryConverter.CDS_INPUT));
+        assertEquals(Long.valueOf(1), summary.getKinds().get(DirectoryConverter.FHIR));
+
+        Path parameters = output.resolve("vmr").resolve(name.replaceAll("\\.xml$", ".json"));
+        Path cdsInput = output.resolve("fhir/forecast.xml");
+
+        assertEquals(
+            DirectoryConverter.FHIR,
+            DirectoryConverter.detect(Files.readAllBytes(parameters))
+        );
+        assertEquals(DirectoryConverter.CDS_INPUT, DirectoryConverter.detect(Files.readAllBytes(cdsInput)));
+    }
+
+    @Test(timeout = 30000)
+    public void convertFinishesWhenConversionThrowsError() throws IOException {
+        Path input = this.folder.newFolder("input").toPath();
+        Path output = this.folder.newFolder("output").toPath();
+
+        this.write(input.resolve("a.json"), "{\"resourceType\": \"Parameters\"}");
+        this.write(input.resolve("b.json"), "{\"resourceType\": \"Parameters\"}");
+
+        DirectoryConverter converter = new DirectoryConverter(ConverterRegistry.getInstance(), 2, 2) {
+            @Override
+            protected Path convertFile(Path file, Path source, Path target, ConversionSummary summary) {
+                throw new StackOverflowError("too deep");
+            }
+        };
+
+        ConversionSummary summary = converter.convert(input, output);
+
+        assertEquals(2, summary.getFailed());
+        assertEquals("StackOverflowError: too deep", summary.getFailures().get(0).getReason());
+    }
+
+    @Test
+    public void convertWritesEveryTestCase() throws IOException {
+        Path output = this.folder.newFolder("output").toPath();
+        int count = new File(this.outputDirectory).list().length;
+
+        ConversionSummary summary = new DirectoryConverter(ConverterRegistry.getInstance(), 4, 8).convert(
+            Paths.get(this.outputDirectory),
+            output
+        );
+
+        assertEquals(0, summary.getFailed());
+        assertEquals(count, summary.getConverted());
+        assertEquals(Long.valueOf(count), summary.getKinds().get(DirectoryConverter.CDS_OUTPUT));
+        assertEquals(count, output.toFile().list().length);
+    }
+}
@@ -0,0 +1,210 @@
+package org.cdsframework.messageconverter.bulk;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.StringWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.zip.GZIPInputStream;
+
+import org.cdsframework.messageconverter.fhir.convert.utils.FhirContextProvider;
+import org.cdsframework.messageconverter.fhir.convert.utils.FhirOutput;
+import org.cdsframework.messageconverter.fhir.convert.utils.FhirResourceWriter;
+import org.hl7.fhir.instance.model.api.IBaseResource;
+import org.hl7.fhir.r4.model.Bundle;
+import org.hl7.fhir.r4.model.Immunization;
+import org.hl7.fhir.r4.model.Patient;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import ca.uhn.fhir.parser.DataFormatException;
+
+/**
+ * @author Brian Lamb
+ */
+public class NdjsonExportWriterTest {
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    protected Patient patient(String id) {
+        Patient patient = new Patient();
+        patient.setId(id);
+
+        return patient;
+    }
+
+    protected List<String> readLines(Path path) throws IOException {
+        InputStream stream = Files.newInputStream(path);
+
+        if (path.toString().endsWith(".gz")) {
+            stream = new GZIPInputStream(stream);
+        }
+
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(stream, StandardCharsets.UTF_8))) {
+            return reader.lines().collect(Collectors.toList());
+        }
+    }
+
+    @Test
+    public void writeSplitsResourcesByType() throws IOException {
+        Path directory = this.folder.getRoot().toPath();
+
+        try (NdjsonExportWriter writer = new NdjsonExportWriter(directory)) {
+            writer.write(this.patient("a"));
+            writer.write(new Immunization());
+            writer.write(this.patient("b"));
+        }
+
+        List<String> patients = this.readLines(directory.resolve("Patient-1.ndjson"));
+
+        assertEquals(2, patients.size());
+        assertEquals(1, this.readLines(directory.resolve("Immunization-1.ndjson")).size());
+
+        Patient patient = FhirContextProvider.getInstance().newJsonParser().parseResource(Patient.class, patients.get(1));
+        assertEquals("b", patient.getIdElement().getIdPart());
+    }
+
+    @Test
+    public void writeCompressesIfGzip() throws IOException {
+        Path directory = this.folder.getRoot().toPath();
+
+        try (NdjsonExportWriter writer = new NdjsonExportWriter(new FhirOutput(), directory, true, NdjsonExportWriter.NO_ROLLOVER)) {
+            writer.write(this.patient("a"));
+            writer.write(this.patient("b"));
+        }
+
+        assertEquals(2, this.readLines(directory.resolve("Patient-1.ndjson.gz")).size());
+    }
+
+    @Test
+    public void writeRollsOverOnceFileIsFull() throws IOException {
+        Path directory = this.folder.getRoot().toPath();
+        NdjsonExportWriter writer = new NdjsonExportWriter(new FhirOutput(), directory, false, 1);
+
+        try {
+            writer.write(this.patient("a"));
+            writer.write(this.patient("b"));
+            writer.write(this.patient("c"));
+        } finally {
+            writer.close();
+        }
+
+        assertEquals(3, writer.getFiles().size());
+        assertEquals(Long.valueOf(3), writer.getCounts().get("Patient"));
+
+        List<String> lines = new ArrayList<>();
+
+        for (Path file : writer.getFiles()) {
+            lines.addAll(this.readLines(file));
+        }
+
+        assertEquals(3, lines.size());
+        assertTrue(Files.exists(directory.resolve("Patient-3.ndjson")));
+    }
+
+    @Test
+    public void writeEntriesWritesEveryResourceInBundle() throws IOException {
+        Path directory = this.folder.getRoot().toPath();
+        Bundle bundle = new Bundle();
+
+        bundle.addEntry().setResource(this.patient("a"));
+        bundle.addEntry().setResource(new Immunization());
+        bundle.addEntry();
+
+        NdjsonExportWriter writer = new NdjsonExportWriter(directory);
+
+        try {
+            writer.writeEntries(bundle);
+        } finally {
+            writer.close();
+        }
+
+        assertEquals(Long.valueOf(1), writer.getCounts().get("Patient"));
+        assertEquals(Long.valueOf(1), writer.getCounts().get("Immunization"));
+    }
+
+    @Test
+    public void writeNeverOverwritesAnExistingPart() throws IOException {
+        Path directory = this.folder.getRoot().toPath();
+        Path existing = Files.write(directory.resolve("Patient-1.ndjson"), "{}\n".getBytes(StandardCharsets.UTF_8));
+
+        try (NdjsonExportWriter writer = new NdjsonExportWriter(directory)) {
+            writer.write(this.patient("a"));
+            fail("Expected a FileAlreadyExistsException");
+        } catch (FileAlreadyExistsException exception) {
+            assertEquals(Arrays.asList("{}"), this.readLines(existing));
+        }
+    }
+
+    @Test
+    public void writeLeavesNoPartialLineIfEncodingFails() throws IOException {
+        Path directory = this.folder.getRoot().toPath();
+        FhirOutput fhirOutput = new FhirOutput() {
+            @Override
+            public FhirResourceWriter openWriter(Writer writer, boolean prettyPrint) {
+                return new FhirResourceWriter(writer, FhirContextProvider.getInstance().newJsonEncoder(prettyPrint)) {
+                    @Override
+                    public void write(IBaseResource resource) throws IOException {
+                        if ("bad".equals(resource.getIdElement().getIdPart())) {
+                            this.target.write("{\"resourceType\":\"Patient\"");
+                            throw new DataFormatException("failed halfway through the resource");
+                        }
+
+                        super.write(resource);
+                    }
+                };
+            }
+        };
+
+        try (NdjsonExportWriter writer = new NdjsonExportWriter(fhirOutput, directory, false, NdjsonExportWriter.NO_ROLLOVER)) {
+            writer.write(this.patient("a"));
+
+            try {
+                writer.write(this.patient("bad"));
+                fail("Expected a DataFormatException");
+            } catch (DataFormatException exception) {
+                assertEquals(Long.valueOf(1), writer.getCounts().get("Patient"));
+            }
+
+            writer.write(this.patient("b"));
+        }
+
+        FhirOutput output = new FhirOutput();
+
+        assertEquals(
+            Arrays.asList(output.convertToString(this.patient("a"), false), output.convertToString(this.patient("b"), false)),
+            this.readLines(directory.resolve("Patient-1.ndjson"))
+        );
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void writeFailsOnceClosed() throws IOException {
+        NdjsonExportWriter writer = new NdjsonExportWriter(this.folder.getRoot().toPath());
+        writer.close();
+
+        writer.write(this.patient("a"));
+    }
+
+    @Test
+    public void countingWriterCountsUtf8Bytes() throws IOException {
+        CountingWriter writer = new CountingWriter(new StringWriter());
+
+        writer.write("a\u00fc\u20ac\ud83d\ude00");
+
+        assertEquals(1 + 2 + 3 + 4, writer.getBytes());
+    }
+}
@@ -0,0 +1,230 @@
+package org.cdsframework.messageconverter.bulk;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.GZIPOutputStream;
+
+import org.cdsframework.cds.vmr.CdsObjectAssist;
+import org.cdsframework.messageconverter.BatchResult;
+import org.cdsframework.messageconverter.ConverterRegistry;
+import org.cdsframework.messageconverter.fhir.convert.utils.FhirContextProvider;
+import org.hl7.fhir.r4.model.Immunization;
+import org.hl7.fhir.r4.model.Parameters;
+import org.hl7.fhir.r4.model.Patient;
+import org.json.JSONObject;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.opencds.vmr.v1_0.schema.CDSInput;
+
+import ca.uhn.fhir.parser.IParser;
+
+/**
+ * @author Brian Lamb
+ */
+public class NdjsonImportReaderTest {
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    protected Map<String, List<String>> converted = new LinkedHashMap<>();
+
+    protected NdjsonImportReader reader = new NdjsonImportReader(ConverterRegistry.getInstance()) {
+        @Override
+        protected CDSInput convert(Patient patient, List<Immunization> immunizations) {
+            List<String> ids = new ArrayList<>();
+
+            for (Immunization immunization : immunizations) {
+                ids.add(immunization.getIdElement().getIdPart());
+            }
+
+            converted.put(patient.getIdElement().getIdPart(), ids);
+            return new CDSInput();
+        }
+    };
+
+    protected String patient(String id) {
+        return "{\"resourceType\":\"Patient\",\"id\":\"" + id + "\",\"gender\":\"female\"}";
+    }
+
+    protected String immunization(String id, String reference) {
+        return "{\"resourceType\":\"Immunization\",\"id\":\"" + id + "\",\"status\":\"completed\","
+            + "\"vaccineCode\":{\"coding\":[{\"code\":\"08\"}]},"
+            + "\"patient\":{\"display\":\"x\",\"reference\":\"" + reference + "\"},"
+            + "\"occurrenceDateTime\":\"2020-01-01\"}";
+    }
+
+    protected Path write(String name, String... lines) throws IOException {
+        Path path = this.folder.getRoot().toPath().resolve(name);
+        byte[] data = (String.join("\n", lines) + "\n").getBytes(StandardCharsets.UTF_8);
+
+        if (name.endsWith(".gz")) {
+            try (OutputStream stream = new GZIPOutputStream(Files.newOutputStream(path))) {
+                stream.write(data);
+            }
+        } else {
+            Files.write(path, data);
+        }
+
+        return path;
+    }
+
+    @Test
+    public void readGroupsImmunizationsByPatient() throws IOException {
+        Path patients = this.write("Patient.ndjson", this.patient("a"), this.patient("b"), this.patient("c"));
+        Path immunizations = this.write(
+            "Immunization.ndjson",
+            this.immunization("1", "Patient/a"),
+            this.immunization("2", "http://example.org/fhir/Patient/b/_history/2"),
+            this.immunization("3", "Patient/a")
+        );
+
+        List<BatchResult<CDSInput>> results = new ArrayList<>();
+        long count = this.reader.read(patients, immunizations, results::add);
+
+        assertEquals(3, count);
+        assertEquals(3, results.size());
+        assertEquals(Arrays.asList("1", "3"), this.converted.get("a"));
+        assertEquals(Arrays.asList("2"), this.converted.get("b"));
+        assertTrue(this.converted.get("c").isEmpty());
+
+        for (int i = 0; i < results.size(); i++) {
+            assertEquals(i, results.get(i).getIndex());
+            assertTrue(results.get(i).isSuccess());
+        }
+    }
+
+    @Test
+    public void readSpansMultipleAndCompressedFiles() throws IOException {
+        List<Path> patients = Arrays.asList(
+            this.write("Patient-1.ndjson.gz", this.patient("a")),
+            this.write("Patient-2.ndjson", this.patient("b"))
+        );
+        List<Path> immunizations = Arrays.asList(
+            this.write("Immunization-1.ndjson", this.immunization("1", "Patient/b")),
+            this.write("Immunization-2.ndjson.gz", this.immunization("2", "Patient/a"), this.immunization("3", "Patient/b"))
+        );
+
+        assertEquals(2, this.reader.read(patients, immunizations, result -> {}));
+        assertEquals(Arrays.asList("2"), this.converted.get("a"));
+        assertEquals(Arrays.asList("1", "3"), this.converted.get("b"));
+    }
+
+    @Test
+    public void readReportsBadPatientWithoutStopping() throws IOException {
+        Path patients = this.write("Patient.ndjson", this.patient("a"), "{not json", this.patient("b"));
+        Path immunizations = this.write("Immunization.ndjson", this.immunization("1", "Patient/z"));
+
+        List<BatchResult<CDSInput>> results = new ArrayList<>();
+        this.reader.read(patients, immunizations, results::add);
+
+        assertEquals(3, results.size());
+        assertTrue(results.get(0).isSuccess());
+        assertFalse(results.get(1).isSuccess());
+        assertTrue(results.get(2).isSuccess());
+    }
+
+    @Test
+    public void readReportsBadImmunizationWithoutStopping() throws IOException {
+        Path patients = this.write("Patient.ndjson", this.patient("a"), this.patient("b"));
+        Path immunizations = this.write(
+            "Immunization.ndjson.gz",
+            this.immunization("1", "Patient/a"),
+            "{\"resourceType\":\"Immunization\",\"patient\":{\"reference\":",
+            this.immunization("3", "Patient/b")
+        );
+
+        List<BatchResult<CDSInput>> results = new ArrayList<>();
+        List<BatchResult<Immunization>> rejected = new ArrayList<>();
+        long count = this.reader.read(Arrays.asList(patients), Arrays.asList(immunizations), results::add, rejected::add);
+
+        assertEquals(2, count);
+        assertTrue(results.stream().allMatch(BatchResult::isSuccess));
+        assertEquals(Arrays.asList("1"), this.converted.get("a"));
+        assertEquals(Arrays.asList("3"), this.converted.get("b"));
+        assertEquals(1, rejected.size());
+        assertEquals(1, rejected.get(0).getIndex());
+        assertTrue(rejected.get(0).getException() instanceof IllegalArgumentException);
+    }
+
+    @Test
+    public void readConvertsLikeFhir2Vmr() throws IOException {
+        JSONObject patient = new JSONObject(new String(
+            Files.readAllBytes(Paths.get("src/test/resources/patient.json")),
+            StandardCharsets.UTF_8
+        )).getJSONObject("resource");
+        JSONObject immunization = new JSONObject(new String(
+            Files.readAllBytes(Paths.get("src/test/resources/immunization.json")),
+            StandardCharsets.UTF_8
+        )).getJSONObject("resource");
+
+        Parameters parameters = new Parameters();
+        IParser parser = FhirContextProvider.getInstance().newJsonParser();
+        parameters.addParameter().setName("patient").setResource(parser.parseResource(Patient.class, patient.toString()));
+        parameters.addParameter().setName("immunization").setResource(
+            parser.parseResource(Immunization.class, immunization.toString())
+        );
+        CDSInput expected = ConverterRegistry.getInstance().getFhir2Vmr().getCdsInputFromFhir(parameters);
+
+        List<BatchResult<CDSInput>> results = new ArrayList<>();
+        new NdjsonImportReader().read(
+            this.write("Patient.ndjson", patient.toString()),
+            this.write("Immunization.ndjson", immunization.toString()),
+            results::add
+        );
+
+        assertEquals(1, results.size());
+        assertTrue(results.get(0).isSuccess());
+        assertEquals(
+            CdsObjectAssist.cdsObjectToString(expected, CDSInput.class),
+            CdsObjectAssist.cdsObjectToString(results.get(0).getValue(), CDSInput.class)
+        );
+        assertEquals(
+            1,
+            results.get(0).getValue().getVmrInput().getPatient().getClinicalStatements()
+                .getSubstanceAdministrationEvents().getSubstanceAdministrationEvent().size()
+        );
+    }
+
+    @Test
+    public void scanHandlesLinesLongerThanBuffer() throws IOException {
+        this.reader.bufferSize = 8;
+        String text = "abc\r\n\n0123456789abcdef\n  \nxyz";
+        List<String> lines = new ArrayList<>();
+        List<Long> offsets = new ArrayList<>();
+
+        this.reader.scan(new ByteArrayInputStream(text.getBytes(StandardCharsets.UTF_8)), (offset, data, start, length) -> {
+            offsets.add(offset);
+            lines.add(new String(data, start, length, StandardCharsets.UTF_8));
+        });
+
+        assertEquals(Arrays.asList("abc", "0123456789abcdef", "xyz"), lines);
+        assertEquals(Arrays.asList(0L, 6L, 26L), offsets);
+    }
+
+    @Test
+    public void getPatientReferenceSkipsOtherFields() throws IOException {
+        byte[] data = this.immunization("1", "Patient/a").getBytes(StandardCharsets.UTF_8);
+
+        assertEquals("Patient/a", NdjsonImportReader.getPatientReference(data, 0, data.length));
+
+        data = "{\"resourceType\":\"Immunization\",\"contained\":[{\"patient\":{\"reference\":\"x\"}}]}"
+            .getBytes(StandardCharsets.UTF_8);
+
+        assertNull(NdjsonImportReader.getPatientReference(data, 0, data.length));
+    }
+}
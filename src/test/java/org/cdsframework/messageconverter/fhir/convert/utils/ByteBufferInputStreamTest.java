@@ -0,0 +1,61 @@
+package org.cdsframework.messageconverter.fhir.convert.utils;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+import org.junit.Test;
+
+/**
+ * @author Brian Lamb
+ */
+public class ByteBufferInputStreamTest {
+    @Test
+    public void readsRemainingBytesWithoutMovingBuffer() throws IOException {
+        ByteBuffer buffer = ByteBuffer.wrap("xxabcdef".getBytes(StandardCharsets.US_ASCII));
+        buffer.position(2);
+
+        ByteBufferInputStream stream = new ByteBufferInputStream(buffer);
+        byte[] data = new byte[4];
+
+        assertEquals(6, stream.available());
+        assertEquals(4, stream.read(data));
+        assertArrayEquals("abcd".getBytes(StandardCharsets.US_ASCII), data);
+        assertEquals('e', stream.read());
+        assertEquals(1, stream.read(data, 0, 4));
+        assertEquals(-1, stream.read());
+        assertEquals(-1, stream.read(data));
+        assertEquals(2, buffer.position());
+    }
+
+    @Test
+    public void readsDirectBuffer() throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocateDirect(3);
+        buffer.put(new byte[] {1, (byte) 0xFF, 3});
+        buffer.flip();
+
+        ByteBufferInputStream stream = new ByteBufferInputStream(buffer);
+
+        assertEquals(1, stream.read());
+        assertEquals(0xFF, stream.read());
+        assertEquals(3, stream.read());
+        assertEquals(-1, stream.read());
+    }
+
+    @Test
+    public void resetReturnsToMark() throws IOException {
+        ByteBufferInputStream stream = new ByteBufferInputStream(ByteBuffer.wrap(new byte[] {1, 2, 3, 4}));
+
+        assertEquals(1, stream.skip(1));
+        stream.mark(0);
+        assertEquals(2, stream.read());
+        assertEquals(3, stream.read());
+        stream.reset();
+        assertEquals(2, stream.read());
+        assertEquals(2, stream.skip(10));
+        assertEquals(0, stream.available());
+    }
+}
@@ -0,0 +1,76 @@
+package org.cdsframework.messageconverter.fhir.convert.utils;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assume.assumeTrue;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Map;
+
+import org.cdsframework.util.support.cds.Config;
+import org.junit.Test;
+
+/**
+ * @author Brian Lamb
+ */
+public class CodeSystemLoaderTest {
+    @Test
+    public void readSkipsCommentsAndBlankLines() throws IOException {
+        Map<String, String> codeSystems = CodeSystemLoader.read(new StringReader(
+            "# a comment\n\nhttp://loinc.org   2.16.840.1.113883.6.1\n  http://snomed.info/sct\t2.16.840.1.113883.6.96  \n"
+        ));
+
+        assertEquals(2, codeSystems.size());
+        assertEquals("2.16.840.1.113883.6.1", codeSystems.get("http://loinc.org"));
+        assertEquals("2.16.840.1.113883.6.96", codeSystems.get("http://snomed.info/sct"));
+    }
+
+    @Test
+    public void readKeepsLineOrder() throws IOException {
+        Map<String, String> codeSystems = CodeSystemLoader.read(new StringReader("b 1.2\na 1.1\nc 1.3\n"));
+
+        assertEquals(Arrays.asList("b", "a", "c"), new ArrayList<>(codeSystems.keySet()));
+    }
+
+    @Test
+    public void readLooksUpConfiguredOids() throws IOException {
+        Map<String, String> codeSystems = CodeSystemLoader.read(new StringReader("http://hl7.org/fhir/sid/cvx ${VACCINE}"));
+
+        assertEquals(Config.getCodeSystemOid("VACCINE"), codeSystems.get("http://hl7.org/fhir/sid/cvx"));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void readRejectsUnconfiguredOid() throws IOException {
+        assumeTrue(Config.getCodeSystemOid("NO_SUCH_CODE_SYSTEM") == null);
+
+        CodeSystemLoader.read(new StringReader("http://example.org/none ${NO_SUCH_CODE_SYSTEM}\n"));
+    }
+
+    @Test
+    public void readSkipsUnconfiguredOidIfAsked() throws IOException {
+        assumeTrue(Config.getCodeSystemOid("NO_SUCH_CODE_SYSTEM") == null);
+
+        Map<String, String> codeSystems = CodeSystemLoader.read(
+            new StringReader("http://example.org/none ${NO_SUCH_CODE_SYSTEM}\nhttp://loinc.org 2.16.840.1.113883.6.1\n"),
+            true
+        );
+
+        assertEquals(Collections.singletonMap("http://loinc.org", "2.16.840.1.113883.6.1"), codeSystems);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void readRejectsLineWithoutOid() throws IOException {
+        CodeSystemLoader.read(new StringReader("http://loinc.org 2.16.840.1.113883.6.1\nhttp://snomed.info/sct\n"));
+    }
+
+    @Test
+    public void loadDefaultHasBundledCodeSystems() {
+        Map<String, String> codeSystems = CodeSystemLoader.loadDefault();
+
+        assertEquals("2.16.840.1.113883.6.1", codeSystems.get("http://loinc.org"));
+        assertEquals(Config.getCodeSystemOid("VACCINE"), codeSystems.get("http://hl7.org/fhir/sid/cvx"));
+    }
+}
@@ -0,0 +1,165 @@
+package org.cdsframework.messageconverter.fhir.convert.utils;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * @author Brian Lamb
+ */
+public class CodeSystemResolverTest {
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    protected CodeSystemResolver codeSystemResolver = new CodeSystemResolver(this.codeSystems());
+
+    protected Map<String, String> codeSystems() {
+        Map<String, String> codeSystems = new LinkedHashMap<>();
+
+        codeSystems.put("http://hl7.org/fhir/sid/cvx", "2.16.840.1.113883.12.292");
+        codeSystems.put("http://www2a.cdc.gov/vaccines/IIS/IISStandards/vaccines.asp?rpt=cvx", "2.16.840.1.113883.12.292");
+        codeSystems.put("http://loinc.org", "2.16.840.1.113883.6.1");
+
+        return codeSystems;
+    }
+
+    @Test
+    public void getOidFindsKnownUri() {
+        assertEquals("2.16.840.1.113883.6.1", this.codeSystemResolver.getOid("http://loinc.org"));
+    }
+
+    @Test
+    public void getOidNormalizesTrailingSlashAndWhitespace() {
+        assertEquals("2.16.840.1.113883.6.1", this.codeSystemResolver.getOid(" http://loinc.org// "));
+    }
+
+    @Test
+    public void getOidStripsOidPrefix() {
+        assertEquals("2.16.840.1.113883.12.292", this.codeSystemResolver.getOid("urn:oid:2.16.840.1.113883.12.292"));
+        assertEquals("1.2.3", this.codeSystemResolver.getOid("URN:OID:1.2.3"));
+    }
+
+    @Test
+    public void getOidReturnsNullForUnknownSystem() {
+        assertNull(this.codeSystemResolver.getOid("http://example.org/nope"));
+        assertNull(this.codeSystemResolver.getOid("nope"));
+        assertNull(this.codeSystemResolver.getOid(null));
+    }
+
+    @Test
+    public void getUriPrefersFirstUriForSharedOid() {
+        assertEquals("http://hl7.org/fhir/sid/cvx", this.codeSystemResolver.getUri("2.16.840.1.113883.12.292"));
+        assertEquals("http://hl7.org/fhir/sid/cvx", this.codeSystemResolver.getUri("urn:oid:2.16.840.1.113883.12.292"));
+        assertNull(this.codeSystemResolver.getUri("2.16.840.1.113883.3.795.12.100.11"));
+    }
+
+    @Test
+    public void countersTrackHitsAndMisses() {
+        this.codeSystemResolver.getOid("http://loinc.org");
+        this.codeSystemResolver.resolveOid("http://loinc.org/");
+        this.codeSystemResolver.getOid("http://example.org/nope");
+        this.codeSystemResolver.getUri("1.2.3");
+
+        assertEquals(2, this.codeSystemResolver.getHits());
+        assertEquals(1, this.codeSystemResolver.getMisses());
+    }
+
+    @Test
+    public void countersOnlyCountUnresolvedOids() {
+        this.codeSystemResolver.resolveOid("urn:oid:1.2.3");
+        this.codeSystemResolver.getUri("2.16.840.1.113883.3.795.12.100.11");
+        this.codeSystemResolver.getUri("urn:oid:2.16.840.1.113883.6.1");
+        this.codeSystemResolver.getOid(null);
+        this.codeSystemResolver.getUri(null);
+
+        assertEquals(2, this.codeSystemResolver.getHits());
+        assertEquals(0, this.codeSystemResolver.getMisses());
+
+        this.codeSystemResolver.getOid("http://example.org/nope");
+        this.codeSystemResolver.getOid("http://example.org/nope");
+        this.codeSystemResolver.resolveOid("nope");
+
+        assertEquals(2, this.codeSystemResolver.getHits());
+        assertEquals(3, this.codeSystemResolver.getMisses());
+    }
+
+    @Test
+    public void loggedMissesStayBounded() {
+        for (int i = 0; i < CodeSystemResolver.MAX_LOGGED_MISSES * 3; i++) {
+            this.codeSystemResolver.getOid("http://example.org/" + i);
+        }
+
+        assertEquals(CodeSystemResolver.MAX_LOGGED_MISSES * 3, this.codeSystemResolver.getMisses());
+        assertEquals(true, this.codeSystemResolver.misses.size() <= CodeSystemResolver.MAX_LOGGED_MISSES);
+    }
+
+    @Test(expected = UnsupportedOperationException.class)
+    public void getOidsIsReadOnly() {
+        this.codeSystemResolver.getOids().put("http://example.org", "1.2.3");
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void mappingWithoutOidIsRejected() {
+        Map<String, String> codeSystems = new LinkedHashMap<>();
+        codeSystems.put("http://example.org", " ");
+
+        new CodeSystemResolver(codeSystems);
+    }
+
+    @Test
+    public void reloadSwapsWholeTable() {
+        this.codeSystemResolver.getOid("http://example.org/new");
+        this.codeSystemResolver.reload(Collections.singletonMap("http://example.org/new", "1.2.3"));
+
+        assertEquals(true, this.codeSystemResolver.misses.isEmpty());
+        assertEquals("1.2.3", this.codeSystemResolver.getOid("http://example.org/new"));
+        assertEquals("http://example.org/new", this.codeSystemResolver.getUri("1.2.3"));
+        assertNull(this.codeSystemResolver.getOid("http://loinc.org"));
+    }
+
+    @Test
+    public void reloadWithBadTableKeepsCurrentTable() {
+        try {
+            this.codeSystemResolver.reload(Collections.singletonMap("http://example.org/new", ""));
+        } catch (IllegalArgumentException exception) {
+            // expected
+        }
+
+        assertEquals("2.16.840.1.113883.6.1", this.codeSystemResolver.getOid("http://loinc.org"));
+    }
+
+    @Test
+    public void watchReloadsChangedFile() throws IOException, InterruptedException {
+        Path path = this.folder.getRoot().toPath().resolve("code-systems.txt");
+        Files.write(path, Arrays.asList("http://loinc.org 2.16.840.1.113883.6.1"), StandardCharsets.UTF_8);
+
+        CodeSystemWatcher watcher = this.codeSystemResolver.watch(path);
+
+        try {
+            Path update = this.folder.getRoot().toPath().resolve("update.tmp");
+            Files.write(update, Arrays.asList("http://example.org/new 1.2.3"), StandardCharsets.UTF_8);
+            Files.move(update, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+
+            for (int i = 0; i < 100 && this.codeSystemResolver.resolveOid("http://example.org/new") == null; i++) {
+                Thread.sleep(100);
+            }
+
+            assertEquals("1.2.3", this.codeSystemResolver.getOid("http://example.org/new"));
+        } finally {
+            watcher.close();
+        }
+    }
+}
@@ -0,0 +1,52 @@
+package org.cdsframework.messageconverter.fhir.convert.utils;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+
+import org.junit.Test;
+
+import ca.uhn.fhir.context.FhirContext;
+import ca.uhn.fhir.context.FhirVersionEnum;
+import ca.uhn.fhir.parser.DataFormatException;
+
+/**
+ * @author Brian Lamb
+ */
+public class FhirContextProviderTest {
+    @Test
+    public void getInstanceAlwaysReturnsSameProvider() {
+        assertSame(FhirContextProvider.getInstance(), FhirContextProvider.getInstance());
+        assertSame(FhirContextProvider.getInstance().getContext(), FhirContextProvider.getInstance().getContext());
+    }
+
+    @Test
+    public void getInstanceUsesR4Context() {
+        assertEquals(FhirVersionEnum.R4, FhirContextProvider.getInstance().getContext().getVersion().getVersion());
+    }
+
+    @Test
+    public void injectedContextIsShared() {
+        FhirContext context = FhirContext.forR4();
+        FhirContextProvider provider = new FhirContextProvider(context);
+
+        assertSame(context, provider.getContext());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void nullContextIsRejected() {
+        new FhirContextProvider(null);
+    }
+
+    @Test
+    public void newJsonParserReturnsNewParserEachTime() {
+        FhirContextProvider provider = FhirContextProvider.getInstance();
+
+        assertNotSame(provider.newJsonParser(), provider.newJsonParser());
+    }
+
+    @Test(expected = DataFormatException.class)
+    public void newJsonParserIsStrict() {
+        FhirContextProvider.getInstance().newJsonParser().parseResource("{\"resourceType\": \"Patient\", \"nope\": 1}");
+    }
+}
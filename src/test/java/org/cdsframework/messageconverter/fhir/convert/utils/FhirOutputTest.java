@@ -0,0 +1,155 @@
+package org.cdsframework.messageconverter.fhir.convert.utils;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.BufferedWriter;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.StringWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.hl7.fhir.r4.model.Patient;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * @author Brian Lamb
+ */
+public class FhirOutputTest {
+    protected FhirOutput fhirOutput = new FhirOutput();
+    protected Patient patient;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Before
+    public void setUp() {
+        this.patient = new Patient();
+        this.patient.setId("patient");
+        this.patient.addName().setFamily("M\u00fcller");
+    }
+
+    @Test
+    public void convertToStringIsPrettyByDefault() {
+        assertTrue(this.fhirOutput.convertToString(this.patient).contains("\n"));
+    }
+
+    @Test
+    public void convertToStringCompactHasNoLineBreaks() {
+        assertFalse(this.fhirOutput.convertToString(this.patient, false).contains("\n"));
+    }
+
+    @Test
+    public void writeToWriterMatchesConvertToString() throws IOException {
+        StringWriter writer = new StringWriter();
+
+        this.fhirOutput.write(this.patient, writer, false);
+
+        assertEquals(this.fhirOutput.convertToString(this.patient, false), writer.toString());
+    }
+
+    @Test
+    public void writeToStreamUsesUtf8() throws IOException {
+        ByteArrayOutputStream stream = new ByteArrayOutputStream();
+
+        this.fhirOutput.write(this.patient, stream, false);
+
+        assertEquals(
+            this.fhirOutput.convertToString(this.patient, false),
+            new String(stream.toByteArray(), StandardCharsets.UTF_8)
+        );
+    }
+
+    @Test
+    public void openWriterWritesOneLinePerResource() throws IOException {
+        StringWriter sink = new StringWriter();
+
+        try (FhirResourceWriter writer = this.fhirOutput.openWriter(sink, false)) {
+            writer.write(this.patient);
+            writer.write(this.patient);
+            writer.write(this.patient);
+
+            assertEquals(3, writer.getCount());
+        }
+
+        String[] lines = sink.toString().split("\n");
+
+        assertEquals(3, lines.length);
+        assertEquals(this.fhirOutput.convertToString(this.patient, false), lines[2]);
+    }
+
+    @Test
+    public void openWriterOnlyWritesToSinkWhenBufferFillsOrIsFlushed() throws IOException {
+        AtomicInteger writes = new AtomicInteger();
+        AtomicInteger flushes = new AtomicInteger();
+        Writer sink = new Writer() {
+            @Override
+            public void write(char[] chars, int offset, int length) {
+                writes.incrementAndGet();
+            }
+
+            @Override
+            public void flush() {
+                flushes.incrementAndGet();
+            }
+
+            @Override
+            public void close() {
+            }
+        };
+
+        FhirResourceWriter writer = this.fhirOutput.openWriter(new BufferedWriter(sink, 1 << 20), false);
+
+        for (int i = 0; i < 1000; i++) {
+            writer.write(this.patient);
+        }
+
+        // 1000 small resources fit in the buffer, so nothing reaches the sink until it is flushed
+        assertEquals(0, writes.get());
+        assertEquals(0, flushes.get());
+
+        writer.flush();
+
+        assertEquals(1, writes.get());
+        assertEquals(1, flushes.get());
+    }
+
+    @Test
+    public void writeToWriterDoesNotFlush() throws IOException {
+        AtomicInteger flushes = new AtomicInteger();
+        Writer writer = new StringWriter() {
+            @Override
+            public void flush() {
+                flushes.incrementAndGet();
+            }
+        };
+
+        this.fhirOutput.write(this.patient, writer, false);
+
+        assertEquals(0, flushes.get());
+        assertEquals(this.fhirOutput.convertToString(this.patient, false), writer.toString());
+    }
+
+    @Test
+    public void convertToFileAppendsHeaderAndResource() throws IOException {
+        File file = this.folder.newFile("output.json");
+
+        this.fhirOutput.convertToFile(this.patient, file.getPath(), "first");
+        this.fhirOutput.convertToFile(this.patient, file.getPath(), "second");
+
+        List<String> lines = Files.readAllLines(file.toPath(), StandardCharsets.UTF_8);
+
+        assertEquals("first", lines.get(0));
+        assertTrue(lines.contains("second"));
+        assertTrue(String.join("\n", lines).contains("M\u00fcller"));
+    }
+}
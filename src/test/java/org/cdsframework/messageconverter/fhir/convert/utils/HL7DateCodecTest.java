@@ -0,0 +1,117 @@
+package org.cdsframework.messageconverter.fhir.convert.utils;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.text.ParseException;
+import java.time.LocalDate;
+import java.time.ZoneId;
+import java.time.ZoneOffset;
+import java.time.ZonedDateTime;
+import java.util.Date;
+
+import org.hl7.fhir.r4.model.DateTimeType;
+import org.hl7.fhir.r4.model.DateType;
+import org.junit.Test;
+
+import ca.uhn.fhir.model.api.TemporalPrecisionEnum;
+
+/**
+ * @author Brian Lamb
+ */
+public class HL7DateCodecTest {
+    protected HL7DateCodec codec = new HL7DateCodec(ZoneId.of("America/New_York"));
+
+    @Test
+    public void parseReadsMonthsNotMinutes() throws ParseException {
+        Date date = this.codec.parse("20200702");
+
+        assertEquals(
+            LocalDate.of(2020, 7, 2).atStartOfDay(ZoneId.of("America/New_York")).toInstant(),
+            date.toInstant()
+        );
+    }
+
+    @Test
+    public void parseUsesStartOfPeriodForPartialValues() throws ParseException {
+        assertEquals(
+            LocalDate.of(2020, 6, 1).atStartOfDay(ZoneId.of("America/New_York")).toInstant(),
+            this.codec.parse("202006").toInstant()
+        );
+    }
+
+    @Test
+    public void parseHonorsOffset() throws ParseException {
+        assertEquals(
+            ZonedDateTime.of(2020, 7, 2, 10, 30, 15, 0, ZoneOffset.ofHours(2)).toInstant(),
+            this.codec.parse("20200702103015+0200").toInstant()
+        );
+    }
+
+    @Test(expected = ParseException.class)
+    public void parseFailsForInvalidMonth() throws ParseException {
+        this.codec.parse("20201302");
+    }
+
+    @Test(expected = ParseException.class)
+    public void parseFailsForWrongLength() throws ParseException {
+        this.codec.parse("209");
+    }
+
+    @Test(expected = ParseException.class)
+    public void parseFailsForNonDigits() throws ParseException {
+        this.codec.parse("2020-07-02");
+    }
+
+    @Test(expected = ParseException.class)
+    public void parseFailsForNull() throws ParseException {
+        this.codec.parse(null);
+    }
+
+    @Test
+    public void parseDateTimeKeepsPrecision() throws ParseException {
+        DateTimeType year = this.codec.parseDateTime("2020");
+        DateTimeType day = this.codec.parseDateTime("20200702");
+        DateTimeType millis = this.codec.parseDateTime("20200702103015.25-0500");
+
+        assertEquals(TemporalPrecisionEnum.YEAR, year.getPrecision());
+        assertEquals("2020", year.getValueAsString());
+        assertEquals(TemporalPrecisionEnum.DAY, day.getPrecision());
+        assertEquals("2020-07-02", day.getValueAsString());
+        assertEquals(TemporalPrecisionEnum.MILLI, millis.getPrecision());
+        assertEquals("2020-07-02T10:30:15.250-05:00", millis.getValueAsString());
+    }
+
+    @Test
+    public void parseDateDropsTime() throws ParseException {
+        DateType date = this.codec.parseDate("20200702103015");
+
+        assertEquals(TemporalPrecisionEnum.DAY, date.getPrecision());
+        assertEquals("2020-07-02", date.getValueAsString());
+    }
+
+    @Test
+    public void formatDateUsesCodecZone() {
+        Date date = Date.from(ZonedDateTime.of(2020, 7, 3, 2, 0, 0, 0, ZoneOffset.UTC).toInstant());
+
+        assertEquals("20200702", this.codec.format(date));
+    }
+
+    @Test
+    public void formatDateTimeKeepsPrecisionUpToDay() {
+        assertEquals("202007", this.codec.format(new DateTimeType("2020-07")));
+        assertEquals("20200702", this.codec.format(new DateTimeType("2020-07-02T23:30:00-08:00")));
+        assertEquals("20200702", this.codec.format(new DateType("2020-07-02")));
+    }
+
+    @Test
+    public void formatReturnsNullForEmptyValue() {
+        assertNull(this.codec.format(new DateTimeType()));
+    }
+
+    @Test
+    public void formatAndParseRoundTrip() throws ParseException {
+        assertEquals("20091130", this.codec.format(this.codec.parse("20091130")));
+        assertEquals("20091130", this.codec.format(this.codec.parseDateTime("20091130")));
+    }
+}
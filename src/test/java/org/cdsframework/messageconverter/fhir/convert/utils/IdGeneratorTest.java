@@ -0,0 +1,60 @@
+package org.cdsframework.messageconverter.fhir.convert.utils;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+
+import org.junit.Test;
+import org.opencds.vmr.v1_0.schema.II;
+
+/**
+ * @author Brian Lamb
+ */
+public class IdGeneratorTest {
+    protected IdGenerator idGenerator = () -> "generated";
+
+    protected II identifier(String root, String extension) {
+        II id = new II();
+        id.setRoot(root);
+        id.setExtension(extension);
+
+        return id;
+    }
+
+    @Test
+    public void idForIsStableForSameIdentifier() {
+        assertEquals(
+            this.idGenerator.idFor("Patient", this.identifier("2.16.840.1.113883.3.795.12.100.11", "abc")),
+            this.idGenerator.idFor("Patient", this.identifier("2.16.840.1.113883.3.795.12.100.11", "abc"))
+        );
+    }
+
+    @Test
+    public void idForDependsOnExtension() {
+        assertNotEquals(
+            this.idGenerator.idFor("Patient", this.identifier("2.16.840.1.113883.3.795.12.100.11", "abc")),
+            this.idGenerator.idFor("Patient", this.identifier("2.16.840.1.113883.3.795.12.100.11", "abd"))
+        );
+    }
+
+    @Test
+    public void idForDependsOnResourceType() {
+        II id = this.identifier("76e361ad-7954-44eb-a080-c58f0f514147", null);
+
+        assertNotEquals(this.idGenerator.idFor("Patient", id), this.idGenerator.idFor("Immunization", id));
+    }
+
+    @Test
+    public void idForUsesNextIdIfNoRoot() {
+        assertEquals("generated", this.idGenerator.idFor("Patient", null));
+        assertEquals("generated", this.idGenerator.idFor("Patient", this.identifier(null, "abc")));
+        assertEquals("generated", this.idGenerator.idFor("Patient", this.identifier("", "abc")));
+    }
+
+    @Test
+    public void idForTreatsEmptyExtensionAsNone() {
+        assertEquals(
+            this.idGenerator.idFor("Patient", this.identifier("2.16.840.1.113883.3.795.12.100.11", null)),
+            this.idGenerator.idFor("Patient", this.identifier("2.16.840.1.113883.3.795.12.100.11", ""))
+        );
+    }
+}
@@ -0,0 +1,94 @@
+package org.cdsframework.messageconverter.fhir.convert.utils;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.hl7.fhir.r4.model.Immunization;
+import org.hl7.fhir.r4.model.Patient;
+import org.hl7.fhir.r4.model.Resource;
+import org.junit.Test;
+
+/**
+ * @author Brian Lamb
+ */
+public class ParametersStreamReaderTest {
+    protected ParametersStreamReader parametersStreamReader = new ParametersStreamReader();
+    protected List<String> names = new ArrayList<String>();
+    protected List<Resource> resources = new ArrayList<Resource>();
+
+    protected void read(String data) throws IOException {
+        this.parametersStreamReader.read(
+            new StringReader(data),
+            null,
+            (name, resource) -> {
+                this.names.add(name);
+                this.resources.add(resource);
+            }
+        );
+    }
+
+    @Test
+    public void readPassesEachResourceInOrder() throws IOException {
+        try (InputStream inputStream = new FileInputStream("src/test/resources/forecast.json")) {
+            this.parametersStreamReader.read(
+                inputStream,
+                null,
+                (name, resource) -> {
+                    this.names.add(name);
+                    this.resources.add(resource);
+                }
+            );
+        }
+
+        assertEquals(Arrays.asList("patient", "immunization"), this.names);
+        assertTrue(this.resources.get(0) instanceof Patient);
+        assertTrue(this.resources.get(1) instanceof Immunization);
+        assertEquals("Immunization/smart-Immunization-2/_history/1", this.resources.get(1).getId());
+    }
+
+    @Test
+    public void readSkipsNamesThatWereNotRequested() throws IOException {
+        try (InputStream inputStream = new FileInputStream("src/test/resources/forecast.json")) {
+            this.parametersStreamReader.read(
+                inputStream,
+                Arrays.asList("immunization"),
+                (name, resource) -> this.names.add(name)
+            );
+        }
+
+        assertEquals(Arrays.asList("immunization"), this.names);
+    }
+
+    @Test
+    public void readHandlesNameAfterResource() throws IOException {
+        this.read("{\"resourceType\": \"Parameters\", \"parameter\": [{\"resource\": {\"resourceType\": \"Patient\", \"id\": \"p\"}, \"name\": \"patient\"}]}");
+
+        assertEquals(Arrays.asList("patient"), this.names);
+        assertEquals("p", this.resources.get(0).getIdElement().getIdPart());
+    }
+
+    @Test
+    public void readSkipsParametersWithoutResource() throws IOException {
+        this.read("{\"resourceType\": \"Parameters\", \"parameter\": [{\"name\": \"assessmentDate\", \"valueDate\": \"2019-06-27\"}, {\"name\": \"patient\"}]}");
+
+        assertTrue(this.names.isEmpty());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void readFailsIfNoParameterArray() throws IOException {
+        this.read("{\"resourceType\": \"Parameters\"}");
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void readFailsIfNotParametersResource() throws IOException {
+        this.read("{\"resourceType\": \"Patient\", \"parameter\": []}");
+    }
+}
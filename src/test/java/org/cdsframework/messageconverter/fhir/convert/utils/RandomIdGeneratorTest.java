@@ -0,0 +1,39 @@
+package org.cdsframework.messageconverter.fhir.convert.utils;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.HashSet;
+import java.util.Set;
+import java.util.UUID;
+
+import org.junit.Test;
+
+/**
+ * @author Brian Lamb
+ */
+public class RandomIdGeneratorTest {
+    protected RandomIdGenerator idGenerator = RandomIdGenerator.getInstance();
+
+    @Test
+    public void nextIdIsVersion4Uuid() {
+        UUID uuid = UUID.fromString(this.idGenerator.nextId());
+
+        assertEquals(4, uuid.version());
+        assertEquals(2, uuid.variant());
+    }
+
+    @Test
+    public void nextIdIsUnique() {
+        Set<String> ids = new HashSet<>();
+
+        for (int i = 0; i < 10000; i++) {
+            assertTrue(ids.add(this.idGenerator.nextId()));
+        }
+    }
+
+    @Test
+    public void nextIdIsValidFhirId() {
+        assertTrue(this.idGenerator.nextId().matches("[A-Za-z0-9\\-\\.]{1,64}"));
+    }
+}
@@ -0,0 +1,38 @@
+package org.cdsframework.messageconverter.fhir.convert.utils;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.UUID;
+
+import org.junit.Test;
+
+/**
+ * @author Brian Lamb
+ */
+public class TimeOrderedIdGeneratorTest {
+    protected TimeOrderedIdGenerator idGenerator = TimeOrderedIdGenerator.getInstance();
+
+    @Test
+    public void nextIdIsVersion7Uuid() {
+        UUID uuid = UUID.fromString(this.idGenerator.nextId());
+
+        assertEquals(7, uuid.version());
+        assertEquals(2, uuid.variant());
+    }
+
+    @Test
+    public void nextIdStartsWithTimestamp() {
+        UUID uuid = UUID.fromString(this.idGenerator.nextId(0x0123456789ABL));
+
+        assertEquals(0x0123456789ABL, uuid.getMostSignificantBits() >>> 16);
+    }
+
+    @Test
+    public void laterIdsSortAfterEarlierIds() {
+        String earlier = this.idGenerator.nextId(1000L);
+        String later = this.idGenerator.nextId(1001L);
+
+        assertTrue(earlier.compareTo(later) < 0);
+    }
+}
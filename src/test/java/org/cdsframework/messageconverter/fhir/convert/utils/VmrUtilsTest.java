@@ -1,9 +1,15 @@
 package org.cdsframework.messageconverter.fhir.convert.utils;
 
+import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
 
 import org.junit.Test;
+import org.opencds.vmr.v1_0.schema.EvaluatedPerson;
+import org.opencds.vmr.v1_0.schema.EvaluatedPerson.ClinicalStatements;
+import org.opencds.vmr.v1_0.schema.EvaluatedPerson.ClinicalStatements.SubstanceAdministrationEvents;
+import org.opencds.vmr.v1_0.schema.SubstanceAdministrationEvent;
 
 /**
  * @author Brian Lamb
@@ -20,4 +26,35 @@ public class VmrUtilsTest {
         String oid = VmrUtils.getOid("http://loinc.org");
         assertNotNull(oid);
     }
-}
\ No newline at end of file
+
+    @Test
+    public void getSubstanceAdministrationEventsReturnsEmptyListIfNoPerson() {
+        assertTrue(VmrUtils.getSubstanceAdministrationEvents(null).isEmpty());
+    }
+
+    @Test
+    public void getSubstanceAdministrationProposalsReturnsEmptyListIfNoClinicalStatements() {
+        assertTrue(VmrUtils.getSubstanceAdministrationProposals(new EvaluatedPerson()).isEmpty());
+    }
+
+    @Test
+    public void getObservationResultsReturnsEmptyListIfNoObservationResults() {
+        EvaluatedPerson person = new EvaluatedPerson();
+        person.setClinicalStatements(new ClinicalStatements());
+
+        assertTrue(VmrUtils.getObservationResults(person).isEmpty());
+    }
+
+    @Test
+    public void getSubstanceAdministrationEventsReturnsEvents() {
+        EvaluatedPerson person = new EvaluatedPerson();
+        ClinicalStatements clinicalStatements = new ClinicalStatements();
+        SubstanceAdministrationEvents events = new SubstanceAdministrationEvents();
+
+        events.getSubstanceAdministrationEvent().add(new SubstanceAdministrationEvent());
+        clinicalStatements.setSubstanceAdministrationEvents(events);
+        person.setClinicalStatements(clinicalStatements);
+
+        assertEquals(1, VmrUtils.getSubstanceAdministrationEvents(person).size());
+    }
+}
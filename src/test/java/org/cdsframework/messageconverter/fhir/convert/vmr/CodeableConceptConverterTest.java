@@ -2,8 +2,11 @@ package org.cdsframework.messageconverter.fhir.convert.vmr;
 
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertTrue;
 
+import org.cdsframework.messageconverter.fhir.convert.utils.CodeSystemResolver;
 import org.hl7.fhir.r4.model.CodeableConcept;
 import org.hl7.fhir.r4.model.Coding;
 import org.junit.Before;
@@ -58,4 +61,54 @@ public class CodeableConceptConverterTest {
         assertEquals("my code", cd.getDisplayName());
         assertEquals("my system", cd.getCodeSystem());
     }
-}
\ No newline at end of file
+
+    @Test
+    public void convertToCdsMapsKnownUriToOid() {
+        CodeableConcept code = new CodeableConcept();
+        code.addCoding().setCode("08").setSystem("http://snomed.info/sct/");
+
+        assertEquals("2.16.840.1.113883.6.96", this.codeableConceptConverter.convertToCds(code).getCodeSystem());
+    }
+
+    @Test
+    public void convertToFhirMapsKnownOidToUri() {
+        this.code.setCodeSystem("2.16.840.1.113883.6.1");
+
+        CodeableConcept code = this.codeableConceptConverter.convertToFhir(this.code);
+
+        assertEquals("http://loinc.org", code.getCodingFirstRep().getSystem());
+    }
+
+    @Test
+    public void convertToCdsNeverSharesCodes() {
+        CodeableConcept first = new CodeableConcept();
+        first.addCoding().setCode("08").setSystem("http://hl7.org/fhir/sid/cvx");
+
+        CodeableConcept second = new CodeableConcept();
+        second.addCoding().setCode("08").setSystem("http://hl7.org/fhir/sid/cvx/");
+
+        CD cd = this.codeableConceptConverter.convertToCds(first);
+        cd.setDisplayName("changed");
+        cd.setCode("changed");
+
+        CD next = this.codeableConceptConverter.convertToCds(second);
+
+        assertNotSame(cd, next);
+        assertEquals("08", next.getCode());
+        assertNull(next.getDisplayName());
+    }
+
+    @Test
+    public void convertToCdsCreatesNewCodes() {
+        CodeableConceptConverter converter = new CodeableConceptConverter();
+        CodeableConcept code = new CodeableConcept();
+        code.addCoding().setCode("08").setSystem("http://hl7.org/fhir/sid/cvx");
+
+        assertNotSame(converter.convertToCds(code), converter.convertToCds(code));
+    }
+
+    @Test
+    public void convertToFhirNeverSharesConcepts() {
+        assertNotSame(this.codeableConceptConverter.convertToFhir(this.code), this.codeableConceptConverter.convertToFhir(this.code));
+    }
+}
@@ -48,7 +48,7 @@ public class ImmunizationConverterTest {
     protected JSONObject immunization;
     protected ImmunizationConverter immunizationConverter = new ImmunizationConverter();
     protected IdentifierFactory identifierFactory = new IdentifierFactory();
-    protected SimpleDateFormat dateFormat = new SimpleDateFormat("yyyymmdd");
+    protected SimpleDateFormat dateFormat = new SimpleDateFormat("yyyyMMdd");
     protected Patient patient = new Patient();
 
     @Before
@@ -533,6 +533,22 @@ public class ImmunizationConverterTest {
         assertFalse(immunization.getVaccineCode().isEmpty());
     }
 
+    @Test
+    public void convertToFhirHasNoVaccineCodeIfNoSubstanceId() {
+        SubstanceAdministrationEvent event = new SubstanceAdministrationEvent();
+        AdministrableSubstance substance = new AdministrableSubstance();
+
+        CD code = new CD();
+        code.setCode("code");
+
+        substance.setSubstanceCode(code);
+        event.setSubstance(substance);
+
+        Immunization immunization = this.immunizationConverter.convertToFhir(this.patient, event);
+
+        assertTrue(immunization.getVaccineCode().isEmpty());
+    }
+
     @Test
     public void convertToFhirDoesNotAddReasonCodeIfNoSubstanceAdministrationGeneralPurpose() {
         SubstanceAdministrationEvent event = new SubstanceAdministrationEvent();
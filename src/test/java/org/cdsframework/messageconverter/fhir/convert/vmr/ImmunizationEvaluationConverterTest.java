@@ -14,6 +14,7 @@ import java.util.List;
 
 import org.cdsframework.cds.vmr.CdsObjectAssist;
 import org.cdsframework.messageconverter.fhir.convert.utils.IdentifierFactory;
+import org.cdsframework.messageconverter.fhir.convert.utils.RandomIdGenerator;
 import org.hl7.fhir.r4.model.CodeableConcept;
 import org.hl7.fhir.r4.model.Immunization;
 import org.hl7.fhir.r4.model.ImmunizationEvaluation;
@@ -181,7 +182,7 @@ public class ImmunizationEvaluationConverterTest {
     }
 
     @Test
-    public void convertToFhirSetsIdFromId() {
+    public void convertToFhirDerivesIdFromId() {
         Patient patient = new Patient();
         Immunization immunization = new Immunization();
         ObservationResult observationResult = new ObservationResult();
@@ -192,8 +193,10 @@ public class ImmunizationEvaluationConverterTest {
         observationResult.setId(id);
 
         ImmunizationEvaluation evaluation = this.immunizationEvaluationConverter.convertToFhir(patient, immunization, observationResult);
+        ImmunizationEvaluation again = this.immunizationEvaluationConverter.convertToFhir(patient, immunization, observationResult);
 
-        assertEquals("my id", evaluation.getId());
+        assertEquals(RandomIdGenerator.getInstance().idFor("ImmunizationEvaluation", id), evaluation.getId());
+        assertEquals(evaluation.getId(), again.getId());
     }
 
     @Test
@@ -326,4 +329,16 @@ public class ImmunizationEvaluationConverterTest {
 
         assertEquals(0, observationResult.getInterpretation().size());
     }
-}
\ No newline at end of file
+
+    @Test
+    public void convertToFhirSetsIdIfNoObservationResult() {
+        Patient patient = new Patient();
+        Immunization immunization = new Immunization();
+
+        ImmunizationEvaluation evaluation = this.immunizationEvaluationConverter.convertToFhir(patient, immunization, null);
+
+        assertNotNull(evaluation.getId());
+        assertTrue(evaluation.getTargetDisease().isEmpty());
+        assertTrue(evaluation.getDoseStatus().isEmpty());
+    }
+}
@@ -18,6 +18,7 @@ import java.util.List;
 
 import org.cdsframework.cds.vmr.CdsObjectAssist;
 import org.cdsframework.messageconverter.fhir.convert.utils.IdentifierFactory;
+import org.cdsframework.messageconverter.fhir.convert.utils.RandomIdGenerator;
 import org.hl7.fhir.r4.model.CodeableConcept;
 import org.hl7.fhir.r4.model.Coding;
 import org.hl7.fhir.r4.model.Identifier;
@@ -47,7 +48,7 @@ public class ImmunizationRecommendationConverterTest {
     protected Patient patient = new Patient();
     protected List<SubstanceAdministrationProposal> proposals = new ArrayList<SubstanceAdministrationProposal>();
     protected SubstanceAdministrationProposal proposal = new SubstanceAdministrationProposal();
-    protected SimpleDateFormat dateFormat = new SimpleDateFormat("yyyymmdd");
+    protected SimpleDateFormat dateFormat = new SimpleDateFormat("yyyyMMdd");
     protected ImmunizationRecommendation recommendation = new ImmunizationRecommendation();
     protected IdentifierFactory identifierFactory = new IdentifierFactory();
 
@@ -100,6 +101,27 @@ public class ImmunizationRecommendationConverterTest {
         assertEquals("proposalid", recommendation.getId());
     }
 
+    @Test
+    public void convertToFhirDerivesIdFromPatientIdentifier() {
+        II id = new II();
+        id.setRoot("2.16.840.1.113883.3.795.12.100.11");
+        id.setExtension("patient");
+
+        ImmunizationRecommendation recommendation = this.immunizationRecommendationConverter.convertToFhir(
+            this.patient,
+            id,
+            this.proposals
+        );
+        ImmunizationRecommendation again = this.immunizationRecommendationConverter.convertToFhir(
+            this.patient,
+            id,
+            this.proposals
+        );
+
+        assertEquals(RandomIdGenerator.getInstance().idFor("ImmunizationRecommendation", id), recommendation.getId());
+        assertEquals(recommendation.getId(), again.getId());
+    }
+
     @Test
     public void convertToFhirDoesNotSetDateIfNoTimeInterval() {
         ImmunizationRecommendation recommendation = this.immunizationRecommendationConverter.convertToFhir(
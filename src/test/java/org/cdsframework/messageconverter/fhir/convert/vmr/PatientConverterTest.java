@@ -17,6 +17,7 @@ import java.util.Date;
 import org.cdsframework.cds.vmr.CdsInputWrapper;
 import org.cdsframework.ice.input.IceCdsInputWrapper;
 import org.cdsframework.messageconverter.fhir.convert.utils.IdentifierFactory;
+import org.hl7.fhir.r4.model.DateType;
 import org.hl7.fhir.r4.model.Enumerations;
 import org.hl7.fhir.r4.model.Enumerations.AdministrativeGender;
 import org.hl7.fhir.r4.model.Patient;
@@ -140,7 +141,7 @@ public class PatientConverterTest {
 
     @Test
     public void convertToCdsSetsEvaluatedPersonCorrectly() throws ParseException {
-        SimpleDateFormat dateFormat = new SimpleDateFormat("yyyymmdd");
+        SimpleDateFormat dateFormat = new SimpleDateFormat("yyyyMMdd");
         Date birthDate = dateFormat.parse("20200608");
 
         AdministrativeGender gender = AdministrativeGender.fromCode("male");
@@ -162,7 +163,7 @@ public class PatientConverterTest {
     @Test
     public void convertToCdsSetsBirthTime() throws ParseException {
         Patient patient = new Patient();
-        SimpleDateFormat dateFormat = new SimpleDateFormat("yyyymmdd");
+        SimpleDateFormat dateFormat = new SimpleDateFormat("yyyyMMdd");
         Date birthDate = dateFormat.parse("20200615");
         patient.setBirthDate(birthDate);
 
@@ -171,6 +172,16 @@ public class PatientConverterTest {
         assertNotNull(person.getDemographics().getBirthTime());
     }
 
+    @Test
+    public void convertToCdsWritesMonthOfBirthTime() {
+        Patient patient = new Patient();
+        patient.setBirthDateElement(new DateType("2020-06-08"));
+
+        EvaluatedPerson person = this.patientConverter.convertToCds(patient);
+
+        assertEquals("20200608", person.getDemographics().getBirthTime().getValue());
+    }
+
     @Test
     public void convertToCdsDoesntSetBirthTimeIfNoBirthdate() {
         Patient patient = new Patient();
@@ -0,0 +1,70 @@
+package org.cdsframework.messageconverter.metrics;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+
+import java.util.concurrent.TimeUnit;
+
+import org.cdsframework.messageconverter.metrics.SimpleMetricsRegistry.SimpleTimer;
+import org.hl7.fhir.r4.model.ResourceType;
+import org.junit.Test;
+
+/**
+ * @author Brian Lamb
+ */
+public class SimpleMetricsRegistryTest {
+    protected SimpleMetricsRegistry registry = new SimpleMetricsRegistry();
+
+    @Test
+    public void keySortsTags() {
+        assertEquals("timer", SimpleMetricsRegistry.key("timer"));
+        assertEquals("timer{a=1,b=2}", SimpleMetricsRegistry.key("timer", "b", "2", "a", "1"));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void keyRejectsUnpairedTags() {
+        SimpleMetricsRegistry.key("timer", "a");
+    }
+
+    @Test
+    public void timerIsSharedByNameAndTags() {
+        assertSame(this.registry.timer("timer", "a", "1", "b", "2"), this.registry.timer("timer", "b", "2", "a", "1"));
+        assertNotSame(this.registry.timer("timer", "a", "1"), this.registry.timer("timer", "a", "2"));
+    }
+
+    @Test
+    public void timerKeepsCountTotalAndMax() {
+        SimpleTimer timer = this.registry.timer("timer");
+
+        timer.record(2, TimeUnit.MILLISECONDS);
+        timer.record(500, TimeUnit.MICROSECONDS);
+
+        assertEquals(2, timer.getCount());
+        assertEquals(2.5, timer.getTotalTime(TimeUnit.MILLISECONDS), 0.0001);
+        assertEquals(2.0, timer.getMax(TimeUnit.MILLISECONDS), 0.0001);
+    }
+
+    @Test
+    public void counterAddsUp() {
+        this.registry.counter("counter").increment();
+        this.registry.counter("counter").increment(2);
+
+        assertEquals(3.0, this.registry.getCounters().get("counter").getCount(), 0.0001);
+    }
+
+    @Test
+    public void conversionMetricsTagsEveryStage() {
+        ConversionMetrics metrics = new ConversionMetrics(this.registry);
+
+        metrics.toCds(ResourceType.Patient).record(1, TimeUnit.MILLISECONDS);
+        metrics.toFhir(ResourceType.Immunization).record(1, TimeUnit.MILLISECONDS);
+        metrics.parse(false).record(1, TimeUnit.MILLISECONDS);
+        metrics.assembleBundle().record(1, TimeUnit.MILLISECONDS);
+
+        assertEquals(1, this.registry.getTimers().get("messageconverter.convert{direction=cds,resource=Patient}").getCount());
+        assertEquals(1, this.registry.getTimers().get("messageconverter.convert{direction=fhir,resource=Immunization}").getCount());
+        assertEquals(1, this.registry.getTimers().get("messageconverter.parse{format=json}").getCount());
+        assertEquals(1, this.registry.getTimers().get("messageconverter.assemble{output=Bundle}").getCount());
+    }
+}